@@ -0,0 +1,65 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.admission.GradientLimiter;
+import com.revolut.task.admission.RateLimiter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of admission control per call: concurrency limit and per-client rate limit, use {@code -t} to check contention
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class AdmissionBenchmark {
+
+    private static final int CLIENTS = 10_000;
+
+    private final GradientLimiter concurrencyLimiter = new GradientLimiter(1000, 1000, 1000);
+    /**
+     * Rate high enough that calls are not rejected
+     */
+    private final RateLimiter rateLimiter = new RateLimiter(1e9, 1_000_000, 1 << 16);
+    private final Long[] clients = new Long[CLIENTS];
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = (long) i;
+        }
+    }
+
+    /**
+     * Acquire and release of concurrency limit with latency sample
+     */
+    @Benchmark
+    public boolean concurrencyLimit() {
+        long start = System.nanoTime();
+        boolean result = concurrencyLimiter.tryAcquire();
+        if (result) {
+            concurrencyLimiter.release(start, System.nanoTime());
+        }
+        return result;
+    }
+
+    /**
+     * Token of one client shared by all threads
+     */
+    @Benchmark
+    public boolean rateLimitHotClient() {
+        return rateLimiter.tryAcquire(clients[0]);
+    }
+
+    /**
+     * Token of a random client among 10000
+     */
+    @Benchmark
+    public boolean rateLimitManyClients() {
+        return rateLimiter.tryAcquire(clients[ThreadLocalRandom.current().nextInt(CLIENTS)]);
+    }
+}
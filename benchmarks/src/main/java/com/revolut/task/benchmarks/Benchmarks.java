@@ -0,0 +1,34 @@
+package com.revolut.task.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Helpers shared by benchmarks
+ */
+final class Benchmarks {
+
+    /**
+     * Service logs debug messages by default, it would be measured instead of the service itself
+     */
+    static final String LOG_CONFIG = "-Dlog4j.configurationFile=log4j2-benchmarks.xml";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Delete directory with files
+     */
+    static void delete(@NotNull Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
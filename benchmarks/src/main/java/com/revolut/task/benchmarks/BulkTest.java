@@ -0,0 +1,101 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.bulk.AccountExporter;
+import com.revolut.task.bulk.AccountFormat;
+import com.revolut.task.bulk.AccountImporter;
+import com.revolut.task.bulk.ImportResult;
+import com.revolut.task.dao.AccountsDao;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seeding of many accounts by bulk import and their export.
+ * <p>
+ * Generates a json lines file of accounts, imports it into an in-memory and a durable DAO,
+ * exports the accounts in both formats and imports the binary export again.
+ * <p>
+ * Usage: {@code java -Xmx3g -cp benchmarks.jar com.revolut.task.benchmarks.BulkTest [accounts] [parsers]}
+ */
+public class BulkTest {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int parsers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Path directory = Files.createTempDirectory("bulk");
+        try {
+            Path lines = directory.resolve("accounts.ndjson");
+            try (Writer writer = new BufferedWriter(Files.newBufferedWriter(lines, StandardCharsets.UTF_8), 1 << 16)) {
+                for (int i = 1; i <= count; i++) {
+                    writer.write("{\"id\":" + i + ",\"name\":\"account_" + i + "\",\"balance\":\"" + i + ".25\"}\n");
+                }
+            }
+            report("generated", count, Files.size(lines), 0);
+
+            try (AccountsDao dao = new AccountsDao()) {
+                importFile(dao, lines, AccountFormat.NDJSON, parsers, "import json, in memory");
+
+                Path binary = directory.resolve("accounts.bin");
+                exportFile(dao, lines, AccountFormat.NDJSON, "export json");
+                exportFile(dao, binary, AccountFormat.BINARY, "export binary");
+                try (AccountsDao copy = new AccountsDao()) {
+                    importFile(copy, binary, AccountFormat.BINARY, parsers, "import binary, in memory");
+                }
+            }
+            Path journal = Files.createDirectory(directory.resolve("journal"));
+            try (AccountsDao dao = new AccountsDao(journal, 0)) {
+                importFile(dao, lines, AccountFormat.NDJSON, parsers, "import json, journaled");
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void importFile(AccountsDao dao, Path file, AccountFormat format, int parsers,
+                                   String name) throws IOException {
+        long start = System.nanoTime();
+        ImportResult result;
+        try (InputStream in = Files.newInputStream(file)) {
+            result = new AccountImporter(dao, parsers, AccountImporter.DEFAULT_BATCH_SIZE).run(in, format);
+        }
+        report(name, result.getImported(), Files.size(file), System.nanoTime() - start);
+    }
+
+    private static void exportFile(AccountsDao dao, Path file, AccountFormat format, String name) throws IOException {
+        long start = System.nanoTime();
+        long count;
+        try (OutputStream out = Files.newOutputStream(file)) {
+            count = AccountExporter.write(dao, out, format);
+        }
+        report(name, count, Files.size(file), System.nanoTime() - start);
+    }
+
+    private static void report(String name, long count, long bytes, long nanos) {
+        if (nanos == 0) {
+            System.out.printf("%-26s %,d accounts, %d MB%n", name, count, bytes >> 20);
+        } else {
+            System.out.printf("%-26s %,d accounts, %d MB in %d ms, %,.0f accounts/s%n", name, count, bytes >> 20,
+                    TimeUnit.NANOSECONDS.toMillis(nanos), count * 1e9 / nanos);
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+                for (Path file : files) {
+                    delete(file);
+                }
+            }
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,97 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.codec.BinaryCodec;
+import com.revolut.task.codec.Codec;
+import com.revolut.task.codec.Codecs;
+import com.revolut.task.data.Account;
+import com.revolut.task.protocol.BaseHandler;
+import com.revolut.task.protocol.ResponseBuffer;
+import com.revolut.task.service.AccountService;
+import com.revolut.task.service.Services;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service calls of {@link BaseHandler} in json and binary encoding: request decoding, invocation and result encoding.
+ * Transfer requests are encoded on every call, as a client does, since their correlation ids are unique.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {Benchmarks.LOG_CONFIG, "-Drevolut.rateLimit.transfer=0"})
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    private static final int ACCOUNTS_COUNT = 1000;
+    private static final BigDecimal SUM = new BigDecimal("0.000001");
+
+    @Param({"json", "binary"})
+    public String codecName;
+
+    private Codec codec;
+    private BaseHandler handler;
+    private long[] ids;
+    private byte[] getBalance;
+    private byte[] getHistory;
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        codec = "binary".equals(codecName) ? Codecs.BINARY : Codecs.JSON;
+        handler = new BaseHandler();
+        handler.init();
+        AccountService service = (AccountService) Services.ACCOUNT_SERVICE.getServiceInstance();
+        ids = new long[ACCOUNTS_COUNT];
+        for (int i = 0; i < ACCOUNTS_COUNT; i++) {
+            Account account = service.createAccount("account_" + i, new BigDecimal(1_000_000));
+            ids[i] = account.getId();
+        }
+        for (int i = 0; i < 100; i++) {
+            service.transfer("history_" + i, ids[0], ids[1], SUM);
+        }
+        getBalance = codec == Codecs.BINARY ? BinaryCodec.encode(ids[0])
+                : json(String.format("{\"body\":{\"accountId\":%d}}", ids[0]));
+        getHistory = codec == Codecs.BINARY ? BinaryCodec.encode(ids[0], null, 20)
+                : json(String.format("{\"body\":{\"accountId\":%d,\"limit\":20}}", ids[0]));
+    }
+
+    @Benchmark
+    public ResponseBuffer getBalance() {
+        return call("getBalance", getBalance);
+    }
+
+    @Benchmark
+    public ResponseBuffer getHistory() {
+        return call("getHistory", getHistory);
+    }
+
+    @Benchmark
+    public ResponseBuffer transfer() {
+        long n = counter++;
+        long from = ids[(int) (n % ACCOUNTS_COUNT)];
+        long to = ids[(int) ((n + 1) % ACCOUNTS_COUNT)];
+        String correlationId = "codec_" + n;
+        byte[] body = codec == Codecs.BINARY ? BinaryCodec.encode(correlationId, from, to, SUM)
+                : json("{\"body\":{\"correlationId\":\"" + correlationId + "\",\"fromId\":" + from
+                + ",\"toId\":" + to + ",\"sum\":" + SUM.toPlainString() + "}}");
+        return call("transfer", body);
+    }
+
+    private ResponseBuffer call(String method, byte[] body) {
+        ResponseBuffer response = ResponseBuffer.get();
+        int status = handler.call(method, codec, codec, new ByteArrayInputStream(body), response);
+        if (status != 200) {
+            throw new IllegalStateException(new String(response.array(), 0, response.size(), StandardCharsets.UTF_8));
+        }
+        return response;
+    }
+
+    private static byte[] json(String body) {
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.dao.BlockIdAllocator;
+import com.revolut.task.dao.IdAllocator;
+import com.revolut.task.dao.LockingEngine;
+import com.revolut.task.dao.RandomIdAllocator;
+import com.revolut.task.dao.SnowflakeIdAllocator;
+import com.revolut.task.data.Account;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk account creation with different id allocators, every iteration fills a new in-memory DAO.
+ * Use {@code -t} to see contention of allocators
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {Benchmarks.LOG_CONFIG, "-Xmx3g"})
+@State(Scope.Benchmark)
+public class CreateBenchmark {
+
+    /**
+     * {@code block-<size>}, {@code snowflake} or {@code random}
+     */
+    @Param({"block-1", "block-64", "snowflake", "random"})
+    public String allocator;
+
+    private AccountsDao dao;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        IdAllocator ids;
+        if (allocator.startsWith("block-")) {
+            ids = new BlockIdAllocator(Integer.parseInt(allocator.substring("block-".length())));
+        } else if (allocator.equals("snowflake")) {
+            ids = new SnowflakeIdAllocator(1);
+        } else {
+            ids = new RandomIdAllocator();
+        }
+        dao = new AccountsDao(new LockingEngine(), ids);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        dao.close();
+    }
+
+    @Benchmark
+    public Account createAccount() {
+        return dao.createAccount("account", 1000);
+    }
+}
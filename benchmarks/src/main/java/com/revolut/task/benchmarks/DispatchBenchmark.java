@@ -0,0 +1,53 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.caller.ServiceMethodCaller;
+import com.revolut.task.data.Account;
+import com.revolut.task.protocol.Request;
+import com.revolut.task.service.AccountService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service method call: arguments decoding and invocation
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+    private ServiceMethodCaller getBalance;
+    private ServiceMethodCaller createAccount;
+    private Request getBalanceRequest;
+    private Request createAccountRequest;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        AccountService service = new AccountService();
+        Account account = service.createAccount("account", BigDecimal.TEN);
+
+        getBalance = ServiceMethodCaller.create(service,
+                AccountService.class.getMethod("getBalance", Long.class));
+        getBalanceRequest = new Request();
+        getBalanceRequest.setBody(String.format("{\"accountId\":\"%s\"}", account.getId()));
+
+        createAccount = ServiceMethodCaller.create(service,
+                AccountService.class.getMethod("createAccount", String.class, BigDecimal.class));
+        createAccountRequest = new Request();
+        createAccountRequest.setBody("{\"name\":\"account\", \"sum\":\"100.1\"}");
+    }
+
+    @Benchmark
+    public Object getBalance() throws Exception {
+        return getBalance.call(getBalanceRequest);
+    }
+
+    @Benchmark
+    public Object createAccount() throws Exception {
+        return createAccount.call(createAccountRequest);
+    }
+}
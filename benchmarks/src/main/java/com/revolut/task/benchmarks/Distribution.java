@@ -0,0 +1,56 @@
+package com.revolut.task.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Account choice distributions for contention benchmarks
+ */
+public final class Distribution {
+
+    public static final String UNIFORM = "uniform";
+    /**
+     * Zipf distribution with exponent 1: a few hot accounts get most of operations
+     */
+    public static final String ZIPF = "zipf";
+
+    private Distribution() {
+    }
+
+    /**
+     * Precomputed sequence of account indexes, so sampling cost is not measured
+     *
+     * @param distribution {@link #UNIFORM} or {@link #ZIPF}
+     * @param n            number of accounts
+     * @param count        length of sequence, power of two
+     */
+    @NotNull
+    public static int[] sample(@NotNull String distribution, int n, int count, long seed) {
+        Random random = new Random(seed);
+        int[] result = new int[count];
+        switch (distribution) {
+            case UNIFORM:
+                for (int i = 0; i < count; i++) {
+                    result[i] = random.nextInt(n);
+                }
+                break;
+            case ZIPF:
+                double[] cdf = new double[n];
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    sum += 1.0 / (i + 1);
+                    cdf[i] = sum;
+                }
+                for (int i = 0; i < count; i++) {
+                    int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                    result[i] = Math.min(n - 1, index >= 0 ? index : -index - 1);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown distribution: %s", distribution));
+        }
+        return result;
+    }
+}
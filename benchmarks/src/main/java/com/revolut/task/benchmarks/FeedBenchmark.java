@@ -0,0 +1,78 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.feed.ChangeFeed;
+import com.revolut.task.feed.TransferEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of publishing a transfer event on the transfer path, with a consumer reading events as they come
+ * or without consumers, use {@code -t} to check contention of publishers
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class FeedBenchmark {
+
+    @Param({"0", "1"})
+    public int consumers;
+
+    private final AccountingTransaction transaction = new AccountingTransaction("feed", 1, 2, 1, 0);
+    private ChangeFeed feed;
+    private volatile boolean running;
+    private final List<Thread> threads = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        feed = new ChangeFeed(ChangeFeed.DEFAULT_CAPACITY);
+        running = true;
+        for (int i = 0; i < consumers; i++) {
+            Thread thread = new Thread(this::consume, "Consumer");
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        threads.clear();
+    }
+
+    @Benchmark
+    public ChangeFeed publish() {
+        feed.publish(transaction, 0);
+        return feed;
+    }
+
+    private void consume() {
+        List<TransferEvent> events = new ArrayList<>(100);
+        long next = feed.getHead();
+        try {
+            while (running) {
+                events.clear();
+                long end = feed.read(next, 100, events);
+                if (end == ChangeFeed.OVERWRITTEN) {
+                    next = feed.getHead();
+                } else if (end == next) {
+                    feed.await(next, 100, TimeUnit.MILLISECONDS);
+                } else {
+                    next = end;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
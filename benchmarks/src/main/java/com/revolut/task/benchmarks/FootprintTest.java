@@ -0,0 +1,99 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.Account;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Heap footprint of many stored accounts and garbage collection cost over them.
+ * <p>
+ * Reports heap bytes per account, duration of a full collection and collections done while threads run
+ * random transfers between the accounts.
+ * <p>
+ * Usage: {@code java -Xmx3g -cp benchmarks.jar com.revolut.task.benchmarks.FootprintTest [accounts] [seconds] [threads]}
+ */
+public class FootprintTest {
+
+    private static final Runnable NO_OP = () -> {
+    };
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threadsCount = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        long[] ids = new long[count];
+        long before = usedHeap();
+        AccountsDao dao = new AccountsDao();
+        for (int i = 0; i < count; i++) {
+            Account account = new Account("account_" + i, 1_000_000_000L);
+            dao.addAccount(account);
+            ids[i] = account.getId();
+        }
+        long after = usedHeap();
+        System.out.printf("accounts %d, heap %d MB, %.1f bytes per account%n",
+                count, (after - before) >> 20, (after - before) / (double) count);
+
+        long start = System.nanoTime();
+        System.gc();
+        System.out.printf("full gc %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder transfers = new LongAdder();
+        Thread[] threads = new Thread[threadsCount];
+        for (int t = 0; t < threadsCount; t++) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    Account from = dao.getAccountNotNull(ids[random.nextInt(count)]);
+                    Account to = dao.getAccountNotNull(ids[random.nextInt(count)]);
+                    from.transfer(to, 1, NO_OP);
+                    transfers.increment();
+                }
+            });
+        }
+        long collections = collections();
+        long collectionTime = collectionTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("transfers %.0f/s, gc %d collections, %d ms%n", transfers.sum() / (double) seconds,
+                collections() - collections, collectionTime() - collectionTime);
+        dao.close();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long collections() {
+        long result = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += collector.getCollectionCount();
+        }
+        return result;
+    }
+
+    private static long collectionTime() {
+        long result = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += collector.getCollectionTime();
+        }
+        return result;
+    }
+}
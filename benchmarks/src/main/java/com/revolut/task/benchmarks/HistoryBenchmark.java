@@ -0,0 +1,89 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.dao.Ledger;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountTable;
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.HistoryPage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pages of account history in a full ledger: cost depends on the page size, not on the ledger size
+ * or the number of transfers of the account
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class HistoryBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    private static final int PAGE_SIZE = 100;
+    /**
+     * Account taking part in every tenth transfer
+     */
+    private static final int HOT_ACCOUNT = 0;
+
+    @Param({"1000000"})
+    public int transfers;
+
+    private Ledger ledger;
+    private Account[] accounts;
+    /**
+     * Number of appended transfers, offset of the next one
+     */
+    private final AtomicLong appended = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        ledger = new Ledger(transfers);
+        AccountTable table = new AccountTable();
+        accounts = new Account[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = new Account(i + 1, "account_" + i, 0);
+            table.put(accounts[i]);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < transfers; i++) {
+            append(random);
+        }
+    }
+
+    /**
+     * The newest page of a random account
+     */
+    @Benchmark
+    public HistoryPage firstPage() {
+        return ledger.history(accounts[1 + ThreadLocalRandom.current().nextInt(ACCOUNTS - 1)], Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    /**
+     * A page at a random depth of history of the hot account
+     */
+    @Benchmark
+    public HistoryPage hotAccountPage() {
+        long end = appended.get();
+        return ledger.history(accounts[HOT_ACCOUNT], end - ThreadLocalRandom.current().nextLong(transfers), PAGE_SIZE);
+    }
+
+    /**
+     * Adding a transfer to the full ledger, the oldest segment is dropped meanwhile
+     */
+    @Benchmark
+    public void append() {
+        append(ThreadLocalRandom.current());
+    }
+
+    private void append(ThreadLocalRandom random) {
+        Account from = accounts[random.nextInt(10) == 0 ? HOT_ACCOUNT : 1 + random.nextInt(ACCOUNTS - 1)];
+        Account to = accounts[1 + random.nextInt(ACCOUNTS - 1)];
+        ledger.append(new AccountingTransaction("history", from.getId(), to.getId(), 1, appended.incrementAndGet()),
+                from, to);
+    }
+}
@@ -0,0 +1,74 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.Application;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end calls of BaseHandler over loopback HTTP with keep-alive connection per benchmark thread
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@Threads(8)
+@State(Scope.Benchmark)
+public class HttpBenchmark {
+
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+    @Param({"8090"})
+    public int port;
+
+    private Application application;
+    private String accountId;
+
+    @Setup
+    public void setUp() throws IOException {
+        application = new Application(port);
+        application.start();
+        try (HttpClient client = new HttpClient("localhost", port)) {
+            String account = client.post(client.request("/api/createAccount",
+                    "{\"body\":\"{\\\"name\\\":\\\"account\\\", \\\"sum\\\":\\\"100.1\\\"}\"}"));
+            Matcher matcher = ID.matcher(account);
+            if (!matcher.find()) {
+                throw new IllegalStateException(String.format("Unexpected response: %s", account));
+            }
+            accountId = matcher.group(1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private HttpClient client;
+        private byte[] getBalance;
+
+        @Setup
+        public void setUp(HttpBenchmark benchmark) throws IOException {
+            client = new HttpClient("localhost", benchmark.port);
+            getBalance = client.request("/api/getBalance",
+                    String.format("{\"body\":\"{\\\"accountId\\\":\\\"%s\\\"}\"}", benchmark.accountId));
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public String getBalance(Connection connection) throws IOException {
+        return connection.client.post(connection.getBalance);
+    }
+}
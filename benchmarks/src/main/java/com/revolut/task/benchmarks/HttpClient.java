@@ -0,0 +1,125 @@
+package com.revolut.task.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP/1.1 client over a single keep-alive connection.
+ * Every request is sent by one write with TCP_NODELAY, so client side Nagle delays are not measured.
+ */
+public class HttpClient implements Closeable {
+
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+
+    @NotNull
+    private final Socket socket;
+    @NotNull
+    private final OutputStream out;
+    @NotNull
+    private final InputStream in;
+    @NotNull
+    private final String host;
+    private byte[] buffer = new byte[8192];
+
+    public HttpClient(@NotNull String host, int port) throws IOException {
+        this.host = host;
+        this.socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port));
+        this.out = socket.getOutputStream();
+        this.in = socket.getInputStream();
+    }
+
+    /**
+     * Prepare request bytes once to reuse them
+     */
+    @NotNull
+    public byte[] request(@NotNull String path, @NotNull String body) {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        byte[] headers = String.format("POST %s HTTP/1.1\r\nHost: %s\r\nContent-Type: application/json\r\n" +
+                "Content-Length: %d\r\n\r\n", path, host, content.length).getBytes(StandardCharsets.US_ASCII);
+        byte[] result = new byte[headers.length + content.length];
+        System.arraycopy(headers, 0, result, 0, headers.length);
+        System.arraycopy(content, 0, result, headers.length, content.length);
+        return result;
+    }
+
+    /**
+     * Send request and read response
+     *
+     * @return response body
+     */
+    @NotNull
+    public String post(@NotNull byte[] request) throws IOException {
+        out.write(request);
+        out.flush();
+        int length = 0;
+        int headersEnd;
+        while ((headersEnd = indexOfHeadersEnd(length)) < 0) {
+            length = read(length);
+        }
+        int contentLength = contentLength(headersEnd);
+        while (length < headersEnd + contentLength) {
+            length = read(length);
+        }
+        return new String(buffer, headersEnd, contentLength, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private int read(int length) throws IOException {
+        if (length == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        int read = in.read(buffer, length, buffer.length - length);
+        if (read < 0) {
+            throw new IOException("Connection closed");
+        }
+        return length + read;
+    }
+
+    private int indexOfHeadersEnd(int length) {
+        for (int i = 3; i < length; i++) {
+            if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int contentLength(int headersEnd) throws IOException {
+        for (int i = 0; i + CONTENT_LENGTH.length < headersEnd; i++) {
+            if (buffer[i] == '\n' && startsWithIgnoreCase(i + 1, CONTENT_LENGTH)) {
+                int value = 0;
+                for (int j = i + 1 + CONTENT_LENGTH.length; buffer[j] != '\r'; j++) {
+                    if (buffer[j] != ' ') {
+                        value = value * 10 + buffer[j] - '0';
+                    }
+                }
+                return value;
+            }
+        }
+        throw new IOException("Content-Length is missing");
+    }
+
+    private boolean startsWithIgnoreCase(int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (Character.toLowerCase(buffer[offset + i]) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
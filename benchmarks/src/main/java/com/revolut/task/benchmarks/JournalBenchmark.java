@@ -0,0 +1,64 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.TransferStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable transfers: every operation waits for fsync of the journal, concurrent ones share it.
+ * Compare results with different {@code -t} to see group commit at work.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@Threads(32)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    private static final int ACCOUNTS_COUNT = 1000;
+
+    private Path directory;
+    private AccountsDao dao;
+    private Long[] ids;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-benchmark");
+        dao = new AccountsDao(directory, 0);
+        ids = new Long[ACCOUNTS_COUNT];
+        for (int i = 0; i < ACCOUNTS_COUNT; i++) {
+            Account account = new Account("account_" + i, 1_000_000_000_000_000L);
+            dao.addAccount(account);
+            ids[i] = account.getId();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dao.close();
+        Benchmarks.delete(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private long counter;
+        private final String prefix = Long.toHexString(ThreadLocalRandom.current().nextLong()) + "_";
+    }
+
+    @Benchmark
+    public TransferStatus durableTransfer(Cursor cursor) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return dao.transfer(cursor.prefix + cursor.counter++,
+                ids[random.nextInt(ACCOUNTS_COUNT)], ids[random.nextInt(ACCOUNTS_COUNT)], 1);
+    }
+}
@@ -0,0 +1,351 @@
+package com.revolut.task.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many concurrent keep-alive connections against a server started in a separate process.
+ * <p>
+ * Every connection sends getBalance, waits for the response and repeats after a pause,
+ * some connections are slow clients sending request body only after a delay.
+ * Reports throughput, latency percentiles, requests rejected by admission control, failed connections
+ * and server threads and heap.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.revolut.task.benchmarks.LoadTest <pool|virtual|nio> [connections]
+ * [seconds] [pause ms] [slow %]}, {@code revolut.*} and {@code sun.net.httpserver.*} properties are passed to the server.
+ */
+public class LoadTest {
+
+    private static final int PORT = 8095;
+    private static final long SLOW_BODY_DELAY = TimeUnit.SECONDS.toNanos(1);
+    private static final int CONNECTS_PER_MILLISECOND = 20;
+    private static final long RAMP_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private final int connections;
+    private final long pause;
+    private final int slowPercent;
+    private final Selector selector;
+    private final ArrayDeque<Connection> scheduled = new ArrayDeque<>();
+    private final ArrayDeque<Connection> slowBodies = new ArrayDeque<>();
+    private byte[] headers;
+    private byte[] body;
+
+    private long[] latencies = new long[1 << 16];
+    private int completed;
+    private int rejected;
+    private int connected;
+    private int failed;
+    private boolean measuring;
+
+    private LoadTest(int connections, long pause, int slowPercent) throws IOException {
+        this.connections = connections;
+        this.pause = pause;
+        this.slowPercent = slowPercent;
+        this.selector = Selector.open();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "nio";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        long pause = TimeUnit.MILLISECONDS.toNanos(args.length > 3 ? Long.parseLong(args[3]) : 1000);
+        int slowPercent = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+        Process server = startServer(mode);
+        AtomicInteger serverThreads = new AtomicInteger();
+        AtomicInteger serverHeap = new AtomicInteger();
+        try {
+            BufferedReader output = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.US_ASCII));
+            String accountId = awaitReady(output);
+            Thread stats = new Thread(() -> readStats(output, serverThreads, serverHeap), "ServerStats");
+            stats.setDaemon(true);
+            stats.start();
+
+            LoadTest test = new LoadTest(connections, pause, slowPercent);
+            test.prepareRequest(accountId);
+            test.run(TimeUnit.SECONDS.toNanos(seconds));
+            test.report(mode, seconds, serverThreads.get(), serverHeap.get());
+        } finally {
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    @NotNull
+    private static Process startServer(@NotNull String mode) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-Xmx1g", Benchmarks.LOG_CONFIG,
+                "-Drevolut.server.mode=" + mode));
+        // server settings given to the test are passed to the server
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("revolut.") || name.startsWith("sun.net.httpserver.")) {
+                command.add(String.format("-D%s=%s", name, System.getProperty(name)));
+            }
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                LoadTestServer.class.getName(), String.valueOf(PORT)));
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    @NotNull
+    private static String awaitReady(@NotNull BufferedReader reader) throws IOException {
+        for (String line; (line = reader.readLine()) != null; ) {
+            if (line.startsWith("ready ")) {
+                return line.substring("ready ".length());
+            }
+            System.out.println(line);
+        }
+        throw new IllegalStateException("Server exited");
+    }
+
+    private static void readStats(@NotNull BufferedReader reader, @NotNull AtomicInteger threads, @NotNull AtomicInteger heap) {
+        try {
+            for (String line; (line = reader.readLine()) != null; ) {
+                String[] fields = line.split(" ");
+                if (fields.length == 3 && fields[0].equals("stats")) {
+                    threads.accumulateAndGet(Integer.parseInt(fields[1]), Math::max);
+                    heap.accumulateAndGet(Integer.parseInt(fields[2]), Math::max);
+                } else {
+                    System.out.println(line);
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void prepareRequest(@NotNull String accountId) {
+        body = String.format("{\"body\":{\"accountId\":%s}}", accountId).getBytes(StandardCharsets.UTF_8);
+        headers = String.format("POST /api/getBalance HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n" +
+                "Content-Length: %d\r\n\r\n", body.length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void run(long duration) throws IOException {
+        long start = System.nanoTime();
+        int opened = 0;
+        long measureStart = Long.MAX_VALUE;
+        long end = Long.MAX_VALUE;
+        while (System.nanoTime() < end) {
+            long now = System.nanoTime();
+            if (opened < connections) {
+                long due = Math.min(connections, TimeUnit.NANOSECONDS.toMillis(now - start) * CONNECTS_PER_MILLISECOND + 1);
+                for (; opened < due; opened++) {
+                    connect(opened);
+                }
+            } else if (measureStart == Long.MAX_VALUE && (connected + failed >= connections || now - start > RAMP_TIMEOUT)) {
+                // measure after all connections are established and got first responses
+                measureStart = now + pause + SLOW_BODY_DELAY;
+                end = measureStart + duration;
+                System.out.printf("Connected %d, failed %d in %d ms%n", connected, failed,
+                        TimeUnit.NANOSECONDS.toMillis(now - start));
+            }
+            measuring = now >= measureStart;
+
+            sendDue(now);
+            selector.select(1);
+            for (SelectionKey key : selector.selectedKeys()) {
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isConnectable()) {
+                        connection.onConnect();
+                    } else if (key.isReadable()) {
+                        connection.onRead();
+                    }
+                } catch (IOException e) {
+                    connection.fail();
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private void connect(int index) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel, index * 100L / connections < slowPercent);
+        connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+        try {
+            if (channel.connect(new InetSocketAddress("localhost", PORT))) {
+                connection.onConnect();
+            }
+        } catch (IOException e) {
+            connection.fail();
+        }
+    }
+
+    private void sendDue(long now) {
+        while (!scheduled.isEmpty() && scheduled.peekFirst().nextSend <= now) {
+            Connection connection = scheduled.pollFirst();
+            try {
+                connection.sendHeaders(now);
+            } catch (IOException e) {
+                connection.fail();
+            }
+        }
+        while (!slowBodies.isEmpty() && slowBodies.peekFirst().nextSend <= now) {
+            Connection connection = slowBodies.pollFirst();
+            try {
+                connection.sendBody();
+            } catch (IOException e) {
+                connection.fail();
+            }
+        }
+    }
+
+    private void record(long latency) {
+        if (!measuring) {
+            return;
+        }
+        if (completed == latencies.length) {
+            latencies = Arrays.copyOf(latencies, completed * 2);
+        }
+        latencies[completed++] = latency;
+    }
+
+    private void report(@NotNull String mode, int seconds, int serverThreads, int serverHeap) {
+        long[] sorted = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sorted);
+        System.out.printf("mode %s, connections %d (%d%% slow), failed %d%n", mode, connections, slowPercent, failed);
+        System.out.printf("throughput %.0f req/s, rejected with 503 %.0f req/s%n",
+                completed / (double) seconds, rejected / (double) seconds);
+        System.out.printf("latency ms p50 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+                percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 1));
+        System.out.printf("server threads %d, heap %d MB%n", serverThreads, serverHeap);
+    }
+
+    private static double percentile(@NotNull long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final boolean slow;
+        private final ByteBuffer in = ByteBuffer.allocate(1024);
+        private SelectionKey key;
+        private long nextSend;
+        private long sentAt;
+
+        private Connection(SocketChannel channel, boolean slow) {
+            this.channel = channel;
+            this.slow = slow;
+        }
+
+        void onConnect() throws IOException {
+            channel.finishConnect();
+            connected++;
+            key.interestOps(SelectionKey.OP_READ);
+            sendHeaders(System.nanoTime());
+        }
+
+        void sendHeaders(long now) throws IOException {
+            sentAt = now;
+            if (slow) {
+                write(headers);
+                nextSend = now + SLOW_BODY_DELAY;
+                slowBodies.addLast(this);
+            } else {
+                write(headers);
+                write(body);
+            }
+        }
+
+        void sendBody() throws IOException {
+            write(body);
+        }
+
+        void onRead() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new ConnectException("Connection closed by server");
+            }
+            int headersEnd = indexOfHeadersEnd();
+            if (headersEnd < 0) {
+                return;
+            }
+            int length = contentLength(headersEnd);
+            if (in.position() < headersEnd + length) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (isOverloaded()) {
+                // answered at once with 503, not a served request
+                if (measuring) {
+                    rejected++;
+                }
+            } else {
+                record(now - sentAt - (slow ? SLOW_BODY_DELAY : 0));
+            }
+            in.clear();
+            nextSend = now + pause;
+            scheduled.addLast(this);
+        }
+
+        void fail() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            failed++;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        private boolean isOverloaded() {
+            byte[] bytes = in.array();
+            return bytes[9] == '5' && bytes[10] == '0' && bytes[11] == '3';
+        }
+
+        private int indexOfHeadersEnd() {
+            byte[] bytes = in.array();
+            for (int i = 3; i < in.position(); i++) {
+                if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private int contentLength(int headersEnd) throws IOException {
+            String headers = new String(in.array(), 0, headersEnd, StandardCharsets.US_ASCII).toLowerCase();
+            int start = headers.indexOf("content-length:");
+            if (start < 0) {
+                throw new IOException("Content-Length is missing");
+            }
+            start += "content-length:".length();
+            return Integer.parseInt(headers.substring(start, headers.indexOf('\r', start)).trim());
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.Application;
+import com.revolut.task.data.Account;
+import com.revolut.task.service.AccountService;
+import com.revolut.task.service.Services;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+
+/**
+ * Server process of {@link LoadTest}, reports its thread count and heap usage every second
+ */
+public class LoadTestServer {
+
+    public static void main(String[] args) throws Exception {
+        Application application = new Application(Integer.parseInt(args[0]));
+        application.start();
+        AccountService service = (AccountService) Services.ACCOUNT_SERVICE.getServiceInstance();
+        Account account = service.createAccount("account", BigDecimal.TEN);
+        System.out.printf("ready %d%n", account.getId());
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        while (!Thread.currentThread().isInterrupted()) {
+            Thread.sleep(1000);
+            System.out.printf("stats %d %d%n", threads.getThreadCount(), memory.getHeapMemoryUsage().getUsed() >> 20);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.Account;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Account lookup and balance reads by id
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+    private static final int BALANCES = 8;
+
+    @Param({"10000", "1000000"})
+    public int accountsCount;
+
+    private AccountsDao dao;
+    private Long[] ids;
+    private List<Long> idsList;
+
+    @Setup
+    public void setUp() {
+        dao = new AccountsDao();
+        Long[] created = new Long[accountsCount];
+        for (int i = 0; i < accountsCount; i++) {
+            Account account = new Account("account_" + i, 1000);
+            dao.addAccount(account);
+            created[i] = account.getId();
+        }
+        int[] samples = Distribution.sample(Distribution.UNIFORM, accountsCount, SAMPLES, 42);
+        ids = new Long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            ids[i] = created[samples[i]];
+        }
+        idsList = Arrays.asList(ids);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position = ThreadLocalRandom.current().nextInt(SAMPLES);
+
+        int next() {
+            position = (position + 1) & (SAMPLES - 1);
+            return position;
+        }
+    }
+
+    @Benchmark
+    public Account getAccountNotNull(Cursor cursor) {
+        return dao.getAccountNotNull(ids[cursor.next()]);
+    }
+
+    /**
+     * Balance read through account view
+     */
+    @Benchmark
+    public long viewBalance(Cursor cursor) {
+        return dao.getAccountNotNull(ids[cursor.next()]).getBalanceUnits();
+    }
+
+    /**
+     * Balance read without account view
+     */
+    @Benchmark
+    public long getBalanceUnits(Cursor cursor) {
+        return dao.getBalanceUnits(ids[cursor.next()]);
+    }
+
+    /**
+     * Consistent balances of several accounts
+     */
+    @Benchmark
+    public long[] getBalancesUnits(Cursor cursor) {
+        int from = cursor.next() & (SAMPLES - BALANCES);
+        return dao.getBalancesUnits(idsList.subList(from, from + BALANCES));
+    }
+}
@@ -0,0 +1,41 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.metrics.Histogram;
+import com.revolut.task.metrics.MethodMetrics;
+import com.revolut.task.metrics.Metrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording metrics on hot paths, use {@code -t} to check contention and {@code -prof gc} to check allocations
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    private final Histogram histogram = new Histogram();
+    private final MethodMetrics method = Metrics.method("benchmark");
+
+    /**
+     * Latency record
+     */
+    @Benchmark
+    public void histogramRecord() {
+        histogram.record(ThreadLocalRandom.current().nextLong(1_000_000));
+    }
+
+    /**
+     * Call counter, error counter and latency record of a service method call
+     */
+    @Benchmark
+    public void methodRecord() {
+        long nanos = ThreadLocalRandom.current().nextLong(1_000_000);
+        method.record(nanos, nanos < 1000);
+    }
+}
@@ -0,0 +1,84 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.Application;
+import com.revolut.task.protocol.ServerMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * getBalance calls of nio server: keep-alive HTTP connection per thread against one multiplexed connection shared by all threads
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@Threads(8)
+@State(Scope.Benchmark)
+public class MultiplexBenchmark {
+
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+    @Param({"8091"})
+    public int port;
+
+    private Application application;
+    private MultiplexClient multiplexClient;
+    private String getBalanceBody;
+    private byte[] getBalanceFrame;
+
+    @Setup
+    public void setUp() throws IOException {
+        application = new Application(port, ServerMode.NIO);
+        application.start();
+        try (HttpClient client = new HttpClient("localhost", port)) {
+            String account = client.post(client.request("/api/createAccount", "{\"body\":{\"name\":\"account\",\"sum\":\"100.1\"}}"));
+            Matcher matcher = ID.matcher(account);
+            if (!matcher.find()) {
+                throw new IllegalStateException(String.format("Unexpected response: %s", account));
+            }
+            getBalanceBody = String.format("{\"body\":{\"accountId\":%s}}", matcher.group(1));
+        }
+        multiplexClient = new MultiplexClient("localhost", port);
+        getBalanceFrame = multiplexClient.request("getBalance", getBalanceBody);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        multiplexClient.close();
+        application.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private HttpClient client;
+        private byte[] getBalance;
+
+        @Setup
+        public void setUp(MultiplexBenchmark benchmark) throws IOException {
+            client = new HttpClient("localhost", benchmark.port);
+            getBalance = client.request("/api/getBalance", benchmark.getBalanceBody);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public String http(Connection connection) throws IOException {
+        return connection.client.post(connection.getBalance);
+    }
+
+    @Benchmark
+    public String multiplexed() throws IOException, ExecutionException, InterruptedException {
+        return multiplexClient.call(getBalanceFrame).get();
+    }
+}
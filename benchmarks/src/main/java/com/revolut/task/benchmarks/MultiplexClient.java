@@ -0,0 +1,123 @@
+package com.revolut.task.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client of multiplexed connection of nio server, shared by threads.
+ * Calls are sent as frames under a lock, responses are read by a separate thread and matched by frame id.
+ */
+public class MultiplexClient implements Closeable {
+
+    @NotNull
+    private final Socket socket;
+    @NotNull
+    private final OutputStream out;
+    @NotNull
+    private final DataInputStream in;
+    private final Map<Integer, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    public MultiplexClient(@NotNull String host, int port) throws IOException {
+        this.socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port));
+        this.out = socket.getOutputStream();
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out.write(String.format("GET /api/multiplex HTTP/1.1\r\nHost: %s\r\nConnection: Upgrade\r\nUpgrade: multiplex\r\n\r\n",
+                host).getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        String response = readHeaders();
+        if (!response.startsWith("HTTP/1.1 101")) {
+            socket.close();
+            throw new IOException(String.format("Upgrade failed: %s", response));
+        }
+        Thread reader = new Thread(this::readFrames, "MultiplexClient");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Prepare request frame once to reuse it, id is set on every call
+     */
+    @NotNull
+    public byte[] request(@NotNull String method, @NotNull String body) {
+        byte[] name = method.getBytes(StandardCharsets.US_ASCII);
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(9 + name.length + content.length);
+        frame.putInt(frame.capacity() - 4).putInt(0).put((byte) name.length).put(name).put(content);
+        return frame.array();
+    }
+
+    /**
+     * Send request frame
+     *
+     * @return response body, completed exceptionally if status is not 200
+     */
+    @NotNull
+    public CompletableFuture<String> call(@NotNull byte[] request) throws IOException {
+        int id = ids.incrementAndGet();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        pending.put(id, result);
+        synchronized (out) {
+            ByteBuffer.wrap(request).putInt(4, id);
+            out.write(request);
+            out.flush();
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void readFrames() {
+        try {
+            while (true) {
+                byte[] body = new byte[in.readInt() - 6];
+                int id = in.readInt();
+                int status = in.readShort();
+                in.readFully(body);
+                CompletableFuture<String> result = pending.remove(id);
+                String response = new String(body, StandardCharsets.UTF_8);
+                if (status == 200) {
+                    result.complete(response);
+                } else {
+                    result.completeExceptionally(new IOException(String.format("Status %d: %s", status, response)));
+                }
+            }
+        } catch (IOException e) {
+            for (CompletableFuture<String> result : pending.values()) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    @NotNull
+    private String readHeaders() throws IOException {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        while (!headers.toString("US-ASCII").endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed");
+            }
+            headers.write(b);
+        }
+        return headers.toString("US-ASCII");
+    }
+}
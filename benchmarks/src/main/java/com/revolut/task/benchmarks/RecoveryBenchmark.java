@@ -0,0 +1,105 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.TransferBatch;
+import com.revolut.task.data.TransferStatus;
+import com.revolut.task.journal.Journal;
+import com.revolut.task.journal.JournalListener;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restart time of durable AccountsDao: replay of the whole journal vs snapshot and journal tail
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {Benchmarks.LOG_CONFIG, "-Xmx8g"})
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int accountsCount;
+
+    /**
+     * Number of transfers per account
+     */
+    @Param({"5"})
+    public int transfersPerAccount;
+
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("recovery-benchmark");
+        try (Journal journal = Journal.open(directory, new Ignore())) {
+            for (int i = 0; i < accountsCount; i++) {
+                journal.appendAccount(i + 1, "account_" + i, 1_000_000);
+            }
+            Random random = new Random(42);
+            long timestamp = System.currentTimeMillis();
+            for (long i = 0; i < (long) accountsCount * transfersPerAccount; i++) {
+                journal.appendTransfer(new AccountingTransaction("corrId_" + i,
+                        random.nextInt(accountsCount) + 1, random.nextInt(accountsCount) + 1, 1, timestamp));
+            }
+            journal.sync();
+        }
+        if (snapshot) {
+            try (AccountsDao dao = new AccountsDao(directory, 0)) {
+                dao.snapshot();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Benchmarks.delete(directory);
+    }
+
+    @Benchmark
+    public AccountsDao recover() throws IOException {
+        AccountsDao dao = new AccountsDao(directory, 0);
+        dao.close();
+        return dao;
+    }
+
+    private static class Ignore implements JournalListener {
+
+        @Override
+        public void onAccount(long id, @NotNull String name, long balance) {
+        }
+
+        @Override
+        public void onTransfer(@NotNull AccountingTransaction transaction) {
+        }
+
+        @Override
+        public void onTransferBatch(@NotNull TransferBatch batch, @NotNull TransferStatus[] statuses) {
+        }
+
+        @Override
+        public void onTransferResult(@NotNull String correlationId, long fingerprint,
+                                     @NotNull TransferStatus status, long timestamp) {
+        }
+
+        @Override
+        public void onBatchResult(@NotNull String correlationId, long fingerprint,
+                                  @NotNull TransferStatus[] statuses, long timestamp) {
+        }
+
+        @Override
+        public void onLedgerEntry(long offset, @NotNull AccountingTransaction transaction) {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.TransferStatus;
+import com.revolut.task.replication.ReplicationClient;
+import com.revolut.task.replication.ReplicationServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable transfers on the leader with a replica following it over loopback TCP: asynchronous replication
+ * ({@code syncTimeout=0}) against semi-synchronous one, where a transfer also waits for the replica to acknowledge it
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@Threads(32)
+@State(Scope.Benchmark)
+public class ReplicationBenchmark {
+
+    private static final int ACCOUNTS_COUNT = 1000;
+
+    @Param({"0", "1000"})
+    public long syncTimeout;
+
+    private Path leaderDirectory;
+    private Path replicaDirectory;
+    private AccountsDao leader;
+    private AccountsDao replica;
+    private ReplicationServer server;
+    private ReplicationClient client;
+    private Long[] ids;
+
+    @Setup
+    public void setUp() throws IOException {
+        leaderDirectory = Files.createTempDirectory("leader-benchmark");
+        replicaDirectory = Files.createTempDirectory("replica-benchmark");
+        leader = new AccountsDao(leaderDirectory, 0);
+        server = new ReplicationServer(leader, 0, syncTimeout);
+        replica = new AccountsDao(replicaDirectory, 0);
+        replica.setReplica(true);
+        client = new ReplicationClient(replica, new InetSocketAddress("localhost", server.getPort()));
+        client.start();
+        ids = new Long[ACCOUNTS_COUNT];
+        for (int i = 0; i < ACCOUNTS_COUNT; i++) {
+            Account account = new Account("account_" + i, 1_000_000_000_000_000L);
+            leader.addAccount(account);
+            ids[i] = account.getId();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        replica.close();
+        leader.close();
+        Benchmarks.delete(replicaDirectory);
+        Benchmarks.delete(leaderDirectory);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private long counter;
+        private final String prefix = Long.toHexString(ThreadLocalRandom.current().nextLong()) + "_";
+    }
+
+    @Benchmark
+    public TransferStatus replicatedTransfer(Cursor cursor) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return leader.transfer(cursor.prefix + cursor.counter++,
+                ids[random.nextInt(ACCOUNTS_COUNT)], ids[random.nextInt(ACCOUNTS_COUNT)], 1);
+    }
+}
@@ -0,0 +1,96 @@
+package com.revolut.task.benchmarks;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.dao.LockingEngine;
+import com.revolut.task.dao.ShardedEngine;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.TransferStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Money transfers under uniform and skewed account contention, with locking and sharded single writer engines.
+ * Run with {@code -t} to set number of threads and {@code -prof gc} to see allocations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+    private static final Runnable NO_OP = () -> {
+    };
+
+    @Param({"10000"})
+    public int accountsCount;
+
+    @Param({Distribution.UNIFORM, Distribution.ZIPF})
+    public String distribution;
+
+    /**
+     * Engine of {@link #daoTransfer}: locking or sharded with the given number of shards
+     */
+    @Param({"locking", "sharded-4"})
+    public String engine;
+
+    private AccountsDao dao;
+    private Account[] accounts;
+    private int[] samples;
+
+    @Setup
+    public void setUp() {
+        dao = new AccountsDao(engine.startsWith("sharded-")
+                ? new ShardedEngine(Integer.parseInt(engine.substring("sharded-".length())), 1024)
+                : new LockingEngine());
+        accounts = new Account[accountsCount];
+        for (int i = 0; i < accountsCount; i++) {
+            accounts[i] = new Account((long) i + 1, "account_" + i, 1_000_000_000_000_000L);
+            dao.addAccount(accounts[i]);
+        }
+        samples = Distribution.sample(distribution, accountsCount, SAMPLES, 42);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dao.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position = ThreadLocalRandom.current().nextInt(SAMPLES);
+        private long counter;
+        private final String prefix = Long.toHexString(ThreadLocalRandom.current().nextLong()) + "_";
+
+        int next() {
+            position = (position + 1) & (SAMPLES - 1);
+            return position;
+        }
+    }
+
+    /**
+     * Lock ordered transfer itself
+     */
+    @Benchmark
+    public TransferStatus accountTransfer(Cursor cursor) {
+        Account from = accounts[samples[cursor.next()]];
+        Account to = accounts[samples[cursor.next()]];
+        return from.transfer(to, 1, NO_OP);
+    }
+
+    /**
+     * Transfer with account lookup and idempotency check
+     */
+    @Benchmark
+    public TransferStatus daoTransfer(Cursor cursor) {
+        Account from = accounts[samples[cursor.next()]];
+        Account to = accounts[samples[cursor.next()]];
+        return dao.transfer(cursor.prefix + cursor.counter++, from.getId(), to.getId(), 1);
+    }
+}
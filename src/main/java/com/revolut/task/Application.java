@@ -1,48 +1,172 @@
-package com.revolut.task;
-
-import com.revolut.task.protocol.BaseHandler;
-import com.sun.net.httpserver.HttpServer;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
-
-public class Application {
-
-    private static final Logger LOG = LogManager.getLogger(Application.class);
-
-    /**
-     * The Port number of running RESTfull service
-     */
-    private int port;
-    private BaseHandler baseHandler;
-    private HttpServer httpServer;
-
-    public Application(int port) {
-        this.port = port;
-        this.baseHandler = new BaseHandler();
-    }
-
-    public void start() throws IOException {
-        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
-
-        // 200 just because apache Tomcat use 200 threads in pool by default
-        httpServer.setExecutor(Executors.newFixedThreadPool(200, r -> {
-            Thread thread = new Thread(r);
-            // to see application threads in logs
-            thread.setName(String.format("%s-%04d", "MainExecutor", thread.getId()));
-            return thread;
-        }));
-        baseHandler.init();
-        httpServer.createContext("/api", baseHandler::handle);
-        httpServer.start();
-        LOG.info(String.format("Server started successfully port:%d", port));
-    }
-
-    public void stop() {
-        httpServer.stop(0);
-        LOG.info("Server stopped");
-    }
-}
+package com.revolut.task;
+
+import com.revolut.task.metrics.Metrics;
+import com.revolut.task.protocol.BaseHandler;
+import com.revolut.task.protocol.BulkHandler;
+import com.revolut.task.protocol.FeedHandler;
+import com.revolut.task.protocol.LoadShedder;
+import com.revolut.task.protocol.MetricsHandler;
+import com.revolut.task.protocol.NioHttpServer;
+import com.revolut.task.protocol.ReplicationHandler;
+import com.revolut.task.protocol.ServerMode;
+import com.revolut.task.replication.Replication;
+import com.revolut.task.service.AccountService;
+import com.revolut.task.service.Services;
+import com.revolut.task.utils.Settings;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class Application {
+
+    private static final Logger LOG = LogManager.getLogger(Application.class);
+
+    /**
+     * The Port number of running RESTfull service
+     */
+    private int port;
+    @NotNull
+    private ServerMode mode;
+    private BaseHandler baseHandler;
+    private HttpServer httpServer;
+    private NioHttpServer nioServer;
+    private ExecutorService executor;
+    private LoadShedder loadShedder;
+    private FeedHandler feedHandler;
+    private Replication replication;
+
+    public Application(int port) {
+        this(port, ServerMode.fromSettings());
+    }
+
+    public Application(int port, @NotNull ServerMode mode) {
+        this.port = port;
+        this.mode = mode;
+        this.baseHandler = new BaseHandler();
+    }
+
+    public void start() throws IOException {
+        // 200 just because apache Tomcat use 200 threads in pool by default,
+        // nio workers never wait for clients, they need only to cover waits for journal flushes
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Settings.getInt(Settings.SERVER_THREADS, mode == ServerMode.NIO ? Math.max(8, 4 * cores) : 200);
+        int backlog = Settings.getInt(Settings.SERVER_BACKLOG, 1024);
+        int queueSize = Settings.getInt(Settings.SERVER_QUEUE_SIZE, 1024);
+        InetSocketAddress address = new InetSocketAddress(port);
+        baseHandler.init();
+        // a replica is read-only before it serves requests
+        replication = Replication.fromSettings(((AccountService) Services.ACCOUNT_SERVICE.getServiceInstance()).getDao());
+
+        if (mode == ServerMode.VIRTUAL) {
+            executor = newVirtualThreadExecutor();
+            if (executor == null) {
+                LOG.warn("Virtual threads are not supported by runtime, fixed pool of threads is used");
+                mode = ServerMode.POOL;
+            }
+        }
+        if (mode == ServerMode.NIO) {
+            // nio server answers requests rejected by the full queue with 503 itself
+            executor = newFixedThreadPool("Worker", threads, queueSize, new ThreadPoolExecutor.AbortPolicy());
+            nioServer = new NioHttpServer(address, backlog,
+                    Settings.getInt(Settings.SERVER_EVENT_LOOPS, cores),
+                    Settings.getInt(Settings.SERVER_MAX_REQUEST_SIZE, 16 * 1024 * 1024),
+                    baseHandler, executor);
+            nioServer.start();
+        } else {
+            loadShedder = new LoadShedder(queueSize);
+            if (executor == null) {
+                executor = newFixedThreadPool("MainExecutor", threads, queueSize, loadShedder);
+            }
+            // JDK server waits for delayed ACK on small responses otherwise
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            httpServer = HttpServer.create(address, backlog);
+            httpServer.setExecutor(executor);
+            httpServer.createContext("/api", baseHandler::handle).getFilters().add(loadShedder);
+            // metrics are served even under overload
+            httpServer.createContext("/metrics", new MetricsHandler());
+            httpServer.createContext("/bulk", new BulkHandler()).getFilters().add(loadShedder);
+            feedHandler = new FeedHandler();
+            httpServer.createContext("/events", feedHandler).getFilters().add(loadShedder);
+            // failover is done under overload too
+            httpServer.createContext("/replication", new ReplicationHandler(replication));
+            httpServer.start();
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            BlockingQueue<Runnable> queue = ((ThreadPoolExecutor) executor).getQueue();
+            Metrics.gauge("revolut_executor_queue_depth", "Requests waiting for a handling thread", queue::size);
+        }
+        LOG.info(String.format("Server started successfully port:%d mode:%s", port, mode));
+    }
+
+    public void stop() {
+        if (nioServer != null) {
+            try {
+                nioServer.close();
+            } catch (IOException e) {
+                LOG.warn("Server close failed", e);
+            }
+        }
+        if (feedHandler != null) {
+            feedHandler.close();
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        executor.shutdown();
+        if (loadShedder != null) {
+            loadShedder.close();
+        }
+        if (replication != null) {
+            try {
+                replication.close();
+            } catch (IOException e) {
+                LOG.warn("Replication close failed", e);
+            }
+        }
+        LOG.info("Server stopped");
+    }
+
+    /**
+     * Fixed pool of threads with a bounded queue, so under overload requests are rejected instead of waiting
+     * in an ever growing queue
+     */
+    @NotNull
+    private static ExecutorService newFixedThreadPool(@NotNull String name, int threads, int queueSize,
+                                                      @NotNull RejectedExecutionHandler rejectionHandler) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueSize),
+                r -> {
+                    Thread thread = new Thread(r);
+                    // to see application threads in logs
+                    thread.setName(String.format("%s-%04d", name, thread.getId()));
+                    return thread;
+                }, rejectionHandler);
+    }
+
+    /**
+     * Executor starting a virtual thread per task, looked up reflectively to keep the code compatible with JDK 8
+     *
+     * @return null if virtual threads are not supported
+     */
+    @Nullable
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
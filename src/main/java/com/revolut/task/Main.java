@@ -1,9 +1,11 @@
-package com.revolut.task;
-
-import java.io.IOException;
-
-public class Main {
-    public static void main(String[] args) throws IOException {
-        new Application(8000).start();
-    }
-}
+package com.revolut.task;
+
+import com.revolut.task.utils.Settings;
+
+import java.io.IOException;
+
+public class Main {
+    public static void main(String[] args) throws IOException {
+        new Application(Settings.getInt(Settings.SERVER_PORT, 8000)).start();
+    }
+}
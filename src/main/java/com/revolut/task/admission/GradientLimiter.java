@@ -0,0 +1,192 @@
+package com.revolut.task.admission;
+
+import com.revolut.task.utils.Settings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit of concurrent calls in gradient style: the limit follows the ratio of long-term latency
+ * to latency of the last window, so it shrinks when calls start to queue for a shared resource, e.g. CPU or locks,
+ * and grows by a square root of itself while latency stays near the long-term one.
+ * <p>
+ * Every window of {@link #WINDOW_NANOS} the thread that closes it recalculates the limit:
+ * <pre>
+ *     gradient = max(0.5, min(1, TOLERANCE * longRtt / shortRtt))
+ *     limit = (1 - SMOOTHING) * limit + SMOOTHING * (gradient * limit + sqrt(limit))
+ * </pre>
+ * where shortRtt is the average duration of calls of the window and longRtt is its exponential average over windows.
+ * The limit doesn't change while calls use less than half of it, latency says nothing about it then.
+ * <p>
+ * Acquiring and releasing are a CAS and a few adder updates, so the limiter adds no lock to calls.
+ * The limit and long-term latency are kept in one immutable state swapped by a CAS, so updates by threads closing
+ * successive windows see each other and never mix.
+ */
+public final class GradientLimiter {
+
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * Windows with fewer calls don't change the limit
+     */
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    /**
+     * Short-term latency may exceed long-term one by this factor before the limit shrinks, it hides jitter
+     * of microsecond calls
+     */
+    private static final double TOLERANCE = 2;
+    private static final double SMOOTHING = 0.2;
+    /**
+     * Weight of a window in long-term latency, about a minute of windows
+     */
+    private static final double LONG_RTT_WEIGHT = 2.0 / 601;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    @NotNull
+    private final AtomicReference<State> state;
+
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder rttSum = new LongAdder();
+    private final LongAccumulator peakInFlight = new LongAccumulator(Math::max, 0);
+    private final AtomicLong windowEnd;
+
+    /**
+     * @param initialLimit limit before latency is observed
+     * @param minLimit     the lowest limit, at least 1
+     * @param maxLimit     the highest limit
+     */
+    public GradientLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException(String.format("Invalid concurrency limits: initial %d, min %d, max %d",
+                    initialLimit, minLimit, maxLimit));
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.state = new AtomicReference<>(new State(initialLimit, 0));
+        this.windowEnd = new AtomicLong(System.nanoTime() + WINDOW_NANOS);
+    }
+
+    /**
+     * Create limiter configured by {@link Settings}
+     *
+     * @return null if admission control is disabled
+     */
+    @Nullable
+    public static GradientLimiter fromSettings() {
+        String admission = Settings.getString(Settings.ADMISSION);
+        if (admission != null && admission.equalsIgnoreCase("none")) {
+            return null;
+        }
+        if (admission != null && !admission.equalsIgnoreCase("gradient")) {
+            throw new IllegalArgumentException(String.format("Unknown admission control: %s", admission));
+        }
+        return new GradientLimiter(Settings.getInt(Settings.ADMISSION_INITIAL_LIMIT, 100),
+                Settings.getInt(Settings.ADMISSION_MIN_LIMIT, 4),
+                Settings.getInt(Settings.ADMISSION_MAX_LIMIT, 1000));
+    }
+
+    /**
+     * Take a place for a call, a successful call must be followed by {@link #release}
+     *
+     * @return false if the limit is reached, the call must be rejected then
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= state.get().limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                peakInFlight.accumulate(current + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Free the place of a finished call and count its duration
+     *
+     * @param start start of the call, {@link System#nanoTime()}
+     * @param end   end of the call, {@link System#nanoTime()}
+     */
+    public void release(long start, long end) {
+        inFlight.decrementAndGet();
+        samples.increment();
+        rttSum.add(end - start);
+        long currentEnd = windowEnd.get();
+        if (end - currentEnd >= 0 && windowEnd.compareAndSet(currentEnd, end + WINDOW_NANOS)) {
+            update();
+        }
+    }
+
+    public int getLimit() {
+        return state.get().limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Recalculate the limit by the closed window. Calls released meanwhile may be counted in the next window.
+     */
+    private void update() {
+        long count = samples.sumThenReset();
+        long sum = rttSum.sumThenReset();
+        long peak = peakInFlight.getThenReset();
+        if (count < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+        double shortRtt = Math.max(1, sum / (double) count);
+        while (true) {
+            State current = state.get();
+            if (state.compareAndSet(current, next(current, shortRtt, peak))) {
+                return;
+            }
+        }
+    }
+
+    @NotNull
+    private State next(@NotNull State current, double shortRtt, long peak) {
+        double longRtt = current.longRtt;
+        if (longRtt == 0) {
+            longRtt = shortRtt;
+        } else {
+            longRtt += (shortRtt - longRtt) * LONG_RTT_WEIGHT;
+            if (longRtt > 2 * shortRtt) {
+                // load is over, forget its latency faster
+                longRtt *= 0.9;
+            }
+        }
+        double estimate = current.estimate;
+        if (peak * 2 >= estimate) {
+            double gradient = Math.max(0.5, Math.min(1, TOLERANCE * longRtt / shortRtt));
+            double next = gradient * estimate + Math.sqrt(estimate);
+            estimate = Math.max(minLimit, Math.min(maxLimit, (1 - SMOOTHING) * estimate + SMOOTHING * next));
+        }
+        return new State(estimate, longRtt);
+    }
+
+    /**
+     * Exact limit and long-term latency after a window
+     */
+    private static final class State {
+
+        private final double estimate;
+        private final double longRtt;
+        private final int limit;
+
+        private State(double estimate, double longRtt) {
+            this.estimate = estimate;
+            this.longRtt = longRtt;
+            this.limit = (int) estimate;
+        }
+    }
+}
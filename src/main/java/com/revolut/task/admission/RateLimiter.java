@@ -0,0 +1,113 @@
+package com.revolut.task.admission;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Rate limit of every client, e.g. of an account: a token bucket per client refilled at the given rate up to the burst.
+ * <p>
+ * A bucket is kept as a single time when it is full again (GCRA), so taking a token is a read and a CAS
+ * and refilling needs no timer. Buckets are kept in a fixed table where a client has two candidate slots:
+ * a new client takes an empty slot or evicts the candidate that is closer to full, and full buckets are equal to new
+ * ones. So memory is bounded and only with more busy clients than slots an evicted client gets a full bucket again.
+ */
+public final class RateLimiter {
+
+    private final long interval;
+    private final long tolerance;
+    private final int mask;
+    @NotNull
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    /**
+     * @param perSecond sustained calls per second of one client
+     * @param burst     calls a client may make at once after a pause, at least 1
+     * @param clients   number of clients tracked, rounded up to a power of two
+     */
+    public RateLimiter(double perSecond, int burst, int clients) {
+        if (perSecond <= 0 || burst < 1 || clients < 2) {
+            throw new IllegalArgumentException(String.format("Invalid rate limit: %s per second, burst %d, clients %d",
+                    perSecond, burst, clients));
+        }
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        this.tolerance = interval * burst;
+        int capacity = Integer.highestOneBit(clients - 1) << 1;
+        this.mask = capacity - 1;
+        this.buckets = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Take a token of the client
+     *
+     * @param client key of client, compared by equals
+     * @return false if the client exceeds its rate, the call must be rejected then
+     */
+    public boolean tryAcquire(@NotNull Object client) {
+        return tryAcquire(client, System.nanoTime());
+    }
+
+    /**
+     * Take a token of the client at the given time
+     *
+     * @param now current {@link System#nanoTime()}
+     */
+    public boolean tryAcquire(@NotNull Object client, long now) {
+        int hash = client.hashCode() * 0x9E3779B9;
+        int first = (hash ^ hash >>> 16) & mask;
+        int second = first ^ 1;
+        while (true) {
+            Bucket a = buckets.get(first);
+            if (a != null && a.client.equals(client)) {
+                return a.tryTake(now, interval, tolerance);
+            }
+            Bucket b = buckets.get(second);
+            if (b != null && b.client.equals(client)) {
+                return b.tryTake(now, interval, tolerance);
+            }
+            Bucket created = new Bucket(client, now);
+            boolean replaced;
+            if (a == null || b != null && a.fullAt - b.fullAt < 0) {
+                replaced = buckets.compareAndSet(first, a, created);
+            } else {
+                replaced = buckets.compareAndSet(second, b, created);
+            }
+            // otherwise a concurrent call changed the slot, maybe for the same client
+            if (replaced) {
+                return created.tryTake(now, interval, tolerance);
+            }
+        }
+    }
+
+    private static final class Bucket {
+
+        private static final AtomicLongFieldUpdater<Bucket> FULL_AT = AtomicLongFieldUpdater.newUpdater(Bucket.class, "fullAt");
+
+        @NotNull
+        private final Object client;
+        /**
+         * Time when all tokens are refilled, the bucket is full at any time after it
+         */
+        private volatile long fullAt;
+
+        private Bucket(@NotNull Object client, long now) {
+            this.client = client;
+            this.fullAt = now;
+        }
+
+        private boolean tryTake(long now, long interval, long tolerance) {
+            while (true) {
+                long current = fullAt;
+                long next = (current - now < 0 ? now : current) + interval;
+                if (next - now > tolerance) {
+                    return false;
+                }
+                if (FULL_AT.compareAndSet(this, current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.revolut.task.bulk;
+
+import com.google.gson.stream.JsonWriter;
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.utils.AccountTypeAdapter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming export of all accounts of {@link AccountsDao}: accounts are written as they are visited,
+ * only a buffer and slots of one hash segment are held in memory.
+ * <p>
+ * Transfers go on meanwhile, so every balance is a committed one but balances of different accounts
+ * may be read at different moments. Total of exported balances is exact only while no transfer runs.
+ */
+public final class AccountExporter {
+
+    private static final AccountTypeAdapter ADAPTER = new AccountTypeAdapter();
+
+    private AccountExporter() {
+    }
+
+    /**
+     * Write all accounts to the stream, it is flushed but not closed
+     *
+     * @return number of written accounts
+     */
+    public static long write(@NotNull AccountsDao dao, @NotNull OutputStream out, @NotNull AccountFormat format)
+            throws IOException {
+        long[] count = {0};
+        try {
+            if (format == AccountFormat.NDJSON) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+                JsonWriter json = new JsonWriter(writer);
+                // a json value per line
+                json.setLenient(true);
+                dao.forEachAccount(account -> {
+                    try {
+                        ADAPTER.write(json, account);
+                        writer.write('\n');
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                json.flush();
+            } else {
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+                data.writeInt(AccountFormat.MAGIC);
+                data.writeInt(AccountFormat.VERSION);
+                dao.forEachAccount(account -> {
+                    try {
+                        byte[] name = account.getName().getBytes(StandardCharsets.UTF_8);
+                        data.writeLong(account.getId());
+                        data.writeLong(account.getBalanceUnits());
+                        data.writeInt(name.length);
+                        data.write(name);
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                data.flush();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
+    }
+}
@@ -0,0 +1,51 @@
+package com.revolut.task.bulk;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Streaming formats of accounts for bulk import and export
+ */
+public enum AccountFormat {
+
+    /**
+     * Json object per line: {@code {"id":1,"name":"account","balance":"100.5"}}, balance is a decimal amount.
+     * Id may be omitted on import, then it is allocated.
+     */
+    NDJSON("application/x-ndjson"),
+
+    /**
+     * Header of int {@link #MAGIC} and int {@link #VERSION}, then records up to the end of stream:
+     * long id (0 to allocate on import), long balance in minor units, int name length, UTF-8 name.
+     * Numbers are big-endian.
+     */
+    BINARY("application/octet-stream");
+
+    public static final int MAGIC = 0x41434354;
+    public static final int VERSION = 1;
+
+    @NotNull
+    private final String contentType;
+
+    AccountFormat(@NotNull String contentType) {
+        this.contentType = contentType;
+    }
+
+    @NotNull
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Format of content type, parameters like charset are ignored
+     *
+     * @return {@link #NDJSON} if content type is not set or unknown
+     */
+    @NotNull
+    public static AccountFormat fromContentType(@Nullable String contentType) {
+        if (contentType != null && contentType.trim().toLowerCase().startsWith(BINARY.contentType)) {
+            return BINARY;
+        }
+        return NDJSON;
+    }
+}
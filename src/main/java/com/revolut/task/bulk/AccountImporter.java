@@ -0,0 +1,342 @@
+package com.revolut.task.bulk;
+
+import com.google.gson.stream.JsonReader;
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.Money;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulk import of accounts from a stream into {@link AccountsDao}.
+ * <p>
+ * The calling thread only splits the stream into chunks of records, parser threads decode chunks in parallel
+ * and store every chunk with {@link AccountsDao#addAccounts}, so a durable DAO flushes the journal once per chunk.
+ * At most two chunks per parser are in memory, so a stream of any size is imported in bounded heap.
+ * Invalid records and accounts with taken ids are rejected, the rest of the stream is imported.
+ */
+public class AccountImporter {
+
+    private static final Logger LOG = LogManager.getLogger(AccountImporter.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * Limit of name length of binary record, a larger length means a corrupted stream
+     */
+    private static final int MAX_NAME_SIZE = 64 * 1024;
+
+    @NotNull
+    private final AccountsDao dao;
+    private final int parsers;
+    private final int batchSize;
+
+    /**
+     * Importer with a parser per core and batches of {@link #DEFAULT_BATCH_SIZE} accounts
+     */
+    public AccountImporter(@NotNull AccountsDao dao) {
+        this(dao, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param dao       storage of imported accounts
+     * @param parsers   number of parser threads
+     * @param batchSize number of records stored at once
+     */
+    public AccountImporter(@NotNull AccountsDao dao, int parsers, int batchSize) {
+        if (parsers < 1 || batchSize < 1) {
+            throw new IllegalArgumentException(String.format("Invalid parsers: %d or batch size: %d", parsers, batchSize));
+        }
+        this.dao = dao;
+        this.parsers = parsers;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Import all records of the stream, returns when they are stored. The stream is not closed.
+     *
+     * @throws IOException if the stream can't be read, binary stream is corrupted or accounts can't be stored,
+     *                     some records may be imported then
+     */
+    @NotNull
+    public ImportResult run(@NotNull InputStream in, @NotNull AccountFormat format) throws IOException {
+        long start = System.nanoTime();
+        Progress progress = new Progress();
+        ExecutorService pool = Executors.newFixedThreadPool(parsers, r -> {
+            Thread thread = new Thread(r);
+            thread.setName(String.format("Import-%04d", thread.getId()));
+            return thread;
+        });
+        Semaphore chunks = new Semaphore(2 * parsers);
+        try {
+            if (format == AccountFormat.NDJSON) {
+                readLines(in, pool, chunks, progress);
+            } else {
+                readRecords(in, pool, chunks, progress);
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import is interrupted");
+            }
+        }
+        if (progress.failure.get() != null) {
+            throw new IOException("Import failed", progress.failure.get());
+        }
+        ImportResult result = new ImportResult(progress.imported.sum(), progress.rejected.sum(), progress.error.get());
+        LOG.info(String.format("Import of %s: %s in %d ms",
+                format, result, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return result;
+    }
+
+    /**
+     * Split json lines into chunks, blank lines are skipped
+     */
+    private void readLines(@NotNull InputStream in, @NotNull ExecutorService pool, @NotNull Semaphore chunks,
+                           @NotNull Progress progress) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        String[] lines = new String[batchSize];
+        int[] numbers = new int[batchSize];
+        int count = 0;
+        int number = 0;
+        for (String line; (line = reader.readLine()) != null; ) {
+            number++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            lines[count] = line;
+            numbers[count] = number;
+            if (++count == batchSize) {
+                submitLines(lines, numbers, count, pool, chunks, progress);
+                lines = new String[batchSize];
+                numbers = new int[batchSize];
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            submitLines(lines, numbers, count, pool, chunks, progress);
+        }
+    }
+
+    private void submitLines(@NotNull String[] lines, @NotNull int[] numbers, int count, @NotNull ExecutorService pool,
+                             @NotNull Semaphore chunks, @NotNull Progress progress) throws InterruptedIOException {
+        submit(pool, chunks, progress, () -> {
+            Account[] batch = new Account[count];
+            int parsed = 0;
+            for (int i = 0; i < count; i++) {
+                try {
+                    batch[parsed] = parse(lines[i]);
+                    parsed++;
+                } catch (IOException | RuntimeException e) {
+                    progress.reject(String.format("Line %d: %s", numbers[i], e.getMessage()));
+                }
+            }
+            store(parsed == count ? batch : Arrays.copyOf(batch, parsed), progress);
+        });
+    }
+
+    /**
+     * Decode binary records into chunks, framing leaves nothing to parse in parallel but the chunks are stored
+     * while next ones are read
+     */
+    private void readRecords(@NotNull InputStream in, @NotNull ExecutorService pool, @NotNull Semaphore chunks,
+                             @NotNull Progress progress) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if (data.readInt() != AccountFormat.MAGIC) {
+            throw new IOException("Not a binary accounts stream");
+        }
+        int version = data.readInt();
+        if (version != AccountFormat.VERSION) {
+            throw new IOException(String.format("Unsupported version of binary accounts stream: %d", version));
+        }
+        Account[] batch = new Account[batchSize];
+        int count = 0;
+        for (int first; (first = data.read()) >= 0; ) {
+            long id = (long) first << 56 | readBytes(data, 7);
+            long balance = data.readLong();
+            int nameSize = data.readInt();
+            if (nameSize < 0 || nameSize > MAX_NAME_SIZE) {
+                throw new IOException(String.format("Invalid name length: %d", nameSize));
+            }
+            byte[] name = new byte[nameSize];
+            data.readFully(name);
+            Account account = validate(id, new String(name, StandardCharsets.UTF_8), balance, progress);
+            if (account != null) {
+                batch[count++] = account;
+            }
+            if (count == batchSize) {
+                Account[] full = batch;
+                submit(pool, chunks, progress, () -> store(full, progress));
+                batch = new Account[batchSize];
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            Account[] last = Arrays.copyOf(batch, count);
+            submit(pool, chunks, progress, () -> store(last, progress));
+        }
+    }
+
+    /**
+     * Run task in the pool, waits while too many chunks are in memory
+     */
+    private static void submit(@NotNull ExecutorService pool, @NotNull Semaphore chunks, @NotNull Progress progress,
+                               @NotNull Runnable task) throws InterruptedIOException {
+        try {
+            chunks.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import is interrupted");
+        }
+        pool.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                progress.failure.compareAndSet(null, e);
+            } finally {
+                chunks.release();
+            }
+        });
+    }
+
+    /**
+     * Store accounts of the chunk, accounts without id get ids of the allocator after the others are stored,
+     * so they don't take ids of the chunk
+     */
+    private void store(@NotNull Account[] batch, @NotNull Progress progress) {
+        List<Account> chosen = new ArrayList<>(batch.length);
+        List<Account> allocated = new ArrayList<>();
+        for (Account account : batch) {
+            (account.getId() == 0 ? allocated : chosen).add(account);
+        }
+        int taken = dao.addAccounts(chosen.toArray(new Account[0])).size();
+        progress.imported.add(chosen.size() - taken);
+        if (taken > 0) {
+            progress.reject(String.format("%d accounts already exist", taken), taken);
+        }
+        while (!allocated.isEmpty()) {
+            Account[] created = new Account[allocated.size()];
+            for (int i = 0; i < created.length; i++) {
+                Account account = allocated.get(i);
+                created[i] = new Account(dao.nextId(), account.getName(), account.getBalanceUnits());
+            }
+            // only random ids may collide
+            allocated = dao.addAccounts(created);
+            progress.imported.add(created.length - allocated.size());
+        }
+    }
+
+    @NotNull
+    private Account parse(@NotNull String line) throws IOException {
+        JsonReader in = new JsonReader(new StringReader(line));
+        long id = 0;
+        String name = null;
+        long balance = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    id = in.nextLong();
+                    if (id <= 0) {
+                        throw new IOException(String.format("Invalid id: %d", id));
+                    }
+                    break;
+                case "name":
+                    name = in.nextString();
+                    break;
+                case "balance":
+                    balance = Money.toUnits(new BigDecimal(in.nextString()));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (name == null) {
+            throw new IOException("Account name is required");
+        }
+        if (balance < 0) {
+            throw new IOException("Negative balance is not allowed");
+        }
+        return new Account(id, name, balance);
+    }
+
+    /**
+     * @return account of binary record, null if it is rejected
+     */
+    @Nullable
+    private Account validate(long id, @NotNull String name, long balance, @NotNull Progress progress) {
+        if (id < 0) {
+            progress.reject(String.format("Invalid id: %d", id));
+            return null;
+        }
+        if (balance < 0) {
+            progress.reject(String.format("Negative balance of account: %d", id));
+            return null;
+        }
+        return new Account(id, name, balance);
+    }
+
+    private static long readBytes(@NotNull DataInputStream in, int count) throws IOException {
+        long result = 0;
+        for (int i = 0; i < count; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated account record");
+            }
+            result = result << 8 | b;
+        }
+        return result;
+    }
+
+    /**
+     * Counters shared by parser threads
+     */
+    private static final class Progress {
+
+        private final LongAdder imported = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final AtomicReference<String> error = new AtomicReference<>();
+        /**
+         * Failure of storage, e.g. of the journal
+         */
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        private void reject(@NotNull String reason) {
+            reject(reason, 1);
+        }
+
+        private void reject(@NotNull String reason, long count) {
+            rejected.add(count);
+            if (error.compareAndSet(null, reason)) {
+                LOG.warn(String.format("Import rejects %s", reason));
+            }
+        }
+    }
+}
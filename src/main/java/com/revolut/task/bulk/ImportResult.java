@@ -0,0 +1,47 @@
+package com.revolut.task.bulk;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Outcome of bulk import
+ */
+public class ImportResult {
+
+    private final long imported;
+    private final long rejected;
+    @Nullable
+    private final String error;
+
+    public ImportResult(long imported, long rejected, @Nullable String error) {
+        this.imported = imported;
+        this.rejected = rejected;
+        this.error = error;
+    }
+
+    /**
+     * @return number of stored accounts
+     */
+    public long getImported() {
+        return imported;
+    }
+
+    /**
+     * @return number of invalid records and accounts with taken ids
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return reason of the first rejection, null if nothing is rejected
+     */
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("imported %d, rejected %d%s", imported, rejected, error == null ? "" : ", first error: " + error);
+    }
+}
@@ -0,0 +1,11 @@
+package com.revolut.task.caller;
+
+/**
+ * Call is rejected because its client exceeds the rate limit of the method
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+    public RateLimitExceededException(String message) {
+        super(message);
+    }
+}
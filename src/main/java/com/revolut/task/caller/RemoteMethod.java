@@ -1,14 +1,37 @@
-package com.revolut.task.caller;
-
-import java.lang.annotation.ElementType;
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-import java.lang.annotation.Target;
-
-/**
- * Indicates that method is available in public REST API.
- */
-@Retention(RetentionPolicy.RUNTIME)
-@Target(ElementType.METHOD)
-public @interface RemoteMethod {
-}
+package com.revolut.task.caller;
+
+import com.revolut.task.service.RemoteService;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Indicates that method is available in public REST API.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RemoteMethod {
+
+    /**
+     * Name of argument that identifies the client for rate limiting, e.g. an account id; empty if calls are not limited
+     */
+    String rateLimitKey() default "";
+
+    /**
+     * Sustained calls per second of one client, 0 for no limit
+     */
+    double rateLimit() default 0;
+
+    /**
+     * Calls one client may make at once after a pause
+     */
+    int rateLimitBurst() default 1;
+
+    /**
+     * Json object of arguments the method is called with on warm-up, {@code %d} is replaced with the number of the call,
+     * see {@link RemoteService#newWarmUpInstance()}; empty if the method is not called on warm-up
+     */
+    String warmUp() default "";
+}
@@ -1,110 +1,307 @@
-package com.revolut.task.caller;
-
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.revolut.task.protocol.Request;
-import com.revolut.task.service.RemoteService;
-import com.revolut.task.utils.JsonUtils;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
-
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Method;
-import java.lang.reflect.Type;
-import java.util.LinkedHashMap;
-import java.util.Map;
-
-/**
- * Proxy for service method.
- */
-public class ServiceMethodCaller {
-
-    private static final Logger LOG = LogManager.getLogger(ServiceMethodCaller.class);
-
-    @NotNull
-    private final RemoteService service;
-    @NotNull
-    private final Method method;
-    @NotNull
-    private final String[] argumentNames;
-    @NotNull
-    private final Type[] argumentTypes;
-
-
-    private ServiceMethodCaller(@NotNull RemoteService service,
-                                @NotNull Method method,
-                                @NotNull String[] argumentNames,
-                                @NotNull Type[] argumentTypes) {
-        this.service = service;
-        this.method = method;
-        this.argumentNames = argumentNames;
-        this.argumentTypes = argumentTypes;
-    }
-
-    public static ServiceMethodCaller create(@NotNull RemoteService remoteService, @NotNull Method method) {
-        String[] argumentNames = getArgumentNames(method);
-        Type[] argumentTypes = method.getGenericParameterTypes();
-        return new ServiceMethodCaller(remoteService, method, argumentNames, argumentTypes);
-    }
-
-    /**
-     * Read method parameters
-     *
-     * @return name of parameters
-     */
-    @NotNull
-    private static String[] getArgumentNames(@NotNull Method method) {
-        Annotation[][] ann = method.getParameterAnnotations();
-        String[] argNames = new String[ann.length];
-
-        for (int i = 0; i < ann.length; i++) {
-            for (Annotation a : ann[i]) {
-                if (a instanceof Arg) {
-                    argNames[i] = ((Arg) a).value();
-                }
-            }
-            if (argNames[i] == null) {
-                throw new IllegalArgumentException(
-                        String.format("Annotation @Arg not present for parameter #%s of method %s"
-                                , i, method));
-            }
-        }
-        return argNames;
-    }
-
-    /**
-     * Service method invocation
-     *
-     * @throws Exception
-     */
-    @Nullable
-    public Object call(@NotNull Request requestApp) throws Exception {
-        Map<String, Object> argsMap = readParams(requestApp);
-        LOG.debug(String.format("Invoking %s.%s() with args:%s", service.getName(), method.getName(), argsMap));
-
-        return method.invoke(service, argsMap.values().toArray());
-    }
-
-    /**
-     * Read parameters from request
-     *
-     * @return Map: parameter name -> parameter value
-     */
-    @NotNull
-    private Map<String, Object> readParams(@NotNull Request requestApp) {
-        Map<String, Object> result = new LinkedHashMap<>();
-
-        JsonObject jsonObject = JsonUtils.toJsonObject(requestApp.getBody());
-
-        for (int i = 0; i < argumentTypes.length; i++) {
-            String name = argumentNames[i];
-            Type type = argumentTypes[i];
-            JsonElement e = jsonObject.get(name);
-            Object arg = e == null ? null : JsonUtils.fromJson(e, type);
-            result.put(name, arg);
-        }
-        return result;
-    }
-}
+package com.revolut.task.caller;
+
+import com.google.gson.stream.JsonReader;
+import com.revolut.task.admission.RateLimiter;
+import com.revolut.task.codec.ArgumentsReader;
+import com.revolut.task.codec.BinaryCodec;
+import com.revolut.task.codec.Codec;
+import com.revolut.task.codec.Codecs;
+import com.revolut.task.codec.JsonArgumentsReader;
+import com.revolut.task.protocol.Request;
+import com.revolut.task.protocol.ResponseBuffer;
+import com.revolut.task.service.RemoteService;
+import com.revolut.task.utils.Settings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Proxy for service method.
+ * Method is bound to the service instance once, so a call costs arguments decoding and invocation of method handle.
+ * <p>
+ * Arguments are decoded by {@link Codec} of the request, json envelope by default, see {@link JsonArgumentsReader}.
+ * Decoders of other codecs are prepared on the first call with the codec.
+ * <p>
+ * Method with {@link RemoteMethod#rateLimitKey()} is rate limited per value of that argument before invocation.
+ * <p>
+ * Method with {@link RemoteMethod#warmUp()} arguments is called on start on a warm-up instance of its service,
+ * see {@link #bindTo} and {@link #warmUp}.
+ */
+public class ServiceMethodCaller {
+
+    private static final Logger LOG = LogManager.getLogger(ServiceMethodCaller.class);
+
+    @NotNull
+    private final RemoteService service;
+    @NotNull
+    private final Method method;
+    @NotNull
+    private final String[] argumentNames;
+    @NotNull
+    private final Type[] argumentTypes;
+    @NotNull
+    private final JsonArgumentsReader jsonReader;
+    @NotNull
+    private final Map<Codec, ArgumentsReader> readers;
+    /**
+     * Service method bound to service instance: (Object[] arguments) -> Object
+     */
+    @NotNull
+    private final MethodHandle handle;
+    /**
+     * Limit of calls of every client, null if calls are not limited
+     */
+    @Nullable
+    private final RateLimiter rateLimiter;
+    /**
+     * Index of argument identifying the client
+     */
+    private final int rateLimitKey;
+    /**
+     * Caller of a warm-up instance of the service, its calls are not logged
+     */
+    private final boolean warmUp;
+
+    private ServiceMethodCaller(@NotNull RemoteService service,
+                                @NotNull Method method,
+                                @NotNull String[] argumentNames,
+                                @NotNull Type[] argumentTypes,
+                                @NotNull MethodHandle handle) {
+        this.service = service;
+        this.method = method;
+        this.argumentNames = argumentNames;
+        this.argumentTypes = argumentTypes;
+        this.handle = handle;
+        this.jsonReader = Codecs.JSON.argumentsReader(argumentNames, argumentTypes);
+        this.readers = new ConcurrentHashMap<>();
+        RemoteMethod annotation = method.getAnnotation(RemoteMethod.class);
+        String key = annotation == null ? "" : annotation.rateLimitKey();
+        this.rateLimitKey = indexOf(key);
+        if (!key.isEmpty() && rateLimitKey < 0) {
+            throw new IllegalArgumentException(String.format("Rate limit key %s is not an argument of method %s", key, method));
+        }
+        this.rateLimiter = key.isEmpty() ? null : createRateLimiter(method.getName(), annotation);
+        this.warmUp = false;
+    }
+
+    /**
+     * Caller of the method of another service instance, with argument decoders of the given caller and without rate limit
+     */
+    private ServiceMethodCaller(@NotNull ServiceMethodCaller caller, @NotNull RemoteService service,
+                                @NotNull MethodHandle handle) {
+        this.service = service;
+        this.method = caller.method;
+        this.argumentNames = caller.argumentNames;
+        this.argumentTypes = caller.argumentTypes;
+        this.handle = handle;
+        this.jsonReader = caller.jsonReader;
+        this.readers = caller.readers;
+        this.rateLimitKey = -1;
+        this.rateLimiter = null;
+        this.warmUp = true;
+    }
+
+    public static ServiceMethodCaller create(@NotNull RemoteService remoteService, @NotNull Method method) {
+        String[] argumentNames = getArgumentNames(method);
+        Type[] argumentTypes = method.getGenericParameterTypes();
+        return new ServiceMethodCaller(remoteService, method, argumentNames, argumentTypes, bind(remoteService, method));
+    }
+
+    /**
+     * Caller of the method of another instance of the service, e.g. of {@link RemoteService#newWarmUpInstance()}.
+     * It shares argument decoders with this caller and is not rate limited.
+     */
+    @NotNull
+    public ServiceMethodCaller bindTo(@NotNull RemoteService instance) {
+        return new ServiceMethodCaller(this, instance, bind(instance, method));
+    }
+
+    /**
+     * Call the method with its {@link RemoteMethod#warmUp()} arguments, alternately in json and binary codecs,
+     * and encode the results, so decoders are prepared and the whole path is loaded and compiled.
+     * Call it on a caller of a warm-up instance of the service, see {@link #bindTo}.
+     *
+     * @param iterations number of calls
+     * @return number of successful calls, 0 if the method has no warm-up arguments
+     */
+    public int warmUp(int iterations) {
+        try {
+            argumentsReader(Codecs.BINARY);
+        } catch (IllegalArgumentException e) {
+            LOG.debug(String.format("Method %s is not available in binary codec: %s", method.getName(), e.getMessage()));
+        }
+        RemoteMethod annotation = method.getAnnotation(RemoteMethod.class);
+        String arguments = annotation == null ? "" : annotation.warmUp();
+        if (arguments.isEmpty()) {
+            return 0;
+        }
+        ResponseBuffer response = ResponseBuffer.allocate();
+        Exception failure = null;
+        int failures = 0;
+        for (int i = 0; i < iterations; i++) {
+            byte[] envelope = String.format("{\"body\":%s}", String.format(arguments, i)).getBytes(StandardCharsets.UTF_8);
+            try {
+                Codec codec = i % 2 == 0 ? Codecs.JSON : Codecs.BINARY;
+                InputStream body = codec == Codecs.JSON ? new ByteArrayInputStream(envelope)
+                        : new ByteArrayInputStream(BinaryCodec.encode(jsonReader.read(new ByteArrayInputStream(envelope))));
+                codec.writeResult(call(codec, body), response.reset());
+            } catch (Exception e) {
+                failures++;
+                failure = e;
+            }
+        }
+        if (failures > 0) {
+            LOG.warn(String.format("Warm-up call of %s failed %d of %d times", method.getName(), failures, iterations), failure);
+        }
+        return iterations - failures;
+    }
+
+    /**
+     * @return service method bound to service instance: (Object[] arguments) -> Object
+     */
+    @NotNull
+    private static MethodHandle bind(@NotNull RemoteService instance, @NotNull Method method) {
+        try {
+            return MethodHandles.publicLookup().unreflect(method)
+                    .bindTo(instance)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(String.format("Method %s is not accessible", method), e);
+        }
+    }
+
+    /**
+     * Rate limit of {@link RemoteMethod} overridden by {@link Settings#RATE_LIMIT} settings
+     *
+     * @return null if the limit is disabled
+     */
+    @Nullable
+    private static RateLimiter createRateLimiter(@NotNull String name, @NotNull RemoteMethod annotation) {
+        double perSecond = Settings.getDouble(Settings.RATE_LIMIT + name, annotation.rateLimit());
+        if (perSecond <= 0) {
+            return null;
+        }
+        return new RateLimiter(perSecond, Settings.getInt(Settings.RATE_LIMIT + name + ".burst", annotation.rateLimitBurst()),
+                Settings.getInt(Settings.RATE_LIMIT_CLIENTS, 1 << 16));
+    }
+
+    /**
+     * Read method parameters
+     *
+     * @return name of parameters
+     */
+    @NotNull
+    private static String[] getArgumentNames(@NotNull Method method) {
+        Annotation[][] ann = method.getParameterAnnotations();
+        String[] argNames = new String[ann.length];
+
+        for (int i = 0; i < ann.length; i++) {
+            for (Annotation a : ann[i]) {
+                if (a instanceof Arg) {
+                    argNames[i] = ((Arg) a).value();
+                }
+            }
+            if (argNames[i] == null) {
+                throw new IllegalArgumentException(
+                        String.format("Annotation @Arg not present for parameter #%s of method %s"
+                                , i, method));
+            }
+        }
+        return argNames;
+    }
+
+    /**
+     * Service method invocation
+     *
+     * @throws InvocationTargetException if service method throws exception
+     * @throws Exception
+     */
+    @Nullable
+    public Object call(@NotNull Request requestApp) throws Exception {
+        String body = requestApp.getBody();
+        return invoke(body == null ? new Object[argumentTypes.length] : jsonReader.readArguments(new JsonReader(new StringReader(body))));
+    }
+
+    /**
+     * Service method invocation with arguments read from request envelope
+     *
+     * @param envelope reader of request envelope
+     * @throws InvocationTargetException if service method throws exception
+     * @throws Exception
+     */
+    @Nullable
+    public Object call(@NotNull JsonReader envelope) throws Exception {
+        return invoke(jsonReader.readEnvelope(envelope));
+    }
+
+    /**
+     * Service method invocation with arguments decoded by codec
+     *
+     * @param codec codec of request body
+     * @param body  request body
+     * @throws IllegalArgumentException  if an argument type is not supported by the codec
+     * @throws InvocationTargetException if service method throws exception
+     * @throws Exception
+     */
+    @Nullable
+    public Object call(@NotNull Codec codec, @NotNull InputStream body) throws Exception {
+        return invoke(argumentsReader(codec).read(body));
+    }
+
+    /**
+     * @throws RateLimitExceededException if the client exceeds the rate limit of the method
+     */
+    @Nullable
+    private Object invoke(@NotNull Object[] args) throws InvocationTargetException {
+        if (rateLimiter != null) {
+            Object client = args[rateLimitKey];
+            if (client != null && !rateLimiter.tryAcquire(client)) {
+                throw new RateLimitExceededException(String.format("Rate limit exceeded: %s", client));
+            }
+        }
+        if (!warmUp && LOG.isDebugEnabled()) {
+            LOG.debug(String.format("Invoking %s.%s() with args:%s", service.getName(), method.getName(), Arrays.toString(args)));
+        }
+        try {
+            return (Object) handle.invokeExact(args);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    @NotNull
+    private ArgumentsReader argumentsReader(@NotNull Codec codec) {
+        if (codec == Codecs.JSON) {
+            return jsonReader;
+        }
+        ArgumentsReader reader = readers.get(codec);
+        return reader != null ? reader
+                : readers.computeIfAbsent(codec, c -> c.argumentsReader(argumentNames, argumentTypes));
+    }
+
+    private int indexOf(@NotNull String argumentName) {
+        for (int i = 0; i < argumentNames.length; i++) {
+            if (argumentNames[i].equals(argumentName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
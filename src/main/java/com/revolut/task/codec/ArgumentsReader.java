@@ -0,0 +1,19 @@
+package com.revolut.task.codec;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decoder of arguments of one service method
+ */
+public interface ArgumentsReader {
+
+    /**
+     * @param body request body
+     * @return argument values in order of method parameters, null for missing ones
+     */
+    @NotNull
+    Object[] read(@NotNull InputStream body) throws IOException;
+}
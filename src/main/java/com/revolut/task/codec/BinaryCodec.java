@@ -0,0 +1,274 @@
+package com.revolut.task.codec;
+
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.HistoryPage;
+import com.revolut.task.data.Money;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.protocol.ResponseBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding for internal callers, all numbers are big-endian.
+ * <p>
+ * Request body is arguments in order of method parameters, trailing arguments may be omitted.
+ * Response body is the result. A value is byte 0 for null or byte 1 followed by:
+ * <pre>
+ * Long, Integer, Boolean  long, int, byte
+ * BigDecimal              long amount in minor units of {@link Money#SCALE}
+ * String                  int length, UTF-8 bytes
+ * List                    int size, values
+ * Account                 long id, String name, long balance in minor units
+ * AccountingTransaction   String correlationId, long fromId, long toId, long sum in minor units, long timestamp
+ * TransferLeg             values fromId, toId, sum
+ * HistoryPage             values transactions, nextCursor
+ * </pre>
+ * Error responses are UTF-8 text as with json.
+ */
+public class BinaryCodec implements Codec {
+
+    public static final String CONTENT_TYPE = "application/x-revolut-binary";
+
+    private static final byte NULL = 0;
+    private static final byte PRESENT = 1;
+    /**
+     * Limit of string bytes and list size, so a corrupted length fails fast instead of allocating memory
+     */
+    private static final int MAX_LENGTH = 1 << 20;
+
+    private static final ValueReader LONG = DataInputStream::readLong;
+    private static final ValueReader INTEGER = DataInputStream::readInt;
+    private static final ValueReader BOOLEAN = DataInputStream::readBoolean;
+    private static final ValueReader DECIMAL = in -> Money.toDecimal(in.readLong());
+    private static final ValueReader STRING = BinaryCodec::readString;
+    private static final ValueReader ACCOUNT = in -> new Account(in.readLong(), readString(in), in.readLong());
+    private static final ValueReader TRANSACTION = in -> new AccountingTransaction(readString(in),
+            in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    private static final ValueReader TRANSFER_LEG = in -> new TransferLeg((Long) readValue(in, LONG),
+            (Long) readValue(in, LONG), (BigDecimal) readValue(in, DECIMAL));
+    private static final ValueReader TRANSACTIONS = list(TRANSACTION);
+    @SuppressWarnings("unchecked")
+    private static final ValueReader HISTORY_PAGE = in -> new HistoryPage(
+            nonNull((List<AccountingTransaction>) readValue(in, TRANSACTIONS), "transactions"), (Long) readValue(in, LONG));
+
+    BinaryCodec() {
+    }
+
+    @NotNull
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @NotNull
+    @Override
+    public ArgumentsReader argumentsReader(@NotNull String[] names, @NotNull Type[] types) {
+        ValueReader[] readers = new ValueReader[types.length];
+        for (int i = 0; i < types.length; i++) {
+            readers[i] = reader(types[i]);
+        }
+        return body -> {
+            DataInputStream in = new DataInputStream(body);
+            Object[] result = new Object[readers.length];
+            for (int i = 0; i < readers.length; i++) {
+                int marker = in.read();
+                if (marker < 0) {
+                    break;
+                }
+                result[i] = readValue(marker, in, readers[i]);
+            }
+            return result;
+        };
+    }
+
+    /**
+     * @throws ArithmeticException if a decimal has more than {@link Money#SCALE} decimal places
+     */
+    @Override
+    public void writeResult(@Nullable Object result, @NotNull ResponseBuffer response) {
+        writeValue(result, response);
+    }
+
+    /**
+     * Encode request body of a service call
+     *
+     * @param arguments argument values in order of method parameters
+     */
+    @NotNull
+    public static byte[] encode(@Nullable Object... arguments) {
+        ResponseBuffer buffer = ResponseBuffer.allocate();
+        for (Object argument : arguments) {
+            writeValue(argument, buffer);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.size());
+    }
+
+    /**
+     * Decode result of a service call
+     *
+     * @param type return type of service method
+     */
+    @Nullable
+    public static Object decode(@NotNull byte[] bytes, @NotNull Type type) throws IOException {
+        return decode(new ByteArrayInputStream(bytes), type);
+    }
+
+    @Nullable
+    public static Object decode(@NotNull InputStream body, @NotNull Type type) throws IOException {
+        DataInputStream in = new DataInputStream(body);
+        return readValue(in, reader(type));
+    }
+
+    private static void writeValue(@Nullable Object value, @NotNull ResponseBuffer out) {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        out.writeByte(PRESENT);
+        if (value instanceof Long) {
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof BigDecimal) {
+            out.writeLong(Money.toUnits((BigDecimal) value));
+        } else if (value instanceof String) {
+            out.writeUtf8((String) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeInt(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                writeValue(list.get(i), out);
+            }
+        } else if (value instanceof Account) {
+            Account account = (Account) value;
+            out.writeLong(account.getId());
+            out.writeUtf8(account.getName());
+            out.writeLong(account.getBalanceUnits());
+        } else if (value instanceof AccountingTransaction) {
+            AccountingTransaction transaction = (AccountingTransaction) value;
+            out.writeUtf8(transaction.getCorrelationId());
+            out.writeLong(transaction.getFrom());
+            out.writeLong(transaction.getTo());
+            out.writeLong(transaction.getSum());
+            out.writeLong(transaction.getTimestamp());
+        } else if (value instanceof TransferLeg) {
+            TransferLeg leg = (TransferLeg) value;
+            writeValue(leg.getFromId(), out);
+            writeValue(leg.getToId(), out);
+            writeValue(leg.getSum(), out);
+        } else if (value instanceof HistoryPage) {
+            HistoryPage page = (HistoryPage) value;
+            writeValue(page.getTransactions(), out);
+            writeValue(page.getNextCursor(), out);
+        } else {
+            throw new IllegalArgumentException(String.format("Type %s is not supported by binary codec", value.getClass()));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if type is not supported
+     */
+    @NotNull
+    private static ValueReader reader(@NotNull Type type) {
+        if (type == Long.class || type == long.class) {
+            return LONG;
+        } else if (type == Integer.class || type == int.class) {
+            return INTEGER;
+        } else if (type == Boolean.class || type == boolean.class) {
+            return BOOLEAN;
+        } else if (type == BigDecimal.class) {
+            return DECIMAL;
+        } else if (type == String.class) {
+            return STRING;
+        } else if (type == Account.class) {
+            return ACCOUNT;
+        } else if (type == AccountingTransaction.class) {
+            return TRANSACTION;
+        } else if (type == TransferLeg.class) {
+            return TRANSFER_LEG;
+        } else if (type == HistoryPage.class) {
+            return HISTORY_PAGE;
+        } else if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class) {
+            return list(reader(((ParameterizedType) type).getActualTypeArguments()[0]));
+        }
+        throw new IllegalArgumentException(String.format("Type %s is not supported by binary codec", type));
+    }
+
+    @NotNull
+    private static ValueReader list(@NotNull ValueReader elementReader) {
+        return in -> {
+            int size = readLength(in);
+            List<Object> result = new ArrayList<>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                result.add(readValue(in, elementReader));
+            }
+            return result;
+        };
+    }
+
+    @Nullable
+    private static Object readValue(@NotNull DataInputStream in, @NotNull ValueReader reader) throws IOException {
+        int marker = in.read();
+        if (marker < 0) {
+            throw new EOFException();
+        }
+        return readValue(marker, in, reader);
+    }
+
+    @Nullable
+    private static Object readValue(int marker, @NotNull DataInputStream in, @NotNull ValueReader reader) throws IOException {
+        if (marker == NULL) {
+            return null;
+        }
+        if (marker != PRESENT) {
+            throw new IOException(String.format("Invalid value marker: %d", marker));
+        }
+        return reader.read(in);
+    }
+
+    @NotNull
+    private static String readString(@NotNull DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readLength(@NotNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new IOException(String.format("Invalid length: %d", length));
+        }
+        return length;
+    }
+
+    @NotNull
+    private static <T> T nonNull(@Nullable T value, @NotNull String name) throws IOException {
+        if (value == null) {
+            throw new IOException(String.format("Field %s is required", name));
+        }
+        return value;
+    }
+
+    @FunctionalInterface
+    private interface ValueReader {
+
+        @NotNull
+        Object read(@NotNull DataInputStream in) throws IOException;
+    }
+}
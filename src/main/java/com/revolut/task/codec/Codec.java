@@ -0,0 +1,36 @@
+package com.revolut.task.codec;
+
+import com.revolut.task.protocol.ResponseBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Encoding of service method arguments and results, selected by Content-Type of request and Accept of response.
+ * Codecs are registered in {@link Codecs}.
+ */
+public interface Codec {
+
+    /**
+     * Media type of the encoding, without parameters
+     */
+    @NotNull
+    String getContentType();
+
+    /**
+     * Prepare decoding of arguments of a service method, called once per method and codec
+     *
+     * @param names argument names in order of method parameters
+     * @param types argument types in order of method parameters
+     * @throws IllegalArgumentException if a type is not supported by the codec
+     */
+    @NotNull
+    ArgumentsReader argumentsReader(@NotNull String[] names, @NotNull Type[] types);
+
+    /**
+     * Append encoded result of service method to response
+     */
+    void writeResult(@Nullable Object result, @NotNull ResponseBuffer response) throws IOException;
+}
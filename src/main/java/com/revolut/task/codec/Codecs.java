@@ -0,0 +1,97 @@
+package com.revolut.task.codec;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of codecs, json is the default
+ */
+public final class Codecs {
+
+    public static final JsonCodec JSON = new JsonCodec();
+    public static final BinaryCodec BINARY = new BinaryCodec();
+
+    private static final List<Codec> CODECS = new CopyOnWriteArrayList<>(Arrays.asList(JSON, BINARY));
+
+    private Codecs() {
+    }
+
+    /**
+     * Add codec, it is selected by its content type
+     *
+     * @throws IllegalArgumentException if a codec of the content type is registered already
+     */
+    public static void register(@NotNull Codec codec) {
+        for (Codec registered : CODECS) {
+            if (registered.getContentType().equalsIgnoreCase(codec.getContentType())) {
+                throw new IllegalArgumentException(String.format("Codec of %s is registered already", codec.getContentType()));
+            }
+        }
+        CODECS.add(codec);
+    }
+
+    /**
+     * Codec of request body, parameters like charset are ignored
+     *
+     * @return {@link #JSON} if content type is not set or unknown
+     */
+    @NotNull
+    public static Codec forContentType(@Nullable String contentType) {
+        if (contentType == null) {
+            return JSON;
+        }
+        Codec codec = find(contentType, 0, contentType.length());
+        return codec == null ? JSON : codec;
+    }
+
+    /**
+     * Codec of response, the first of accepted media types with a codec
+     *
+     * @param accept   value of Accept header, quality parameters are ignored
+     * @param fallback codec if accept is not set or has no known media types, e.g. the codec of request
+     */
+    @NotNull
+    public static Codec forAccept(@Nullable String accept, @NotNull Codec fallback) {
+        if (accept == null) {
+            return fallback;
+        }
+        for (int start = 0; start < accept.length(); ) {
+            int end = accept.indexOf(',', start);
+            end = end < 0 ? accept.length() : end;
+            Codec codec = find(accept, start, end);
+            if (codec != null) {
+                return codec;
+            }
+            start = end + 1;
+        }
+        return fallback;
+    }
+
+    /**
+     * Codec of media type in the range of value
+     */
+    @Nullable
+    private static Codec find(@NotNull String value, int start, int end) {
+        int parameters = value.indexOf(';', start);
+        if (parameters >= 0 && parameters < end) {
+            end = parameters;
+        }
+        while (start < end && value.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        for (Codec codec : CODECS) {
+            String contentType = codec.getContentType();
+            if (contentType.length() == end - start && value.regionMatches(true, start, contentType, 0, end - start)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,95 @@
+package com.revolut.task.codec;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.revolut.task.utils.JsonUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Arguments are decoded from request envelope in a single pass by type adapters of method parameters.
+ * Envelope body may be a json object of arguments: {"body": {"accountId": 1}}
+ * or, for compatibility, a string with json object: {"body": "{\"accountId\": 1}"}.
+ */
+public class JsonArgumentsReader implements ArgumentsReader {
+
+    @NotNull
+    private final String[] names;
+    @NotNull
+    private final TypeAdapter<?>[] adapters;
+
+    JsonArgumentsReader(@NotNull String[] names, @NotNull Type[] types) {
+        this.names = names;
+        this.adapters = new TypeAdapter<?>[types.length];
+        for (int i = 0; i < types.length; i++) {
+            adapters[i] = JsonUtils.getAdapter(types[i]);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Object[] read(@NotNull InputStream body) throws IOException {
+        return readEnvelope(new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Read arguments from request envelope
+     *
+     * @return argument values in order of method parameters
+     */
+    @NotNull
+    public Object[] readEnvelope(@NotNull JsonReader envelope) throws IOException {
+        Object[] result = null;
+        envelope.beginObject();
+        while (envelope.hasNext()) {
+            if (!"body".equals(envelope.nextName())) {
+                envelope.skipValue();
+            } else if (envelope.peek() == JsonToken.STRING) {
+                result = readArguments(new JsonReader(new StringReader(envelope.nextString())));
+            } else if (envelope.peek() == JsonToken.NULL) {
+                envelope.nextNull();
+            } else {
+                result = readArguments(envelope);
+            }
+        }
+        envelope.endObject();
+        return result == null ? new Object[names.length] : result;
+    }
+
+    /**
+     * Read arguments from json object
+     *
+     * @return argument values in order of method parameters
+     */
+    @NotNull
+    public Object[] readArguments(@NotNull JsonReader reader) throws IOException {
+        Object[] result = new Object[names.length];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int index = indexOf(reader.nextName());
+            if (index < 0) {
+                reader.skipValue();
+            } else {
+                result[index] = adapters[index].read(reader);
+            }
+        }
+        reader.endObject();
+        return result;
+    }
+
+    private int indexOf(@NotNull String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
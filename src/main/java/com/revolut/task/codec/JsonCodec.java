@@ -0,0 +1,36 @@
+package com.revolut.task.codec;
+
+import com.revolut.task.protocol.ResponseBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Default codec: json request envelope read by Gson, results written by {@link ResponseBuffer#writeJson}
+ */
+public class JsonCodec implements Codec {
+
+    public static final String CONTENT_TYPE = "application/json";
+
+    JsonCodec() {
+    }
+
+    @NotNull
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @NotNull
+    @Override
+    public JsonArgumentsReader argumentsReader(@NotNull String[] names, @NotNull Type[] types) {
+        return new JsonArgumentsReader(names, types);
+    }
+
+    @Override
+    public void writeResult(@Nullable Object result, @NotNull ResponseBuffer response) throws IOException {
+        response.writeJson(result);
+    }
+}
@@ -1,40 +1,908 @@
-package com.revolut.task.dao;
-
-import com.revolut.task.data.Account;
-import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
-
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-/**
- * DAO for Accounts
- */
-public class AccountsDao {
-
-    /**
-     * Accounts storage
-     */
-    @NotNull
-    private final Map<Long, Account> accountMap = new ConcurrentHashMap<>();
-
-    /**
-     * Find account by id strictly
-     *
-     * @param accountId account id
-     * @throws RuntimeException if account not found.
-     */
-    @NotNull
-    public Account getAccountNotNull(@Nullable Long accountId) {
-        Account result = accountMap.get(accountId);
-        if (result == null) {
-            throw new RuntimeException(String.format("Account not found: %s", accountId));
-        } else {
-            return result;
-        }
-    }
-
-    public void addAccount(@NotNull Account result) {
-        accountMap.put(result.getId(), result);
-    }
-}
+package com.revolut.task.dao;
+
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountTable;
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.HistoryPage;
+import com.revolut.task.data.TransferBatch;
+import com.revolut.task.data.TransferStatus;
+import com.revolut.task.feed.ChangeFeed;
+import com.revolut.task.journal.Journal;
+import com.revolut.task.journal.JournalListener;
+import com.revolut.task.journal.Snapshot;
+import com.revolut.task.metrics.Metrics;
+import com.revolut.task.utils.Settings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * DAO for Accounts
+ */
+public class AccountsDao implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(AccountsDao.class);
+
+    private static final LongConsumer NO_REPLICAS = lsn -> {
+    };
+
+    /**
+     * Accounts storage
+     */
+    @NotNull
+    private final AccountTable accounts = new AccountTable();
+
+    /**
+     * Results of recent transfers by correlationId
+     */
+    @NotNull
+    private final IdempotencyStore idempotencyStore = new IdempotencyStore(1 << 20, TimeUnit.DAYS.toMillis(1));
+
+    /**
+     * History of completed transfers
+     */
+    @NotNull
+    private final Ledger ledger = new Ledger(Settings.getInt(Settings.LEDGER_CAPACITY, Ledger.DEFAULT_CAPACITY));
+
+    /**
+     * Events of committed transfers for downstream consumers
+     */
+    @NotNull
+    private final ChangeFeed feed;
+
+    /**
+     * Journal of changes, null for in-memory storage
+     */
+    @Nullable
+    private final Journal journal;
+
+    /**
+     * Makes account creation atomic relative to snapshot cut: account journaled before the cut
+     * must be in {@link #accounts} when snapshot is written
+     */
+    @NotNull
+    private final ReadWriteLock creationLock = new ReentrantReadWriteLock();
+
+    @Nullable
+    private final ScheduledExecutorService snapshotExecutor;
+
+    @NotNull
+    private final TransferEngine engine;
+
+    @NotNull
+    private final IdAllocator idAllocator;
+
+    /**
+     * Changes come only from the leader journal, see {@link #replicate}
+     */
+    private volatile boolean replica;
+
+    /**
+     * Applies replicated records, used by the replication thread only
+     */
+    @NotNull
+    private final Replica replicaListener = new Replica();
+
+    /**
+     * Called with sequence number of the last journaled change before it is acknowledged,
+     * returns when replicas have it in semi-synchronous replication
+     */
+    @NotNull
+    private volatile LongConsumer replicationBarrier = NO_REPLICAS;
+
+    /**
+     * Failure to make changes durable after they were applied in memory: the state is ahead of the journal,
+     * so it is not served any more, restart recovers the durable state
+     */
+    @Nullable
+    private volatile RuntimeException failure;
+
+    /**
+     * In-memory DAO, state is lost on restart
+     */
+    public AccountsDao() {
+        this(new LockingEngine());
+    }
+
+    /**
+     * In-memory DAO with the given transfer engine
+     */
+    public AccountsDao(@NotNull TransferEngine engine) {
+        this(engine, new BlockIdAllocator(BlockIdAllocator.DEFAULT_BLOCK_SIZE));
+    }
+
+    /**
+     * In-memory DAO with the given transfer engine and allocator of account ids
+     */
+    public AccountsDao(@NotNull TransferEngine engine, @NotNull IdAllocator idAllocator) {
+        this.engine = engine;
+        this.idAllocator = idAllocator;
+        this.journal = null;
+        this.snapshotExecutor = null;
+        this.feed = new ChangeFeed(Settings.getInt(Settings.FEED_CAPACITY, ChangeFeed.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Durable DAO: state is recovered from the journal and every change is journaled before it is acknowledged
+     *
+     * @param journalDirectory directory of journal
+     * @param snapshotInterval interval between snapshots, seconds, 0 to disable
+     */
+    public AccountsDao(@NotNull Path journalDirectory, long snapshotInterval) throws IOException {
+        this(journalDirectory, snapshotInterval, new LockingEngine());
+    }
+
+    /**
+     * Durable DAO with the given transfer engine
+     *
+     * @param journalDirectory directory of journal
+     * @param snapshotInterval interval between snapshots, seconds, 0 to disable
+     * @param engine           engine of transfers, closed with the DAO
+     */
+    public AccountsDao(@NotNull Path journalDirectory, long snapshotInterval, @NotNull TransferEngine engine)
+            throws IOException {
+        this(journalDirectory, snapshotInterval, engine, new BlockIdAllocator(BlockIdAllocator.DEFAULT_BLOCK_SIZE));
+    }
+
+    /**
+     * Durable DAO with the given transfer engine and allocator of account ids
+     *
+     * @param journalDirectory directory of journal
+     * @param snapshotInterval interval between snapshots, seconds, 0 to disable
+     * @param engine           engine of transfers, closed with the DAO
+     * @param idAllocator      allocator of ids, advanced past ids of recovered accounts
+     */
+    public AccountsDao(@NotNull Path journalDirectory, long snapshotInterval, @NotNull TransferEngine engine,
+                       @NotNull IdAllocator idAllocator) throws IOException {
+        this.engine = engine;
+        this.idAllocator = idAllocator;
+        Journal journal = Journal.open(journalDirectory, new Recovery());
+        this.journal = journal;
+        this.feed = new ChangeFeed(Settings.getInt(Settings.FEED_CAPACITY, ChangeFeed.DEFAULT_CAPACITY),
+                journal::getDurableLsn);
+        if (snapshotInterval > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotExecutor.scheduleWithFixedDelay(this::scheduledSnapshot,
+                    snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        } else {
+            snapshotExecutor = null;
+        }
+    }
+
+    /**
+     * Create DAO configured by {@link Settings}
+     */
+    @NotNull
+    public static AccountsDao fromSettings() {
+        String journalDirectory = Settings.getString(Settings.JOURNAL_DIR);
+        TransferEngine engine = TransferEngine.fromSettings();
+        IdAllocator idAllocator = IdAllocator.fromSettings();
+        AccountsDao result;
+        if (journalDirectory == null) {
+            result = new AccountsDao(engine, idAllocator);
+        } else {
+            try {
+                result = new AccountsDao(Paths.get(journalDirectory),
+                        Settings.getLong(Settings.SNAPSHOT_INTERVAL, 300), engine, idAllocator);
+            } catch (IOException e) {
+                engine.close();
+                throw new UncheckedIOException(String.format("Can't open journal: %s", journalDirectory), e);
+            }
+        }
+        Metrics.gauge("revolut_accounts", "Number of accounts", result.accounts::size);
+        Metrics.gauge("revolut_idempotency_store_size", "Results of recent transfers kept for retries",
+                result.idempotencyStore::size);
+        Metrics.gauge("revolut_ledger_entries", "Transfers kept in the ledger for account history",
+                result.ledger::size);
+        return result;
+    }
+
+    /**
+     * Create in-memory DAO with transfer engine and id allocator configured by {@link Settings}, not reported
+     * in metrics, e.g. scratch state of warm-up. Close it to stop threads of the engine.
+     */
+    @NotNull
+    public static AccountsDao inMemoryFromSettings() {
+        return new AccountsDao(TransferEngine.fromSettings(), IdAllocator.fromSettings());
+    }
+
+    /**
+     * Find account by id strictly
+     *
+     * @param accountId account id
+     * @throws RuntimeException if account not found.
+     */
+    @NotNull
+    public Account getAccountNotNull(@Nullable Long accountId) {
+        checkFailure();
+        Account result = accountId == null ? null : accounts.get(accountId);
+        if (result == null) {
+            throw new RuntimeException(String.format("Account not found: %s", accountId));
+        } else {
+            return result;
+        }
+    }
+
+    /**
+     * @return true if account with the id is stored, accounts are never removed
+     */
+    public boolean hasAccount(long accountId) {
+        return accounts.slot(accountId) >= 0;
+    }
+
+    /**
+     * Balance of account by id without creating its view: lock-free lookup and a single read of the committed balance
+     *
+     * @param accountId account id
+     * @return balance in minor units
+     * @throws RuntimeException if account not found.
+     */
+    public long getBalanceUnits(@Nullable Long accountId) {
+        checkFailure();
+        int slot = accountId == null ? -1 : accounts.slot(accountId);
+        if (slot < 0) {
+            throw new RuntimeException(String.format("Account not found: %s", accountId));
+        }
+        return accounts.balance(slot);
+    }
+
+    /**
+     * Balances of several accounts at one moment, see {@link TransferEngine#balances}
+     *
+     * @param accountIds account ids, may repeat
+     * @return balances in minor units in order of ids
+     * @throws RuntimeException if any account not found.
+     */
+    @NotNull
+    public long[] getBalancesUnits(@NotNull List<Long> accountIds) {
+        Account[] result = new Account[accountIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = getAccountNotNull(accountIds.get(i));
+        }
+        return engine.balances(result);
+    }
+
+    /**
+     * Create account with id of the allocator
+     *
+     * @param name    account name
+     * @param balance initial balance in minor units
+     * @return stored account
+     */
+    @NotNull
+    public Account createAccount(@NotNull String name, long balance) {
+        checkWritable();
+        while (true) {
+            Account result = new Account(idAllocator.next(), name, balance);
+            // only random ids may collide
+            if (tryAddAccount(result)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Store account with id chosen by the caller
+     *
+     * @throws RuntimeException if account with the same id exists.
+     */
+    public void addAccount(@NotNull Account account) {
+        checkWritable();
+        if (!tryAddAccount(account)) {
+            throw new RuntimeException(String.format("Account already exists: %d", account.getId()));
+        }
+        idAllocator.advance(account.getId());
+    }
+
+    /**
+     * Store accounts with ids chosen by the caller as one batch: accounts with taken ids are skipped,
+     * the rest are journaled with one disk flush
+     *
+     * @return accounts not stored because their ids are taken
+     */
+    @NotNull
+    public List<Account> addAccounts(@NotNull Account[] batch) {
+        checkWritable();
+        List<Account> result = new ArrayList<>();
+        long maxId = 0;
+        if (journal != null) {
+            creationLock.readLock().lock();
+        }
+        try {
+            for (Account account : batch) {
+                if (accounts.putIfAbsent(account)) {
+                    if (journal != null) {
+                        journal.appendAccount(account.getId(), account.getName(), account.getBalanceUnits());
+                    }
+                    maxId = Math.max(maxId, account.getId());
+                } else {
+                    result.add(account);
+                }
+            }
+        } finally {
+            if (journal != null) {
+                creationLock.readLock().unlock();
+            }
+        }
+        if (result.size() < batch.length) {
+            // so that allocated ids don't collide with a dense range of stored ones
+            idAllocator.advance(maxId);
+            if (journal != null) {
+                sync(journal);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return id for a new account from the allocator of the DAO, not stored yet
+     */
+    public long nextId() {
+        return idAllocator.next();
+    }
+
+    /**
+     * Call action for view of every account, see {@link AccountTable#forEach}.
+     * Balances are committed ones, but accounts are read at different moments, see {@link #snapshot} for a consistent state.
+     */
+    public void forEachAccount(@NotNull Consumer<Account> action) {
+        accounts.forEach(action);
+    }
+
+    /**
+     * @return false if account with the same id exists, nothing is journaled then
+     */
+    private boolean tryAddAccount(@NotNull Account account) {
+        if (journal == null) {
+            return accounts.putIfAbsent(account);
+        }
+        creationLock.readLock().lock();
+        try {
+            // stored before it is journaled, so a concurrent creation with the same id can't be journaled too
+            if (!accounts.putIfAbsent(account)) {
+                return false;
+            }
+            journal.appendAccount(account.getId(), account.getName(), account.getBalanceUnits());
+        } finally {
+            creationLock.readLock().unlock();
+        }
+        sync(journal);
+        return true;
+    }
+
+    /**
+     * Idempotent money transfer between accounts.
+     * Repeated transfer with the same correlationId gets the result of the first one
+     * while it is kept in {@link IdempotencyStore}.
+     *
+     * @param correlationId correlationId provide idempotency
+     * @param fromId        account id, where to transfer from
+     * @param toId          account id, where to transfer
+     * @param sum           money amount in minor units
+     * @return status of operation
+     * @throws RuntimeException if account not found, or if the applied transfer is not made durable,
+     *                          the DAO rejects all operations then
+     */
+    @NotNull
+    public TransferStatus transfer(@NotNull String correlationId, @Nullable Long fromId, @Nullable Long toId, long sum) {
+        checkWritable();
+        Account from = getAccountNotNull(fromId);
+        Account to = getAccountNotNull(toId);
+
+        TransferStatus previous = idempotencyStore.reserve(correlationId, fingerprint(from.getId(), to.getId(), sum));
+        if (previous != null) {
+            if (journal != null) {
+                // the original transfer may be not flushed yet
+                sync(journal);
+            }
+            return previous;
+        }
+        TransferStatus result;
+        // set once the transfer is journaled and about to change balances, it can't be released after that
+        boolean[] committed = new boolean[1];
+        try {
+            AccountingTransaction transaction = new AccountingTransaction(
+                    correlationId, from.getId(), to.getId(), sum, System.currentTimeMillis());
+            if (journal == null) {
+                result = engine.transfer(from, to, sum, () -> {
+                    ledger.append(transaction, from, to);
+                    feed.publish(transaction, 0);
+                });
+            } else {
+                result = engine.transfer(from, to, sum, () -> {
+                    long lsn = ledger.append(transaction, from, to,
+                            claim -> journal.appendTransfer(transaction, claim));
+                    feed.publish(transaction, lsn);
+                    long cut = journal.getSnapshotLsn();
+                    if (lsn > cut) {
+                        from.preserve(cut);
+                        to.preserve(cut);
+                    }
+                    // result is saved under account locks, so snapshot of these accounts includes it
+                    idempotencyStore.complete(correlationId, TransferStatus.SUCCESS);
+                    committed[0] = true;
+                });
+                // the journal is synced out of account locks, so concurrent transfers share the disk flush
+                sync(journal);
+                feed.wakeUp();
+            }
+        } catch (RuntimeException e) {
+            if (!committed[0]) {
+                idempotencyStore.release(correlationId);
+            }
+            throw e;
+        }
+        idempotencyStore.complete(correlationId, result);
+        return result;
+    }
+
+    /**
+     * Idempotent batch of money transfers, executed under locks of all its accounts taken once.
+     * Results of transfers are kept with the batch in {@link IdempotencyStore}, so repeated batch gets the results
+     * of the first one while it is kept.
+     *
+     * @param batch transfers
+     * @return statuses of transfers in order of the batch
+     * @throws RuntimeException if account not found, no transfer is applied then
+     */
+    @NotNull
+    public TransferStatus[] transferBatch(@NotNull TransferBatch batch) {
+        checkWritable();
+        Account[] from = new Account[batch.size()];
+        Account[] to = new Account[batch.size()];
+        long[] sums = new long[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            from[i] = getAccountNotNull(batch.getFrom(i));
+            to[i] = getAccountNotNull(batch.getTo(i));
+            sums[i] = batch.getSum(i);
+        }
+
+        String correlationId = batch.getCorrelationId();
+        TransferStatus[] previous = idempotencyStore.reserveBatch(correlationId, fingerprint(batch), batch.size());
+        if (previous != null) {
+            if (journal != null) {
+                sync(journal);
+            }
+            return previous;
+        }
+        TransferStatus[] result;
+        boolean[] committed = new boolean[1];
+        try {
+            result = engine.transfer(from, to, sums, batch.isAtomic(), statuses -> {
+                if (journal == null) {
+                    ledger.append(batch, statuses, from, to);
+                    publish(batch, statuses, 0);
+                } else if (Arrays.asList(statuses).contains(TransferStatus.SUCCESS)) {
+                    long lsn = ledger.append(batch, statuses, from, to,
+                            claim -> journal.appendTransferBatch(batch, statuses, claim));
+                    publish(batch, statuses, lsn);
+                    long cut = journal.getSnapshotLsn();
+                    if (lsn > cut) {
+                        for (int i = 0; i < statuses.length; i++) {
+                            from[i].preserve(cut);
+                            to[i].preserve(cut);
+                        }
+                    }
+                }
+                // as for single transfer results are saved under account locks to be in snapshot of these accounts
+                idempotencyStore.completeBatch(correlationId, statuses);
+                committed[0] = true;
+            });
+            if (journal != null) {
+                sync(journal);
+                feed.wakeUp();
+            }
+        } catch (RuntimeException e) {
+            if (!committed[0]) {
+                idempotencyStore.release(correlationId);
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Page of transfer history of the account, the newest transfers first, see {@link Ledger#history}
+     *
+     * @param accountId account id
+     * @param before    only transfers older than this cursor are returned, null for the newest ones
+     * @param limit     max number of transfers
+     * @throws RuntimeException if account not found.
+     */
+    @NotNull
+    public HistoryPage getHistory(@Nullable Long accountId, @Nullable Long before, int limit) {
+        Account account = getAccountNotNull(accountId);
+        return ledger.history(account, before == null ? Long.MAX_VALUE : before, limit);
+    }
+
+    /**
+     * @return feed of events of committed transfers
+     */
+    @NotNull
+    public ChangeFeed getFeed() {
+        return feed;
+    }
+
+    /**
+     * @return journal of changes, null for in-memory storage
+     */
+    @Nullable
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return true if changes come only from the leader journal
+     */
+    public boolean isReplica() {
+        return replica;
+    }
+
+    /**
+     * Make the DAO a read-only replica of the leader: changes come only through {@link #replicate},
+     * or promote the replica to accept changes itself
+     *
+     * @throws IllegalStateException if storage is in memory
+     */
+    public void setReplica(boolean replica) {
+        if (journal == null) {
+            throw new IllegalStateException("Replication of in-memory storage is not supported");
+        }
+        this.replica = replica;
+        LOG.info(replica ? "Storage is a read-only replica" : String.format(
+                "Storage accepts changes after record %d", journal.getDurableLsn()));
+    }
+
+    /**
+     * @param barrier called with sequence number of the last journaled change before the change is acknowledged,
+     *                returns when replicas have it
+     */
+    public void setReplicationBarrier(@Nullable LongConsumer barrier) {
+        this.replicationBarrier = barrier == null ? NO_REPLICAS : barrier;
+    }
+
+    /**
+     * Apply records of the leader journal to the replica: the records are journaled as they are and applied
+     * in their order, transfers take account locks, so reads of balances never see them half done.
+     * Called by a single replication thread.
+     *
+     * @param records complete records following the last journaled one, see {@link Journal#appendRecords}
+     * @return sequence number of the last record, it is on disk when the method returns
+     * @throws IllegalStateException if the DAO is not a replica
+     */
+    public long replicate(@NotNull ByteBuffer records) throws IOException {
+        Journal journal = checkReplica();
+        // a snapshot cut falls between batches of records, so all journaled records are applied at the cut
+        creationLock.readLock().lock();
+        try {
+            replicaListener.lsn = journal.appendRecords(records);
+            Journal.readRecords(records, replicaListener);
+        } finally {
+            creationLock.readLock().unlock();
+        }
+        long lsn = journal.sync();
+        feed.wakeUp();
+        return lsn;
+    }
+
+    /**
+     * Load snapshot of the leader into an empty replica, see {@link Journal#installSnapshot}
+     *
+     * @return sequence number of the last record included into snapshot
+     * @throws IllegalStateException if the DAO is not an empty replica
+     */
+    public long installSnapshot(@NotNull ReadableByteChannel in, long size) throws IOException {
+        Journal journal = checkReplica();
+        if (accounts.size() > 0) {
+            throw new IllegalStateException("Snapshot can be installed into an empty replica only");
+        }
+        return journal.installSnapshot(in, size, new Recovery());
+    }
+
+    /**
+     * Save consistent state of all accounts without stopping transfers, so restart replays only the journal tail.
+     * Transfers journaled after the snapshot cut preserve balances of their accounts before changing them.
+     */
+    public synchronized void snapshot() throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("Snapshot of in-memory storage is not supported");
+        }
+        long start = System.nanoTime();
+        long lsn;
+        creationLock.writeLock().lock();
+        try {
+            lsn = engine.cut(() -> ledger.cut(journal::startSnapshot), accounts);
+        } finally {
+            creationLock.writeLock().unlock();
+        }
+        boolean committed = false;
+        try (Snapshot.Writer writer = journal.newSnapshot(lsn)) {
+            accounts.forEach(account -> {
+                try {
+                    writer.writeAccount(account.getId(), account.getName(), account.getBalanceUnits(lsn));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            idempotencyStore.forEach((correlationId, fingerprint, status, statuses, timestamp) -> {
+                try {
+                    if (statuses == null) {
+                        writer.writeTransferResult(correlationId, fingerprint, status, timestamp);
+                    } else {
+                        writer.writeBatchResult(correlationId, fingerprint, statuses, timestamp);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            ledger.forEachBeforeCut((offset, transaction) -> {
+                try {
+                    writer.writeLedgerEntry(offset, transaction);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.commit();
+            committed = true;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            journal.finishSnapshot(lsn, committed);
+        }
+        LOG.info(String.format("Snapshot of record %d written in %d ms", lsn, (System.nanoTime() - start) / 1_000_000));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+        engine.close();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            LOG.error("Snapshot failed", e);
+        }
+    }
+
+    private void checkWritable() {
+        checkFailure();
+        if (replica) {
+            throw new RuntimeException("Read-only replica, changes are accepted by the leader");
+        }
+    }
+
+    @NotNull
+    private Journal checkReplica() {
+        if (!replica || journal == null) {
+            throw new IllegalStateException("Storage is not a replica");
+        }
+        return journal;
+    }
+
+    private void checkFailure() {
+        RuntimeException failure = this.failure;
+        if (failure != null) {
+            throw new RuntimeException("Storage failed to journal changes, restart to recover", failure);
+        }
+    }
+
+    /**
+     * Wait until changes appended so far are on disk, and on replicas in semi-synchronous replication.
+     * Changes are already applied in memory, so failure takes the DAO out of service, see {@link #failure}.
+     */
+    private void sync(@NotNull Journal journal) {
+        try {
+            replicationBarrier.accept(journal.sync());
+        } catch (RuntimeException e) {
+            if (failure == null) {
+                failure = e;
+                LOG.error("Changes applied in memory are not durable, storage is out of service", e);
+            }
+            throw e;
+        }
+    }
+
+    private void publish(@NotNull TransferBatch batch, @NotNull TransferStatus[] statuses, long lsn) {
+        for (int i = 0; i < statuses.length; i++) {
+            if (statuses[i] == TransferStatus.SUCCESS) {
+                feed.publish(new AccountingTransaction(batch.getCorrelationId(i), batch.getFrom(i), batch.getTo(i),
+                        batch.getSum(i), batch.getTimestamp()), lsn);
+            }
+        }
+    }
+
+    /**
+     * Hash of transfer arguments to detect reuse of correlationId for another transfer
+     */
+    private static long fingerprint(long fromId, long toId, long sum) {
+        long h = fromId * 0x9E3779B97F4A7C15L;
+        h = (h ^ toId) * 0x9E3779B97F4A7C15L;
+        return (h ^ sum) * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Hash of all transfers of the batch, their indexes in the request and the mode
+     */
+    private static long fingerprint(@NotNull TransferBatch batch) {
+        long result = batch.isAtomic() ? 1 : 0;
+        for (int i = 0; i < batch.size(); i++) {
+            result = result * 31 + fingerprint(batch.getFrom(i), batch.getTo(i), batch.getSum(i));
+            result = result * 31 + batch.getLeg(i);
+        }
+        return result;
+    }
+
+    /**
+     * Rebuild accounts and idempotency state from the journal
+     */
+    private class Recovery implements JournalListener {
+
+        @Override
+        public void onAccount(long id, @NotNull String name, long balance) {
+            accounts.put(new Account(id, name, balance));
+            idAllocator.advance(id);
+        }
+
+        @Override
+        public void onTransfer(@NotNull AccountingTransaction transaction) {
+            Account from = getAccountNotNull(transaction.getFrom());
+            Account to = getAccountNotNull(transaction.getTo());
+            from.apply(to, transaction.getSum());
+            ledger.append(transaction, from, to);
+            remember(transaction);
+        }
+
+        @Override
+        public void onTransferBatch(@NotNull TransferBatch batch, @NotNull TransferStatus[] statuses) {
+            Account[] from = new Account[batch.size()];
+            Account[] to = new Account[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                if (statuses[i] == TransferStatus.SUCCESS) {
+                    from[i] = getAccountNotNull(batch.getFrom(i));
+                    to[i] = getAccountNotNull(batch.getTo(i));
+                    from[i].apply(to[i], batch.getSum(i));
+                }
+            }
+            ledger.append(batch, statuses, from, to);
+            remember(batch, statuses);
+        }
+
+        void remember(@NotNull AccountingTransaction transaction) {
+            idempotencyStore.put(transaction.getCorrelationId(),
+                    fingerprint(transaction.getFrom(), transaction.getTo(), transaction.getSum()),
+                    TransferStatus.SUCCESS, transaction.getTimestamp());
+        }
+
+        void remember(@NotNull TransferBatch batch, @NotNull TransferStatus[] statuses) {
+            idempotencyStore.putBatch(batch.getCorrelationId(), fingerprint(batch), statuses, batch.getTimestamp());
+        }
+
+        @Override
+        public void onTransferResult(@NotNull String correlationId, long fingerprint,
+                                     @NotNull TransferStatus status, long timestamp) {
+            idempotencyStore.put(correlationId, fingerprint, status, timestamp);
+        }
+
+        @Override
+        public void onBatchResult(@NotNull String correlationId, long fingerprint,
+                                  @NotNull TransferStatus[] statuses, long timestamp) {
+            idempotencyStore.putBatch(correlationId, fingerprint, statuses, timestamp);
+        }
+
+        @Override
+        public void onLedgerEntry(long offset, @NotNull AccountingTransaction transaction) {
+            ledger.restore(offset, transaction, getAccountNotNull(transaction.getFrom()),
+                    getAccountNotNull(transaction.getTo()));
+        }
+    }
+
+    /**
+     * Apply records replicated from the leader while the replica serves reads: transfers go through the engine
+     * and preserve balances after a snapshot cut as transfers of the leader do.
+     * A cut never falls inside a batch of records, so all records of the batch are after the cut in progress.
+     */
+    private class Replica extends Recovery {
+
+        /**
+         * Sequence number of the last record of the batch being applied
+         */
+        private long lsn;
+
+        @Override
+        public void onTransfer(@NotNull AccountingTransaction transaction) {
+            long lsn = this.lsn;
+            Account from = getAccountNotNull(transaction.getFrom());
+            Account to = getAccountNotNull(transaction.getTo());
+            TransferStatus status = engine.transfer(from, to, transaction.getSum(), () -> {
+                ledger.append(transaction, from, to);
+                feed.publish(transaction, lsn);
+                preserve(lsn, from, to);
+            });
+            if (status != TransferStatus.SUCCESS) {
+                throw diverged(transaction.getCorrelationId(), status);
+            }
+            remember(transaction);
+        }
+
+        @Override
+        public void onTransferBatch(@NotNull TransferBatch batch, @NotNull TransferStatus[] statuses) {
+            long lsn = this.lsn;
+            List<Account> from = new ArrayList<>();
+            List<Account> to = new ArrayList<>();
+            List<Long> sums = new ArrayList<>();
+            // accounts in order of the batch for the ledger
+            Account[] legFrom = new Account[batch.size()];
+            Account[] legTo = new Account[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                if (statuses[i] == TransferStatus.SUCCESS) {
+                    legFrom[i] = getAccountNotNull(batch.getFrom(i));
+                    legTo[i] = getAccountNotNull(batch.getTo(i));
+                    from.add(legFrom[i]);
+                    to.add(legTo[i]);
+                    sums.add(batch.getSum(i));
+                }
+            }
+            Account[] fromAccounts = from.toArray(new Account[0]);
+            Account[] toAccounts = to.toArray(new Account[0]);
+            // only the transfers applied by the leader, all of them must succeed again
+            TransferStatus[] applied = engine.transfer(fromAccounts, toAccounts,
+                    sums.stream().mapToLong(Long::longValue).toArray(), true, result -> {
+                        ledger.append(batch, statuses, legFrom, legTo);
+                        publish(batch, statuses, lsn);
+                        for (int i = 0; i < fromAccounts.length; i++) {
+                            preserve(lsn, fromAccounts[i], toAccounts[i]);
+                        }
+                    });
+            for (TransferStatus status : applied) {
+                if (status != TransferStatus.SUCCESS) {
+                    throw diverged(batch.getCorrelationId(), status);
+                }
+            }
+            remember(batch, statuses);
+        }
+
+        private void preserve(long lsn, @NotNull Account from, @NotNull Account to) {
+            long cut = journal == null ? Long.MAX_VALUE : journal.getSnapshotLsn();
+            if (lsn > cut) {
+                from.preserve(cut);
+                to.preserve(cut);
+            }
+        }
+
+        @NotNull
+        private IllegalStateException diverged(@NotNull String correlationId, @NotNull TransferStatus status) {
+            return new IllegalStateException(String.format(
+                    "Replica diverged from the leader: transfer %s is %s", correlationId, status));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.revolut.task.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dense sequential ids starting from 1. Every thread takes a block of consecutive ids from the shared counter
+ * and allocates from it without synchronization, so ids of one thread are monotonic and all ids are unique.
+ * Ids left in blocks of finished threads are never used, so with short-lived threads, e.g. virtual threads,
+ * a small block size keeps ids dense.
+ */
+public class BlockIdAllocator implements IdAllocator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private final int blockSize;
+    /**
+     * First id of the next block
+     */
+    private final AtomicLong nextBlock = new AtomicLong(1);
+    /**
+     * Next id and end of the block of current thread
+     */
+    private final ThreadLocal<long[]> blocks = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * @param blockSize number of ids taken by a thread at once, 1 for a plain sequence
+     */
+    public BlockIdAllocator(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException(String.format("Invalid id block size: %d", blockSize));
+        }
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public long next() {
+        long[] block = blocks.get();
+        if (block[0] == block[1]) {
+            block[0] = nextBlock.getAndAdd(blockSize);
+            block[1] = block[0] + blockSize;
+        }
+        return block[0]++;
+    }
+
+    @Override
+    public void advance(long id) {
+        nextBlock.accumulateAndGet(id + 1, Math::max);
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return String.format("block(%d)", blockSize);
+    }
+}
@@ -0,0 +1,40 @@
+package com.revolut.task.dao;
+
+import com.revolut.task.utils.Settings;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Source of ids of new accounts
+ */
+public interface IdAllocator {
+
+    /**
+     * @return id not returned before by this allocator, positive
+     */
+    long next();
+
+    /**
+     * Make sure that the given id of an existing account is never returned, called on recovery before any {@link #next}.
+     * Called later for accounts stored with ids chosen by the caller, then ids already taken by threads may still collide
+     * with it and are retried.
+     */
+    void advance(long id);
+
+    /**
+     * Create allocator configured by {@link Settings}
+     */
+    @NotNull
+    static IdAllocator fromSettings() {
+        String ids = Settings.getString(Settings.IDS);
+        if (ids == null || ids.equalsIgnoreCase("block")) {
+            return new BlockIdAllocator(Settings.getInt(Settings.IDS_BLOCK_SIZE, BlockIdAllocator.DEFAULT_BLOCK_SIZE));
+        }
+        if (ids.equalsIgnoreCase("snowflake")) {
+            return new SnowflakeIdAllocator(Settings.getInt(Settings.IDS_NODE, 0));
+        }
+        if (ids.equalsIgnoreCase("random")) {
+            return new RandomIdAllocator();
+        }
+        throw new IllegalArgumentException(String.format("Unknown id allocator: %s", ids));
+    }
+}
@@ -0,0 +1,432 @@
+package com.revolut.task.dao;
+
+import com.revolut.task.data.TransferStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded store of recent operation results by correlationId.
+ * <p>
+ * Entries are kept in primitive arrays of striped segments. Every segment is a ring buffer in insertion order
+ * with an open addressing index over it, so the oldest entry is evicted when it outlives ttl
+ * or the segment is full. Memory use is bounded by capacity whatever the operation rate is.
+ * Entry of an operation in progress is never evicted, so its retry can't start it again: a new operation is rejected
+ * with {@link TransferStatus#OVERLOADED} instead while the oldest entry of the full segment is in progress.
+ * <p>
+ * Entry of a batch keeps results of all its operations, so they are evicted together with the batch
+ * and don't share the namespace of correlationIds of single operations.
+ */
+public class IdempotencyStore {
+
+    private static final int SEGMENTS_COUNT = 16;
+    private static final int SEGMENT_INITIAL_CAPACITY = 1024;
+
+    /**
+     * Status code of reserved entry, which operation is not completed yet
+     */
+    private static final byte PENDING = -1;
+    private static final TransferStatus[] STATUSES = TransferStatus.values();
+
+    @NotNull
+    private final Segment[] segments = new Segment[SEGMENTS_COUNT];
+    private final long ttlMillis;
+    @NotNull
+    private final LongSupplier clock;
+
+    /**
+     * @param capacity  max number of stored entries
+     * @param ttlMillis time to keep entry
+     */
+    public IdempotencyStore(int capacity, long ttlMillis) {
+        this(capacity, ttlMillis, System::currentTimeMillis);
+    }
+
+    public IdempotencyStore(int capacity, long ttlMillis, @NotNull LongSupplier clock) {
+        if (capacity < SEGMENTS_COUNT) {
+            throw new IllegalArgumentException(String.format("Capacity is too small: %d", capacity));
+        }
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        for (int i = 0; i < SEGMENTS_COUNT; i++) {
+            segments[i] = new Segment(Integer.highestOneBit(capacity / SEGMENTS_COUNT));
+        }
+    }
+
+    /**
+     * Reserve correlationId for new operation
+     *
+     * @param correlationId correlationId of operation
+     * @param fingerprint   hash of operation arguments
+     * @return null if correlationId is reserved by this call, {@link TransferStatus#OVERLOADED} if the store is full,
+     * otherwise result of the previous operation with this correlationId
+     */
+    @Nullable
+    public TransferStatus reserve(@NotNull String correlationId, long fingerprint) {
+        int hash = hash(correlationId);
+        return segmentFor(hash).reserve(correlationId, hash, fingerprint, clock.getAsLong());
+    }
+
+    /**
+     * Reserve correlationId for new batch of operations
+     *
+     * @param correlationId correlationId of batch
+     * @param fingerprint   hash of arguments of all operations
+     * @param size          number of operations
+     * @return null if correlationId is reserved by this call, {@link TransferStatus#OVERLOADED} for every operation
+     * if the store is full, otherwise results of operations of the previous batch with this correlationId
+     */
+    @Nullable
+    public TransferStatus[] reserveBatch(@NotNull String correlationId, long fingerprint, int size) {
+        int hash = hash(correlationId);
+        return segmentFor(hash).reserveBatch(correlationId, hash, fingerprint, clock.getAsLong(), size);
+    }
+
+    /**
+     * Find result of the operation without reserving correlationId
+     *
+     * @return null if there is no operation with this correlationId
+     */
+    @Nullable
+    public TransferStatus get(@NotNull String correlationId) {
+        int hash = hash(correlationId);
+        return segmentFor(hash).get(correlationId, hash);
+    }
+
+    /**
+     * Save result of the operation reserved by {@link #reserve}
+     */
+    public void complete(@NotNull String correlationId, @NotNull TransferStatus status) {
+        int hash = hash(correlationId);
+        segmentFor(hash).complete(correlationId, hash, (byte) status.ordinal(), null);
+    }
+
+    /**
+     * Save results of operations of the batch reserved by {@link #reserveBatch}
+     */
+    public void completeBatch(@NotNull String correlationId, @NotNull TransferStatus[] statuses) {
+        int hash = hash(correlationId);
+        segmentFor(hash).complete(correlationId, hash, (byte) TransferStatus.SUCCESS.ordinal(), pack(statuses));
+    }
+
+    /**
+     * Save result of already completed operation, e.g. on recovery
+     */
+    public void put(@NotNull String correlationId, long fingerprint, @NotNull TransferStatus status, long timestamp) {
+        put(correlationId, fingerprint, status, null, timestamp);
+    }
+
+    /**
+     * Save results of already completed batch, e.g. on recovery
+     */
+    public void putBatch(@NotNull String correlationId, long fingerprint, @NotNull TransferStatus[] statuses,
+                         long timestamp) {
+        put(correlationId, fingerprint, TransferStatus.SUCCESS, pack(statuses), timestamp);
+    }
+
+    private void put(@NotNull String correlationId, long fingerprint, @NotNull TransferStatus status,
+                     @Nullable byte[] statuses, long timestamp) {
+        if (clock.getAsLong() - timestamp > ttlMillis) {
+            return;
+        }
+        int hash = hash(correlationId);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            if (segment.reserve(correlationId, hash, fingerprint, timestamp) == null) {
+                segment.complete(correlationId, hash, (byte) status.ordinal(), statuses);
+            }
+        }
+    }
+
+    /**
+     * Forget reservation of the failed operation, so it may be retried
+     */
+    public void release(@NotNull String correlationId) {
+        int hash = hash(correlationId);
+        segmentFor(hash).release(correlationId, hash);
+    }
+
+    /**
+     * Visit all completed entries, e.g. to save them in snapshot
+     */
+    public void forEach(@NotNull Visitor visitor) {
+        for (Segment segment : segments) {
+            segment.forEach(visitor);
+        }
+    }
+
+    /**
+     * @return number of stored entries
+     */
+    public int size() {
+        int result = 0;
+        for (Segment segment : segments) {
+            result += segment.size();
+        }
+        return result;
+    }
+
+    @NotNull
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> 28];
+    }
+
+    @NotNull
+    private static byte[] pack(@NotNull TransferStatus[] statuses) {
+        byte[] result = new byte[statuses.length];
+        for (int i = 0; i < statuses.length; i++) {
+            result[i] = (byte) statuses[i].ordinal();
+        }
+        return result;
+    }
+
+    @NotNull
+    private static TransferStatus[] unpack(@NotNull byte[] statuses) {
+        TransferStatus[] result = new TransferStatus[statuses.length];
+        for (int i = 0; i < statuses.length; i++) {
+            result[i] = STATUSES[statuses[i]];
+        }
+        return result;
+    }
+
+    private static int hash(@NotNull String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private final class Segment {
+
+        private final int maxCapacity;
+
+        // ring buffer of entries, oldest at head
+        private String[] keys;
+        private int[] hashes;
+        private long[] fingerprints;
+        private long[] timestamps;
+        private byte[] statuses;
+        /**
+         * Results of operations of batch entries, null for single operations
+         */
+        private byte[][] batchStatuses;
+        private int head;
+        private int size;
+
+        // open addressing index: slot of ring buffer + 1, 0 for empty cell
+        private int[] index;
+        private int mask;
+
+        private Segment(int maxCapacity) {
+            this.maxCapacity = maxCapacity;
+            allocate(Math.min(SEGMENT_INITIAL_CAPACITY, maxCapacity));
+        }
+
+        synchronized TransferStatus reserve(String key, int hash, long fingerprint, long now) {
+            evictExpired(now);
+            int cell = find(key, hash);
+            if (cell >= 0) {
+                int slot = index[cell] - 1;
+                if (fingerprints[slot] != fingerprint) {
+                    return TransferStatus.DUPLICATE;
+                }
+                byte status = statuses[slot];
+                return status == PENDING ? TransferStatus.IN_PROGRESS : STATUSES[status];
+            }
+            if (size == keys.length) {
+                if (keys.length < maxCapacity) {
+                    allocate(keys.length * 2);
+                } else if (isPending(head)) {
+                    return TransferStatus.OVERLOADED;
+                } else {
+                    removeHead();
+                }
+            }
+            int slot = (head + size) % keys.length;
+            keys[slot] = key;
+            hashes[slot] = hash;
+            fingerprints[slot] = fingerprint;
+            // keep ring buffer ordered by time even if clock goes back
+            timestamps[slot] = size == 0 ? now : Math.max(now, timestamps[(slot + keys.length - 1) % keys.length]);
+            statuses[slot] = PENDING;
+            batchStatuses[slot] = null;
+            size++;
+            index[emptyCell(hash)] = slot + 1;
+            return null;
+        }
+
+        synchronized TransferStatus[] reserveBatch(String key, int hash, long fingerprint, long now, int count) {
+            TransferStatus previous = reserve(key, hash, fingerprint, now);
+            if (previous == null) {
+                return null;
+            }
+            int cell = find(key, hash);
+            byte[] previousStatuses = cell < 0 ? null : batchStatuses[index[cell] - 1];
+            if (previous == TransferStatus.SUCCESS && previousStatuses != null && previousStatuses.length == count) {
+                return unpack(previousStatuses);
+            }
+            TransferStatus[] result = new TransferStatus[count];
+            Arrays.fill(result, previous);
+            return result;
+        }
+
+        synchronized TransferStatus get(String key, int hash) {
+            int cell = find(key, hash);
+            if (cell < 0) {
+                return null;
+            }
+            byte status = statuses[index[cell] - 1];
+            return status == PENDING ? TransferStatus.IN_PROGRESS : STATUSES[status];
+        }
+
+        synchronized void complete(String key, int hash, byte status, byte[] operationStatuses) {
+            int cell = find(key, hash);
+            if (cell >= 0) {
+                statuses[index[cell] - 1] = status;
+                batchStatuses[index[cell] - 1] = operationStatuses;
+            }
+        }
+
+        synchronized void release(String key, int hash) {
+            int cell = find(key, hash);
+            if (cell < 0) {
+                return;
+            }
+            int slot = index[cell] - 1;
+            int last = (head + size - 1) % keys.length;
+            if (slot == head) {
+                removeHead();
+            } else if (slot == last) {
+                removeCell(cell);
+                keys[slot] = null;
+                size--;
+            } else {
+                // entry in the middle of the ring buffer stays as a tombstone until it is evicted
+                statuses[slot] = PENDING;
+                fingerprints[slot] = ~fingerprints[slot];
+                removeCell(cell);
+                keys[slot] = null;
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void forEach(Visitor visitor) {
+            for (int i = 0; i < size; i++) {
+                int slot = (head + i) % keys.length;
+                if (keys[slot] != null && statuses[slot] != PENDING) {
+                    visitor.visit(keys[slot], fingerprints[slot], STATUSES[statuses[slot]],
+                            batchStatuses[slot] == null ? null : unpack(batchStatuses[slot]), timestamps[slot]);
+                }
+            }
+        }
+
+        private void evictExpired(long now) {
+            while (size > 0 && now - timestamps[head] > ttlMillis && !isPending(head)) {
+                removeHead();
+            }
+        }
+
+        /**
+         * @return true if the slot keeps reservation of an operation in progress, not a released tombstone
+         */
+        private boolean isPending(int slot) {
+            return keys[slot] != null && statuses[slot] == PENDING;
+        }
+
+        private void removeHead() {
+            if (keys[head] != null) {
+                removeCell(find(keys[head], hashes[head]));
+                keys[head] = null;
+            }
+            batchStatuses[head] = null;
+            head = (head + 1) % keys.length;
+            size--;
+        }
+
+        private int find(String key, int hash) {
+            for (int cell = hash & mask; index[cell] != 0; cell = (cell + 1) & mask) {
+                int slot = index[cell] - 1;
+                if (hashes[slot] == hash && key.equals(keys[slot])) {
+                    return cell;
+                }
+            }
+            return -1;
+        }
+
+        private int emptyCell(int hash) {
+            int cell = hash & mask;
+            while (index[cell] != 0) {
+                cell = (cell + 1) & mask;
+            }
+            return cell;
+        }
+
+        /**
+         * Backward shift deletion: entries of the same probe sequence are moved to fill the gap
+         */
+        private void removeCell(int cell) {
+            int gap = cell;
+            int next = cell;
+            while (true) {
+                next = (next + 1) & mask;
+                if (index[next] == 0) {
+                    break;
+                }
+                int home = hashes[index[next] - 1] & mask;
+                boolean stays = gap <= next ? gap < home && home <= next : gap < home || home <= next;
+                if (!stays) {
+                    index[gap] = index[next];
+                    gap = next;
+                }
+            }
+            index[gap] = 0;
+        }
+
+        private void allocate(int capacity) {
+            String[] oldKeys = keys;
+            int[] oldHashes = hashes;
+            long[] oldFingerprints = fingerprints;
+            long[] oldTimestamps = timestamps;
+            byte[] oldStatuses = statuses;
+            byte[][] oldBatchStatuses = batchStatuses;
+
+            keys = new String[capacity];
+            hashes = new int[capacity];
+            fingerprints = new long[capacity];
+            timestamps = new long[capacity];
+            statuses = new byte[capacity];
+            batchStatuses = new byte[capacity][];
+            index = new int[capacity * 2];
+            mask = index.length - 1;
+
+            for (int i = 0; i < size; i++) {
+                int from = (head + i) % oldKeys.length;
+                keys[i] = oldKeys[from];
+                hashes[i] = oldHashes[from];
+                fingerprints[i] = oldFingerprints[from];
+                timestamps[i] = oldTimestamps[from];
+                statuses[i] = oldStatuses[from];
+                batchStatuses[i] = oldBatchStatuses[from];
+                if (keys[i] != null) {
+                    index[emptyCell(hashes[i])] = i + 1;
+                }
+            }
+            head = 0;
+        }
+    }
+
+    /**
+     * Receiver of stored entries
+     */
+    public interface Visitor {
+
+        /**
+         * @param statuses results of operations of a batch, null for a single operation
+         */
+        void visit(@NotNull String correlationId, long fingerprint, @NotNull TransferStatus status,
+                   @Nullable TransferStatus[] statuses, long timestamp);
+    }
+}
@@ -0,0 +1,549 @@
+package com.revolut.task.dao;
+
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.HistoryPage;
+import com.revolut.task.data.TransferBatch;
+import com.revolut.task.data.TransferStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append-only ledger of completed transfers with history of every account.
+ * <p>
+ * Every transfer gets an offset, the sequence number of its entry. Entries are kept in primitive arrays of fixed size
+ * segments held in a ring, so the oldest segment is dropped as a whole when capacity is reached.
+ * Every account has a secondary index of offsets of its entries in ascending order, kept by the slot of the account
+ * in {@link com.revolut.task.data.AccountTable}, so a page of its history is a binary search in the index
+ * and a read of the page entries, the rest of the ledger is never scanned. Index of an account whose entries
+ * are all dropped is dropped too, so memory is bounded by the capacity, not by the number of accounts.
+ * <p>
+ * Appends take no lock: an offset is claimed by an atomic increment, and every entry is published on its own.
+ * Journaled transfers claim offsets inside the journal append, which is serialized by the journal,
+ * so offsets follow the journal order and snapshot includes exactly the entries of transfers journaled before its cut.
+ * History is read without locks: an entry is written before its offset is published in the indexes.
+ */
+public class Ledger {
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int INDEX_CHUNK_BITS = 14;
+    private static final int INDEX_CHUNK_SIZE = 1 << INDEX_CHUNK_BITS;
+    private static final int INDEX_INITIAL_CAPACITY = 4;
+
+    private final int segmentsCount;
+    @Nullable
+    private final AtomicReferenceArray<Segment> segments;
+    /**
+     * Indexes of accounts by their slots, in chunks of {@link #INDEX_CHUNK_SIZE} slots
+     */
+    @NotNull
+    private volatile IndexChunk[] indexes = new IndexChunk[0];
+
+    /**
+     * Offset of the oldest kept entry
+     */
+    private final AtomicLong start = new AtomicLong();
+    /**
+     * Offset of the next entry
+     */
+    private final AtomicLong end = new AtomicLong();
+    /**
+     * End of ledger at the snapshot cut, see {@link #cut}
+     */
+    private volatile long cutEnd;
+
+    /**
+     * @param capacity number of entries kept, rounded up to whole segments, 0 disables the ledger
+     */
+    public Ledger(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(String.format("Invalid ledger capacity: %d", capacity));
+        }
+        segmentsCount = (int) ((capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        segments = segmentsCount == 0 ? null : new AtomicReferenceArray<>(segmentsCount);
+    }
+
+    /**
+     * Add transfer which is not journaled, e.g. in-memory or replayed from the journal
+     */
+    public void append(@NotNull AccountingTransaction transaction, @NotNull Account from, @NotNull Account to) {
+        if (segments != null) {
+            put(end.getAndIncrement(), transaction.getCorrelationId(), transaction.getFrom(), transaction.getTo(),
+                    from.getSlot(), to.getSlot(), transaction.getSum(), transaction.getTimestamp());
+        }
+    }
+
+    /**
+     * Journal the transfer and add it to the ledger in the journal order
+     *
+     * @param journal appends the transfer to the journal
+     * @return sequence number of journal record
+     */
+    public long append(@NotNull AccountingTransaction transaction, @NotNull Account from, @NotNull Account to,
+                       @NotNull JournalAction journal) {
+        if (segments == null) {
+            return journal.run(() -> {
+            });
+        }
+        Claim claim = new Claim(1);
+        long lsn = journal.run(claim);
+        put(claim.offset, transaction.getCorrelationId(), transaction.getFrom(), transaction.getTo(),
+                from.getSlot(), to.getSlot(), transaction.getSum(), transaction.getTimestamp());
+        return lsn;
+    }
+
+    /**
+     * Add successful transfers of the batch which is not journaled
+     *
+     * @param from source accounts in order of the batch, only ones of successful transfers are used
+     * @param to   destination accounts in order of the batch, only ones of successful transfers are used
+     */
+    public void append(@NotNull TransferBatch batch, @NotNull TransferStatus[] statuses,
+                       @NotNull Account[] from, @NotNull Account[] to) {
+        if (segments != null) {
+            put(end.getAndAdd(successes(statuses)), batch, statuses, from, to);
+        }
+    }
+
+    /**
+     * Journal the batch and add its successful transfers to the ledger in the journal order
+     *
+     * @param from    source accounts in order of the batch, only ones of successful transfers are used
+     * @param to      destination accounts in order of the batch, only ones of successful transfers are used
+     * @param journal appends the batch to the journal
+     * @return sequence number of journal record
+     */
+    public long append(@NotNull TransferBatch batch, @NotNull TransferStatus[] statuses,
+                       @NotNull Account[] from, @NotNull Account[] to, @NotNull JournalAction journal) {
+        if (segments == null) {
+            return journal.run(() -> {
+            });
+        }
+        Claim claim = new Claim(successes(statuses));
+        long lsn = journal.run(claim);
+        put(claim.offset, batch, statuses, from, to);
+        return lsn;
+    }
+
+    /**
+     * Add entry with known offset, e.g. from snapshot on recovery. Entries must be restored in order of offsets
+     * by a single thread before any other append.
+     */
+    public void restore(long offset, @NotNull AccountingTransaction transaction,
+                        @NotNull Account from, @NotNull Account to) {
+        if (segments == null || offset < end.get()) {
+            return;
+        }
+        if (offset != end.get()) {
+            // entries restored after a gap, older ones are not kept
+            start.set(offset);
+        }
+        end.set(offset + 1);
+        put(offset, transaction.getCorrelationId(), transaction.getFrom(), transaction.getTo(),
+                from.getSlot(), to.getSlot(), transaction.getSum(), transaction.getTimestamp());
+    }
+
+    /**
+     * Take snapshot cut in the journal and remember the end of ledger at it, see {@link #forEachBeforeCut}
+     *
+     * @param startSnapshot takes the cut in the journal
+     * @return sequence number of the last record before the cut
+     */
+    public long cut(@NotNull JournalAction startSnapshot) {
+        return startSnapshot.run(() -> cutEnd = end.get());
+    }
+
+    /**
+     * Visit kept entries appended before the last {@link #cut}, in order of offsets.
+     * An entry claimed before the cut may still be being written by its transfer, it is waited for.
+     */
+    public void forEachBeforeCut(@NotNull Visitor visitor) {
+        long last = cutEnd;
+        for (long offset = start.get(); offset < last; offset++) {
+            AccountingTransaction transaction = read(offset);
+            while (transaction == null && offset >= start.get() && !isDropped(offset)) {
+                Thread.yield();
+                transaction = read(offset);
+            }
+            if (transaction != null) {
+                visitor.visit(offset, transaction);
+            }
+        }
+    }
+
+    /**
+     * Page of history of the account, the newest transfers first
+     *
+     * @param account stored account
+     * @param before  only transfers with offsets below it are returned, {@link Long#MAX_VALUE} for the newest ones
+     * @param limit   max number of transfers
+     * @return transfers and the cursor of the next page
+     */
+    @NotNull
+    public HistoryPage history(@NotNull Account account, long before, int limit) {
+        if (segments == null) {
+            throw new IllegalStateException("Transfer history is disabled");
+        }
+        AccountIndex index = index(account.getSlot());
+        if (index == null || limit <= 0) {
+            return new HistoryPage(new ArrayList<>(), null);
+        }
+        Chunk chunk = index.chunk;
+        int count = chunk.count;
+        int position = lowerBound(chunk.offsets, count, before);
+        List<AccountingTransaction> result = new ArrayList<>(Math.min(limit, position));
+        long last = before;
+        while (position > 0 && result.size() < limit) {
+            long offset = chunk.offsets[--position];
+            AccountingTransaction transaction = read(offset);
+            if (transaction == null) {
+                // older entries are dropped too
+                return new HistoryPage(result, null);
+            }
+            result.add(transaction);
+            last = offset;
+        }
+        boolean more = position > 0 && chunk.offsets[position - 1] >= start.get();
+        return new HistoryPage(result, more ? last : null);
+    }
+
+    /**
+     * @return number of kept entries
+     */
+    public long size() {
+        return end.get() - start.get();
+    }
+
+    private void put(long offset, @NotNull TransferBatch batch, @NotNull TransferStatus[] statuses,
+                     @NotNull Account[] from, @NotNull Account[] to) {
+        for (int i = 0; i < statuses.length; i++) {
+            if (statuses[i] == TransferStatus.SUCCESS) {
+                put(offset++, batch.getCorrelationId(i), batch.getFrom(i), batch.getTo(i),
+                        from[i].getSlot(), to[i].getSlot(), batch.getSum(i), batch.getTimestamp());
+            }
+        }
+    }
+
+    /**
+     * Write entry at the claimed offset, publish it and add it to the indexes of its accounts
+     */
+    private void put(long offset, @NotNull String correlationId, long from, long to, int fromSlot, int toSlot,
+                     long sum, long timestamp) {
+        Segment segment = segment(offset);
+        if (segment == null) {
+            // dropped meanwhile by appends far ahead
+            return;
+        }
+        int i = (int) (offset & SEGMENT_MASK);
+        segment.from[i] = from;
+        segment.to[i] = to;
+        segment.fromSlots[i] = fromSlot;
+        segment.toSlots[i] = toSlot;
+        segment.sums[i] = sum;
+        segment.timestamps[i] = timestamp;
+        // volatile write publishes the entry
+        segment.correlationIds.set(i, correlationId);
+        long oldest = start.get();
+        addToIndex(fromSlot, offset, oldest);
+        if (toSlot != fromSlot) {
+            addToIndex(toSlot, offset, oldest);
+        }
+        // the entry at the same position of the dropped segment: its accounts may have no kept entries any more
+        Segment previous = segment.previous;
+        if (previous != null) {
+            dropIndex(previous.fromSlots[i], oldest);
+            dropIndex(previous.toSlots[i], oldest);
+            if (i == SEGMENT_MASK) {
+                segment.previous = null;
+            }
+        }
+    }
+
+    /**
+     * @return segment of the offset, created if it is the first entry there, null if the segment is already dropped
+     */
+    @Nullable
+    private Segment segment(long offset) {
+        long base = offset & ~SEGMENT_MASK;
+        int slot = (int) ((offset >>> SEGMENT_SHIFT) % segmentsCount);
+        while (true) {
+            Segment current = segments.get(slot);
+            if (current != null && current.base >= base) {
+                return current.base == base ? current : null;
+            }
+            // the replaced segment is dropped before its slot is reused, so readers check start first
+            start.accumulateAndGet(base - (long) (segmentsCount - 1) * SEGMENT_SIZE, Math::max);
+            Segment created = new Segment(base, current);
+            if (segments.compareAndSet(slot, current, created)) {
+                if (current != null) {
+                    // no chain of dropped segments
+                    current.previous = null;
+                }
+                return created;
+            }
+        }
+    }
+
+    /**
+     * @return null if the entry is dropped or not written yet
+     */
+    @Nullable
+    private AccountingTransaction read(long offset) {
+        if (segments == null || offset < start.get()) {
+            return null;
+        }
+        Segment segment = segments.get((int) ((offset >>> SEGMENT_SHIFT) % segmentsCount));
+        if (segment == null || segment.base != (offset & ~SEGMENT_MASK)) {
+            return null;
+        }
+        int i = (int) (offset & SEGMENT_MASK);
+        String correlationId = segment.correlationIds.get(i);
+        if (correlationId == null) {
+            return null;
+        }
+        return new AccountingTransaction(correlationId, segment.from[i], segment.to[i], segment.sums[i],
+                segment.timestamps[i]);
+    }
+
+    /**
+     * @return true if the segment of the offset is replaced by a newer one
+     */
+    private boolean isDropped(long offset) {
+        Segment segment = segments.get((int) ((offset >>> SEGMENT_SHIFT) % segmentsCount));
+        return segment != null && segment.base > (offset & ~SEGMENT_MASK);
+    }
+
+    @Nullable
+    private AccountIndex index(int slot) {
+        IndexChunk[] chunks = indexes;
+        int chunk = slot >>> INDEX_CHUNK_BITS;
+        return chunk < chunks.length ? chunks[chunk].get(slot & (INDEX_CHUNK_SIZE - 1)) : null;
+    }
+
+    private void addToIndex(int slot, long offset, long oldest) {
+        IndexChunk chunk = indexChunk(slot);
+        int i = slot & (INDEX_CHUNK_SIZE - 1);
+        while (true) {
+            AccountIndex index = chunk.get(i);
+            if (index != null && index.add(offset, oldest)) {
+                return;
+            }
+            // a dropped index is replaced, its offsets are all below start
+            AccountIndex created = new AccountIndex(offset);
+            if (chunk.compareAndSet(i, index, created)) {
+                return;
+            }
+        }
+    }
+
+    private void dropIndex(int slot, long oldest) {
+        AccountIndex index = index(slot);
+        if (index != null && index.dropIfOlder(oldest)) {
+            indexes[slot >>> INDEX_CHUNK_BITS].compareAndSet(slot & (INDEX_CHUNK_SIZE - 1), index, null);
+        }
+    }
+
+    @NotNull
+    private IndexChunk indexChunk(int slot) {
+        int chunk = slot >>> INDEX_CHUNK_BITS;
+        IndexChunk[] chunks = indexes;
+        if (chunk >= chunks.length) {
+            synchronized (this) {
+                chunks = indexes;
+                if (chunk >= chunks.length) {
+                    IndexChunk[] grown = new IndexChunk[chunk + 1];
+                    System.arraycopy(chunks, 0, grown, 0, chunks.length);
+                    for (int i = chunks.length; i < grown.length; i++) {
+                        grown[i] = new IndexChunk();
+                    }
+                    indexes = grown;
+                    chunks = grown;
+                }
+            }
+        }
+        return chunks[chunk];
+    }
+
+    private static int successes(@NotNull TransferStatus[] statuses) {
+        int result = 0;
+        for (TransferStatus status : statuses) {
+            if (status == TransferStatus.SUCCESS) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of offsets below the given one
+     */
+    private static int lowerBound(@NotNull long[] offsets, int count, long offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (offsets[middle] < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Operation on the journal that runs the given action under the lock ordering journal records
+     */
+    @FunctionalInterface
+    public interface JournalAction {
+
+        /**
+         * @return sequence number of the journal record
+         */
+        long run(@NotNull Runnable underLock);
+    }
+
+    /**
+     * Receiver of ledger entries
+     */
+    public interface Visitor {
+        void visit(long offset, @NotNull AccountingTransaction transaction);
+    }
+
+    /**
+     * Offsets of entries claimed under the journal lock
+     */
+    private final class Claim implements Runnable {
+
+        private final int count;
+        private long offset;
+
+        private Claim(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            offset = end.getAndAdd(count);
+        }
+    }
+
+    private static final class Segment {
+
+        private final long base;
+        @NotNull
+        private final AtomicReferenceArray<String> correlationIds = new AtomicReferenceArray<>(SEGMENT_SIZE);
+        @NotNull
+        private final long[] from = new long[SEGMENT_SIZE];
+        @NotNull
+        private final long[] to = new long[SEGMENT_SIZE];
+        @NotNull
+        private final int[] fromSlots = new int[SEGMENT_SIZE];
+        @NotNull
+        private final int[] toSlots = new int[SEGMENT_SIZE];
+        @NotNull
+        private final long[] sums = new long[SEGMENT_SIZE];
+        @NotNull
+        private final long[] timestamps = new long[SEGMENT_SIZE];
+        /**
+         * Segment dropped when this one was created, its accounts are checked as entries of this one are written
+         */
+        @Nullable
+        private volatile Segment previous;
+
+        private Segment(long base, @Nullable Segment previous) {
+            this.base = base;
+            this.previous = previous;
+        }
+    }
+
+    private static final class IndexChunk extends AtomicReferenceArray<AccountIndex> {
+
+        private IndexChunk() {
+            super(INDEX_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Offsets of entries of one account in ascending order. Appends are serialized by the monitor of the index,
+     * transfers of an account usually append their offsets in order under locks of the account, offsets coming out
+     * of order, e.g. from different shards, are inserted into a copy.
+     */
+    private static final class AccountIndex {
+
+        @NotNull
+        private volatile Chunk chunk;
+        /**
+         * All offsets are below start, the index is being removed and takes no more offsets
+         */
+        private boolean dropped;
+
+        private AccountIndex(long offset) {
+            long[] offsets = new long[INDEX_INITIAL_CAPACITY];
+            offsets[0] = offset;
+            chunk = new Chunk(offsets, 1);
+        }
+
+        /**
+         * @param start offset of the oldest kept entry, offsets below it are dropped when the index is copied
+         * @return false if the index is dropped
+         */
+        private synchronized boolean add(long offset, long start) {
+            if (dropped) {
+                return false;
+            }
+            Chunk current = chunk;
+            int count = current.count;
+            if (count < current.offsets.length && (count == 0 || current.offsets[count - 1] < offset)) {
+                current.offsets[count] = offset;
+                current.count = count + 1;
+                return true;
+            }
+            int from = lowerBound(current.offsets, count, start);
+            int position = Math.max(from, lowerBound(current.offsets, count, offset));
+            int live = count - from;
+            long[] offsets = new long[Math.max(INDEX_INITIAL_CAPACITY, (live + 1) * 2)];
+            System.arraycopy(current.offsets, from, offsets, 0, position - from);
+            offsets[position - from] = offset;
+            System.arraycopy(current.offsets, position, offsets, position - from + 1, count - position);
+            // readers see either the old chunk or the new one with its own count
+            chunk = new Chunk(offsets, live + 1);
+            return true;
+        }
+
+        /**
+         * @return true if all offsets are below start, the index takes no more offsets then
+         */
+        private synchronized boolean dropIfOlder(long start) {
+            Chunk current = chunk;
+            if (current.count == 0 || current.offsets[current.count - 1] < start) {
+                dropped = true;
+            }
+            return dropped;
+        }
+    }
+
+    private static final class Chunk {
+
+        @NotNull
+        private final long[] offsets;
+        /**
+         * Number of published offsets
+         */
+        private volatile int count;
+
+        private Chunk(@NotNull long[] offsets, int count) {
+            this.offsets = offsets;
+            this.count = count;
+        }
+    }
+}
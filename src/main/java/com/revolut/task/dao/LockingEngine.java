@@ -0,0 +1,49 @@
+package com.revolut.task.dao;
+
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountTable;
+import com.revolut.task.data.TransferStatus;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Transfers run on calling threads under write locks of their accounts taken in order of ids
+ */
+public class LockingEngine implements TransferEngine {
+
+    @NotNull
+    @Override
+    public TransferStatus transfer(@NotNull Account from, @NotNull Account to, long sum, @NotNull Runnable onCommit) {
+        return from.transfer(to, sum, onCommit);
+    }
+
+    @NotNull
+    @Override
+    public TransferStatus[] transfer(@NotNull Account[] from, @NotNull Account[] to, @NotNull long[] sums,
+                                     boolean atomic, @NotNull Consumer<TransferStatus[]> onCommit) {
+        return Account.transfer(from, to, sums, atomic, onCommit);
+    }
+
+    /**
+     * Optimistic reads validated against write locks of transfers, see {@link Account#getBalanceUnits(Account[])}
+     */
+    @NotNull
+    @Override
+    public long[] balances(@NotNull Account[] accounts) {
+        return Account.getBalanceUnits(accounts);
+    }
+
+    /**
+     * Transfers journaled after the cut preserve balances of their accounts under locks, see {@link Account#preserve}
+     */
+    @Override
+    public long cut(@NotNull LongSupplier startSnapshot, @NotNull AccountTable accounts) {
+        return startSnapshot.getAsLong();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,27 @@
+package com.revolut.task.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Random ids, as generated by {@link com.revolut.task.data.Account#Account(String, long)}: not guessable,
+ * but sparse and unique only with high probability, a collision is retried by {@link AccountsDao#createAccount}
+ */
+public class RandomIdAllocator implements IdAllocator {
+
+    @Override
+    public long next() {
+        return ThreadLocalRandom.current().nextLong(1000000, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void advance(long id) {
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "random";
+    }
+}
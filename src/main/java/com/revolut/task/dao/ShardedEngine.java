@@ -0,0 +1,514 @@
+package com.revolut.task.dao;
+
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountTable;
+import com.revolut.task.data.TransferStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Single writer engine: accounts are partitioned by id between shards, every shard is a thread that alone
+ * changes balances of its accounts, so transfers take no locks.
+ * <p>
+ * Calling threads pass transfers to shards through lock-free ring buffers and wait for results.
+ * A transfer between accounts of one shard is done by the shard at once. A transfer between shards is done
+ * in phases: the source shard reserves money, holding it apart from the balance, and passes the transfer
+ * to the destination shard, which commits it (journals and deposits) or aborts it. Either way the transfer goes back
+ * to the source shard, which takes the reserved money out of the balance or frees it, and only then completes
+ * the transfer, so balances never show a transfer that is aborted later and the caller reads its own transfer.
+ * Shards send these messages to each other through separate unbounded queues, so they never wait for each other.
+ * <p>
+ * A batch of accounts of one shard is done by that shard. Batches spanning shards and snapshot cuts stop all shards
+ * until reserved transfers are finished and run on the calling thread, see {@link #exclusive}.
+ * <p>
+ * Closed engine takes no requests, requests left in inboxes fail and transfers in progress between shards are finished,
+ * see {@link #close}.
+ */
+public class ShardedEngine implements TransferEngine {
+
+    private static final Logger LOG = LogManager.getLogger(ShardedEngine.class);
+
+    /**
+     * Polls of an empty inbox, or checks of a pending result, before the thread parks
+     */
+    private static final int SPINS = 64;
+    /**
+     * Max park of a caller waiting for result, so it sees the engine closed before its request was taken
+     */
+    private static final long CLOSE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @NotNull
+    private final Shard[] shards;
+    /**
+     * Transfers reserved by the source shard and not yet committed or aborted
+     */
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final ReentrantLock exclusiveLock = new ReentrantLock();
+    private volatile long pauseEpoch;
+    private volatile boolean paused;
+    private volatile boolean running = true;
+    /**
+     * Shards are stopped and their queues are drained, requests submitted later are never taken
+     */
+    private volatile boolean closed;
+
+    /**
+     * @param shardsCount number of shards
+     * @param inboxSize   capacity of ring buffer of every shard, rounded up to power of two
+     */
+    public ShardedEngine(int shardsCount, int inboxSize) {
+        if (shardsCount < 1) {
+            throw new IllegalArgumentException(String.format("Invalid number of shards: %d", shardsCount));
+        }
+        int capacity = Integer.highestOneBit(Math.max(2, inboxSize) * 2 - 1);
+        this.shards = new Shard[shardsCount];
+        for (int i = 0; i < shardsCount; i++) {
+            shards[i] = new Shard(i, capacity);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    @NotNull
+    @Override
+    public TransferStatus transfer(@NotNull Account from, @NotNull Account to, long sum, @NotNull Runnable onCommit) {
+        return (TransferStatus) shardOf(from).submit(new Transfer(from, to, sum, onCommit));
+    }
+
+    @NotNull
+    @Override
+    public TransferStatus[] transfer(@NotNull Account[] from, @NotNull Account[] to, @NotNull long[] sums,
+                                     boolean atomic, @NotNull Consumer<TransferStatus[]> onCommit) {
+        Shard shard = from.length == 0 ? shards[0] : shardOf(from[0]);
+        for (int i = 0; i < from.length; i++) {
+            if (shardOf(from[i]) != shard || shardOf(to[i]) != shard) {
+                return exclusive(() -> Account.transferOwned(from, to, sums, atomic, onCommit));
+            }
+        }
+        return (TransferStatus[]) shard.submit(new Command() {
+            @Override
+            void run(@NotNull Shard shard) {
+                complete(Account.transferOwned(from, to, sums, atomic, onCommit));
+            }
+        });
+    }
+
+    /**
+     * Balances of accounts of one shard are read by that shard, otherwise all shards are stopped.
+     * Money reserved by a transfer to another shard stays in the source balance until the transfer is finished.
+     */
+    @NotNull
+    @Override
+    public long[] balances(@NotNull Account[] accounts) {
+        Shard shard = accounts.length == 0 ? shards[0] : shardOf(accounts[0]);
+        for (Account account : accounts) {
+            if (shardOf(account) != shard) {
+                return exclusive(() -> readBalances(accounts));
+            }
+        }
+        return (long[]) shard.submit(new Command() {
+            @Override
+            void run(@NotNull Shard shard) {
+                complete(readBalances(accounts));
+            }
+        });
+    }
+
+    /**
+     * Balances of all accounts are preserved while shards are stopped,
+     * so transfers done after the cut don't change the snapshot
+     */
+    @Override
+    public long cut(@NotNull LongSupplier startSnapshot, @NotNull AccountTable accounts) {
+        return exclusive(() -> {
+            long lsn = startSnapshot.getAsLong();
+            accounts.forEach(account -> account.preserve(lsn));
+            return lsn;
+        });
+    }
+
+    /**
+     * Stop shards, then fail requests left in their inboxes and finish transfers passed between them:
+     * committed ones succeed, the rest free reserved money and fail
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        boolean interrupted = false;
+        for (Shard shard : shards) {
+            while (shard.thread.isAlive()) {
+                try {
+                    shard.thread.join();
+                } catch (InterruptedException e) {
+                    // queues may be drained only when no shard runs
+                    interrupted = true;
+                }
+            }
+        }
+        for (Shard shard : shards) {
+            for (Command command = shard.requests.poll(); command != null; command = shard.requests.poll()) {
+                command.fail(closedError());
+            }
+        }
+        for (Shard shard : shards) {
+            for (Transfer transfer = shard.messages.poll(); transfer != null; transfer = shard.messages.poll()) {
+                transfer.finish();
+            }
+        }
+        closed = true;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @NotNull
+    private Shard shardOf(@NotNull Account account) {
+        return shards[(int) Math.floorMod(account.getId(), (long) shards.length)];
+    }
+
+    private void checkRunning() {
+        if (!running) {
+            throw closedError();
+        }
+    }
+
+    @NotNull
+    private static IllegalStateException closedError() {
+        return new IllegalStateException("Transfer engine is closed");
+    }
+
+    @NotNull
+    private static long[] readBalances(@NotNull Account[] accounts) {
+        long[] result = new long[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            result[i] = accounts[i].getBalanceUnits();
+        }
+        return result;
+    }
+
+    /**
+     * Run action on the calling thread while no shard changes balances: every shard finishes its current request
+     * and takes no more from its inbox, but keeps committing and aborting reserved transfers until all are finished
+     */
+    private <T> T exclusive(@NotNull Supplier<T> action) {
+        exclusiveLock.lock();
+        try {
+            checkRunning();
+            long epoch = ++pauseEpoch;
+            paused = true;
+            for (Shard shard : shards) {
+                shard.wake();
+            }
+            for (Shard shard : shards) {
+                while (shard.pausedEpoch != epoch) {
+                    checkRunning();
+                    Thread.yield();
+                }
+            }
+            while (reserved.get() > 0) {
+                checkRunning();
+                Thread.yield();
+            }
+            return action.get();
+        } finally {
+            paused = false;
+            for (Shard shard : shards) {
+                shard.wake();
+            }
+            exclusiveLock.unlock();
+        }
+    }
+
+    /**
+     * Thread owning accounts with ids equal to its index modulo number of shards
+     */
+    private final class Shard implements Runnable {
+
+        @NotNull
+        private final Thread thread;
+        /**
+         * Requests of calling threads
+         */
+        @NotNull
+        private final Inbox requests;
+        /**
+         * Phases of transfers passed by other shards
+         */
+        private final Queue<Transfer> messages = new ConcurrentLinkedQueue<>();
+        private volatile boolean sleeping;
+        /**
+         * Last {@link #pauseEpoch} seen by the shard while no request is in progress
+         */
+        private volatile long pausedEpoch;
+
+        private Shard(int index, int capacity) {
+            this.requests = new Inbox(capacity);
+            this.thread = new Thread(this, String.format("Shard-%d", index));
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Pass request and wait for its result, runs on calling thread
+         */
+        Object submit(@NotNull Command command) {
+            checkRunning();
+            while (!requests.offer(command)) {
+                // inbox is full
+                checkRunning();
+                Thread.yield();
+            }
+            wake();
+            return command.await();
+        }
+
+        void send(@NotNull Transfer transfer) {
+            messages.add(transfer);
+            wake();
+        }
+
+        void wake() {
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                Command command = messages.poll();
+                if (command == null) {
+                    if (paused) {
+                        pausedEpoch = pauseEpoch;
+                    } else {
+                        command = requests.poll();
+                    }
+                }
+                if (command != null) {
+                    execute(command);
+                    idle = 0;
+                } else if (++idle > SPINS) {
+                    sleeping = true;
+                    // producers check the flag after publishing, so a request published since the poll is seen here
+                    if (messages.isEmpty() && (paused || requests.isEmpty()) && running) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+
+        private void execute(@NotNull Command command) {
+            try {
+                command.run(this);
+            } catch (RuntimeException e) {
+                command.fail(e);
+            } catch (Error e) {
+                LOG.error("Shard failed", e);
+                command.fail(new IllegalStateException(e));
+            }
+        }
+    }
+
+    /**
+     * Request of a calling thread, completed by a shard
+     */
+    private abstract class Command {
+
+        @NotNull
+        private final Thread caller = Thread.currentThread();
+        private Object result;
+        private RuntimeException error;
+        private volatile boolean done;
+
+        /**
+         * Runs on the shard thread
+         */
+        abstract void run(@NotNull Shard shard);
+
+        void complete(@NotNull Object result) {
+            this.result = result;
+            done = true;
+            LockSupport.unpark(caller);
+        }
+
+        void fail(@NotNull RuntimeException error) {
+            this.error = error;
+            done = true;
+            LockSupport.unpark(caller);
+        }
+
+        Object await() {
+            for (int spins = 0; !done; spins++) {
+                if (spins < SPINS) {
+                    Thread.yield();
+                } else if (closed) {
+                    // submitted while the engine was closing, after its inbox was drained
+                    fail(closedError());
+                } else {
+                    LockSupport.parkNanos(this, CLOSE_CHECK_NANOS);
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Single transfer, its phases run on the source and destination shards
+     */
+    private final class Transfer extends Command {
+
+        @NotNull
+        private final Account from;
+        @NotNull
+        private final Account to;
+        private final long sum;
+        @NotNull
+        private final Runnable onCommit;
+        /**
+         * Money is reserved at the source shard
+         */
+        private boolean reserved;
+        /**
+         * Money is deposited at the destination shard
+         */
+        private boolean committed;
+        private RuntimeException abortCause;
+
+        private Transfer(@NotNull Account from, @NotNull Account to, long sum, @NotNull Runnable onCommit) {
+            this.from = from;
+            this.to = to;
+            this.sum = sum;
+            this.onCommit = onCommit;
+        }
+
+        @Override
+        void run(@NotNull Shard shard) {
+            if (abortCause != null) {
+                from.release(sum);
+                ShardedEngine.this.reserved.decrementAndGet();
+                fail(abortCause);
+            } else if (committed) {
+                from.settle(sum);
+                ShardedEngine.this.reserved.decrementAndGet();
+                complete(TransferStatus.SUCCESS);
+            } else if (reserved) {
+                try {
+                    to.depositReserved(sum, onCommit);
+                    committed = true;
+                } catch (RuntimeException e) {
+                    abortCause = e;
+                }
+                shardOf(from).send(this);
+            } else {
+                Shard destination = shardOf(to);
+                if (destination == shard) {
+                    complete(from.transferOwned(to, sum, onCommit));
+                } else if (!from.reserve(sum)) {
+                    complete(TransferStatus.INSUFFICIENT_FUNDS);
+                } else {
+                    reserved = true;
+                    ShardedEngine.this.reserved.incrementAndGet();
+                    destination.send(this);
+                }
+            }
+        }
+
+        /**
+         * Finish the transfer passed between shards when they are stopped, runs on the closing thread
+         */
+        void finish() {
+            if (committed) {
+                from.settle(sum);
+                ShardedEngine.this.reserved.decrementAndGet();
+                complete(TransferStatus.SUCCESS);
+            } else {
+                from.release(sum);
+                ShardedEngine.this.reserved.decrementAndGet();
+                fail(abortCause == null ? closedError() : abortCause);
+            }
+        }
+    }
+
+    /**
+     * Bounded lock-free queue of many producers and the shard as its only consumer.
+     * Every slot has a sequence number: equal to the position of the producer lap when the slot is free
+     * and to the position plus one when it holds a request for the consumer.
+     */
+    private static final class Inbox {
+
+        private final Command[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        /**
+         * Consumer position, changed by the shard only
+         */
+        private long head;
+
+        private Inbox(int capacity) {
+            this.slots = new Command[capacity];
+            this.sequences = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /**
+         * @return false if the inbox is full
+         */
+        boolean offer(@NotNull Command command) {
+            while (true) {
+                long position = tail.get();
+                int index = (int) position & mask;
+                long sequence = sequences.get(index);
+                if (sequence == position) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots[index] = command;
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                } else if (sequence < position) {
+                    return false;
+                }
+            }
+        }
+
+        Command poll() {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return null;
+            }
+            Command result = slots[index];
+            slots[index] = null;
+            sequences.set(index, head + slots.length);
+            head++;
+            return result;
+        }
+
+        boolean isEmpty() {
+            return sequences.get((int) head & mask) != head + 1;
+        }
+    }
+}
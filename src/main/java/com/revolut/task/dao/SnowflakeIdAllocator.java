@@ -0,0 +1,84 @@
+package com.revolut.task.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Snowflake-style ids unique across nodes without coordination:
+ * 41 bits of milliseconds since 2020-01-01, 10 bits of node number and 12 bits of sequence within the millisecond.
+ * Ids of a node are monotonic: when the sequence of a millisecond is exhausted, or the clock goes back,
+ * the next millisecond is borrowed.
+ */
+public class SnowflakeIdAllocator implements IdAllocator {
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int NODE_BITS = 10;
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    /**
+     * 2020-01-01T00:00:00Z
+     */
+    private static final long EPOCH = 1577836800000L;
+
+    private final long node;
+    @NotNull
+    private final LongSupplier clock;
+    /**
+     * Last allocated milliseconds and sequence, without node
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIdAllocator(int node) {
+        this(node, System::currentTimeMillis);
+    }
+
+    /**
+     * @param node  number of node from 0 to {@link #MAX_NODE}
+     * @param clock current time in milliseconds
+     */
+    public SnowflakeIdAllocator(int node, @NotNull LongSupplier clock) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException(String.format("Invalid node: %d", node));
+        }
+        this.node = node;
+        this.clock = clock;
+    }
+
+    @Override
+    public long next() {
+        while (true) {
+            long previous = last.get();
+            long current = Math.max(previous + 1, (clock.getAsLong() - EPOCH) << SEQUENCE_BITS);
+            if (last.compareAndSet(previous, current)) {
+                return (current >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)
+                        | node << SEQUENCE_BITS
+                        | current & ((1 << SEQUENCE_BITS) - 1);
+            }
+        }
+    }
+
+    /**
+     * Ids of other nodes are unique by their node number
+     */
+    @Override
+    public void advance(long id) {
+        if ((id >>> SEQUENCE_BITS & MAX_NODE) == node) {
+            long state = (id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS | id & ((1 << SEQUENCE_BITS) - 1);
+            last.accumulateAndGet(state, Math::max);
+        }
+    }
+
+    /**
+     * @return time of id allocation in milliseconds
+     */
+    public static long timestamp(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return String.format("snowflake(%d)", node);
+    }
+}
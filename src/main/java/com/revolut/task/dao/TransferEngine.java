@@ -0,0 +1,66 @@
+package com.revolut.task.dao;
+
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountTable;
+import com.revolut.task.data.TransferStatus;
+import com.revolut.task.utils.Settings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Execution of money transfers between accounts, idempotency and journaling are done by {@link AccountsDao}
+ */
+public interface TransferEngine extends Closeable {
+
+    /**
+     * Transfer money, see {@link Account#transfer(Account, long, Runnable)}
+     */
+    @NotNull
+    TransferStatus transfer(@NotNull Account from, @NotNull Account to, long sum, @NotNull Runnable onCommit);
+
+    /**
+     * Batch of transfers, see {@link Account#transfer(Account[], Account[], long[], boolean, Consumer)}
+     */
+    @NotNull
+    TransferStatus[] transfer(@NotNull Account[] from, @NotNull Account[] to, @NotNull long[] sums,
+                              boolean atomic, @NotNull Consumer<TransferStatus[]> onCommit);
+
+    /**
+     * Balances of several accounts at one moment, no transfer between them is seen half done
+     *
+     * @return balances in minor units in order of accounts
+     */
+    @NotNull
+    long[] balances(@NotNull Account[] accounts);
+
+    /**
+     * Take snapshot cut, so that {@link Account#getBalanceUnits(long)} with the returned number gives balances at the cut
+     *
+     * @param startSnapshot takes the cut in the journal, returns sequence number of the last record before it
+     * @param accounts      all accounts
+     * @return sequence number of the cut
+     */
+    long cut(@NotNull LongSupplier startSnapshot, @NotNull AccountTable accounts);
+
+    @Override
+    void close();
+
+    /**
+     * Create engine configured by {@link Settings}
+     */
+    @NotNull
+    static TransferEngine fromSettings() {
+        String engine = Settings.getString(Settings.ENGINE);
+        if (engine == null || engine.equalsIgnoreCase("locking")) {
+            return new LockingEngine();
+        }
+        if (engine.equalsIgnoreCase("sharded")) {
+            return new ShardedEngine(Settings.getInt(Settings.ENGINE_SHARDS, Runtime.getRuntime().availableProcessors()),
+                    Settings.getInt(Settings.ENGINE_INBOX_SIZE, 1024));
+        }
+        throw new IllegalArgumentException(String.format("Unknown engine: %s", engine));
+    }
+}
@@ -1,132 +1,528 @@
-package com.revolut.task.data;
-
-import org.jetbrains.annotations.NotNull;
-
-import java.math.BigDecimal;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-/**
- * Simple user account implementation
- */
-public class Account {
-
-    /**
-     * Id
-     */
-    @NotNull
-    private final Long id;
-
-    /**
-     * Name
-     */
-    @NotNull
-    private final String name;
-
-    /**
-     * Account balance
-     */
-    @NotNull
-    private volatile AtomicReference<BigDecimal> balance = new AtomicReference<>(BigDecimal.ZERO);
-
-    private transient ReadWriteLock lock = new ReentrantReadWriteLock();
-
-    /**
-     * List of successfully completed financial transactions
-     */
-    private transient Map<AccountingTransaction, Boolean> accountingTransactions = new ConcurrentHashMap<>();
-
-    public Account(@NotNull String name, @NotNull BigDecimal sum) {
-        this(ThreadLocalRandom.current().nextLong(1000000, Long.MAX_VALUE), name, sum);
-    }
-
-    public Account(@NotNull Long id, @NotNull String name, @NotNull BigDecimal sum) {
-        this.id = id;
-        this.name = name;
-        this.balance.set(sum);
-    }
-
-    /**
-     * Thread safe transfer money operation
-     *
-     * @param correlationId correlationId provide idempotency
-     * @param to            account, where to transfer
-     * @param sum           money amount
-     * @return status of operation
-     */
-    @NotNull
-    public String transfer(@NotNull String correlationId, @NotNull Account to, @NotNull BigDecimal sum) {
-        AccountingTransaction transaction = new AccountingTransaction(correlationId, id, to.id, sum);
-        if (accountingTransactions.containsKey(transaction)) {
-            return "Duplicate operation was rejected";
-        }
-        if (balance.get().compareTo(sum) < 0) {
-            return "Insufficient funds";
-        }
-        try {
-            lock.writeLock().lock();
-            if (accountingTransactions.containsKey(transaction)) {
-                return "Duplicate operation was rejected";
-            }
-            if (balance.get().compareTo(sum) < 0) {
-                return "Insufficient funds";
-            }
-            withdraw(sum);
-            to.deposit(sum);
-            accountingTransactions.put(transaction, true);
-            return "Success";
-        } finally {
-            lock.writeLock().unlock();
-        }
-    }
-
-
-    private void withdraw(@NotNull BigDecimal sum) {
-        balance.getAndAccumulate(sum, BigDecimal::subtract);
-    }
-
-    private void deposit(@NotNull BigDecimal sum) {
-        balance.getAndAccumulate(sum, BigDecimal::add);
-    }
-
-    @NotNull
-    public Long getId() {
-        return id;
-    }
-
-    @NotNull
-    public String getName() {
-        return name;
-    }
-
-    @NotNull
-    public BigDecimal getBalance() {
-        return balance.get();
-    }
-
-    @Override
-    public String toString() {
-        return "Account{" +
-                "id=" + id +
-                ", name='" + name + '\'' +
-                '}';
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Account account = (Account) o;
-        return Objects.equals(id, account.id);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(id);
-    }
-}
+package com.revolut.task.data;
+
+import com.revolut.task.metrics.Metrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Simple user account implementation.
+ * Account stored in {@link AccountTable} is a view of its slot there, account created by constructor keeps its fields
+ * itself until it is stored.
+ */
+public class Account {
+
+    /**
+     * Id
+     */
+    private final long id;
+
+    /**
+     * Table holding fields of the account, null until the account is stored
+     */
+    @Nullable
+    private AccountTable table;
+    private int slot;
+
+    /**
+     * Name and balance in minor units, see {@link Money}, of account not stored yet
+     */
+    @Nullable
+    private String name;
+    private long balance;
+
+    public Account(@NotNull String name, long sum) {
+        this(ThreadLocalRandom.current().nextLong(1000000, Long.MAX_VALUE), name, sum);
+    }
+
+    public Account(long id, @NotNull String name, long sum) {
+        this.id = id;
+        this.name = name;
+        this.balance = sum;
+    }
+
+    /**
+     * View of stored account
+     */
+    Account(@NotNull AccountTable table, int slot, long id) {
+        this.id = id;
+        this.table = table;
+        this.slot = slot;
+    }
+
+    /**
+     * Make the account a view of its slot, called by {@link AccountTable#put}
+     */
+    void attach(@NotNull AccountTable table, int slot) {
+        this.table = table;
+        this.slot = slot;
+        this.name = null;
+    }
+
+    /**
+     * Thread safe transfer money operation.
+     * Locks of both accounts are taken in order of their numbers, see {@link AccountTable#lockIndex}, so concurrent
+     * transfers in opposite directions can't deadlock and transfers between different pairs of accounts
+     * rarely block each other.
+     * Idempotency is provided by the caller, see {@link com.revolut.task.dao.AccountsDao#transfer}.
+     *
+     * @param to       account, where to transfer
+     * @param sum      money amount in minor units
+     * @param onCommit called under locks of both accounts right before balances change, e.g. to journal the transfer.
+     *                 Exception thrown by it cancels the transfer
+     * @return status of operation
+     * @throws ArithmeticException if balance of destination account overflows
+     */
+    @NotNull
+    public TransferStatus transfer(@NotNull Account to, long sum, @NotNull Runnable onCommit) {
+        if (balance() < sum) {
+            return TransferStatus.INSUFFICIENT_FUNDS;
+        }
+        AccountTable table = stored();
+        int lock = lockIndex();
+        int toLock = to.lockIndex();
+        StampedLock first = table.lock(Math.min(lock, toLock));
+        // both accounts may be guarded by the same lock, it is not reentrant
+        StampedLock second = lock == toLock ? null : table.lock(Math.max(lock, toLock));
+        long firstStamp = writeLock(first);
+        try {
+            long secondStamp = second == null ? 0 : writeLock(second);
+            try {
+                if (balance() < sum) {
+                    return TransferStatus.INSUFFICIENT_FUNDS;
+                }
+                // check overflow before the transfer is committed
+                Math.addExact(to.balance(), sum);
+                onCommit.run();
+                to.deposit(sum);
+                withdraw(sum);
+                return TransferStatus.SUCCESS;
+            } finally {
+                if (second != null) {
+                    second.unlockWrite(secondStamp);
+                }
+            }
+        } finally {
+            first.unlockWrite(firstStamp);
+        }
+    }
+
+    /**
+     * Transfer without locks for a single writer, e.g. a shard of {@link com.revolut.task.dao.ShardedEngine}:
+     * the calling thread must be the only one changing balances of both accounts.
+     *
+     * @see #transfer(Account, long, Runnable)
+     */
+    @NotNull
+    public TransferStatus transferOwned(@NotNull Account to, long sum, @NotNull Runnable onCommit) {
+        if (available() < sum) {
+            return TransferStatus.INSUFFICIENT_FUNDS;
+        }
+        Math.addExact(to.balance(), sum);
+        onCommit.run();
+        to.deposit(sum);
+        withdraw(sum);
+        return TransferStatus.SUCCESS;
+    }
+
+    /**
+     * First phase of transfer to an account of another single writer: hold money, so it can't be spent twice
+     * while the other writer commits the transfer. The balance doesn't change, so readers never see a transfer
+     * that may be aborted. Single writer only.
+     *
+     * @param sum money amount in minor units
+     * @return false if funds are insufficient
+     */
+    public boolean reserve(long sum) {
+        if (available() < sum) {
+            return false;
+        }
+        AccountTable table = stored();
+        table.setReservation(slot, table.reservation(slot) + sum);
+        return true;
+    }
+
+    /**
+     * Free money held by {@link #reserve} of an aborted transfer. Single writer only.
+     */
+    public void release(long sum) {
+        AccountTable table = stored();
+        table.setReservation(slot, table.reservation(slot) - sum);
+    }
+
+    /**
+     * Last phase of transfer committed by another single writer: take money held by {@link #reserve} out
+     * of the balance. Single writer only.
+     */
+    public void settle(long sum) {
+        withdraw(sum);
+        release(sum);
+    }
+
+    /**
+     * Second phase of transfer from an account of another single writer: deposit money held by {@link #reserve}.
+     * Single writer only.
+     *
+     * @param onCommit called right before the balance changes, exception thrown by it aborts the transfer
+     * @throws ArithmeticException if balance overflows, onCommit is not called then
+     */
+    public void depositReserved(long sum, @NotNull Runnable onCommit) {
+        Math.addExact(balance(), sum);
+        onCommit.run();
+        deposit(sum);
+    }
+
+    /**
+     * Thread safe batch of transfers.
+     * Lock of every account of the batch is taken once, all of them in order of their numbers, and the transfers are
+     * checked and applied one by one over balances of the locked accounts.
+     *
+     * @param from     accounts, where to transfer from
+     * @param to       accounts, where to transfer, in the same order
+     * @param sums     money amounts in minor units, in the same order
+     * @param atomic   if true, either all transfers are applied or none of them, see {@link TransferStatus#REJECTED}
+     * @param onCommit called under locks of all accounts with statuses of transfers right before balances change
+     *                 by the successful ones. Exception thrown by it cancels all transfers
+     * @return statuses of transfers in the same order
+     * @throws ArithmeticException if balance of destination account overflows, no transfer is applied then
+     */
+    @NotNull
+    public static TransferStatus[] transfer(@NotNull Account[] from, @NotNull Account[] to, @NotNull long[] sums,
+                                            boolean atomic, @NotNull Consumer<TransferStatus[]> onCommit) {
+        Account[] accounts = distinctById(from, to);
+        if (accounts.length == 0) {
+            return applyBatch(accounts, from, to, sums, atomic, onCommit);
+        }
+        AccountTable table = accounts[0].stored();
+        int[] locks = distinctLocks(accounts);
+        long[] stamps = new long[locks.length];
+        int locked = 0;
+        try {
+            for (; locked < locks.length; locked++) {
+                stamps[locked] = writeLock(table.lock(locks[locked]));
+            }
+            return applyBatch(accounts, from, to, sums, atomic, onCommit);
+        } finally {
+            while (locked > 0) {
+                locked--;
+                table.lock(locks[locked]).unlockWrite(stamps[locked]);
+            }
+        }
+    }
+
+    /**
+     * Balances of several accounts at one moment: no transfer between them is seen half done.
+     * Balances are read under optimistic read stamps of their locks, and if a transfer took any of the locks meanwhile,
+     * they are read again under read locks taken in order of their numbers.
+     *
+     * @param accounts stored accounts, may repeat
+     * @return balances in minor units in order of accounts
+     */
+    @NotNull
+    public static long[] getBalanceUnits(@NotNull Account[] accounts) {
+        long[] result = new long[accounts.length];
+        if (accounts.length == 0) {
+            return result;
+        }
+        AccountTable table = accounts[0].stored();
+        int[] locks = distinctLocks(accounts);
+        long[] stamps = new long[locks.length];
+        boolean valid = true;
+        for (int i = 0; i < locks.length && valid; i++) {
+            stamps[i] = table.lock(locks[i]).tryOptimisticRead();
+            valid = stamps[i] != 0;
+        }
+        if (valid) {
+            for (int i = 0; i < accounts.length; i++) {
+                result[i] = accounts[i].balance();
+            }
+            for (int i = 0; i < locks.length && valid; i++) {
+                valid = table.lock(locks[i]).validate(stamps[i]);
+            }
+            if (valid) {
+                return result;
+            }
+        }
+        Metrics.BALANCES_RETRIES.increment();
+        int locked = 0;
+        try {
+            for (; locked < locks.length; locked++) {
+                stamps[locked] = table.lock(locks[locked]).readLock();
+            }
+            for (int i = 0; i < accounts.length; i++) {
+                result[i] = accounts[i].balance();
+            }
+            return result;
+        } finally {
+            while (locked > 0) {
+                locked--;
+                table.lock(locks[locked]).unlockRead(stamps[locked]);
+            }
+        }
+    }
+
+    /**
+     * Take write lock, time of waiting for a contended lock is recorded, see {@link Metrics#LOCK_WAIT}
+     *
+     * @return stamp to unlock
+     */
+    private static long writeLock(@NotNull StampedLock lock) {
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) {
+            long start = System.nanoTime();
+            stamp = lock.writeLock();
+            Metrics.LOCK_WAIT.record(System.nanoTime() - start);
+        }
+        return stamp;
+    }
+
+    /**
+     * @return numbers of locks of the accounts sorted without repeats
+     */
+    @NotNull
+    private static int[] distinctLocks(@NotNull Account[] accounts) {
+        int[] locks = new int[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            locks[i] = accounts[i].lockIndex();
+        }
+        Arrays.sort(locks);
+        int count = 0;
+        for (int lock : locks) {
+            if (count == 0 || locks[count - 1] != lock) {
+                locks[count++] = lock;
+            }
+        }
+        return Arrays.copyOf(locks, count);
+    }
+
+    /**
+     * Batch of transfers without locks for a single writer of all its accounts
+     *
+     * @see #transfer(Account[], Account[], long[], boolean, Consumer)
+     */
+    @NotNull
+    public static TransferStatus[] transferOwned(@NotNull Account[] from, @NotNull Account[] to, @NotNull long[] sums,
+                                                 boolean atomic, @NotNull Consumer<TransferStatus[]> onCommit) {
+        return applyBatch(distinctById(from, to), from, to, sums, atomic, onCommit);
+    }
+
+    /**
+     * @return accounts of transfers sorted by id without repeats
+     */
+    @NotNull
+    private static Account[] distinctById(@NotNull Account[] from, @NotNull Account[] to) {
+        Account[] accounts = new Account[from.length + to.length];
+        System.arraycopy(from, 0, accounts, 0, from.length);
+        System.arraycopy(to, 0, accounts, from.length, to.length);
+        Arrays.sort(accounts, Comparator.comparingLong(Account::getId));
+        int count = 0;
+        for (Account account : accounts) {
+            if (count == 0 || accounts[count - 1].id != account.id) {
+                accounts[count++] = account;
+            }
+        }
+        return Arrays.copyOf(accounts, count);
+    }
+
+    /**
+     * Check and apply transfers one by one over balances of the accounts
+     *
+     * @param accounts all accounts of transfers sorted by id
+     */
+    @NotNull
+    private static TransferStatus[] applyBatch(@NotNull Account[] accounts, @NotNull Account[] from, @NotNull Account[] to,
+                                               @NotNull long[] sums, boolean atomic,
+                                               @NotNull Consumer<TransferStatus[]> onCommit) {
+        int count = accounts.length;
+        long[] ids = new long[count];
+        long[] balances = new long[count];
+        long[] reservations = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = accounts[i].id;
+            balances[i] = accounts[i].balance();
+            reservations[i] = accounts[i].reservation();
+        }
+        TransferStatus[] result = new TransferStatus[sums.length];
+        int failed = -1;
+        for (int i = 0; i < sums.length; i++) {
+            int source = Arrays.binarySearch(ids, from[i].id);
+            int destination = Arrays.binarySearch(ids, to[i].id);
+            if (balances[source] - reservations[source] < sums[i]) {
+                result[i] = TransferStatus.INSUFFICIENT_FUNDS;
+                failed = i;
+                if (atomic) {
+                    break;
+                }
+            } else {
+                balances[source] -= sums[i];
+                balances[destination] = Math.addExact(balances[destination], sums[i]);
+                result[i] = TransferStatus.SUCCESS;
+            }
+        }
+        if (atomic && failed >= 0) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = i == failed ? result[i] : TransferStatus.REJECTED;
+            }
+            onCommit.accept(result);
+            return result;
+        }
+        onCommit.accept(result);
+        for (int i = 0; i < count; i++) {
+            accounts[i].setBalance(balances[i]);
+        }
+        return result;
+    }
+
+
+    /**
+     * Save current balance for snapshot in progress, before it is changed by a transfer journaled after snapshot cut.
+     * Must be called under the write lock of the account, e.g. from {@code onCommit} of {@link #transfer},
+     * or by the single writer.
+     *
+     * @param snapshotLsn sequence number of the last journal record included into snapshot
+     */
+    public void preserve(long snapshotLsn) {
+        AccountTable table = stored();
+        if (table.preservedLsn(slot) != snapshotLsn) {
+            table.preserve(slot, snapshotLsn, table.balance(slot));
+        }
+    }
+
+    /**
+     * Balance for snapshot: changes by transfers journaled after snapshot cut are excluded
+     *
+     * @param snapshotLsn sequence number of the last journal record included into snapshot
+     * @return balance in minor units
+     */
+    public long getBalanceUnits(long snapshotLsn) {
+        AccountTable table = stored();
+        StampedLock lock = table.lock(lockIndex());
+        long stamp = lock.readLock();
+        try {
+            return table.preservedLsn(slot) == snapshotLsn ? table.preservedBalance(slot) : table.balance(slot);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Apply transfer without any checks, e.g. on recovery from journal
+     */
+    public void apply(@NotNull Account to, long sum) {
+        withdraw(sum);
+        to.deposit(sum);
+    }
+
+    private void withdraw(long sum) {
+        setBalance(balance() - sum);
+    }
+
+    private void deposit(long sum) {
+        setBalance(Math.addExact(balance(), sum));
+    }
+
+    private long balance() {
+        return table == null ? balance : table.balance(slot);
+    }
+
+    /**
+     * @return money held by transfers not committed yet, see {@link #reserve}
+     */
+    private long reservation() {
+        return table == null ? 0 : table.reservation(slot);
+    }
+
+    /**
+     * @return balance without money held by transfers not committed yet
+     */
+    private long available() {
+        return balance() - reservation();
+    }
+
+    private void setBalance(long balance) {
+        if (table == null) {
+            this.balance = balance;
+        } else {
+            table.setBalance(slot, balance);
+        }
+    }
+
+    /**
+     * Number of lock of the stored account, see {@link AccountTable#lockIndex}
+     */
+    private int lockIndex() {
+        stored();
+        return AccountTable.lockIndex(slot);
+    }
+
+    @NotNull
+    private AccountTable stored() {
+        if (table == null) {
+            throw new IllegalStateException(String.format("Account %d is not stored", id));
+        }
+        return table;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return slot of the stored account in its {@link AccountTable}, slots are numbered densely from 0
+     */
+    public int getSlot() {
+        stored();
+        return slot;
+    }
+
+    @NotNull
+    public String getName() {
+        return table == null ? name : table.name(slot);
+    }
+
+    @NotNull
+    public BigDecimal getBalance() {
+        return Money.toDecimal(balance());
+    }
+
+    /**
+     * @return account balance in minor units
+     */
+    public long getBalanceUnits() {
+        return balance();
+    }
+
+    /**
+     * @return number of balance changes since the account was stored
+     */
+    public long getVersion() {
+        return table == null ? 0 : table.version(slot);
+    }
+
+    @Override
+    public String toString() {
+        return "Account{" +
+                "id=" + id +
+                ", name='" + getName() + '\'' +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Account account = (Account) o;
+        return id == account.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+}
@@ -0,0 +1,378 @@
+package com.revolut.task.data;
+
+import com.revolut.task.metrics.Metrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Compact storage of accounts: fields of every account are kept in a slot of primitive arrays
+ * and {@link Account} is only a view of its slot.
+ * <p>
+ * Slots are allocated in chunks, so the storage grows without copying. Ids are mapped to slots by open addressing
+ * hash tables split into segments: lookups are lock-free optimistic reads of a {@link StampedLock},
+ * insertions lock one segment. Balances are guarded by a fixed set of {@link StampedLock}s, the lock of a slot is chosen
+ * by its number: transfers take write locks, consistent reads of several balances are optimistic.
+ * Per account this costs about 60 bytes plus the name, and no objects except the name.
+ */
+public final class AccountTable {
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int SEGMENTS = 64;
+    private static final int LOCKS = 4096;
+    private static final int INITIAL_SEGMENT_CAPACITY = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final StampedLock[] locks = new StampedLock[LOCKS];
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    public AccountTable() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Find account by id
+     *
+     * @return view of the account, null if not found
+     */
+    @Nullable
+    public Account get(long id) {
+        int slot = slot(id);
+        return slot < 0 ? null : new Account(this, slot, id);
+    }
+
+    /**
+     * Find slot of account by id, lock-free and without allocation
+     *
+     * @return slot number or -1 if not found
+     */
+    public int slot(long id) {
+        long hash = hash(id);
+        return segments[(int) (hash >>> 58)].find(id, (int) hash);
+    }
+
+    /**
+     * Store account, its previous state with the same id is replaced, e.g. on recovery from the journal.
+     * The given account becomes a view of its slot.
+     */
+    public void put(@NotNull Account account) {
+        store(account, true);
+    }
+
+    /**
+     * Store account unless an account with the same id exists.
+     * The given account becomes a view of its slot if it is stored.
+     *
+     * @return false if id is taken
+     */
+    public boolean putIfAbsent(@NotNull Account account) {
+        return store(account, false);
+    }
+
+    /**
+     * Number of accounts
+     */
+    public int size() {
+        int result = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            result += segment.size;
+            segment.lock.unlockRead(stamp);
+        }
+        return result;
+    }
+
+    /**
+     * Call action for view of every account, accounts stored concurrently may be skipped
+     */
+    public void forEach(@NotNull Consumer<Account> action) {
+        for (Segment segment : segments) {
+            int[] slots;
+            long stamp = segment.lock.readLock();
+            try {
+                slots = segment.slots();
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+            for (int slot : slots) {
+                action.accept(new Account(this, slot, id(slot)));
+            }
+        }
+    }
+
+    long id(int slot) {
+        return chunk(slot).ids[slot & (CHUNK_SIZE - 1)];
+    }
+
+    @NotNull
+    String name(int slot) {
+        return chunk(slot).names[slot & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Balance of slot in minor units: a single volatile read, balances are written only after transfers are committed.
+     * Money held by a transfer to an account of another single writer stays in the balance until the transfer
+     * is committed, see {@link Account#reserve}
+     */
+    public long balance(int slot) {
+        return chunk(slot).balances.get(slot & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Change balance, under the write lock of the slot or by the single writer
+     */
+    void setBalance(int slot, long balance) {
+        Chunk chunk = chunk(slot);
+        int index = slot & (CHUNK_SIZE - 1);
+        chunk.balances.set(index, balance);
+        chunk.versions.lazySet(index, chunk.versions.get(index) + 1);
+    }
+
+    /**
+     * Number of balance changes
+     */
+    long version(int slot) {
+        return chunk(slot).versions.get(slot & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Money held by transfers not committed yet, see {@link Account#reserve}
+     */
+    long reservation(int slot) {
+        return chunk(slot).reservations[slot & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Change reservation, by the single writer of the slot only
+     */
+    void setReservation(int slot, long reservation) {
+        chunk(slot).reservations[slot & (CHUNK_SIZE - 1)] = reservation;
+    }
+
+    long preservedBalance(int slot) {
+        return chunk(slot).preservedBalances[slot & (CHUNK_SIZE - 1)];
+    }
+
+    long preservedLsn(int slot) {
+        return chunk(slot).preservedLsns[slot & (CHUNK_SIZE - 1)];
+    }
+
+    void preserve(int slot, long lsn, long balance) {
+        Chunk chunk = chunk(slot);
+        int index = slot & (CHUNK_SIZE - 1);
+        chunk.preservedBalances[index] = balance;
+        chunk.preservedLsns[index] = lsn;
+    }
+
+    /**
+     * Number of lock guarding the slot, locks are taken in order of their numbers
+     */
+    static int lockIndex(int slot) {
+        return slot & (LOCKS - 1);
+    }
+
+    @NotNull
+    StampedLock lock(int index) {
+        return locks[index];
+    }
+
+    private boolean store(@NotNull Account account, boolean replace) {
+        long id = account.getId();
+        long hash = hash(id);
+        Segment segment = segments[(int) (hash >>> 58)];
+        long stamp = segment.lock.writeLock();
+        try {
+            int slot = Segment.probe(segment.keys, segment.values, id, (int) hash);
+            if (slot < 0) {
+                slot = allocate();
+                Chunk chunk = chunk(slot);
+                int index = slot & (CHUNK_SIZE - 1);
+                chunk.ids[index] = id;
+                write(slot, account);
+                // the slot is published to readers by segment unlock
+                segment.insert(id, (int) hash, slot);
+            } else if (replace) {
+                write(slot, account);
+            } else {
+                return false;
+            }
+            account.attach(this, slot);
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    private void write(int slot, @NotNull Account account) {
+        Chunk chunk = chunk(slot);
+        int index = slot & (CHUNK_SIZE - 1);
+        chunk.names[index] = account.getName();
+        chunk.preservedLsns[index] = -1;
+        chunk.balances.set(index, account.getBalanceUnits());
+    }
+
+    private int allocate() {
+        int slot = nextSlot.getAndIncrement();
+        if (slot < 0) {
+            throw new IllegalStateException("Account table is full");
+        }
+        int chunk = slot >>> CHUNK_BITS;
+        if (chunk >= chunks.length) {
+            synchronized (this) {
+                Chunk[] current = chunks;
+                if (chunk >= current.length) {
+                    Chunk[] grown = new Chunk[chunk + 1];
+                    System.arraycopy(current, 0, grown, 0, current.length);
+                    for (int i = current.length; i < grown.length; i++) {
+                        grown[i] = new Chunk();
+                    }
+                    chunks = grown;
+                }
+            }
+        }
+        return slot;
+    }
+
+    @NotNull
+    private Chunk chunk(int slot) {
+        return chunks[slot >>> CHUNK_BITS];
+    }
+
+    private static long hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Fields of {@link #CHUNK_SIZE} accounts
+     */
+    private static final class Chunk {
+
+        private final long[] ids = new long[CHUNK_SIZE];
+        private final String[] names = new String[CHUNK_SIZE];
+        private final AtomicLongArray balances = new AtomicLongArray(CHUNK_SIZE);
+        private final AtomicLongArray versions = new AtomicLongArray(CHUNK_SIZE);
+        /**
+         * Money held by transfers not committed yet, read and written by the single writer of the slot
+         */
+        private final long[] reservations = new long[CHUNK_SIZE];
+        /**
+         * Balances before the first change after snapshot cut, see {@link Account#preserve(long)}
+         */
+        private final long[] preservedBalances = new long[CHUNK_SIZE];
+        private final long[] preservedLsns = new long[CHUNK_SIZE];
+    }
+
+    /**
+     * Open addressing hash table of ids with linear probing, slot number plus one is stored for id, 0 marks empty entry
+     */
+    private static final class Segment {
+
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+        private int[] values = new int[INITIAL_SEGMENT_CAPACITY];
+        private int size;
+
+        /**
+         * Lookup without the write lock
+         *
+         * @return slot of id or -1 if not found
+         */
+        int find(long id, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                int result = probe(keys, values, id, hash);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+            Metrics.LOOKUP_RETRIES.increment();
+            stamp = lock.readLock();
+            try {
+                return probe(keys, values, id, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Insert new id under the write lock
+         */
+        void insert(long id, int hash, int slot) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            while (values[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = id;
+            values[index] = slot + 1;
+            size++;
+        }
+
+        @NotNull
+        int[] slots() {
+            int[] result = new int[size];
+            int count = 0;
+            for (int value : values) {
+                if (value != 0) {
+                    result[count++] = value - 1;
+                }
+            }
+            return result;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            long[] newKeys = new long[oldKeys.length * 2];
+            int[] newValues = new int[oldValues.length * 2];
+            int mask = newKeys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != 0) {
+                    int index = (int) hash(oldKeys[i]) & mask;
+                    while (newValues[index] != 0) {
+                        index = (index + 1) & mask;
+                    }
+                    newKeys[index] = oldKeys[i];
+                    newValues[index] = oldValues[i];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+
+        /**
+         * Arrays may change concurrently during optimistic read, so the probe is bounded by their length
+         */
+        static int probe(@NotNull long[] keys, @NotNull int[] values, long id, int hash) {
+            int length = Math.min(keys.length, values.length);
+            int mask = length - 1;
+            int index = hash & mask;
+            for (int i = 0; i < length; i++) {
+                int value = values[index];
+                if (value == 0) {
+                    return -1;
+                }
+                if (keys[index] == id) {
+                    return value - 1;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.revolut.task.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Page of transfer history of an account, the newest transfers first
+ */
+public class HistoryPage {
+
+    @NotNull
+    private final List<AccountingTransaction> transactions;
+
+    /**
+     * Cursor of the next page, null if there are no older transfers
+     */
+    @Nullable
+    private final Long nextCursor;
+
+    public HistoryPage(@NotNull List<AccountingTransaction> transactions, @Nullable Long nextCursor) {
+        this.transactions = transactions;
+        this.nextCursor = nextCursor;
+    }
+
+    @NotNull
+    public List<AccountingTransaction> getTransactions() {
+        return transactions;
+    }
+
+    @Nullable
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+}
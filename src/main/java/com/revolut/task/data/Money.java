@@ -0,0 +1,44 @@
+package com.revolut.task.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+
+/**
+ * Fixed scale money amounts.
+ * Inside the service amounts are kept as a primitive long number of minor units,
+ * BigDecimal is used only at the API edge.
+ */
+public final class Money {
+
+    /**
+     * Number of decimal places of a minor unit
+     */
+    public static final int SCALE = 6;
+
+    private Money() {
+    }
+
+    /**
+     * Convert decimal amount to minor units
+     *
+     * @param amount decimal amount
+     * @return number of minor units
+     * @throws ArithmeticException if amount has more than {@link #SCALE} decimal places or doesn't fit in long
+     */
+    public static long toUnits(@NotNull BigDecimal amount) {
+        return amount.movePointRight(SCALE).longValueExact();
+    }
+
+    /**
+     * Convert minor units to decimal amount
+     *
+     * @param units number of minor units
+     * @return decimal amount without trailing zeros
+     */
+    @NotNull
+    public static BigDecimal toDecimal(long units) {
+        BigDecimal result = BigDecimal.valueOf(units, SCALE).stripTrailingZeros();
+        return result.scale() < 0 ? result.setScale(0) : result;
+    }
+}
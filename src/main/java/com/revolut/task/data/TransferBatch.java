@@ -0,0 +1,117 @@
+package com.revolut.task.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Money transfers executed together under one correlationId
+ */
+public class TransferBatch {
+
+    /**
+     * CorrelationId of the batch
+     */
+    @NotNull
+    private final String correlationId;
+
+    /**
+     * Either all transfers are applied or none
+     */
+    private final boolean atomic;
+
+    /**
+     * Transfers: account ids and money amounts in minor units
+     */
+    @NotNull
+    private final long[] from;
+    @NotNull
+    private final long[] to;
+    @NotNull
+    private final long[] sums;
+    /**
+     * Indexes of transfers in the request, e.g. when invalid transfers of the request are left out, null if they are
+     * the same as in the batch
+     */
+    @Nullable
+    private final int[] legs;
+
+    /**
+     * Time of batch, millis
+     */
+    private final long timestamp;
+
+    public TransferBatch(@NotNull String correlationId, boolean atomic,
+                         @NotNull long[] from, @NotNull long[] to, @NotNull long[] sums, long timestamp) {
+        this(correlationId, atomic, null, from, to, sums, timestamp);
+    }
+
+    /**
+     * @param legs indexes of transfers in the request, ascending, null if they are the same as in the batch
+     */
+    public TransferBatch(@NotNull String correlationId, boolean atomic, @Nullable int[] legs,
+                         @NotNull long[] from, @NotNull long[] to, @NotNull long[] sums, long timestamp) {
+        if (from.length != to.length || from.length != sums.length || legs != null && legs.length != sums.length) {
+            throw new IllegalArgumentException("Transfers of batch are inconsistent");
+        }
+        this.correlationId = correlationId;
+        this.atomic = atomic;
+        this.legs = legs;
+        this.from = from;
+        this.to = to;
+        this.sums = sums;
+        this.timestamp = timestamp;
+    }
+
+    @NotNull
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * CorrelationId of a single transfer in history and events, numbered by its index in the request
+     */
+    @NotNull
+    public String getCorrelationId(int leg) {
+        return correlationId + '#' + getLeg(leg);
+    }
+
+    /**
+     * @return index of the transfer in the request
+     */
+    public int getLeg(int leg) {
+        return legs == null ? leg : legs[leg];
+    }
+
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    public int size() {
+        return sums.length;
+    }
+
+    public long getFrom(int leg) {
+        return from[leg];
+    }
+
+    public long getTo(int leg) {
+        return to[leg];
+    }
+
+    public long getSum(int leg) {
+        return sums[leg];
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferBatch{" +
+                "correlationId='" + correlationId + '\'' +
+                ", atomic=" + atomic +
+                ", size=" + sums.length +
+                '}';
+    }
+}
@@ -0,0 +1,41 @@
+package com.revolut.task.data;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+
+/**
+ * Money transfer of a batch as it comes in request
+ */
+public class TransferLeg {
+
+    @Nullable
+    private Long fromId;
+
+    @Nullable
+    private Long toId;
+
+    @Nullable
+    private BigDecimal sum;
+
+    public TransferLeg(@Nullable Long fromId, @Nullable Long toId, @Nullable BigDecimal sum) {
+        this.fromId = fromId;
+        this.toId = toId;
+        this.sum = sum;
+    }
+
+    @Nullable
+    public Long getFromId() {
+        return fromId;
+    }
+
+    @Nullable
+    public Long getToId() {
+        return toId;
+    }
+
+    @Nullable
+    public BigDecimal getSum() {
+        return sum;
+    }
+}
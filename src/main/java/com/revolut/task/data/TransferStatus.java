@@ -0,0 +1,45 @@
+package com.revolut.task.data;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Result of money transfer operation
+ */
+public enum TransferStatus {
+
+    SUCCESS("Success"),
+    INSUFFICIENT_FUNDS("Insufficient funds"),
+    /**
+     * CorrelationId was already used for transfer with other accounts or sum
+     */
+    DUPLICATE("Duplicate operation was rejected"),
+    /**
+     * Transfer with the same correlationId is still being processed
+     */
+    IN_PROGRESS("Operation is in progress"),
+    /**
+     * Transfer of all-or-nothing batch was not applied, because another transfer of the batch failed
+     */
+    REJECTED("Rejected, another transfer of the batch failed"),
+    /**
+     * Store of recent results is full of transfers still being processed, the transfer was not started
+     */
+    OVERLOADED("Too many operations in progress, retry later"),
+    //
+    ;
+
+    @NotNull
+    private final String message;
+
+    TransferStatus(@NotNull String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return status text published in API
+     */
+    @NotNull
+    public String getMessage() {
+        return message;
+    }
+}
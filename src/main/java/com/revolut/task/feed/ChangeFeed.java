@@ -0,0 +1,173 @@
+package com.revolut.task.feed;
+
+import com.revolut.task.data.AccountingTransaction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Feed of committed transfers for downstream consumers: a bounded ring buffer of events with sequence numbers.
+ * <p>
+ * Transfers publish events under locks of their accounts, so events of an account follow the order of its transfers.
+ * Publishing is an increment of the sequence and a write to the ring, it never waits for consumers:
+ * a consumer that falls behind by more than the capacity finds its events overwritten and has to resubscribe.
+ * <p>
+ * Consumers read events by sequence without locks. An event is delivered only after its journal record is on disk,
+ * so a consumer never sees a transfer lost by a crash. Waiting consumers are woken by the publisher only when they
+ * park, so the transfer path pays a volatile read per event otherwise.
+ */
+public class ChangeFeed {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Returned by {@link #read} when the requested events are overwritten
+     */
+    public static final long OVERWRITTEN = -1;
+
+    /**
+     * Upper bound of a wait without wakeup, covers events made durable without {@link #wakeUp()}
+     */
+    private static final long MAX_PARK_MILLIS = 100;
+
+    private final int mask;
+    @NotNull
+    private final AtomicReferenceArray<TransferEvent> ring;
+    /**
+     * Sequence of the next event
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * Sequence number of the last journal record on disk
+     */
+    @NotNull
+    private final LongSupplier durableLsn;
+
+    private final Object monitor = new Object();
+    private volatile boolean waiting;
+
+    /**
+     * Feed of in-memory transfers, events are delivered at once
+     *
+     * @param capacity number of kept events, rounded up to a power of two
+     */
+    public ChangeFeed(int capacity) {
+        this(capacity, () -> Long.MAX_VALUE);
+    }
+
+    /**
+     * @param capacity   number of kept events, rounded up to a power of two
+     * @param durableLsn sequence number of the last journal record on disk
+     */
+    public ChangeFeed(int capacity, @NotNull LongSupplier durableLsn) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException(String.format("Invalid feed capacity: %d", capacity));
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.durableLsn = durableLsn;
+    }
+
+    /**
+     * Publish committed transfer
+     *
+     * @param lsn sequence number of its journal record, 0 if it is not journaled
+     */
+    public void publish(@NotNull AccountingTransaction transaction, long lsn) {
+        long sequence = head.getAndIncrement();
+        // volatile write: a consumer that parked after this write sees the event, otherwise this thread sees waiting
+        ring.set((int) (sequence & mask), new TransferEvent(sequence, transaction, lsn));
+        if (waiting) {
+            wakeUp();
+        }
+    }
+
+    /**
+     * Wake up waiting consumers, e.g. after journal records are written to disk
+     */
+    public void wakeUp() {
+        if (waiting) {
+            synchronized (monitor) {
+                waiting = false;
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Read events in order of sequences, stops at the first event not published or not durable yet
+     *
+     * @param from sequence of the first event
+     * @param max  max number of events
+     * @param out  receives events
+     * @return sequence after the last read event, {@link #OVERWRITTEN} if the event from is not kept any more
+     */
+    public long read(long from, int max, @NotNull List<TransferEvent> out) {
+        if (from < head.get() - ring.length()) {
+            return OVERWRITTEN;
+        }
+        long durable = durableLsn.getAsLong();
+        long sequence = from;
+        for (int i = 0; i < max; i++, sequence++) {
+            TransferEvent event = ring.get((int) (sequence & mask));
+            if (event == null || event.getSequence() < sequence || event.getLsn() > durable) {
+                break;
+            }
+            if (event.getSequence() > sequence) {
+                // lapped by publishers while reading, events read so far are still valid
+                return i == 0 ? OVERWRITTEN : sequence;
+            }
+            out.add(event);
+        }
+        return sequence;
+    }
+
+    /**
+     * Wait until the event is available to {@link #read} or overwritten
+     *
+     * @return false on timeout
+     */
+    public boolean await(long sequence, long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (monitor) {
+            while (!isAvailable(sequence)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                waiting = true;
+                // the publisher of the event may have missed the flag
+                if (isAvailable(sequence)) {
+                    return true;
+                }
+                monitor.wait(Math.max(1, Math.min(MAX_PARK_MILLIS, TimeUnit.NANOSECONDS.toMillis(remaining))));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return sequence of the next event to be published
+     */
+    public long getHead() {
+        return head.get();
+    }
+
+    /**
+     * @return sequence of the oldest kept event
+     */
+    public long getOldest() {
+        return Math.max(0, head.get() - ring.length());
+    }
+
+    private boolean isAvailable(long sequence) {
+        TransferEvent event = ring.get((int) (sequence & mask));
+        return event != null && (event.getSequence() > sequence
+                || event.getSequence() == sequence && event.getLsn() <= durableLsn.getAsLong());
+    }
+}
@@ -0,0 +1,42 @@
+package com.revolut.task.feed;
+
+import com.revolut.task.data.AccountingTransaction;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Committed transfer published in {@link ChangeFeed}
+ */
+public class TransferEvent {
+
+    /**
+     * Sequence number in the feed
+     */
+    private final long sequence;
+
+    @NotNull
+    private final AccountingTransaction transaction;
+
+    /**
+     * Sequence number of journal record of the transfer, the event is delivered after the record is on disk
+     */
+    private final transient long lsn;
+
+    TransferEvent(long sequence, @NotNull AccountingTransaction transaction, long lsn) {
+        this.sequence = sequence;
+        this.transaction = transaction;
+        this.lsn = lsn;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    @NotNull
+    public AccountingTransaction getTransaction() {
+        return transaction;
+    }
+
+    long getLsn() {
+        return lsn;
+    }
+}
@@ -0,0 +1,944 @@
+package com.revolut.task.journal;
+
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.TransferBatch;
+import com.revolut.task.data.TransferStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of state changes with group commit.
+ * <p>
+ * Records are appended to in-memory buffer, a single flusher thread writes and fsyncs
+ * everything appended during the previous fsync at once. So concurrent writers share disk flushes:
+ * the more concurrent transfers, the bigger the batch.
+ * <p>
+ * Record layout: length (int), crc32 (int), type (byte), payload. Journal consists of segment files
+ * named by sequence number of their first record.
+ * <p>
+ * To make restart fast the state is periodically saved in {@link Snapshot}: on open the latest snapshot
+ * is loaded and only the records after it are replayed, older segments are deleted.
+ * <p>
+ * Records on disk are read by {@link Reader} for replication: segments are sent to replicas as they are,
+ * and replicas append them with {@link #appendRecords}, so record sequence numbers are the same everywhere.
+ */
+public class Journal implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(Journal.class);
+
+    private static final byte ACCOUNT = 1;
+    private static final byte TRANSFER = 2;
+    private static final byte TRANSFER_BATCH = 3;
+    /**
+     * Batch with indexes of its transfers in the request, transfers of {@link #TRANSFER_BATCH} have the same indexes
+     * as in the batch
+     */
+    private static final byte TRANSFER_BATCH_LEGS = 4;
+    private static final TransferStatus[] STATUSES = TransferStatus.values();
+    private static final Runnable NOTHING = () -> {
+    };
+
+    private static final int HEADER_SIZE = 8;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final long SEGMENT_SIZE = 256L << 20;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    @NotNull
+    private final Path directory;
+    /**
+     * Segment being appended, changed by flusher
+     */
+    @NotNull
+    private Path segment;
+    @NotNull
+    private FileChannel channel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final CRC32 crc = new CRC32();
+    private int recordStart;
+
+    /**
+     * Records appended since the last flush
+     */
+    @NotNull
+    private ByteBuffer active = ByteBuffer.allocate(BUFFER_SIZE);
+    /**
+     * Records being written by flusher
+     */
+    @NotNull
+    private ByteBuffer flushing = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Sequence number of the last appended record
+     */
+    private long appendedLsn;
+    /**
+     * Sequence number of the last record written to disk, changed under the lock
+     */
+    private volatile long durableLsn;
+    /**
+     * End of records on disk for readers, changed with {@link #durableLsn}
+     */
+    @NotNull
+    private volatile Tail tail;
+
+    /**
+     * Sequence number of the last record not needed by readers any more, see {@link #setRetention}
+     */
+    @NotNull
+    private volatile LongSupplier retention = () -> Long.MAX_VALUE;
+
+    /**
+     * Start new segment after the next flush, so segments before snapshot may be deleted
+     */
+    private boolean rollRequested;
+
+    /**
+     * Sequence number of the last record included into snapshot in progress
+     */
+    private volatile long snapshotLsn = Long.MAX_VALUE;
+
+    private volatile IOException failure;
+    private volatile boolean running = true;
+
+    @NotNull
+    private final Thread flusher;
+
+    private Journal(@NotNull Path directory, @NotNull Path segment, @NotNull FileChannel channel, long lsn)
+            throws IOException {
+        this.directory = directory;
+        this.segment = segment;
+        this.channel = channel;
+        this.appendedLsn = lsn;
+        this.durableLsn = lsn;
+        this.tail = new Tail(segment, lsn, channel.size());
+        this.flusher = new Thread(this::flushLoop, "JournalFlusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Open journal: replay all existing records and prepare for appending
+     *
+     * @param directory journal directory, created if absent
+     * @param listener  receiver of existing records
+     */
+    @NotNull
+    public static Journal open(@NotNull Path directory, @NotNull JournalListener listener) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        List<Path> snapshots = listFiles(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        List<Path> segments = listFiles(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+
+        long snapshotLsn = 0;
+        if (!snapshots.isEmpty()) {
+            snapshotLsn = Snapshot.load(snapshots.get(snapshots.size() - 1), listener);
+            LOG.info(String.format("Snapshot of record %d loaded in %d ms",
+                    snapshotLsn, (System.nanoTime() - start) / 1_000_000));
+        }
+        if (!segments.isEmpty() && sequenceNumber(segments.get(0), SEGMENT_PREFIX, SEGMENT_SUFFIX) > snapshotLsn + 1) {
+            throw new IOException(String.format("Journal %s has no records after snapshot %d", directory, snapshotLsn));
+        }
+        long lsn = snapshotLsn;
+        for (int i = 0; i < segments.size(); i++) {
+            lsn = Math.max(lsn, replaySegment(segments.get(i), i == segments.size() - 1, snapshotLsn, listener));
+        }
+        Path last = segments.isEmpty() ? segmentPath(directory, lsn + 1) : segments.get(segments.size() - 1);
+        FileChannel channel = FileChannel.open(last,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        LOG.info(String.format("Journal %s recovered: %d records after snapshot, %d ms total",
+                directory, lsn - snapshotLsn, (System.nanoTime() - start) / 1_000_000));
+        return new Journal(directory, last, channel, lsn);
+    }
+
+    /**
+     * Append record of account creation
+     *
+     * @return sequence number of record
+     */
+    public long appendAccount(long id, @NotNull String name, long balance) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer buffer = beginRecord(1 + 8 + 8 + 4 + nameBytes.length);
+            buffer.put(ACCOUNT).putLong(id).putLong(balance).putInt(nameBytes.length).put(nameBytes);
+            return endRecord();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append record of successful transfer
+     *
+     * @return sequence number of record
+     */
+    public long appendTransfer(@NotNull AccountingTransaction transaction) {
+        return appendTransfer(transaction, NOTHING);
+    }
+
+    /**
+     * Append record of successful transfer
+     *
+     * @param onAppend called under the lock right after the record is appended, so its effects follow the order
+     *                 of records, e.g. numbering of ledger entries
+     * @return sequence number of record
+     */
+    public long appendTransfer(@NotNull AccountingTransaction transaction, @NotNull Runnable onAppend) {
+        byte[] correlationId = transaction.getCorrelationId().getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer buffer = beginRecord(1 + 8 + 8 + 8 + 8 + 4 + correlationId.length);
+            buffer.put(TRANSFER)
+                    .putLong(transaction.getFrom())
+                    .putLong(transaction.getTo())
+                    .putLong(transaction.getSum())
+                    .putLong(transaction.getTimestamp())
+                    .putInt(correlationId.length)
+                    .put(correlationId);
+            long lsn = endRecord();
+            onAppend.run();
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append record of batch of transfers, it is replayed all or nothing
+     *
+     * @param statuses statuses of transfers, only successful ones are applied on replay
+     * @param onAppend called under the lock right after the record is appended, see {@link #appendTransfer}
+     * @return sequence number of record
+     */
+    public long appendTransferBatch(@NotNull TransferBatch batch, @NotNull TransferStatus[] statuses,
+                                    @NotNull Runnable onAppend) {
+        byte[] correlationId = batch.getCorrelationId().getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer buffer = beginRecord(1 + 8 + 1 + 4 + correlationId.length + 4 + batch.size() * (4 + 8 + 8 + 8 + 1));
+            buffer.put(TRANSFER_BATCH_LEGS)
+                    .putLong(batch.getTimestamp())
+                    .put((byte) (batch.isAtomic() ? 1 : 0))
+                    .putInt(correlationId.length)
+                    .put(correlationId)
+                    .putInt(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                buffer.putInt(batch.getLeg(i))
+                        .putLong(batch.getFrom(i))
+                        .putLong(batch.getTo(i))
+                        .putLong(batch.getSum(i))
+                        .put((byte) statuses[i].ordinal());
+            }
+            long lsn = endRecord();
+            onAppend.run();
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append records of another journal as they are, e.g. replicated from the leader
+     *
+     * @param records complete records from position to limit, the buffer is not changed
+     * @return sequence number of the last record
+     * @throws IOException if a record is incomplete or corrupted, nothing is appended then
+     */
+    public long appendRecords(@NotNull ByteBuffer records) throws IOException {
+        ByteBuffer buffer = records.duplicate();
+        CRC32 checksum = new CRC32();
+        int count = 0;
+        while (buffer.hasRemaining()) {
+            int size = recordSize(buffer, checksum);
+            if (size < 0) {
+                throw new IOException(String.format("Corrupted record %d of replicated records", count));
+            }
+            buffer.position(buffer.position() + HEADER_SIZE + size);
+            count++;
+        }
+        lock.lock();
+        try {
+            checkFailure();
+            if (!running) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            ensureCapacity(records.remaining());
+            active.put(records.duplicate());
+            appendedLsn += count;
+            notEmpty.signal();
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pass records to the listener in order, e.g. records appended by {@link #appendRecords}
+     *
+     * @param records complete records from position to limit, the buffer is not changed
+     */
+    public static void readRecords(@NotNull ByteBuffer records, @NotNull JournalListener listener) throws IOException {
+        ByteBuffer buffer = records.duplicate();
+        while (buffer.hasRemaining()) {
+            int size = buffer.getInt();
+            buffer.getInt();
+            ByteBuffer record = buffer.slice();
+            record.limit(size);
+            readRecord(record, listener);
+            buffer.position(buffer.position() + size);
+        }
+    }
+
+    /**
+     * Wait until all records appended before this call are on disk
+     *
+     * @return sequence number of the last record appended before this call
+     * @throws UncheckedIOException if journal can't be written
+     */
+    public long sync() {
+        lock.lock();
+        try {
+            long target = appendedLsn;
+            while (durableLsn < target) {
+                checkFailure();
+                synced.awaitUninterruptibly();
+            }
+            return target;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a record after the given one is on disk
+     *
+     * @return false on timeout
+     */
+    public boolean awaitDurable(long lsn, long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        if (durableLsn > lsn) {
+            return true;
+        }
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (durableLsn <= lsn) {
+                if (remaining <= 0 || failure != null || !running) {
+                    return false;
+                }
+                remaining = synced.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return sequence number of the last record written to disk
+     */
+    public long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * Start new snapshot: it includes all records appended before this call.
+     * New segment is started, so the older ones may be deleted after snapshot is written.
+     *
+     * @param onStart called under the lock, so it sees effects of {@code onAppend} of all records before the cut
+     *                and none after it
+     * @return sequence number of the last record included into snapshot
+     */
+    public long startSnapshot(@NotNull Runnable onStart) {
+        lock.lock();
+        try {
+            rollRequested = true;
+            notEmpty.signal();
+            // published under the lock: any record appended later sees it
+            snapshotLsn = appendedLsn;
+            onStart.run();
+            return snapshotLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return sequence number of the last record included into snapshot in progress,
+     * {@link Long#MAX_VALUE} if there is no snapshot in progress
+     */
+    public long getSnapshotLsn() {
+        return snapshotLsn;
+    }
+
+    /**
+     * Finish snapshot started by {@link #startSnapshot}
+     *
+     * @param committed true if snapshot was written successfully, so older segments and snapshots may be deleted
+     */
+    public void finishSnapshot(long lsn, boolean committed) throws IOException {
+        snapshotLsn = Long.MAX_VALUE;
+        if (committed) {
+            compact(lsn);
+        }
+    }
+
+    /**
+     * @param lsn sequence number returned by {@link #startSnapshot}
+     */
+    @NotNull
+    public Snapshot.Writer newSnapshot(long lsn) throws IOException {
+        return new Snapshot.Writer(snapshotPath(directory, lsn), lsn);
+    }
+
+    /**
+     * @return the latest committed snapshot, null if there is none
+     */
+    @Nullable
+    public Path getLatestSnapshot() throws IOException {
+        List<Path> snapshots = listFiles(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+
+    /**
+     * @return sequence number of the last journal record included into snapshot
+     */
+    public static long snapshotLsn(@NotNull Path snapshot) {
+        return sequenceNumber(snapshot, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Replace state of an empty journal with snapshot of another one, e.g. of the leader for a new replica:
+     * the snapshot is loaded and the next appended record follows the last record included into it
+     *
+     * @param in       snapshot file content
+     * @param size     size of snapshot file
+     * @param listener receiver of snapshot records
+     * @return sequence number of the last record included into snapshot
+     * @throws IllegalStateException if the journal has records
+     */
+    public long installSnapshot(@NotNull ReadableByteChannel in, long size, @NotNull JournalListener listener)
+            throws IOException {
+        Path tmpPath = directory.resolve(SNAPSHOT_PREFIX + "installed" + SNAPSHOT_SUFFIX + ".tmp");
+        try (FileChannel file = FileChannel.open(tmpPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (long position = 0; position < size; ) {
+                long read = file.transferFrom(in, position, size - position);
+                if (read <= 0) {
+                    throw new EOFException(String.format("Snapshot ends at %d of %d bytes", position, size));
+                }
+                position += read;
+            }
+            file.force(true);
+        }
+        lock.lock();
+        try {
+            if (appendedLsn != 0 || rollRequested) {
+                throw new IllegalStateException("Snapshot can be installed into an empty journal only");
+            }
+            long lsn = Snapshot.load(tmpPath, listener);
+            // the empty segment is named by the first record, it is deleted before the snapshot is visible
+            channel.close();
+            Files.delete(segment);
+            Files.move(tmpPath, snapshotPath(directory, lsn), StandardCopyOption.ATOMIC_MOVE);
+            segment = segmentPath(directory, lsn + 1);
+            channel = FileChannel.open(segment,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            appendedLsn = lsn;
+            durableLsn = lsn;
+            tail = new Tail(segment, lsn, 0);
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keep segments needed by readers, e.g. by replicas behind the latest snapshot
+     *
+     * @param retention sequence number of the last record not needed any more,
+     *                  segments with later records are not deleted by compaction
+     */
+    public void setRetention(@NotNull LongSupplier retention) {
+        this.retention = retention;
+    }
+
+    /**
+     * Open reader of records on disk
+     *
+     * @param lsn sequence number of the last record not to read
+     * @return null if the next record is deleted by compaction
+     * @throws IllegalArgumentException if the record is not on disk
+     */
+    @Nullable
+    public Reader openReader(long lsn) throws IOException {
+        Tail tail = this.tail;
+        if (lsn > tail.lsn) {
+            throw new IllegalArgumentException(String.format("Record %d is not on disk, the last one is %d", lsn, tail.lsn));
+        }
+        Path found = null;
+        for (Path path : listFiles(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (sequenceNumber(path, SEGMENT_PREFIX, SEGMENT_SUFFIX) <= lsn + 1) {
+                found = path;
+            }
+        }
+        if (found == null) {
+            return null;
+        }
+        FileChannel reader;
+        try {
+            reader = FileChannel.open(found, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            long skip = lsn + 1 - sequenceNumber(found, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            long position = 0;
+            if (skip > 0) {
+                ByteBuffer buffer = reader.map(FileChannel.MapMode.READ_ONLY, 0, reader.size());
+                for (long i = 0; i < skip; i++) {
+                    if (buffer.remaining() < HEADER_SIZE) {
+                        throw new IOException(String.format("Journal segment %s has no record %d", found, lsn));
+                    }
+                    buffer.position(buffer.position() + HEADER_SIZE + buffer.getInt(buffer.position()));
+                }
+                position = buffer.position();
+            }
+            return new Reader(found, reader, position, lsn);
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Delete segments and snapshots not needed for recovery from snapshot of the given record
+     * and not retained for readers
+     *
+     * @param lsn sequence number of the last record included into committed snapshot
+     */
+    private void compact(long lsn) throws IOException {
+        long deleted = Math.min(lsn, retention.getAsLong());
+        List<Path> segments = listFiles(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if (sequenceNumber(segments.get(i + 1), SEGMENT_PREFIX, SEGMENT_SUFFIX) <= deleted + 1) {
+                Files.delete(segments.get(i));
+            }
+        }
+        for (Path snapshot : listFiles(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (sequenceNumber(snapshot, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < lsn) {
+                Files.delete(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Flush all appended records and close journal
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    @NotNull
+    private ByteBuffer beginRecord(int size) {
+        checkFailure();
+        if (!running) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        ensureCapacity(HEADER_SIZE + size);
+        recordStart = active.position();
+        active.putInt(size).putInt(0);
+        return active;
+    }
+
+    private void ensureCapacity(int size) {
+        if (active.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(active.capacity() * 2, active.position() + size));
+            active.flip();
+            grown.put(active);
+            active = grown;
+        }
+    }
+
+    private long endRecord() {
+        int size = active.position() - recordStart - HEADER_SIZE;
+        crc.reset();
+        crc.update(active.array(), recordStart + HEADER_SIZE, size);
+        active.putInt(recordStart + 4, (int) crc.getValue());
+        notEmpty.signal();
+        return ++appendedLsn;
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Journal write failed", failure);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long batchLsn;
+            boolean roll;
+            Tail written = null;
+            lock.lock();
+            try {
+                while (active.position() == 0 && running && !rollRequested) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (active.position() == 0 && !running) {
+                    return;
+                }
+                ByteBuffer batch = active;
+                active = flushing;
+                flushing = batch;
+                batchLsn = appendedLsn;
+                roll = rollRequested;
+                rollRequested = false;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                flushing.flip();
+                while (flushing.hasRemaining()) {
+                    channel.write(flushing);
+                }
+                channel.force(false);
+                flushing.clear();
+                written = new Tail(segment, batchLsn, channel.size());
+                if ((roll || channel.size() >= SEGMENT_SIZE) && channel.size() > 0) {
+                    channel.close();
+                    segment = segmentPath(directory, batchLsn + 1);
+                    channel = FileChannel.open(segment,
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    written = new Tail(segment, batchLsn, 0);
+                }
+            } catch (IOException e) {
+                LOG.error("Journal write failed", e);
+                failure = e;
+            }
+            lock.lock();
+            try {
+                if (failure == null) {
+                    tail = written;
+                    durableLsn = batchLsn;
+                }
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (failure != null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param skipLsn records up to this sequence number are already in snapshot
+     * @return sequence number of the last record in segment
+     */
+    private static long replaySegment(@NotNull Path segment, boolean last, long skipLsn,
+                                      @NotNull JournalListener listener) throws IOException {
+        long lsn = sequenceNumber(segment, SEGMENT_PREFIX, SEGMENT_SUFFIX) - 1;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while (buffer.hasRemaining()) {
+                int size = recordSize(buffer, crc);
+                if (size < 0) {
+                    break;
+                }
+                if (++lsn > skipLsn) {
+                    ByteBuffer record = buffer.slice();
+                    record.position(HEADER_SIZE).limit(HEADER_SIZE + size);
+                    readRecord(record.slice(), listener);
+                }
+                buffer.position(buffer.position() + HEADER_SIZE + size);
+            }
+            if (buffer.hasRemaining()) {
+                if (!last) {
+                    throw new IOException(String.format("Journal segment %s is corrupted at %d", segment, buffer.position()));
+                }
+                LOG.warn(String.format("Journal segment %s: incomplete tail truncated at %d", segment, buffer.position()));
+                channel.truncate(buffer.position());
+            }
+        }
+        return lsn;
+    }
+
+    /**
+     * Check record at position of the buffer, the position is not changed
+     *
+     * @return size of payload, -1 if the record is incomplete or corrupted
+     */
+    private static int recordSize(@NotNull ByteBuffer buffer, @NotNull CRC32 crc) {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            return -1;
+        }
+        int size = buffer.getInt(start);
+        if (size <= 0 || size > buffer.remaining() - HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer record = buffer.duplicate();
+        record.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + size);
+        crc.reset();
+        crc.update(record);
+        return (int) crc.getValue() == buffer.getInt(start + 4) ? size : -1;
+    }
+
+    private static void readRecord(@NotNull ByteBuffer record, @NotNull JournalListener listener) throws IOException {
+        byte type = record.get();
+        switch (type) {
+            case ACCOUNT: {
+                long id = record.getLong();
+                long balance = record.getLong();
+                listener.onAccount(id, readString(record), balance);
+                break;
+            }
+            case TRANSFER: {
+                long from = record.getLong();
+                long to = record.getLong();
+                long sum = record.getLong();
+                long timestamp = record.getLong();
+                listener.onTransfer(new AccountingTransaction(readString(record), from, to, sum, timestamp));
+                break;
+            }
+            case TRANSFER_BATCH:
+            case TRANSFER_BATCH_LEGS: {
+                long timestamp = record.getLong();
+                boolean atomic = record.get() != 0;
+                String correlationId = readString(record);
+                int size = record.getInt();
+                int[] legs = type == TRANSFER_BATCH ? null : new int[size];
+                long[] from = new long[size];
+                long[] to = new long[size];
+                long[] sums = new long[size];
+                TransferStatus[] statuses = new TransferStatus[size];
+                for (int i = 0; i < size; i++) {
+                    if (legs != null) {
+                        legs[i] = record.getInt();
+                    }
+                    from[i] = record.getLong();
+                    to[i] = record.getLong();
+                    sums[i] = record.getLong();
+                    statuses[i] = STATUSES[record.get()];
+                }
+                listener.onTransferBatch(new TransferBatch(correlationId, atomic, legs, from, to, sums, timestamp),
+                        statuses);
+                break;
+            }
+            default:
+                throw new IOException(String.format("Unknown journal record type: %d", type));
+        }
+    }
+
+    @NotNull
+    private static String readString(@NotNull ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static List<Path> listFiles(@NotNull Path directory, @NotNull String prefix, @NotNull String suffix)
+            throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path path : stream) {
+                result.add(path);
+            }
+        }
+        // names have fixed width sequence number, so lexicographical order is chronological
+        Collections.sort(result);
+        return result;
+    }
+
+    @NotNull
+    private static Path segmentPath(@NotNull Path directory, long firstLsn) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+    }
+
+    @NotNull
+    private static Path snapshotPath(@NotNull Path directory, long lsn) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, lsn, SNAPSHOT_SUFFIX));
+    }
+
+    private static long sequenceNumber(@NotNull Path file, @NotNull String prefix, @NotNull String suffix) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * End of records on disk: the segment being appended, the last record and the size of the segment up to its end
+     */
+    private static final class Tail {
+
+        @NotNull
+        private final Path segment;
+        private final long lsn;
+        private final long size;
+
+        private Tail(@NotNull Path segment, long lsn, long size) {
+            this.segment = segment;
+            this.lsn = lsn;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Reader of records on disk for replication: ranges of records are sent from segment files as they are
+     * with {@link FileChannel#transferTo}, so the kernel copies them to the socket without passing them
+     * through the heap. Not thread safe.
+     */
+    public final class Reader implements Closeable {
+
+        @NotNull
+        private Path segment;
+        @NotNull
+        private FileChannel channel;
+        private long position;
+        /**
+         * Sequence number of the last read record
+         */
+        private long lsn;
+        /**
+         * Sequence number of the last record of a complete segment, 0 if it is not known yet
+         */
+        private long segmentEnd;
+        private int count;
+        private long size;
+
+        private Reader(@NotNull Path segment, @NotNull FileChannel channel, long position, long lsn) {
+            this.segment = segment;
+            this.channel = channel;
+            this.position = position;
+            this.lsn = lsn;
+        }
+
+        /**
+         * @return sequence number of the last read record
+         */
+        public long getLsn() {
+            return lsn;
+        }
+
+        /**
+         * Find records on disk after the last read one, up to the end of their segment
+         *
+         * @return false if there are no such records yet
+         */
+        public boolean next() throws IOException {
+            while (true) {
+                Tail tail = Journal.this.tail;
+                if (segment.equals(tail.segment)) {
+                    count = (int) Math.min(Integer.MAX_VALUE, tail.lsn - lsn);
+                    size = tail.size - position;
+                    return count > 0;
+                }
+                // the segment is complete, its records end before the first one of the next segment
+                long end = channel.size();
+                if (position < end) {
+                    if (segmentEnd == 0) {
+                        segmentEnd = nextSegmentLsn() - 1;
+                    }
+                    count = (int) (segmentEnd - lsn);
+                    size = end - position;
+                    return true;
+                }
+                channel.close();
+                segment = segmentPath(directory, lsn + 1);
+                channel = FileChannel.open(segment, StandardOpenOption.READ);
+                position = 0;
+                segmentEnd = 0;
+            }
+        }
+
+        /**
+         * @return number of records found by {@link #next()}
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return size of records found by {@link #next()}, bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Send records found by {@link #next()}
+         */
+        public void transferTo(@NotNull WritableByteChannel target) throws IOException {
+            for (long sent = 0; sent < size; ) {
+                sent += channel.transferTo(position + sent, size - sent, target);
+            }
+            position += size;
+            lsn += count;
+            size = 0;
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private long nextSegmentLsn() throws IOException {
+            long first = sequenceNumber(segment, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            for (Path path : listFiles(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                long next = sequenceNumber(path, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+                if (next > first) {
+                    return next;
+                }
+            }
+            throw new IOException(String.format("Journal segment %s is not complete", segment));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.revolut.task.journal;
+
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.TransferBatch;
+import com.revolut.task.data.TransferStatus;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receiver of snapshot and journal records on recovery
+ */
+public interface JournalListener {
+
+    /**
+     * Account was created
+     */
+    void onAccount(long id, @NotNull String name, long balance);
+
+    /**
+     * Money transfer was completed successfully
+     */
+    void onTransfer(@NotNull AccountingTransaction transaction);
+
+    /**
+     * Batch of money transfers was completed, transfers with {@link TransferStatus#SUCCESS} were applied
+     */
+    void onTransferBatch(@NotNull TransferBatch batch, @NotNull TransferStatus[] statuses);
+
+    /**
+     * Result of transfer saved in snapshot for idempotency
+     */
+    void onTransferResult(@NotNull String correlationId, long fingerprint, @NotNull TransferStatus status, long timestamp);
+
+    /**
+     * Results of transfers of batch saved in snapshot for idempotency
+     *
+     * @param statuses statuses of transfers in order of the batch
+     */
+    void onBatchResult(@NotNull String correlationId, long fingerprint, @NotNull TransferStatus[] statuses,
+                       long timestamp);
+
+    /**
+     * Entry of transfer history saved in snapshot
+     *
+     * @param offset offset of the entry in the ledger
+     */
+    void onLedgerEntry(long offset, @NotNull AccountingTransaction transaction);
+}
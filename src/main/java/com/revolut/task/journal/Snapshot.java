@@ -0,0 +1,242 @@
+package com.revolut.task.journal;
+
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.TransferStatus;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Point-in-time state of all accounts, recent transfer results and the ledger of transfer history
+ * in a memory-mapped file.
+ * <p>
+ * Layout: magic (int), version (int), sequence number of the last journal record included (long),
+ * then records: type (byte) and fields. The file ends with {@link #END} record.
+ * Strings are stored as length (int) and UTF-8 bytes.
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 3;
+    /**
+     * Snapshots without ledger entries and batch results are still loaded
+     */
+    private static final int MIN_VERSION = 1;
+
+    private static final byte END = 0;
+    private static final byte ACCOUNT = 1;
+    private static final byte TRANSFER_RESULT = 2;
+    private static final byte LEDGER_ENTRY = 3;
+    private static final byte BATCH_RESULT = 4;
+
+    /**
+     * Size of mapped window: files are mapped by parts to keep address space usage bounded
+     */
+    private static final int WINDOW_SIZE = 64 << 20;
+
+    private static final TransferStatus[] STATUSES = TransferStatus.values();
+
+    private Snapshot() {
+    }
+
+    /**
+     * Load snapshot
+     *
+     * @return sequence number of the last journal record included into snapshot
+     */
+    public static long load(@NotNull Path path, @NotNull JournalListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedInput in = new MappedInput(channel);
+            in.ensure(16);
+            int magic = in.buffer.getInt();
+            int version = in.buffer.getInt();
+            if (magic != MAGIC || version < MIN_VERSION || version > VERSION) {
+                throw new IOException(String.format("Unsupported snapshot format: %s", path));
+            }
+            long lsn = in.buffer.getLong();
+            while (true) {
+                in.ensure(1);
+                byte type = in.buffer.get();
+                switch (type) {
+                    case END:
+                        return lsn;
+                    case ACCOUNT: {
+                        in.ensure(20);
+                        long id = in.buffer.getLong();
+                        long balance = in.buffer.getLong();
+                        listener.onAccount(id, in.readString(), balance);
+                        break;
+                    }
+                    case TRANSFER_RESULT: {
+                        in.ensure(21);
+                        long fingerprint = in.buffer.getLong();
+                        long timestamp = in.buffer.getLong();
+                        TransferStatus status = STATUSES[in.buffer.get()];
+                        listener.onTransferResult(in.readString(), fingerprint, status, timestamp);
+                        break;
+                    }
+                    case BATCH_RESULT: {
+                        in.ensure(20);
+                        long fingerprint = in.buffer.getLong();
+                        long timestamp = in.buffer.getLong();
+                        TransferStatus[] statuses = new TransferStatus[in.buffer.getInt()];
+                        in.ensure(statuses.length + 4);
+                        for (int i = 0; i < statuses.length; i++) {
+                            statuses[i] = STATUSES[in.buffer.get()];
+                        }
+                        listener.onBatchResult(in.readString(), fingerprint, statuses, timestamp);
+                        break;
+                    }
+                    case LEDGER_ENTRY: {
+                        in.ensure(44);
+                        long offset = in.buffer.getLong();
+                        long from = in.buffer.getLong();
+                        long to = in.buffer.getLong();
+                        long sum = in.buffer.getLong();
+                        long timestamp = in.buffer.getLong();
+                        listener.onLedgerEntry(offset, new AccountingTransaction(in.readString(), from, to, sum, timestamp));
+                        break;
+                    }
+                    default:
+                        throw new IOException(String.format("Unknown snapshot record type %d in %s", type, path));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writer of new snapshot. Snapshot becomes visible only after {@link #commit()}.
+     */
+    public static class Writer implements Closeable {
+
+        @NotNull
+        private final Path path;
+        @NotNull
+        private final Path tmpPath;
+        @NotNull
+        private final FileChannel channel;
+        @NotNull
+        private MappedByteBuffer buffer;
+        private long windowStart;
+        private boolean committed;
+
+        Writer(@NotNull Path path, long lsn) throws IOException {
+            this.path = path;
+            this.tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+            this.channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(lsn);
+        }
+
+        public void writeAccount(long id, @NotNull String name, long balance) throws IOException {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            ensure(1 + 8 + 8 + 4 + bytes.length);
+            buffer.put(ACCOUNT).putLong(id).putLong(balance).putInt(bytes.length).put(bytes);
+        }
+
+        public void writeTransferResult(@NotNull String correlationId, long fingerprint,
+                                        @NotNull TransferStatus status, long timestamp) throws IOException {
+            byte[] bytes = correlationId.getBytes(StandardCharsets.UTF_8);
+            ensure(1 + 8 + 8 + 1 + 4 + bytes.length);
+            buffer.put(TRANSFER_RESULT).putLong(fingerprint).putLong(timestamp).put((byte) status.ordinal())
+                    .putInt(bytes.length).put(bytes);
+        }
+
+        public void writeBatchResult(@NotNull String correlationId, long fingerprint,
+                                     @NotNull TransferStatus[] statuses, long timestamp) throws IOException {
+            byte[] bytes = correlationId.getBytes(StandardCharsets.UTF_8);
+            ensure(1 + 8 + 8 + 4 + statuses.length + 4 + bytes.length);
+            buffer.put(BATCH_RESULT).putLong(fingerprint).putLong(timestamp).putInt(statuses.length);
+            for (TransferStatus status : statuses) {
+                buffer.put((byte) status.ordinal());
+            }
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        public void writeLedgerEntry(long offset, @NotNull AccountingTransaction transaction) throws IOException {
+            byte[] bytes = transaction.getCorrelationId().getBytes(StandardCharsets.UTF_8);
+            ensure(1 + 8 * 5 + 4 + bytes.length);
+            buffer.put(LEDGER_ENTRY).putLong(offset).putLong(transaction.getFrom()).putLong(transaction.getTo())
+                    .putLong(transaction.getSum()).putLong(transaction.getTimestamp())
+                    .putInt(bytes.length).put(bytes);
+        }
+
+        /**
+         * Make snapshot durable and replace previous one atomically
+         */
+        public void commit() throws IOException {
+            ensure(1);
+            buffer.put(END);
+            buffer.force();
+            channel.truncate(windowStart + buffer.position());
+            channel.force(true);
+            channel.close();
+            Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+
+        private void ensure(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                buffer.force();
+                windowStart += buffer.position();
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, Math.max(WINDOW_SIZE, size));
+            }
+        }
+    }
+
+    private static class MappedInput {
+
+        @NotNull
+        private final FileChannel channel;
+        @NotNull
+        private ByteBuffer buffer;
+        private long windowStart;
+
+        MappedInput(@NotNull FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.buffer = map(0);
+        }
+
+        void ensure(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                windowStart += buffer.position();
+                buffer = map(windowStart);
+                if (buffer.remaining() < size) {
+                    throw new IOException("Unexpected end of snapshot");
+                }
+            }
+        }
+
+        @NotNull
+        String readString() throws IOException {
+            int length = buffer.getInt();
+            ensure(length);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @NotNull
+        private ByteBuffer map(long position) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, channel.size() - position));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.revolut.task.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in nanoseconds with relative precision of 1/8, like HdrHistogram:
+ * values below 8 have own buckets, every next power of two range is split into 8 equal buckets.
+ * <p>
+ * Counts are striped by thread, so concurrent recording rarely touches the same array.
+ * Recording takes no locks and allocates nothing, reading sums all stripes.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Buckets of all non negative long values
+     */
+    static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+    /**
+     * Index of sum of recorded values in every stripe, after the buckets
+     */
+    private static final int SUM = BUCKETS;
+
+    @NotNull
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    public Histogram() {
+        int stripesCount = Math.min(32, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1));
+        this.stripes = new AtomicLongArray[stripesCount];
+        this.mask = stripesCount - 1;
+        for (int i = 0; i < stripesCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS + 1);
+        }
+    }
+
+    /**
+     * @param value duration in nanoseconds, negative is recorded as 0
+     */
+    public void record(long value) {
+        long nanos = Math.max(0, value);
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.getAndIncrement(bucket(nanos));
+        stripe.getAndAdd(SUM, nanos);
+    }
+
+    /**
+     * Counts of all buckets summed over stripes
+     */
+    @NotNull
+    public long[] counts() {
+        long[] result = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                result[i] += stripe.get(i);
+            }
+        }
+        return result;
+    }
+
+    public long count() {
+        long result = 0;
+        for (long count : counts()) {
+            result += count;
+        }
+        return result;
+    }
+
+    /**
+     * Sum of recorded values in nanoseconds
+     */
+    public long sum() {
+        long result = 0;
+        for (AtomicLongArray stripe : stripes) {
+            result += stripe.get(SUM);
+        }
+        return result;
+    }
+
+    /**
+     * @param quantile from 0 to 1
+     * @return the highest value of bucket where the quantile is, 0 if nothing is recorded
+     */
+    public long percentile(double quantile) {
+        long[] counts = counts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + subBucket;
+    }
+
+    /**
+     * @return the highest value recorded into bucket
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
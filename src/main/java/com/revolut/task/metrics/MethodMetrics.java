@@ -0,0 +1,91 @@
+package com.revolut.task.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Calls, errors and latency of one service method
+ */
+public final class MethodMetrics {
+
+    @NotNull
+    private final String method;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final Histogram latency = new Histogram();
+    @Nullable
+    private volatile LongSupplier concurrencyLimit;
+
+    MethodMetrics(@NotNull String method) {
+        this.method = method;
+    }
+
+    /**
+     * @param nanos duration of the call
+     * @param error call failed
+     */
+    public void record(long nanos, boolean error) {
+        requests.increment();
+        if (error) {
+            errors.increment();
+        }
+        latency.record(nanos);
+    }
+
+    /**
+     * Count call rejected by concurrency limit, it is not counted as a request
+     */
+    public void reject() {
+        rejected.increment();
+    }
+
+    /**
+     * Count call rejected by rate limit of its client, it is counted as a failed request
+     */
+    public void throttle() {
+        throttled.increment();
+    }
+
+    /**
+     * @param concurrencyLimit reads current concurrency limit of the method
+     */
+    public void setConcurrencyLimit(@Nullable LongSupplier concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    @NotNull
+    public String getMethod() {
+        return method;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    @Nullable
+    public LongSupplier getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    @NotNull
+    public Histogram getLatency() {
+        return latency;
+    }
+}
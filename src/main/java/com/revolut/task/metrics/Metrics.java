@@ -0,0 +1,218 @@
+package com.revolut.task.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of application metrics, exposed in Prometheus text format.
+ * <p>
+ * Counters are {@link LongAdder}s and latencies are striped {@link Histogram}s, so recording on hot paths
+ * takes no locks and allocates nothing. Gauges are read only when metrics are exposed.
+ */
+public final class Metrics {
+
+    /**
+     * Content type of {@link #write} output
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Calls of names that are not service methods
+     */
+    public static final MethodMetrics UNKNOWN_METHOD = new MethodMetrics("unknown");
+
+    /**
+     * Time spent waiting for contended balance locks of transfers, uncontended locks are not recorded
+     */
+    public static final Histogram LOCK_WAIT = new Histogram();
+
+    /**
+     * Optimistic lookups of account slots repeated under read lock because a concurrent insertion interfered
+     */
+    public static final LongAdder LOOKUP_RETRIES = new LongAdder();
+
+    /**
+     * Optimistic reads of several balances repeated under read locks because a concurrent transfer interfered
+     */
+    public static final LongAdder BALANCES_RETRIES = new LongAdder();
+
+    /**
+     * Requests answered with 503 without a call because the queue of requests is full
+     */
+    public static final LongAdder SHED_REQUESTS = new LongAdder();
+
+    /**
+     * Subscribers of transfer events disconnected because they fell behind the event buffer
+     */
+    public static final LongAdder FEED_OVERFLOWS = new LongAdder();
+
+    /**
+     * Changes not acknowledged by replicas in time, replication became asynchronous after them
+     */
+    public static final LongAdder REPLICATION_SYNC_TIMEOUTS = new LongAdder();
+
+    /**
+     * Upper bounds of exported histogram buckets, nanoseconds
+     */
+    private static final long[] BUCKET_BOUNDS = {
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000, 25_000_000, 50_000_000, 100_000_000, 250_000_000, 500_000_000,
+            1_000_000_000, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L};
+
+    private static final Map<String, MethodMetrics> METHODS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Metrics of service method, created on first call
+     */
+    @NotNull
+    public static MethodMetrics method(@NotNull String name) {
+        return METHODS.computeIfAbsent(name, MethodMetrics::new);
+    }
+
+    /**
+     * Register gauge, replaces gauge with the same name
+     *
+     * @param name  metric name
+     * @param help  description
+     * @param value reads current value
+     */
+    public static void gauge(@NotNull String name, @NotNull String help, @NotNull LongSupplier value) {
+        GAUGES.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * Write all metrics in Prometheus text format.
+     * Histogram values are counted in the exported bucket that covers their whole 1/8 precision bucket,
+     * so latencies may be overestimated by up to 12.5%.
+     */
+    public static void write(@NotNull Writer out) throws IOException {
+        header(out, "revolut_requests_total", "counter", "Calls of service methods");
+        for (MethodMetrics method : METHODS.values()) {
+            sample(out, "revolut_requests_total", methodLabel(method), method.getRequests());
+        }
+        sample(out, "revolut_requests_total", methodLabel(UNKNOWN_METHOD), UNKNOWN_METHOD.getRequests());
+
+        header(out, "revolut_request_errors_total", "counter", "Failed calls of service methods");
+        for (MethodMetrics method : METHODS.values()) {
+            sample(out, "revolut_request_errors_total", methodLabel(method), method.getErrors());
+        }
+        sample(out, "revolut_request_errors_total", methodLabel(UNKNOWN_METHOD), UNKNOWN_METHOD.getErrors());
+
+        header(out, "revolut_requests_rejected_total", "counter",
+                "Calls rejected by concurrency limit of service method, not counted in revolut_requests_total");
+        for (MethodMetrics method : METHODS.values()) {
+            sample(out, "revolut_requests_rejected_total", methodLabel(method), method.getRejected());
+        }
+
+        header(out, "revolut_requests_throttled_total", "counter", "Calls rejected by rate limit of their client");
+        for (MethodMetrics method : METHODS.values()) {
+            sample(out, "revolut_requests_throttled_total", methodLabel(method), method.getThrottled());
+        }
+
+        header(out, "revolut_concurrency_limit", "gauge", "Adaptive concurrency limit of service method");
+        for (MethodMetrics method : METHODS.values()) {
+            LongSupplier limit = method.getConcurrencyLimit();
+            if (limit != null) {
+                sample(out, "revolut_concurrency_limit", methodLabel(method), limit.getAsLong());
+            }
+        }
+
+        header(out, "revolut_requests_shed_total", "counter", "Requests rejected because the request queue is full");
+        sample(out, "revolut_requests_shed_total", "", SHED_REQUESTS.sum());
+
+        header(out, "revolut_feed_overflows_total", "counter",
+                "Subscribers of transfer events disconnected because they fell behind");
+        sample(out, "revolut_feed_overflows_total", "", FEED_OVERFLOWS.sum());
+
+        header(out, "revolut_replication_sync_timeouts_total", "counter",
+                "Changes not acknowledged by replicas in time, replication became asynchronous");
+        sample(out, "revolut_replication_sync_timeouts_total", "", REPLICATION_SYNC_TIMEOUTS.sum());
+
+        header(out, "revolut_request_duration_seconds", "histogram", "Duration of service method calls");
+        for (MethodMetrics method : METHODS.values()) {
+            histogram(out, "revolut_request_duration_seconds", methodLabel(method), method.getLatency());
+        }
+
+        header(out, "revolut_lock_wait_seconds", "histogram", "Wait for contended balance locks of transfers");
+        histogram(out, "revolut_lock_wait_seconds", "", LOCK_WAIT);
+
+        header(out, "revolut_optimistic_read_retries_total", "counter",
+                "Optimistic reads repeated under lock because a concurrent write interfered");
+        sample(out, "revolut_optimistic_read_retries_total", "read=\"lookup\"", LOOKUP_RETRIES.sum());
+        sample(out, "revolut_optimistic_read_retries_total", "read=\"balances\"", BALANCES_RETRIES.sum());
+
+        for (Map.Entry<String, Gauge> entry : GAUGES.entrySet()) {
+            header(out, entry.getKey(), "gauge", entry.getValue().help);
+            sample(out, entry.getKey(), "", entry.getValue().value.getAsLong());
+        }
+    }
+
+    private static void histogram(@NotNull Writer out, @NotNull String name, @NotNull String labels,
+                                  @NotNull Histogram histogram) throws IOException {
+        long[] counts = histogram.counts();
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        int bucket = 0;
+        for (long bound : BUCKET_BOUNDS) {
+            for (; bucket < counts.length && Histogram.highestValue(bucket) <= bound; bucket++) {
+                cumulative += counts[bucket];
+            }
+            sample(out, name + "_bucket", prefix + "le=\"" + seconds(bound) + "\"", cumulative);
+        }
+        for (; bucket < counts.length; bucket++) {
+            cumulative += counts[bucket];
+        }
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+        out.write(name + "_sum" + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + seconds(histogram.sum()) + "\n");
+        sample(out, name + "_count", labels, cumulative);
+    }
+
+    private static void header(@NotNull Writer out, @NotNull String name, @NotNull String type,
+                               @NotNull String help) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void sample(@NotNull Writer out, @NotNull String name, @NotNull String labels,
+                               long value) throws IOException {
+        out.write(name);
+        if (!labels.isEmpty()) {
+            out.write("{" + labels + "}");
+        }
+        out.write(" " + value + "\n");
+    }
+
+    @NotNull
+    private static String methodLabel(@NotNull MethodMetrics method) {
+        return "method=\"" + method.getMethod() + "\"";
+    }
+
+    @NotNull
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    private static final class Gauge {
+
+        @NotNull
+        private final String help;
+        @NotNull
+        private final LongSupplier value;
+
+        private Gauge(@NotNull String help, @NotNull LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
@@ -1,100 +1,237 @@
-package com.revolut.task.protocol;
-
-import com.revolut.task.caller.RemoteMethod;
-import com.revolut.task.caller.ServiceMethodCaller;
-import com.revolut.task.service.RemoteService;
-import com.revolut.task.service.Services;
-import com.revolut.task.utils.JsonUtils;
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
-import org.apache.http.protocol.HTTP;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.jetbrains.annotations.NotNull;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.lang.reflect.Method;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-
-/**
- * Base http requests handler
- */
-public class BaseHandler implements HttpHandler {
-
-    private static final Logger LOG = LogManager.getLogger(BaseHandler.class);
-
-    /**
-     * Set of available service methods
-     */
-    private Map<String, ServiceMethodCaller> methodsByName = new ConcurrentHashMap<>();
-
-    public void init() {
-        for (Services services : Services.values()) {
-
-            RemoteService service = services.getServiceInstance();
-            for (Method method : service.getClass().getDeclaredMethods()) {
-
-                if (method.isAnnotationPresent(RemoteMethod.class)) {
-                    methodsByName.put(method.getName(), ServiceMethodCaller.create(service, method));
-                }
-            }
-        }
-    }
-
-    @Override
-    public void handle(HttpExchange exchange) {
-        try {
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-
-            InputStream is = exchange.getRequestBody();
-            Request request = JsonUtils.fromJson(new InputStreamReader(is, HTTP.UTF_8), Request.class);
-
-            LOG.debug(String.format("Get request: %s", request));
-            ServiceMethodCaller caller = resolveCaller(exchange);
-
-            Object result = caller.call(request);
-            String response = JsonUtils.toJson(result);
-
-            OutputStream out = exchange.getResponseBody();
-            exchange.sendResponseHeaders(200, response.getBytes(HTTP.UTF_8).length);
-            out.write(response.getBytes(HTTP.UTF_8));
-            out.flush();
-        } catch (Exception e) {
-            handleException(exchange, e);
-        } finally {
-            exchange.close();
-        }
-    }
-
-    /**
-     * Search method caller by name from request path
-     *
-     * @return method caller
-     * @throws NullPointerException if caller not found
-     */
-    @NotNull
-    private ServiceMethodCaller resolveCaller(@NotNull HttpExchange exchange) {
-        String serviceMethod = exchange.getRequestURI().getRawPath().split("/api/")[1];
-        ServiceMethodCaller caller = methodsByName.get(serviceMethod);
-        Objects.requireNonNull(caller, String.format("Resource not found: %s", serviceMethod));
-        return caller;
-    }
-
-    private void handleException(@NotNull HttpExchange exchange, @NotNull Exception ex) {
-        LOG.warn("Exception:", ex);
-        String result = String.format("Internal server exception: %s", ex.getCause());
-        try {
-            exchange.sendResponseHeaders(500, result.getBytes().length);
-            OutputStream output = exchange.getResponseBody();
-            output.write(result.getBytes(HTTP.UTF_8));
-            output.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-}
+package com.revolut.task.protocol;
+
+import com.revolut.task.admission.GradientLimiter;
+import com.revolut.task.caller.RateLimitExceededException;
+import com.revolut.task.caller.RemoteMethod;
+import com.revolut.task.caller.ServiceMethodCaller;
+import com.revolut.task.codec.Codec;
+import com.revolut.task.codec.Codecs;
+import com.revolut.task.metrics.MethodMetrics;
+import com.revolut.task.metrics.Metrics;
+import com.revolut.task.service.RemoteService;
+import com.revolut.task.service.Services;
+import com.revolut.task.utils.Settings;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base http requests handler.
+ * Arguments are decoded by the codec of request Content-Type, results are encoded by the codec of Accept
+ * or of the request, json by default, see {@link Codecs}. Error messages are text.
+ */
+public class BaseHandler implements HttpHandler {
+
+    private static final Logger LOG = LogManager.getLogger(BaseHandler.class);
+
+    /**
+     * Seconds a client should wait before retrying a request rejected with 503 or 429
+     */
+    public static final int RETRY_AFTER = 1;
+
+    /**
+     * Set of available service methods
+     */
+    private Map<String, ServiceMethodCaller> methodsByName = new ConcurrentHashMap<>();
+
+    /**
+     * Calls, errors and latency of service methods
+     */
+    private Map<String, MethodMetrics> metricsByName = new ConcurrentHashMap<>();
+
+    /**
+     * Adaptive concurrency limits of service methods, empty if admission control is disabled
+     */
+    private Map<String, GradientLimiter> limitersByName = new ConcurrentHashMap<>();
+
+    /**
+     * Find service methods and warm them up before the first request, see {@link RemoteService#newWarmUpInstance()}.
+     * Warm-up calls go through {@link ServiceMethodCaller} only, codecs, limiters and metrics of the handler stay cold.
+     */
+    public void init() {
+        int iterations = Settings.getInt(Settings.WARM_UP_ITERATIONS, 1000);
+        long start = System.nanoTime();
+        int calls = 0;
+        for (Services services : Services.values()) {
+
+            RemoteService service = services.getServiceInstance();
+            RemoteService warmUpInstance = iterations > 0 ? service.newWarmUpInstance() : null;
+            for (Method method : service.getClass().getDeclaredMethods()) {
+
+                if (method.isAnnotationPresent(RemoteMethod.class)) {
+                    ServiceMethodCaller caller = ServiceMethodCaller.create(service, method);
+                    methodsByName.put(method.getName(), caller);
+                    if (warmUpInstance != null) {
+                        calls += caller.bindTo(warmUpInstance).warmUp(iterations);
+                    }
+                    MethodMetrics metrics = Metrics.method(method.getName());
+                    metricsByName.put(method.getName(), metrics);
+                    GradientLimiter limiter = GradientLimiter.fromSettings();
+                    if (limiter != null) {
+                        limitersByName.put(method.getName(), limiter);
+                        metrics.setConcurrencyLimit(limiter::getLimit);
+                    }
+                }
+            }
+            if (warmUpInstance instanceof Closeable) {
+                try {
+                    ((Closeable) warmUpInstance).close();
+                } catch (IOException e) {
+                    LOG.warn(String.format("Can't close warm-up instance of %s", service.getName()), e);
+                }
+            }
+        }
+        if (calls > 0) {
+            LOG.info(String.format("Warmed up service methods by %d calls in %d ms", calls,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) {
+        try {
+            Headers headers = exchange.getRequestHeaders();
+            Codec requestCodec = Codecs.forContentType(headers.getFirst("Content-Type"));
+            Codec responseCodec = Codecs.forAccept(headers.getFirst("Accept"), requestCodec);
+            exchange.getResponseHeaders().set("Content-Type", responseCodec.getContentType());
+
+            ResponseBuffer response = ResponseBuffer.get();
+            int status = handle(exchange.getRequestURI().getRawPath(), requestCodec, responseCodec,
+                    exchange.getRequestBody(), response);
+            if (status == 503 || status == 429) {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER));
+            }
+
+            OutputStream out = exchange.getResponseBody();
+            exchange.sendResponseHeaders(status, response.size());
+            response.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            LOG.warn("Exception:", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Call service method by request path, independent of http server implementation
+     *
+     * @param path     raw request path
+     * @param body     request envelope
+     * @param response buffer for result or error message
+     * @return http status code
+     */
+    public int handle(@NotNull String path, @NotNull InputStream body, @NotNull ResponseBuffer response) {
+        return handle(path, Codecs.JSON, Codecs.JSON, body, response);
+    }
+
+    /**
+     * Call service method by request path with arguments and result in the given codecs
+     *
+     * @param path          raw request path
+     * @param requestCodec  codec of request body
+     * @param responseCodec codec of result
+     * @param body          request body
+     * @param response      buffer for result or error message
+     * @return http status code
+     */
+    public int handle(@NotNull String path, @NotNull Codec requestCodec, @NotNull Codec responseCodec,
+                      @NotNull InputStream body, @NotNull ResponseBuffer response) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("Get request: %s", path));
+        }
+        String[] parts = path.split("/api/");
+        return call(parts.length > 1 ? parts[1] : "", requestCodec, responseCodec, body, response);
+    }
+
+    /**
+     * Call service method by name. Call over the concurrency limit of the method is rejected with 503 at once,
+     * call of a client over its rate limit is rejected with 429.
+     *
+     * @param method   service method name
+     * @param body     request envelope
+     * @param response buffer for result or error message
+     * @return http status code
+     */
+    public int call(@NotNull String method, @NotNull InputStream body, @NotNull ResponseBuffer response) {
+        return call(method, Codecs.JSON, Codecs.JSON, body, response);
+    }
+
+    /**
+     * Call service method by name with arguments and result in the given codecs
+     *
+     * @param method        service method name
+     * @param requestCodec  codec of request body
+     * @param responseCodec codec of result
+     * @param body          request body
+     * @param response      buffer for result or error message
+     * @return http status code
+     */
+    public int call(@NotNull String method, @NotNull Codec requestCodec, @NotNull Codec responseCodec,
+                    @NotNull InputStream body, @NotNull ResponseBuffer response) {
+        long start = System.nanoTime();
+        GradientLimiter limiter = limitersByName.get(method);
+        if (limiter != null && !limiter.tryAcquire()) {
+            metricsByName.get(method).reject();
+            response.reset().writeText("Service overloaded, retry later");
+            return 503;
+        }
+        int status;
+        long end;
+        try {
+            ServiceMethodCaller caller = resolveCaller(method);
+
+            Object result = caller.call(requestCodec, body);
+            responseCodec.writeResult(result, response);
+            status = 200;
+        } catch (RateLimitExceededException e) {
+            metricsByName.get(method).throttle();
+            response.reset().writeText(e.getMessage());
+            status = 429;
+        } catch (Exception e) {
+            handleException(response, e);
+            status = 500;
+        } finally {
+            end = System.nanoTime();
+            if (limiter != null) {
+                limiter.release(start, end);
+            }
+        }
+        MethodMetrics metrics = metricsByName.get(method);
+        (metrics == null ? Metrics.UNKNOWN_METHOD : metrics).record(end - start, status != 200);
+        return status;
+    }
+
+    /**
+     * Search method caller by name
+     *
+     * @return method caller
+     * @throws NullPointerException if caller not found
+     */
+    @NotNull
+    private ServiceMethodCaller resolveCaller(@NotNull String serviceMethod) {
+        ServiceMethodCaller caller = methodsByName.get(serviceMethod);
+        Objects.requireNonNull(caller, String.format("Resource not found: %s", serviceMethod));
+        return caller;
+    }
+
+    private void handleException(@NotNull ResponseBuffer response, @NotNull Exception ex) {
+        LOG.warn("Exception:", ex);
+        response.reset()
+                .writeText("Internal server exception: ")
+                .writeText(String.valueOf(ex.getCause()));
+    }
+}
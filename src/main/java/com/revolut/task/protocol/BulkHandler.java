@@ -0,0 +1,73 @@
+package com.revolut.task.protocol;
+
+import com.revolut.task.bulk.AccountFormat;
+import com.revolut.task.bulk.ImportResult;
+import com.revolut.task.service.AccountService;
+import com.revolut.task.service.Services;
+import com.revolut.task.utils.JsonUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Http handler of bulk operations with streamed bodies, format is selected by {@link AccountFormat#fromContentType}:
+ * <ul>
+ * <li>{@code POST /bulk/import} - import accounts of request body of {@code Content-Type}, returns {@link ImportResult}</li>
+ * <li>{@code GET /bulk/export} - all accounts in format of {@code Accept}, sent in chunks as they are read</li>
+ * </ul>
+ */
+public class BulkHandler implements HttpHandler {
+
+    private static final Logger LOG = LogManager.getLogger(BulkHandler.class);
+
+    @Override
+    public void handle(HttpExchange exchange) {
+        AccountService service = (AccountService) Services.ACCOUNT_SERVICE.getServiceInstance();
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/bulk/import") && method.equals("POST")) {
+                AccountFormat format = AccountFormat.fromContentType(exchange.getRequestHeaders().getFirst("Content-Type"));
+                ImportResult result;
+                try {
+                    result = service.importAccounts(exchange.getRequestBody(), format);
+                } catch (IOException e) {
+                    LOG.warn("Import failed", e);
+                    send(exchange, 400, "text/plain", "Import failed: " + e.getMessage());
+                    return;
+                }
+                send(exchange, 200, "application/json", JsonUtils.toJson(result));
+            } else if (path.equals("/bulk/export") && method.equals("GET")) {
+                AccountFormat format = AccountFormat.fromContentType(exchange.getRequestHeaders().getFirst("Accept"));
+                exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+                // chunked, the length is not known before all accounts are written
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                service.exportAccounts(out, format);
+                out.flush();
+            } else {
+                send(exchange, 404, "text/plain", String.format("Resource not found: %s %s", method, path));
+            }
+        } catch (IOException e) {
+            LOG.warn("Exception:", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(@NotNull HttpExchange exchange, int status, @NotNull String contentType,
+                             @NotNull String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.flush();
+    }
+}
@@ -0,0 +1,231 @@
+package com.revolut.task.protocol;
+
+import com.revolut.task.feed.ChangeFeed;
+import com.revolut.task.feed.TransferEvent;
+import com.revolut.task.metrics.Metrics;
+import com.revolut.task.service.AccountService;
+import com.revolut.task.service.Services;
+import com.revolut.task.utils.JsonUtils;
+import com.revolut.task.utils.Settings;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Http handler of subscriptions to events of committed transfers, see {@link ChangeFeed}:
+ * <ul>
+ * <li>{@code GET /events/stream?from=N} - server-sent events from sequence N, or from {@code Last-Event-ID} + 1
+ * on reconnect, or from new events. A subscriber that falls behind the event buffer gets {@code overflow} event
+ * with the oldest kept sequence and is disconnected.</li>
+ * <li>{@code GET /events/poll?from=N&limit=100&timeout=30} - long poll: events from sequence N as soon as there is one,
+ * or none after timeout seconds. Returns events and the sequence to poll from next time, 410 if the events
+ * are not kept any more.</li>
+ * </ul>
+ * Every subscriber holds a request handling thread while it waits, so their number is limited,
+ * subscribers over the limit get 503.
+ */
+public class FeedHandler implements HttpHandler {
+
+    private static final Logger LOG = LogManager.getLogger(FeedHandler.class);
+
+    private static final int DEFAULT_SUBSCRIBERS = 16;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+    private static final int DEFAULT_TIMEOUT = 30;
+    private static final int MAX_TIMEOUT = 60;
+    /**
+     * Idle seconds of a stream before a comment is sent, so dead connections are detected
+     */
+    private static final int HEARTBEAT_SECONDS = 15;
+
+    private final int maxSubscribers = Settings.getInt(Settings.FEED_SUBSCRIBERS, DEFAULT_SUBSCRIBERS);
+    @NotNull
+    private final Semaphore subscribers = new Semaphore(maxSubscribers);
+    private volatile boolean running = true;
+
+    public FeedHandler() {
+        Metrics.gauge("revolut_feed_subscribers", "Connected subscribers of transfer events",
+                () -> maxSubscribers - subscribers.availablePermits());
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            boolean stream = path.equals("/events/stream");
+            if (!method.equals("GET") || !stream && !path.equals("/events/poll")) {
+                send(exchange, 404, "text/plain", String.format("Resource not found: %s %s", method, path));
+                return;
+            }
+            if (!subscribers.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(BaseHandler.RETRY_AFTER));
+                send(exchange, 503, "text/plain", "Too many subscribers, retry later");
+                return;
+            }
+            try {
+                ChangeFeed feed = ((AccountService) Services.ACCOUNT_SERVICE.getServiceInstance()).getFeed();
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                if (stream) {
+                    String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+                    long from = lastEventId == null ? parseLong(parameters.get("from"), feed.getHead())
+                            : Long.parseLong(lastEventId.trim()) + 1;
+                    stream(exchange, feed, from);
+                } else {
+                    poll(exchange, feed, parseLong(parameters.get("from"), feed.getHead()),
+                            parseInt(parameters.get("limit"), DEFAULT_LIMIT, 1, MAX_LIMIT),
+                            parseInt(parameters.get("timeout"), DEFAULT_TIMEOUT, 0, MAX_TIMEOUT));
+                }
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "text/plain", e.getMessage());
+            } finally {
+                subscribers.release();
+            }
+        } catch (IOException e) {
+            LOG.debug("Subscriber disconnected", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Disconnect subscribers, called when the server stops
+     */
+    public void close() {
+        running = false;
+    }
+
+    private void stream(@NotNull HttpExchange exchange, @NotNull ChangeFeed feed, long from)
+            throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        // chunked, every batch of events is flushed as a chunk
+        exchange.sendResponseHeaders(200, 0);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+        writer.write("retry: 1000\n\n");
+        writer.flush();
+        List<TransferEvent> events = new ArrayList<>(DEFAULT_LIMIT);
+        // a subscriber ahead of the feed, e.g. after restart, gets new events
+        long next = Math.min(from, feed.getHead());
+        int idle = 0;
+        while (running) {
+            events.clear();
+            long end = feed.read(next, DEFAULT_LIMIT, events);
+            if (end == ChangeFeed.OVERWRITTEN) {
+                Metrics.FEED_OVERFLOWS.increment();
+                writer.write("event: overflow\ndata: {\"oldest\":" + feed.getOldest() + "}\n\n");
+                writer.flush();
+                return;
+            }
+            for (TransferEvent event : events) {
+                writer.write("id: " + event.getSequence() + "\nevent: transfer\ndata: ");
+                JsonUtils.toJson(event, writer);
+                writer.write("\n\n");
+            }
+            next = end;
+            if (!events.isEmpty()) {
+                writer.flush();
+                idle = 0;
+            } else if (!feed.await(next, 1, TimeUnit.SECONDS) && ++idle >= HEARTBEAT_SECONDS) {
+                writer.write(": keepalive\n\n");
+                writer.flush();
+                idle = 0;
+            }
+        }
+    }
+
+    private void poll(@NotNull HttpExchange exchange, @NotNull ChangeFeed feed, long from, int limit, int timeout)
+            throws IOException, InterruptedException {
+        long next = Math.min(from, feed.getHead());
+        List<TransferEvent> events = new ArrayList<>();
+        long end = feed.read(next, limit, events);
+        if (events.isEmpty() && end != ChangeFeed.OVERWRITTEN && feed.await(next, timeout, TimeUnit.SECONDS)) {
+            end = feed.read(next, limit, events);
+        }
+        if (end == ChangeFeed.OVERWRITTEN) {
+            Metrics.FEED_OVERFLOWS.increment();
+            send(exchange, 410, "application/json", "{\"oldest\":" + feed.getOldest() + "}");
+            return;
+        }
+        send(exchange, 200, "application/json", JsonUtils.toJson(new Page(events, end)));
+    }
+
+    @NotNull
+    static Map<String, String> parseQuery(@Nullable String query) throws IOException {
+        Map<String, String> result = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return result;
+        }
+        for (String parameter : query.split("&")) {
+            int eq = parameter.indexOf('=');
+            if (eq > 0) {
+                result.put(URLDecoder.decode(parameter.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return result;
+    }
+
+    private static long parseLong(@Nullable String value, long defaultValue) {
+        long result = value == null ? defaultValue : Long.parseLong(value.trim());
+        if (result < 0) {
+            throw new IllegalArgumentException(String.format("Negative sequence: %d", result));
+        }
+        return result;
+    }
+
+    private static int parseInt(@Nullable String value, int defaultValue, int min, int max) {
+        int result = value == null ? defaultValue : Integer.parseInt(value.trim());
+        if (result < min || result > max) {
+            throw new IllegalArgumentException(String.format("Value must be from %d to %d: %d", min, max, result));
+        }
+        return result;
+    }
+
+    private static void send(@NotNull HttpExchange exchange, int status, @NotNull String contentType,
+                             @NotNull String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * Response of long poll
+     */
+    private static class Page {
+
+        @NotNull
+        private final List<TransferEvent> events;
+        /**
+         * Sequence to poll from next time
+         */
+        private final long next;
+
+        Page(@NotNull List<TransferEvent> events, long next) {
+            this.events = events;
+            this.next = next;
+        }
+    }
+}
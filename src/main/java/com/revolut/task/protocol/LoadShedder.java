@@ -0,0 +1,91 @@
+package com.revolut.task.protocol;
+
+import com.revolut.task.metrics.Metrics;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load shedding of JDK http server with a bounded request queue.
+ * <p>
+ * JDK server gives its executor an exchange that still has to read the request, so a rejected exchange
+ * can't be answered by the rejection policy. It is run on a shedding thread instead, where this filter
+ * answers it with 503 and Retry-After without calling the handler. If shedding threads are behind too,
+ * the exchange is answered on the dispatcher thread.
+ */
+public class LoadShedder extends Filter implements RejectedExecutionHandler {
+
+    private static final Logger LOG = LogManager.getLogger(LoadShedder.class);
+
+    private static final byte[] OVERLOADED = "Service overloaded, retry later".getBytes(StandardCharsets.UTF_8);
+
+    private final ThreadLocal<Boolean> shedding = new ThreadLocal<>();
+
+    @NotNull
+    private final ThreadPoolExecutor shedders;
+
+    /**
+     * @param queueSize capacity of queue of shedding threads
+     */
+    public LoadShedder(int queueSize) {
+        shedders = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r);
+            thread.setName(String.format("Shedder-%04d", thread.getId()));
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public void rejectedExecution(Runnable exchange, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Server is stopped");
+        }
+        shedders.execute(() -> {
+            shedding.set(Boolean.TRUE);
+            try {
+                exchange.run();
+            } finally {
+                shedding.remove();
+            }
+        });
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (shedding.get() == null) {
+            chain.doFilter(exchange);
+            return;
+        }
+        Metrics.SHED_REQUESTS.increment();
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(BaseHandler.RETRY_AFTER));
+            exchange.sendResponseHeaders(503, OVERLOADED.length);
+            exchange.getResponseBody().write(OVERLOADED);
+        } catch (IOException e) {
+            LOG.debug("Shedding response failed", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Answers requests rejected by the full request queue with 503";
+    }
+
+    public void close() {
+        shedders.shutdown();
+    }
+}
@@ -0,0 +1,37 @@
+package com.revolut.task.protocol;
+
+import com.revolut.task.metrics.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Http handler of {@code /metrics}: all {@link Metrics} in Prometheus text format
+ */
+public class MetricsHandler implements HttpHandler {
+
+    private static final Logger LOG = LogManager.getLogger(MetricsHandler.class);
+
+    @Override
+    public void handle(HttpExchange exchange) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", Metrics.CONTENT_TYPE);
+
+            ResponseBuffer response = ResponseBuffer.get();
+            Metrics.write(response);
+
+            OutputStream out = exchange.getResponseBody();
+            exchange.sendResponseHeaders(200, response.size());
+            response.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            LOG.warn("Exception:", e);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,815 @@
+package com.revolut.task.protocol;
+
+import com.revolut.task.codec.Codec;
+import com.revolut.task.codec.Codecs;
+import com.revolut.task.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Non-blocking HTTP/1.1 front end of {@link BaseHandler}.
+ * <p>
+ * Event loops own the connections: they accept, read and parse requests and write responses.
+ * Only complete requests are passed to the worker executor, so a slow or idle client holds buffers but never a thread.
+ * Connections are kept alive, requests of one connection are handled one by one in arrival order.
+ * Bodies are expected with Content-Length, chunked requests are rejected.
+ * Codecs are selected by Content-Type and Accept as by {@link BaseHandler}.
+ * {@code /metrics} is answered with {@link Metrics} in Prometheus text format.
+ * <p>
+ * {@code GET /api/multiplex} with {@code Upgrade: multiplex} switches the connection to framed calls,
+ * all numbers are big-endian:
+ * <pre>
+ * request:  int length, int id, byte method name length, method name, request envelope
+ * response: int length, int id, short http status, response body
+ * </pre>
+ * where length counts the bytes after it. Frames are encoded by the codecs of the upgrade request. Frames of a connection are handled concurrently
+ * and responses are sent as soon as they are ready, so they may come in a different order.
+ * Reading stops while {@link #MAX_FRAMES_IN_FLIGHT} frames are handled or wait to be written.
+ */
+public class NioHttpServer implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(NioHttpServer.class);
+
+    private static final String CONTEXT = "/api/";
+    private static final String MULTIPLEX_PATH = CONTEXT + "multiplex";
+    private static final String MULTIPLEX_PROTOCOL = "multiplex";
+    private static final String METRICS_PATH = "/metrics";
+    /**
+     * Limit of frames of one multiplexed connection being handled or written
+     */
+    private static final int MAX_FRAMES_IN_FLIGHT = 256;
+    private static final int REQUEST_FRAME_HEADER_SIZE = 9;
+    private static final int RESPONSE_FRAME_HEADER_SIZE = 10;
+    /**
+     * Number of frames written to socket by one call
+     */
+    private static final int GATHER_SIZE = 16;
+    private static final int MAX_HEADERS_SIZE = 8192;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    /**
+     * Buffers grown by a large request or response are replaced with small ones when the exchange is over
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] CONTINUE = ascii("HTTP/1.1 100 Continue\r\n\r\n");
+    private static final byte[] SWITCHING_PROTOCOLS = ascii("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\n" +
+            "Upgrade: " + MULTIPLEX_PROTOCOL + "\r\n\r\n");
+    private static final byte[] HEADERS = ascii("\r\nContent-Type: application/json\r\nContent-Length: ");
+    /**
+     * Headers of responses by codec
+     */
+    private static final Map<Codec, byte[]> CODEC_HEADERS = new ConcurrentHashMap<>();
+    private static final byte[] OVERLOADED_HEADERS = ascii("\r\nRetry-After: " + BaseHandler.RETRY_AFTER +
+            "\r\nContent-Type: application/json\r\nContent-Length: ");
+    private static final byte[] METRICS_HEADERS = ascii("\r\nContent-Type: " + Metrics.CONTENT_TYPE +
+            "\r\nContent-Length: ");
+    private static final byte[] CLOSE = ascii("\r\nConnection: close");
+    private static final byte[] HEADERS_END = ascii("\r\n\r\n");
+    private static final byte[] OK = statusLine(200);
+    private static final byte[] INTERNAL_ERROR = statusLine(500);
+    private static final byte[] SERVICE_UNAVAILABLE = statusLine(503);
+
+    @NotNull
+    private final BaseHandler handler;
+    @NotNull
+    private final Executor workers;
+    @NotNull
+    private final ServerSocketChannel serverChannel;
+    @NotNull
+    private final EventLoop[] loops;
+    private final int maxRequestSize;
+    private volatile boolean running = true;
+
+    /**
+     * @param address        address to listen
+     * @param backlog        maximum number of pending connections
+     * @param eventLoops     number of event loop threads
+     * @param maxRequestSize maximum size of request headers and body, bytes
+     * @param handler        service methods handler
+     * @param workers        executor of service methods
+     */
+    public NioHttpServer(@NotNull InetSocketAddress address, int backlog, int eventLoops, int maxRequestSize,
+                         @NotNull BaseHandler handler, @NotNull Executor workers) throws IOException {
+        this.handler = handler;
+        this.workers = workers;
+        this.maxRequestSize = maxRequestSize;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, backlog);
+        serverChannel.configureBlocking(false);
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public void start() {
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Stop event loops and close all connections
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            try {
+                loop.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        serverChannel.close();
+    }
+
+    @NotNull
+    private static byte[] ascii(@NotNull String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @NotNull
+    private static byte[] statusLine(int status) {
+        switch (status) {
+            case 200:
+                return ascii("HTTP/1.1 200 OK");
+            case 400:
+                return ascii("HTTP/1.1 400 Bad Request");
+            case 404:
+                return ascii("HTTP/1.1 404 Not Found");
+            case 411:
+                return ascii("HTTP/1.1 411 Length Required");
+            case 413:
+                return ascii("HTTP/1.1 413 Payload Too Large");
+            case 429:
+                return ascii("HTTP/1.1 429 Too Many Requests");
+            case 431:
+                return ascii("HTTP/1.1 431 Request Header Fields Too Large");
+            case 503:
+                return ascii("HTTP/1.1 503 Service Unavailable");
+            default:
+                return ascii("HTTP/1.1 500 Internal Server Error");
+        }
+    }
+
+    /**
+     * Thread with selector, runs tasks of workers between selections
+     */
+    private final class EventLoop implements Runnable {
+
+        @NotNull
+        private final Selector selector;
+        @NotNull
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private int nextLoop;
+
+        private EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, String.format("EventLoop-%d", index));
+        }
+
+        void execute(@NotNull Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    for (Runnable task; (task = tasks.poll()) != null; ) {
+                        task.run();
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            try {
+                                accept();
+                            } catch (IOException e) {
+                                LOG.warn("Connection accept failed", e);
+                            }
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.onRead();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWrite();
+                            }
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Event loop failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    LOG.warn("Selector close failed", e);
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            // accepted sockets are distributed between loops round robin
+            for (SocketChannel channel; (channel = serverChannel.accept()) != null; ) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                EventLoop loop = loops[nextLoop++ % loops.length];
+                if (loop == this) {
+                    register(channel);
+                } else {
+                    SocketChannel accepted = channel;
+                    loop.execute(() -> loop.register(accepted));
+                }
+            }
+        }
+
+        private void register(@NotNull SocketChannel channel) {
+            try {
+                Connection connection = new Connection(this, channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                LOG.warn("Connection registration failed", e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * State of a keep-alive connection.
+     * Buffers are touched by a worker only while reading from the socket is suspended,
+     * multiplexed frames are copied and their responses are queued by the event loop.
+     */
+    private final class Connection {
+
+        @NotNull
+        private final EventLoop loop;
+        @NotNull
+        private final SocketChannel channel;
+        private SelectionKey key;
+
+        /**
+         * Received bytes, in write mode
+         */
+        @NotNull
+        private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        /**
+         * Response bytes, in read mode while writing to the socket
+         */
+        @NotNull
+        private ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        /**
+         * Parsed request, valid when bodyStart > 0
+         */
+        private int bodyStart;
+        private int contentLength;
+        @Nullable
+        private String path;
+        private boolean keepAlive;
+        private boolean expectContinue;
+        private boolean upgradeToMultiplex;
+        /**
+         * Codecs of the request, of every frame after upgrade
+         */
+        @NotNull
+        private Codec requestCodec = Codecs.JSON;
+        @NotNull
+        private Codec responseCodec = Codecs.JSON;
+        /**
+         * Request is passed to worker or its response is being written
+         */
+        private boolean busy;
+
+        /**
+         * Connection is switched to frames
+         */
+        private boolean multiplexed;
+        /**
+         * Frames passed to workers
+         */
+        private int framesInFlight;
+        /**
+         * Response frames waiting for the socket, in read mode
+         */
+        private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+        private ByteBuffer[] gather;
+
+        private Connection(@NotNull EventLoop loop, @NotNull SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void onRead() {
+            if (busy || multiplexed && !acceptsFrames()) {
+                return;
+            }
+            try {
+                if (!in.hasRemaining()) {
+                    in = grow(in, in.capacity() * 2);
+                }
+                if (channel.read(in) < 0) {
+                    close();
+                    return;
+                }
+                if (multiplexed) {
+                    parseFrames();
+                } else {
+                    parse();
+                }
+            } catch (IOException e) {
+                LOG.debug("Connection read failed", e);
+                close();
+            }
+        }
+
+        void onWrite() {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                if (multiplexed) {
+                    writeFrames();
+                    return;
+                }
+                channel.write(out);
+                if (out.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                out.clear();
+                busy = false;
+                if (!keepAlive) {
+                    close();
+                    return;
+                }
+                consumeRequest();
+                key.interestOps(SelectionKey.OP_READ);
+                parse();
+            } catch (IOException e) {
+                LOG.debug("Connection write failed", e);
+                close();
+            }
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Connection close failed", e);
+            }
+        }
+
+        /**
+         * Check if buffered bytes contain complete request and pass it to worker
+         */
+        private void parse() throws IOException {
+            if (bodyStart == 0) {
+                int headersEnd = indexOfHeadersEnd();
+                if (headersEnd < 0) {
+                    if (in.position() >= MAX_HEADERS_SIZE) {
+                        reject(431);
+                    }
+                    return;
+                }
+                if (!parseHeaders(headersEnd)) {
+                    return;
+                }
+                if (bodyStart + contentLength > maxRequestSize) {
+                    reject(413);
+                    return;
+                }
+                if (bodyStart + contentLength > in.capacity()) {
+                    in = grow(in, bodyStart + contentLength);
+                }
+            }
+            if (in.position() < bodyStart + contentLength) {
+                if (expectContinue) {
+                    expectContinue = false;
+                    channel.write(ByteBuffer.wrap(CONTINUE));
+                }
+                return;
+            }
+            if (upgradeToMultiplex && MULTIPLEX_PATH.equals(path)) {
+                switchToFrames();
+                return;
+            }
+            key.interestOps(0);
+            busy = true;
+            try {
+                workers.execute(this::process);
+            } catch (RejectedExecutionException e) {
+                Metrics.SHED_REQUESTS.increment();
+                // the request is read completely, so the connection stays open for the next one
+                writeResponse(SERVICE_UNAVAILABLE, OVERLOADED_HEADERS, ResponseBuffer.get());
+                onWrite();
+            }
+        }
+
+        /**
+         * Call service method, runs on worker thread
+         */
+        private void process() {
+            ResponseBuffer response = ResponseBuffer.get();
+            int status;
+            byte[] headers = HEADERS;
+            if (METRICS_PATH.equals(path)) {
+                status = writeMetrics(response);
+                headers = METRICS_HEADERS;
+            } else if (path == null || !path.startsWith(CONTEXT)) {
+                status = 404;
+            } else {
+                status = handler.handle(path, requestCodec, responseCodec,
+                        new ByteArrayInputStream(in.array(), bodyStart, contentLength), response);
+                if (status == 503 || status == 429) {
+                    headers = OVERLOADED_HEADERS;
+                } else {
+                    headers = headers(responseCodec);
+                }
+            }
+            writeResponse(status == 200 ? OK : status == 500 ? INTERNAL_ERROR : statusLine(status), headers, response);
+            loop.execute(this::onWrite);
+        }
+
+        private int writeMetrics(@NotNull ResponseBuffer response) {
+            try {
+                Metrics.write(response);
+                return 200;
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Metrics failed", e);
+                response.reset();
+                return 500;
+            }
+        }
+
+        /**
+         * Respond with error without calling service and close connection
+         */
+        private void reject(int status) {
+            keepAlive = false;
+            busy = true;
+            key.interestOps(0);
+            writeResponse(statusLine(status), HEADERS, ResponseBuffer.get());
+            onWrite();
+        }
+
+        private void writeResponse(@NotNull byte[] statusLine, @NotNull byte[] headers, @NotNull ResponseBuffer response) {
+            int size = statusLine.length + headers.length + 10 + CLOSE.length + HEADERS_END.length + response.size();
+            if (size > out.capacity()) {
+                out = ByteBuffer.allocate(Math.max(size, out.capacity() * 2));
+            }
+            out.put(statusLine).put(headers);
+            putDecimal(response.size());
+            if (!keepAlive) {
+                out.put(CLOSE);
+            }
+            out.put(HEADERS_END).put(response.array(), 0, response.size());
+            out.flip();
+        }
+
+        private void putDecimal(int value) {
+            int digits = 1;
+            for (int rest = value; rest >= 10; rest /= 10) {
+                digits *= 10;
+            }
+            for (; digits > 0; digits /= 10) {
+                out.put((byte) ('0' + value / digits % 10));
+            }
+        }
+
+        /**
+         * Drop handled request, move pipelined bytes to the start of buffer
+         */
+        private void consumeRequest() {
+            consume(bodyStart + contentLength);
+            if (out.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                out = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            }
+            bodyStart = 0;
+            contentLength = 0;
+            path = null;
+        }
+
+        /**
+         * Drop received bytes up to the given position
+         */
+        private void consume(int end) {
+            int rest = in.position() - end;
+            System.arraycopy(in.array(), end, in.array(), 0, rest);
+            in.position(rest);
+            if (in.capacity() > MAX_RETAINED_BUFFER_SIZE && rest <= INITIAL_BUFFER_SIZE) {
+                ByteBuffer shrunk = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+                shrunk.put(in.array(), 0, rest);
+                in = shrunk;
+            }
+        }
+
+        /**
+         * Answer upgrade request, bytes after it are already frames
+         */
+        private void switchToFrames() throws IOException {
+            consumeRequest();
+            multiplexed = true;
+            out = ByteBuffer.allocate(0);
+            gather = new ByteBuffer[GATHER_SIZE];
+            frames.add(ByteBuffer.wrap(SWITCHING_PROTOCOLS));
+            writeFrames();
+            if (key.isValid()) {
+                parseFrames();
+            }
+        }
+
+        private boolean acceptsFrames() {
+            return framesInFlight + frames.size() < MAX_FRAMES_IN_FLIGHT;
+        }
+
+        /**
+         * Pass complete request frames to workers
+         */
+        private void parseFrames() {
+            byte[] bytes = in.array();
+            int start = 0;
+            while (acceptsFrames() && in.position() - start >= 4) {
+                int length = in.getInt(start);
+                if (length < REQUEST_FRAME_HEADER_SIZE - 4 || length > maxRequestSize) {
+                    LOG.debug(String.format("Invalid frame length %d", length));
+                    close();
+                    return;
+                }
+                int frameEnd = start + 4 + length;
+                if (in.position() < frameEnd) {
+                    break;
+                }
+                int id = in.getInt(start + 4);
+                int methodStart = start + REQUEST_FRAME_HEADER_SIZE;
+                int bodyStart = methodStart + (bytes[start + 8] & 0xff);
+                if (bodyStart > frameEnd) {
+                    LOG.debug(String.format("Invalid frame %d", id));
+                    close();
+                    return;
+                }
+                dispatch(id, new String(bytes, methodStart, bodyStart - methodStart, StandardCharsets.US_ASCII),
+                        Arrays.copyOfRange(bytes, bodyStart, frameEnd));
+                start = frameEnd;
+            }
+            consume(start);
+            if (in.position() >= 4) {
+                int frameSize = 4 + in.getInt(0);
+                if (frameSize > in.capacity() && frameSize - 4 <= maxRequestSize) {
+                    in = grow(in, frameSize);
+                }
+            }
+            updateFrameInterest();
+        }
+
+        private void dispatch(int id, @NotNull String method, @NotNull byte[] body) {
+            framesInFlight++;
+            Codec requestCodec = this.requestCodec;
+            Codec responseCodec = this.responseCodec;
+            try {
+                workers.execute(() -> {
+                    ResponseBuffer response = ResponseBuffer.get();
+                    int status = handler.call(method, requestCodec, responseCodec, new ByteArrayInputStream(body), response);
+                    ByteBuffer frame = responseFrame(id, status, response);
+                    loop.execute(() -> onFrameHandled(frame));
+                });
+            } catch (RejectedExecutionException e) {
+                Metrics.SHED_REQUESTS.increment();
+                framesInFlight--;
+                frames.add(responseFrame(id, 503, ResponseBuffer.get()));
+            }
+        }
+
+        /**
+         * Queue response frame and continue reading if it was stopped by the limit of frames in flight
+         */
+        private void onFrameHandled(@NotNull ByteBuffer frame) {
+            framesInFlight--;
+            if (!key.isValid()) {
+                return;
+            }
+            boolean suspended = !acceptsFrames();
+            frames.add(frame);
+            try {
+                writeFrames();
+            } catch (IOException e) {
+                LOG.debug("Connection write failed", e);
+                close();
+                return;
+            }
+            if (suspended && key.isValid()) {
+                parseFrames();
+            }
+        }
+
+        private void writeFrames() throws IOException {
+            while (!frames.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer frame : frames) {
+                    gather[count++] = frame;
+                    if (count == GATHER_SIZE) {
+                        break;
+                    }
+                }
+                channel.write(gather, 0, count);
+                int written = 0;
+                for (; written < count && !frames.peekFirst().hasRemaining(); written++) {
+                    frames.pollFirst();
+                }
+                if (written < count) {
+                    // socket buffer is full
+                    break;
+                }
+            }
+            Arrays.fill(gather, null);
+            updateFrameInterest();
+        }
+
+        private void updateFrameInterest() {
+            if (key.isValid()) {
+                key.interestOps((acceptsFrames() ? SelectionKey.OP_READ : 0) | (frames.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+            }
+        }
+
+        private int indexOfHeadersEnd() {
+            byte[] bytes = in.array();
+            for (int i = 3; i < in.position(); i++) {
+                if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Parse request line and headers
+         *
+         * @return false if request is rejected
+         */
+        private boolean parseHeaders(int headersEnd) {
+            byte[] bytes = in.array();
+            int lineEnd = indexOf(bytes, '\r', 0, headersEnd);
+            int pathStart = indexOf(bytes, ' ', 0, lineEnd) + 1;
+            int pathEnd = indexOf(bytes, ' ', pathStart, lineEnd);
+            if (pathStart == 0 || pathEnd < 0) {
+                reject(400);
+                return false;
+            }
+            int queryStart = indexOf(bytes, '?', pathStart, pathEnd);
+            path = new String(bytes, pathStart, (queryStart < 0 ? pathEnd : queryStart) - pathStart, StandardCharsets.US_ASCII);
+            keepAlive = !startsWithIgnoreCase(bytes, pathEnd + 1, "HTTP/1.0");
+            contentLength = 0;
+            expectContinue = false;
+            upgradeToMultiplex = false;
+            requestCodec = Codecs.JSON;
+            String accept = null;
+
+            for (int start = lineEnd + 2; start < headersEnd - 2; start = lineEnd + 2) {
+                lineEnd = indexOf(bytes, '\r', start, headersEnd);
+                int colon = indexOf(bytes, ':', start, lineEnd);
+                if (colon < 0) {
+                    continue;
+                }
+                int valueStart = colon + 1;
+                while (valueStart < lineEnd && bytes[valueStart] == ' ') {
+                    valueStart++;
+                }
+                if (headerIs(bytes, start, colon, "content-length")) {
+                    contentLength = parseLength(bytes, valueStart, lineEnd);
+                    if (contentLength < 0) {
+                        reject(400);
+                        return false;
+                    }
+                } else if (headerIs(bytes, start, colon, "transfer-encoding")) {
+                    reject(411);
+                    return false;
+                } else if (headerIs(bytes, start, colon, "connection")) {
+                    if (startsWithIgnoreCase(bytes, valueStart, "close")) {
+                        keepAlive = false;
+                    } else if (startsWithIgnoreCase(bytes, valueStart, "keep-alive")) {
+                        keepAlive = true;
+                    }
+                } else if (headerIs(bytes, start, colon, "expect")) {
+                    expectContinue = startsWithIgnoreCase(bytes, valueStart, "100-continue");
+                } else if (headerIs(bytes, start, colon, "upgrade")) {
+                    upgradeToMultiplex = headerIs(bytes, valueStart, lineEnd, MULTIPLEX_PROTOCOL);
+                } else if (headerIs(bytes, start, colon, "content-type")) {
+                    requestCodec = Codecs.forContentType(new String(bytes, valueStart, lineEnd - valueStart, StandardCharsets.US_ASCII));
+                } else if (headerIs(bytes, start, colon, "accept")) {
+                    accept = new String(bytes, valueStart, lineEnd - valueStart, StandardCharsets.US_ASCII);
+                }
+            }
+            responseCodec = Codecs.forAccept(accept, requestCodec);
+            bodyStart = headersEnd;
+            return true;
+        }
+    }
+
+    @NotNull
+    private static byte[] headers(@NotNull Codec codec) {
+        if (codec == Codecs.JSON) {
+            return HEADERS;
+        }
+        byte[] headers = CODEC_HEADERS.get(codec);
+        return headers != null ? headers : CODEC_HEADERS.computeIfAbsent(codec,
+                c -> ascii("\r\nContent-Type: " + c.getContentType() + "\r\nContent-Length: "));
+    }
+
+    @NotNull
+    private static ByteBuffer responseFrame(int id, int status, @NotNull ResponseBuffer response) {
+        ByteBuffer frame = ByteBuffer.allocate(RESPONSE_FRAME_HEADER_SIZE + response.size());
+        frame.putInt(frame.capacity() - 4).putInt(id).putShort((short) status).put(response.array(), 0, response.size());
+        frame.flip();
+        return frame;
+    }
+
+    @NotNull
+    private static ByteBuffer grow(@NotNull ByteBuffer buffer, int capacity) {
+        ByteBuffer result = ByteBuffer.allocate(Math.max(capacity, buffer.position()));
+        result.put(buffer.array(), 0, buffer.position());
+        return result;
+    }
+
+    private static int indexOf(@NotNull byte[] bytes, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean headerIs(@NotNull byte[] bytes, int from, int to, @NotNull String lowerCaseName) {
+        return to - from == lowerCaseName.length() && startsWithIgnoreCase(bytes, from, lowerCaseName);
+    }
+
+    private static boolean startsWithIgnoreCase(@NotNull byte[] bytes, int from, @NotNull String lowerCasePrefix) {
+        if (from + lowerCasePrefix.length() > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCasePrefix.length(); i++) {
+            if (Character.toLowerCase(bytes[from + i]) != Character.toLowerCase(lowerCasePrefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return value or -1 if it is not a number
+     */
+    private static int parseLength(@NotNull byte[] bytes, int from, int to) {
+        long result = 0;
+        int end = from;
+        while (end < to && bytes[end] >= '0' && bytes[end] <= '9' && result <= Integer.MAX_VALUE) {
+            result = result * 10 + bytes[end++] - '0';
+        }
+        while (end < to && bytes[end] == ' ') {
+            end++;
+        }
+        return end == from || end != to || result > Integer.MAX_VALUE ? -1 : (int) result;
+    }
+}
@@ -0,0 +1,90 @@
+package com.revolut.task.protocol;
+
+import com.revolut.task.replication.Replication;
+import com.revolut.task.utils.JsonUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Http handler of replication administration, see {@link Replication}:
+ * <ul>
+ * <li>{@code GET /replication/status} - role of the node, its last record and state of replicas or of the leader</li>
+ * <li>{@code POST /replication/promote} - make the replica the leader after the leader is stopped</li>
+ * <li>{@code POST /replication/follow?leader=host:port} - make the replica follow another leader</li>
+ * </ul>
+ * All of them return the replication status, 409 if the node has another role.
+ */
+public class ReplicationHandler implements HttpHandler {
+
+    private static final Logger LOG = LogManager.getLogger(ReplicationHandler.class);
+
+    @Nullable
+    private final Replication replication;
+
+    /**
+     * @param replication null if replication is not configured, requests get 404
+     */
+    public ReplicationHandler(@Nullable Replication replication) {
+        this.replication = replication;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (replication == null) {
+                send(exchange, 404, "text/plain", "Replication is not configured");
+            } else if (path.equals("/replication/status") && method.equals("GET")) {
+                send(exchange, 200, "application/json", JsonUtils.toJson(replication.getStatus()));
+            } else if (path.equals("/replication/promote") && method.equals("POST")) {
+                replication.promote();
+                send(exchange, 200, "application/json", JsonUtils.toJson(replication.getStatus()));
+            } else if (path.equals("/replication/follow") && method.equals("POST")) {
+                String leader = FeedHandler.parseQuery(exchange.getRequestURI().getRawQuery()).get("leader");
+                if (leader == null) {
+                    send(exchange, 400, "text/plain", "Leader not specified");
+                    return;
+                }
+                replication.follow(Replication.parseAddress(leader));
+                send(exchange, 200, "application/json", JsonUtils.toJson(replication.getStatus()));
+            } else {
+                send(exchange, 404, "text/plain", String.format("Resource not found: %s %s", method, path));
+            }
+        } catch (IllegalStateException e) {
+            sendError(exchange, 409, e);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e);
+        } catch (IOException e) {
+            LOG.warn("Exception:", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendError(@NotNull HttpExchange exchange, int status, @NotNull RuntimeException e) {
+        try {
+            send(exchange, status, "text/plain", e.getMessage());
+        } catch (IOException ex) {
+            LOG.warn("Exception:", ex);
+        }
+    }
+
+    private static void send(@NotNull HttpExchange exchange, int status, @NotNull String contentType,
+                             @NotNull String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.flush();
+    }
+}
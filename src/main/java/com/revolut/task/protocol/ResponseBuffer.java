@@ -0,0 +1,333 @@
+package com.revolut.task.protocol;
+
+import com.revolut.task.data.TransferStatus;
+import com.revolut.task.utils.JsonUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reusable buffer of response bytes, one per thread.
+ * <p>
+ * Characters are encoded to UTF-8 straight into the buffer, so a response costs neither a json String nor its byte[] copy.
+ * Transfer statuses have precomputed json payloads, balances are printed digit by digit and lists element by element,
+ * other results are written by Gson into the buffer as into a Writer. Binary codecs append big-endian numbers.
+ */
+public final class ResponseBuffer extends Writer {
+
+    /**
+     * Buffers grown above this size by a large response are not kept by the thread
+     */
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+    private static final int INITIAL_SIZE = 1024;
+
+    private static final ThreadLocal<ResponseBuffer> BUFFERS = ThreadLocal.withInitial(ResponseBuffer::new);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Json payloads of known string results
+     */
+    private static final Map<String, byte[]> PAYLOADS = new HashMap<>();
+
+    static {
+        for (TransferStatus status : TransferStatus.values()) {
+            PAYLOADS.put(status.getMessage(), JsonUtils.toJson(status.getMessage()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private byte[] bytes = new byte[INITIAL_SIZE];
+    private int size;
+
+    private ResponseBuffer() {
+    }
+
+    /**
+     * Get empty buffer of current thread
+     */
+    @NotNull
+    public static ResponseBuffer get() {
+        return BUFFERS.get().reset();
+    }
+
+    /**
+     * New buffer not bound to a thread, e.g. for a request encoded by a client
+     */
+    @NotNull
+    public static ResponseBuffer allocate() {
+        return new ResponseBuffer();
+    }
+
+    /**
+     * Discard written bytes
+     */
+    @NotNull
+    public ResponseBuffer reset() {
+        if (bytes.length > MAX_RETAINED_SIZE) {
+            bytes = new byte[INITIAL_SIZE];
+        }
+        size = 0;
+        return this;
+    }
+
+    /**
+     * Append json representation of service method result
+     */
+    @NotNull
+    public ResponseBuffer writeJson(@Nullable Object result) throws IOException {
+        if (result == null) {
+            append(NULL);
+        } else if (result instanceof String) {
+            byte[] payload = PAYLOADS.get(result);
+            if (payload != null) {
+                append(payload);
+            } else {
+                writeJsonString((String) result);
+            }
+        } else if (result instanceof BigDecimal) {
+            writeDecimal((BigDecimal) result);
+        } else if (result instanceof List) {
+            List<?> list = (List<?>) result;
+            write('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    write(',');
+                }
+                writeJson(list.get(i));
+            }
+            write(']');
+        } else {
+            JsonUtils.toJson(result, this);
+        }
+        return this;
+    }
+
+    /**
+     * Append text as is
+     */
+    @NotNull
+    public ResponseBuffer writeText(@NotNull String text) {
+        write(text, 0, text.length());
+        return this;
+    }
+
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) value;
+    }
+
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        bytes[size++] = (byte) (value >>> 24);
+        bytes[size++] = (byte) (value >>> 16);
+        bytes[size++] = (byte) (value >>> 8);
+        bytes[size++] = (byte) value;
+    }
+
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    /**
+     * Append int length of UTF-8 bytes of text and the bytes
+     */
+    public void writeUtf8(@NotNull String text) {
+        writeInt(0);
+        int start = size;
+        write(text, 0, text.length());
+        int length = size - start;
+        bytes[start - 4] = (byte) (length >>> 24);
+        bytes[start - 3] = (byte) (length >>> 16);
+        bytes[start - 2] = (byte) (length >>> 8);
+        bytes[start - 1] = (byte) length;
+    }
+
+    @NotNull
+    public byte[] array() {
+        return bytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void writeTo(@NotNull OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    @Override
+    public void write(int c) {
+        if (c < 0x80) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) c;
+        } else {
+            write((char) c, (char) 0);
+        }
+    }
+
+    @Override
+    public void write(@NotNull char[] chars, int offset, int length) {
+        ensureCapacity(length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                bytes[size++] = (byte) c;
+            } else {
+                i = write(c, i + 1 < end ? chars[i + 1] : (char) 0) ? i + 1 : i;
+                ensureCapacity(end - i);
+            }
+        }
+    }
+
+    @Override
+    public void write(@NotNull String text, int offset, int length) {
+        ensureCapacity(length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes[size++] = (byte) c;
+            } else {
+                i = write(c, i + 1 < end ? text.charAt(i + 1) : (char) 0) ? i + 1 : i;
+                ensureCapacity(end - i);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Encode non ASCII character
+     *
+     * @param next character after c, used if c is a high surrogate
+     * @return true if next character is consumed
+     */
+    private boolean write(char c, char next) {
+        ensureCapacity(4);
+        if (c < 0x800) {
+            bytes[size++] = (byte) (0xc0 | c >> 6);
+            bytes[size++] = (byte) (0x80 | c & 0x3f);
+        } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+            int codePoint = Character.toCodePoint(c, next);
+            bytes[size++] = (byte) (0xf0 | codePoint >> 18);
+            bytes[size++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+            bytes[size++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+            bytes[size++] = (byte) (0x80 | codePoint & 0x3f);
+            return true;
+        } else if (Character.isSurrogate(c)) {
+            bytes[size++] = '?';
+        } else {
+            bytes[size++] = (byte) (0xe0 | c >> 12);
+            bytes[size++] = (byte) (0x80 | c >> 6 & 0x3f);
+            bytes[size++] = (byte) (0x80 | c & 0x3f);
+        }
+        return false;
+    }
+
+    /**
+     * Write json string with the same escaping as Gson does by default
+     */
+    private void writeJsonString(@NotNull String value) {
+        write('"');
+        int last = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '<' && c != '>' && c != '&' && c != '=' && c != '\''
+                    && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            write(value, last, i - last);
+            last = i + 1;
+            ensureCapacity(6);
+            bytes[size++] = '\\';
+            if (c == '"' || c == '\\') {
+                bytes[size++] = (byte) c;
+            } else if (c == '\n') {
+                bytes[size++] = 'n';
+            } else if (c == '\r') {
+                bytes[size++] = 'r';
+            } else if (c == '\t') {
+                bytes[size++] = 't';
+            } else if (c == '\b') {
+                bytes[size++] = 'b';
+            } else if (c == '\f') {
+                bytes[size++] = 'f';
+            } else {
+                bytes[size++] = 'u';
+                bytes[size++] = HEX[c >> 12];
+                bytes[size++] = HEX[c >> 8 & 0xf];
+                bytes[size++] = HEX[c >> 4 & 0xf];
+                bytes[size++] = HEX[c & 0xf];
+            }
+        }
+        write(value, last, value.length() - last);
+        write('"');
+    }
+
+    /**
+     * Write decimal in the same form as {@link BigDecimal#toString()}, without intermediate String for plain notation
+     */
+    private void writeDecimal(@NotNull BigDecimal value) {
+        int scale = value.scale();
+        // BigDecimal.toString() switches to exponent notation outside these bounds
+        BigInteger unscaledValue = value.unscaledValue();
+        if (scale < 0 || value.precision() - 1 - scale < -6 || unscaledValue.bitLength() >= 63) {
+            writeText(value.toString());
+            return;
+        }
+        long unscaled = unscaledValue.longValue();
+        ensureCapacity(21 + scale);
+        if (unscaled < 0) {
+            bytes[size++] = '-';
+            unscaled = -unscaled;
+        }
+        int digits = Math.max(digits(unscaled), scale + 1);
+        int position = size + digits + (scale > 0 ? 1 : 0);
+        size = position;
+        for (int i = 0; i < digits; i++) {
+            if (i == scale && scale > 0) {
+                bytes[--position] = '.';
+            }
+            bytes[--position] = (byte) ('0' + unscaled % 10);
+            unscaled /= 10;
+        }
+    }
+
+    private static int digits(long value) {
+        int result = 1;
+        while (value >= 10) {
+            value /= 10;
+            result++;
+        }
+        return result;
+    }
+
+    private void append(@NotNull byte[] payload) {
+        ensureCapacity(payload.length);
+        System.arraycopy(payload, 0, bytes, size, payload.length);
+        size += payload.length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > bytes.length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, size + length)];
+            System.arraycopy(bytes, 0, grown, 0, size);
+            bytes = grown;
+        }
+    }
+}
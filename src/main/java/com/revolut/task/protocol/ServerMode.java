@@ -0,0 +1,33 @@
+package com.revolut.task.protocol;
+
+import com.revolut.task.utils.Settings;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Http server implementation
+ */
+public enum ServerMode {
+
+    /**
+     * JDK http server with fixed pool of request handling threads
+     */
+    POOL,
+
+    /**
+     * JDK http server with virtual thread per request, requires JDK 21, on older runtimes works as {@link #POOL}
+     */
+    VIRTUAL,
+
+    /**
+     * Non-blocking event loops own connections, service methods are called by a pool of worker threads
+     */
+    NIO;
+
+    @NotNull
+    public static ServerMode fromSettings() {
+        String mode = Settings.getString(Settings.SERVER_MODE);
+        return mode == null ? POOL : valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    }
+}
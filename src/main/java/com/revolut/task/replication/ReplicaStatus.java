@@ -0,0 +1,39 @@
+package com.revolut.task.replication;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Replica connected to the leader
+ */
+public class ReplicaStatus {
+
+    @NotNull
+    private final String address;
+    /**
+     * Sequence number of the last record on disk of the replica
+     */
+    private final long acknowledged;
+    /**
+     * Records on disk of the leader not acknowledged by the replica
+     */
+    private final long lag;
+
+    ReplicaStatus(@NotNull String address, long acknowledged, long lag) {
+        this.address = address;
+        this.acknowledged = acknowledged;
+        this.lag = lag;
+    }
+
+    @NotNull
+    public String getAddress() {
+        return address;
+    }
+
+    public long getAcknowledged() {
+        return acknowledged;
+    }
+
+    public long getLag() {
+        return lag;
+    }
+}
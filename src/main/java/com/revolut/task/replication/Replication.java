@@ -0,0 +1,154 @@
+package com.revolut.task.replication;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.journal.Journal;
+import com.revolut.task.metrics.Metrics;
+import com.revolut.task.utils.Settings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+/**
+ * Replication role of the node: the leader accepts changes and streams its journal to replicas,
+ * a replica serves reads and applies the journal of the leader. Any node with replication port
+ * streams its journal, so a replica may be followed by other replicas.
+ * <p>
+ * Failover is manual, so two leaders never accept changes at once: stop the leader, promote the replica
+ * with the highest sequence number and make other replicas follow it.
+ */
+public class Replication implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(Replication.class);
+
+    @NotNull
+    private final AccountsDao dao;
+    @NotNull
+    private final Journal journal;
+    @Nullable
+    private final ReplicationServer server;
+    @Nullable
+    private ReplicationClient client;
+
+    /**
+     * @param server streams the journal of the node, null if nobody follows it
+     */
+    public Replication(@NotNull AccountsDao dao, @Nullable ReplicationServer server) {
+        Journal journal = dao.getJournal();
+        if (journal == null) {
+            throw new IllegalArgumentException("Replication of in-memory storage is not supported");
+        }
+        this.dao = dao;
+        this.journal = journal;
+        this.server = server;
+    }
+
+    /**
+     * Start replication configured by {@link Settings}
+     *
+     * @return null if replication is not configured
+     * @throws IllegalStateException if storage is in memory
+     */
+    @Nullable
+    public static Replication fromSettings(@NotNull AccountsDao dao) throws IOException {
+        int port = Settings.getInt(Settings.REPLICATION_PORT, 0);
+        String leader = Settings.getString(Settings.REPLICATION_LEADER);
+        if (port == 0 && leader == null) {
+            return null;
+        }
+        if (dao.getJournal() == null) {
+            throw new IllegalStateException(String.format("Replication requires durable storage, set %s",
+                    Settings.JOURNAL_DIR));
+        }
+        Replication result = new Replication(dao, port == 0 ? null
+                : new ReplicationServer(dao, port, Settings.getLong(Settings.REPLICATION_SYNC_TIMEOUT, 0)));
+        if (leader != null) {
+            dao.setReplica(true);
+            result.follow(parseAddress(leader));
+        }
+        Metrics.gauge("revolut_replication_replicas", "Replicas streaming the journal",
+                () -> result.server == null ? 0 : result.server.getReplicas().size());
+        Metrics.gauge("revolut_replication_lag_records", "Records of the leader not applied by the replica",
+                result::getLag);
+        return result;
+    }
+
+    /**
+     * Follow the leader, e.g. a promoted replica after failover
+     *
+     * @throws IllegalStateException if the node is the leader
+     */
+    public synchronized void follow(@NotNull InetSocketAddress leader) {
+        if (!dao.isReplica()) {
+            throw new IllegalStateException("The leader can't follow another node, "
+                    + "restart it as a replica with an empty journal");
+        }
+        if (client != null) {
+            client.close();
+        }
+        client = new ReplicationClient(dao, leader);
+        client.start();
+    }
+
+    /**
+     * Make the replica the leader: stop following and accept changes
+     *
+     * @return sequence number of the last record, the next change follows it
+     * @throws IllegalStateException if the node is the leader
+     */
+    public synchronized long promote() {
+        if (!dao.isReplica()) {
+            throw new IllegalStateException("The node is the leader");
+        }
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+        dao.setReplica(false);
+        long lsn = journal.getDurableLsn();
+        LOG.info(String.format("Replica promoted to the leader after record %d", lsn));
+        return lsn;
+    }
+
+    @NotNull
+    public synchronized ReplicationStatus getStatus() {
+        ReplicationClient client = this.client;
+        return new ReplicationStatus(dao.isReplica() ? "replica" : "leader", journal.getDurableLsn(),
+                client == null ? null : String.valueOf(client.getLeader()),
+                client != null && client.isConnected(), getLag(), client == null ? null : client.getError(),
+                server == null ? Collections.emptyList() : server.getReplicas());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private long getLag() {
+        ReplicationClient client = this.client;
+        return client == null ? 0 : Math.max(0, client.getLeaderLsn() - journal.getDurableLsn());
+    }
+
+    /**
+     * @param address {@code host:port}
+     */
+    @NotNull
+    public static InetSocketAddress parseAddress(@NotNull String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException(String.format("Address must be host:port: %s", address));
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+}
@@ -0,0 +1,288 @@
+package com.revolut.task.replication;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.journal.Journal;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replica side of replication: follows the journal of the leader over TCP, see {@link ReplicationProtocol}.
+ * <p>
+ * Received records are applied by {@link AccountsDao#replicate} in batches of up to the receive buffer size,
+ * every batch is acknowledged after it is on disk. The client reconnects with backoff after connection failures
+ * and resumes after the last record on disk, it stops if the leader reports that the replica can't follow it.
+ */
+public class ReplicationClient implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(ReplicationClient.class);
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    /**
+     * The leader is considered dead after this number of missed heartbeats
+     */
+    private static final int MISSED_HEARTBEATS = 5;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    @NotNull
+    private final AccountsDao dao;
+    @NotNull
+    private final Journal journal;
+    @NotNull
+    private final InetSocketAddress leader;
+    @NotNull
+    private final Thread thread;
+    private volatile Socket socket;
+    private volatile boolean running = true;
+    private volatile boolean connected;
+    /**
+     * Sequence number of the last record on disk of the leader, as far as it is known
+     */
+    private volatile long leaderLsn;
+    @Nullable
+    private volatile String error;
+
+    /**
+     * @param dao    replica, see {@link AccountsDao#setReplica}
+     * @param leader address of replication server of the leader
+     */
+    public ReplicationClient(@NotNull AccountsDao dao, @NotNull InetSocketAddress leader) {
+        Journal journal = dao.getJournal();
+        if (journal == null) {
+            throw new IllegalArgumentException("Replication of in-memory storage is not supported");
+        }
+        this.dao = dao;
+        this.journal = journal;
+        this.leader = leader;
+        this.thread = new Thread(this::run, "ReplicationClient");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    @NotNull
+    public InetSocketAddress getLeader() {
+        return leader;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return sequence number of the last record on disk of the leader, as far as it is known
+     */
+    public long getLeaderLsn() {
+        return leaderLsn;
+    }
+
+    /**
+     * @return reason why the replica can't follow the leader, null if it follows
+     */
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Disconnect from the leader, returns after the batch being applied is on disk
+     */
+    @Override
+    public void close() {
+        running = false;
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("Close failed", e);
+            }
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running) {
+            try (Socket socket = new Socket()) {
+                this.socket = socket;
+                if (!running) {
+                    return;
+                }
+                socket.connect(leader, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout((int) (MISSED_HEARTBEATS * ReplicationProtocol.HEARTBEAT_MILLIS));
+                backoff = MIN_BACKOFF_MILLIS;
+                follow(socket);
+            } catch (ReplicationException e) {
+                error = e.getMessage();
+                LOG.error(String.format("Replica can't follow the leader %s: %s", leader, e.getMessage()));
+                return;
+            } catch (IOException e) {
+                if (running) {
+                    LOG.warn(String.format("Replication from %s failed: %s", leader, e));
+                }
+            } catch (RuntimeException e) {
+                // the replica diverged or its journal failed, following is unsafe
+                error = e.getMessage();
+                LOG.error(String.format("Replica can't apply records of the leader %s", leader), e);
+                return;
+            } finally {
+                connected = false;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+        }
+    }
+
+    private void follow(@NotNull Socket socket) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        out.writeInt(ReplicationProtocol.MAGIC);
+        out.writeInt(ReplicationProtocol.VERSION);
+        out.writeLong(journal.getDurableLsn());
+        out.flush();
+        connected = true;
+        LOG.info(String.format("Following the leader %s after record %d", leader, journal.getDurableLsn()));
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (running) {
+            byte type = in.readByte();
+            switch (type) {
+                case ReplicationProtocol.HEARTBEAT:
+                    leaderLsn = in.readLong();
+                    break;
+                case ReplicationProtocol.RECORDS: {
+                    long first = in.readLong();
+                    int count = in.readInt();
+                    long size = in.readLong();
+                    if (first != journal.getDurableLsn() + 1) {
+                        throw new IOException(String.format("Records from %d don't follow the last record %d",
+                                first, journal.getDurableLsn()));
+                    }
+                    leaderLsn = Math.max(leaderLsn, first + count - 1);
+                    buffer = receive(in, out, size, buffer);
+                    break;
+                }
+                case ReplicationProtocol.SNAPSHOT: {
+                    long lsn = in.readLong();
+                    long size = in.readLong();
+                    LOG.info(String.format("Installing snapshot of record %d from the leader, %d bytes", lsn, size));
+                    dao.installSnapshot(Channels.newChannel(in), size);
+                    leaderLsn = Math.max(leaderLsn, lsn);
+                    break;
+                }
+                case ReplicationProtocol.ERROR: {
+                    byte[] message = new byte[in.readInt()];
+                    in.readFully(message);
+                    throw new ReplicationException(new String(message, StandardCharsets.UTF_8));
+                }
+                default:
+                    throw new IOException(String.format("Unknown replication message: %d", type));
+            }
+        }
+    }
+
+    /**
+     * Receive records and apply them in batches of complete records in the buffer
+     *
+     * @return the buffer, grown if a record doesn't fit into it
+     */
+    @NotNull
+    private ByteBuffer receive(@NotNull DataInputStream in, @NotNull DataOutputStream out, long size,
+                               @NotNull ByteBuffer buffer) throws IOException {
+        long remaining = size;
+        buffer.clear();
+        while (remaining > 0 || buffer.position() > 0) {
+            if (remaining > 0 && buffer.hasRemaining()) {
+                int read = in.read(buffer.array(), buffer.position(), (int) Math.min(buffer.remaining(), remaining));
+                if (read < 0) {
+                    throw new EOFException("Connection closed by the leader");
+                }
+                buffer.position(buffer.position() + read);
+                remaining -= read;
+                // wait for a full buffer while more records are available at once
+                if (remaining > 0 && buffer.hasRemaining() && in.available() > 0) {
+                    continue;
+                }
+            }
+            buffer.flip();
+            int end = completeRecords(buffer);
+            if (end == 0) {
+                if (remaining == 0) {
+                    throw new IOException("Incomplete record from the leader");
+                }
+                if (buffer.limit() == buffer.capacity()) {
+                    ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                    grown.put(buffer);
+                    buffer = grown;
+                } else {
+                    buffer.position(buffer.limit()).limit(buffer.capacity());
+                }
+                continue;
+            }
+            ByteBuffer records = buffer.duplicate();
+            records.limit(end);
+            long lsn = dao.replicate(records);
+            out.writeLong(lsn);
+            out.flush();
+            buffer.position(end);
+            buffer.compact();
+        }
+        return buffer;
+    }
+
+    /**
+     * @return end of the last complete record from position of the buffer, 0 if there is none
+     */
+    private static int completeRecords(@NotNull ByteBuffer buffer) throws IOException {
+        int position = buffer.position();
+        while (buffer.limit() - position >= 8) {
+            int size = buffer.getInt(position);
+            if (size <= 0) {
+                throw new IOException(String.format("Invalid record size from the leader: %d", size));
+            }
+            if (size > buffer.limit() - position - 8) {
+                break;
+            }
+            position += 8 + size;
+        }
+        return position;
+    }
+
+    /**
+     * The leader reported that the replica can't follow it
+     */
+    private static class ReplicationException extends IOException {
+
+        ReplicationException(@NotNull String message) {
+            super(message);
+        }
+    }
+}
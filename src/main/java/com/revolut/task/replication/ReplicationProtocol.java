@@ -0,0 +1,37 @@
+package com.revolut.task.replication;
+
+/**
+ * Messages of replication connection, numbers are big-endian.
+ * <p>
+ * The replica starts with hello: {@link #MAGIC} (int), {@link #VERSION} (int) and sequence number of its last
+ * journal record (long), then sends acknowledgements: sequence number of the last record on its disk (long).
+ * <p>
+ * The leader sends messages: type (byte) and fields:
+ * <ul>
+ * <li>{@link #RECORDS}: sequence number of the first record (long), number of records (int), size (long)
+ * and journal records as they are on disk</li>
+ * <li>{@link #SNAPSHOT}: sequence number of the last record included (long), size (long) and snapshot file</li>
+ * <li>{@link #HEARTBEAT}: sequence number of the last record on disk of the leader (long)</li>
+ * <li>{@link #ERROR}: length (int) and UTF-8 bytes of message, the replica can't follow the leader</li>
+ * </ul>
+ */
+final class ReplicationProtocol {
+
+    static final int MAGIC = 0x5245504C;
+    static final int VERSION = 1;
+
+    static final byte RECORDS = 1;
+    static final byte SNAPSHOT = 2;
+    static final byte HEARTBEAT = 3;
+    static final byte ERROR = 4;
+
+    static final int HELLO_SIZE = 4 + 4 + 8;
+
+    /**
+     * Interval of heartbeats of idle connection
+     */
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    private ReplicationProtocol() {
+    }
+}
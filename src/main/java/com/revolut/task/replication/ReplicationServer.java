@@ -0,0 +1,398 @@
+package com.revolut.task.replication;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.journal.Journal;
+import com.revolut.task.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leader side of replication: streams the journal to replicas connected over TCP.
+ * <p>
+ * Every replica has a sender thread: it waits for records on disk and sends all of them at once from the segment
+ * file with {@link Journal.Reader}, so records written by one journal flush travel as one batch without copies
+ * through the heap. A replica with an empty journal behind the oldest segment gets the latest snapshot first.
+ * Segments not acknowledged by connected replicas are kept on compaction.
+ * <p>
+ * Replication is asynchronous by default. With sync timeout a change is acknowledged to the client only after
+ * a replica has it on disk; a replica not answering in time switches replication to asynchronous
+ * until a replica catches up with the record that timed out.
+ */
+public class ReplicationServer implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(ReplicationServer.class);
+
+    private static final int SNAPSHOT_ATTEMPTS = 3;
+
+    @NotNull
+    private final AccountsDao dao;
+    @NotNull
+    private final Journal journal;
+    @NotNull
+    private final ServerSocketChannel serverChannel;
+    /**
+     * Wait for acknowledgement of a replica, milliseconds, 0 for asynchronous replication
+     */
+    private final long syncTimeout;
+
+    @NotNull
+    private final Set<Follower> followers = ConcurrentHashMap.newKeySet();
+    private final Object acknowledged = new Object();
+    /**
+     * Record not acknowledged in time, replication is asynchronous until a replica has it, 0 if none
+     */
+    private volatile long degradedLsn;
+    private volatile boolean running = true;
+
+    @NotNull
+    private final Thread acceptor;
+
+    /**
+     * @param port        port of replication connections, 0 for any free port
+     * @param syncTimeout wait for acknowledgement of a replica, milliseconds, 0 for asynchronous replication
+     * @throws IllegalArgumentException if storage is in memory
+     */
+    public ReplicationServer(@NotNull AccountsDao dao, int port, long syncTimeout) throws IOException {
+        Journal journal = dao.getJournal();
+        if (journal == null) {
+            throw new IllegalArgumentException("Replication of in-memory storage is not supported");
+        }
+        this.dao = dao;
+        this.journal = journal;
+        this.syncTimeout = syncTimeout;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        journal.setRetention(this::retainedLsn);
+        if (syncTimeout > 0) {
+            dao.setReplicationBarrier(this::awaitReplicas);
+        }
+        this.acceptor = new Thread(this::acceptLoop, "ReplicationServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOG.info(String.format("Replication server started port:%d sync timeout:%d ms", getPort(), syncTimeout));
+    }
+
+    /**
+     * @return port of replication connections
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return replicas streaming the journal
+     */
+    @NotNull
+    public List<ReplicaStatus> getReplicas() {
+        long lsn = journal.getDurableLsn();
+        List<ReplicaStatus> result = new ArrayList<>();
+        for (Follower follower : followers) {
+            long acked = follower.ackedLsn;
+            if (acked >= 0) {
+                result.add(new ReplicaStatus(follower.address, acked, Math.max(0, lsn - acked)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        dao.setReplicationBarrier(null);
+        journal.setRetention(() -> Long.MAX_VALUE);
+        serverChannel.close();
+        for (Follower follower : followers) {
+            follower.close();
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (acknowledged) {
+            acknowledged.notifyAll();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                Follower follower = new Follower(channel);
+                followers.add(follower);
+                follower.sender.start();
+            } catch (IOException e) {
+                if (running) {
+                    LOG.error("Replication server failed", e);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wait until a replica has the record on disk, called by the DAO before a change is acknowledged
+     */
+    private void awaitReplicas(long lsn) {
+        if (degradedLsn != 0 || followers.isEmpty() || maxAckedLsn() >= lsn) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncTimeout);
+        synchronized (acknowledged) {
+            while (maxAckedLsn() < lsn) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0 || !running || degradedLsn != 0) {
+                    if (degradedLsn == 0 && running) {
+                        degradedLsn = lsn;
+                        Metrics.REPLICATION_SYNC_TIMEOUTS.increment();
+                        LOG.warn(String.format("Replicas didn't acknowledge record %d in %d ms, replication is "
+                                + "asynchronous until a replica catches up", lsn, syncTimeout));
+                    }
+                    return;
+                }
+                try {
+                    acknowledged.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void onAcknowledged(@NotNull Follower follower, long lsn) {
+        follower.ackedLsn = lsn;
+        long degraded = degradedLsn;
+        if (degraded != 0 && lsn >= degraded) {
+            degradedLsn = 0;
+            LOG.info(String.format("Replica %s caught up with record %d, replication is semi-synchronous again",
+                    follower.address, lsn));
+        }
+        if (syncTimeout > 0) {
+            synchronized (acknowledged) {
+                acknowledged.notifyAll();
+            }
+        }
+    }
+
+    private long maxAckedLsn() {
+        long result = -1;
+        for (Follower follower : followers) {
+            result = Math.max(result, follower.ackedLsn);
+        }
+        return result;
+    }
+
+    /**
+     * @return sequence number of the last record acknowledged by all connected replicas
+     */
+    private long retainedLsn() {
+        long result = Long.MAX_VALUE;
+        for (Follower follower : followers) {
+            long acked = follower.ackedLsn;
+            if (acked >= 0) {
+                result = Math.min(result, acked);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Connection of a replica: the sender thread streams records, the receiver thread reads acknowledgements
+     */
+    private final class Follower {
+
+        @NotNull
+        private final SocketChannel channel;
+        @NotNull
+        private final String address;
+        @NotNull
+        private final Thread sender;
+        @NotNull
+        private final Thread receiver;
+        private final ByteBuffer header = ByteBuffer.allocate(1 + 8 + 4 + 8);
+        /**
+         * Sequence number of the last record on disk of the replica, -1 before hello
+         */
+        private volatile long ackedLsn = -1;
+
+        private Follower(@NotNull SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.address = String.valueOf(channel.getRemoteAddress());
+            this.sender = new Thread(this::send, "ReplicationSender-" + address);
+            this.receiver = new Thread(this::receive, "ReplicationReceiver-" + address);
+            sender.setDaemon(true);
+            receiver.setDaemon(true);
+        }
+
+        private void send() {
+            try {
+                ByteBuffer hello = ByteBuffer.allocate(ReplicationProtocol.HELLO_SIZE);
+                readFully(hello);
+                if (hello.getInt(0) != ReplicationProtocol.MAGIC || hello.getInt(4) != ReplicationProtocol.VERSION) {
+                    throw new IOException("Unsupported replication protocol");
+                }
+                long lsn = hello.getLong(8);
+                LOG.info(String.format("Replica %s connected after record %d", address, lsn));
+                try (Journal.Reader reader = open(lsn)) {
+                    if (reader == null) {
+                        return;
+                    }
+                    receiver.start();
+                    while (running) {
+                        if (!journal.awaitDurable(reader.getLsn(), ReplicationProtocol.HEARTBEAT_MILLIS,
+                                TimeUnit.MILLISECONDS)) {
+                            header.clear();
+                            header.put(ReplicationProtocol.HEARTBEAT).putLong(journal.getDurableLsn()).flip();
+                            writeFully(header);
+                        } else if (reader.next()) {
+                            header.clear();
+                            header.put(ReplicationProtocol.RECORDS).putLong(reader.getLsn() + 1)
+                                    .putInt(reader.getCount()).putLong(reader.getSize()).flip();
+                            writeFully(header);
+                            reader.transferTo(channel);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    LOG.info(String.format("Replica %s disconnected: %s", address, e));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+                followers.remove(this);
+            }
+        }
+
+        /**
+         * Open reader after the last record of the replica, an empty replica behind the oldest segment
+         * gets the latest snapshot first
+         *
+         * @return null if the replica can't follow the leader, it gets error
+         */
+        @Nullable
+        private Journal.Reader open(long lsn) throws IOException {
+            long durable = journal.getDurableLsn();
+            if (lsn > durable) {
+                error(String.format("Replica has record %d, the leader has only %d: the replica diverged, "
+                        + "its journal must be deleted", lsn, durable));
+                return null;
+            }
+            ackedLsn = lsn;
+            Journal.Reader reader = journal.openReader(lsn);
+            if (reader != null) {
+                return reader;
+            }
+            if (lsn > 0) {
+                error(String.format("Records after %d are deleted by compaction, "
+                        + "the journal of the replica must be deleted to get a snapshot", lsn));
+                return null;
+            }
+            for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+                Path snapshot = journal.getLatestSnapshot();
+                if (snapshot == null) {
+                    break;
+                }
+                long snapshotLsn = Journal.snapshotLsn(snapshot);
+                // segments after the snapshot are retained from now on
+                ackedLsn = snapshotLsn;
+                try (FileChannel file = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                    reader = journal.openReader(snapshotLsn);
+                    if (reader == null) {
+                        // compacted by a newer snapshot meanwhile
+                        continue;
+                    }
+                    long size = file.size();
+                    LOG.info(String.format("Sending snapshot of record %d to replica %s, %d bytes",
+                            snapshotLsn, address, size));
+                    header.clear();
+                    header.put(ReplicationProtocol.SNAPSHOT).putLong(snapshotLsn).putLong(size).flip();
+                    writeFully(header);
+                    for (long sent = 0; sent < size; ) {
+                        sent += file.transferTo(sent, size - sent, channel);
+                    }
+                    return reader;
+                } catch (NoSuchFileException e) {
+                    LOG.debug("Snapshot deleted by compaction", e);
+                } catch (IOException | RuntimeException e) {
+                    if (reader != null) {
+                        reader.close();
+                    }
+                    throw e;
+                }
+            }
+            error("The journal of the leader has no records to start from");
+            return null;
+        }
+
+        private void receive() {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            try {
+                while (running) {
+                    buffer.clear();
+                    readFully(buffer);
+                    onAcknowledged(this, buffer.getLong(0));
+                }
+            } catch (IOException e) {
+                LOG.debug("Replica disconnected", e);
+            } finally {
+                // semi-synchronous changes don't wait for it any more
+                close();
+                followers.remove(this);
+            }
+        }
+
+        private void error(@NotNull String message) throws IOException {
+            LOG.warn(String.format("Replica %s can't follow the leader: %s", address, message));
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + bytes.length);
+            buffer.put(ReplicationProtocol.ERROR).putInt(bytes.length).put(bytes).flip();
+            writeFully(buffer);
+        }
+
+        private void readFully(@NotNull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Connection closed by replica");
+                }
+            }
+        }
+
+        private void writeFully(@NotNull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Close failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.revolut.task.replication;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Replication state of the node
+ */
+public class ReplicationStatus {
+
+    /**
+     * {@code leader} or {@code replica}
+     */
+    @NotNull
+    private final String role;
+    /**
+     * Sequence number of the last record on disk
+     */
+    private final long lsn;
+    /**
+     * Address of the followed leader, null for the leader
+     */
+    @Nullable
+    private final String leader;
+    private final boolean connected;
+    /**
+     * Records on disk of the leader not applied by the replica yet, as far as they are known
+     */
+    private final long lag;
+    /**
+     * Reason why the replica can't follow the leader
+     */
+    @Nullable
+    private final String error;
+    /**
+     * Replicas streaming the journal of the node
+     */
+    @NotNull
+    private final List<ReplicaStatus> replicas;
+
+    ReplicationStatus(@NotNull String role, long lsn, @Nullable String leader, boolean connected, long lag,
+                      @Nullable String error, @NotNull List<ReplicaStatus> replicas) {
+        this.role = role;
+        this.lsn = lsn;
+        this.leader = leader;
+        this.connected = connected;
+        this.lag = lag;
+        this.error = error;
+        this.replicas = replicas;
+    }
+
+    @NotNull
+    public String getRole() {
+        return role;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    @Nullable
+    public String getLeader() {
+        return leader;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getLag() {
+        return lag;
+    }
+
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    @NotNull
+    public List<ReplicaStatus> getReplicas() {
+        return replicas;
+    }
+}
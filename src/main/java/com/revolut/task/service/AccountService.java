@@ -1,57 +1,293 @@
-package com.revolut.task.service;
-
-import com.revolut.task.caller.Arg;
-import com.revolut.task.caller.RemoteMethod;
-import com.revolut.task.dao.AccountsDao;
-import com.revolut.task.data.Account;
-import org.jetbrains.annotations.Nullable;
-
-import java.math.BigDecimal;
-import java.util.Objects;
-
-/**
- * Service for operations with account
- */
-public class AccountService implements RemoteService {
-
-    private final AccountsDao repo = new AccountsDao();
-
-    @RemoteMethod
-    public BigDecimal getBalance(@Arg("accountId") @Nullable Long accountId) {
-        Account account = repo.getAccountNotNull(accountId);
-        return account.getBalance();
-    }
-
-    @RemoteMethod
-    public String transfer(@Arg("correlationId") @Nullable String correlationId,
-                           @Arg("fromId") @Nullable Long fromId,
-                           @Arg("toId") @Nullable Long toId,
-                           @Arg("sum") @Nullable BigDecimal sum) {
-        if (sum == null) {
-            return "Sum not specified";
-        }
-        if (correlationId == null || correlationId.isEmpty()) {
-            return "CorrelationId not specified";
-        }
-        if (sum.signum() == -1) {
-            return "Negative sum is not allowed";
-        }
-        Account from = repo.getAccountNotNull(fromId);
-        Account to = repo.getAccountNotNull(toId);
-        return from.transfer(correlationId, to, sum);
-    }
-
-    @RemoteMethod
-    public Account createAccount(@Arg("name") @Nullable String name, @Arg("sum") @Nullable BigDecimal sum) {
-        Objects.requireNonNull(name, "Name not specified");
-        Objects.requireNonNull(sum, "Sum not specified");
-        Account result = new Account(name, sum);
-        repo.addAccount(result);
-        return result;
-    }
-
-    @Override
-    public String getName() {
-        return "AccountService";
-    }
-}
+package com.revolut.task.service;
+
+import com.revolut.task.bulk.AccountExporter;
+import com.revolut.task.bulk.AccountFormat;
+import com.revolut.task.bulk.AccountImporter;
+import com.revolut.task.bulk.ImportResult;
+import com.revolut.task.caller.Arg;
+import com.revolut.task.caller.RemoteMethod;
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.HistoryPage;
+import com.revolut.task.data.Money;
+import com.revolut.task.data.TransferBatch;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.data.TransferStatus;
+import com.revolut.task.feed.ChangeFeed;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Service for operations with account
+ */
+public class AccountService implements RemoteService, Closeable {
+
+    private static final int MAX_BATCH_SIZE = 10_000;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final AccountsDao repo;
+
+    public AccountService() {
+        this(new AccountsDao());
+    }
+
+    public AccountService(@NotNull AccountsDao repo) {
+        this.repo = repo;
+    }
+
+    @RemoteMethod(rateLimitKey = "accountId", warmUp = "{\"accountId\":1}")
+    public BigDecimal getBalance(@Arg("accountId") @Nullable Long accountId) {
+        return Money.toDecimal(repo.getBalanceUnits(accountId));
+    }
+
+    /**
+     * Balances of several accounts at one moment: no transfer between them is seen half done
+     *
+     * @param accountIds ids of accounts
+     * @return balances in order of ids
+     */
+    @RemoteMethod(warmUp = "{\"accountIds\":[1,2]}")
+    public List<BigDecimal> getBalances(@Arg("accountIds") @Nullable List<Long> accountIds) {
+        Objects.requireNonNull(accountIds, "AccountIds not specified");
+        if (accountIds.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException(String.format("Number of accounts exceeds %d", MAX_BATCH_SIZE));
+        }
+        long[] balances = repo.getBalancesUnits(accountIds);
+        List<BigDecimal> result = new ArrayList<>(balances.length);
+        for (long balance : balances) {
+            result.add(Money.toDecimal(balance));
+        }
+        return result;
+    }
+
+    /**
+     * Transfer history of the account, the newest transfers first.
+     * Pages are chained by cursor, so transfers done meanwhile don't shift them.
+     *
+     * @param accountId id of account
+     * @param cursor    nextCursor of the previous page, null for the first page
+     * @param limit     max number of transfers in the page, 100 by default
+     * @return transfers and the cursor of the next page
+     */
+    @RemoteMethod(rateLimitKey = "accountId", warmUp = "{\"accountId\":1,\"limit\":10}")
+    public HistoryPage getHistory(@Arg("accountId") @Nullable Long accountId,
+                                  @Arg("cursor") @Nullable Long cursor,
+                                  @Arg("limit") @Nullable Integer limit) {
+        int size = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("Page size must be from 1 to %d", MAX_PAGE_SIZE));
+        }
+        return repo.getHistory(accountId, cursor, size);
+    }
+
+    @RemoteMethod(rateLimitKey = "fromId", rateLimit = 1000, rateLimitBurst = 1000,
+            warmUp = "{\"correlationId\":\"warmUp_%d\",\"fromId\":1,\"toId\":2,\"sum\":0.01}")
+    public String transfer(@Arg("correlationId") @Nullable String correlationId,
+                           @Arg("fromId") @Nullable Long fromId,
+                           @Arg("toId") @Nullable Long toId,
+                           @Arg("sum") @Nullable BigDecimal sum) {
+        if (sum == null) {
+            return "Sum not specified";
+        }
+        if (correlationId == null || correlationId.isEmpty()) {
+            return "CorrelationId not specified";
+        }
+        String error = validate(sum);
+        if (error != null) {
+            return error;
+        }
+        return repo.transfer(correlationId, fromId, toId, Money.toUnits(sum)).getMessage();
+    }
+
+    /**
+     * Batch of transfers in one call, e.g. for payroll.
+     * In all-or-nothing mode a failed transfer rejects the others, otherwise every transfer is done if possible.
+     *
+     * @param correlationId idempotency key of the batch
+     * @param legs          transfers
+     * @param atomic        all-or-nothing mode, true by default
+     * @return status of every transfer in order of legs
+     */
+    @RemoteMethod(warmUp = "{\"correlationId\":\"warmUpBatch_%d\",\"legs\":[{\"fromId\":2,\"toId\":1,\"sum\":0.01}," +
+            "{\"fromId\":1,\"toId\":2,\"sum\":0.01}]}")
+    public List<String> transferBatch(@Arg("correlationId") @Nullable String correlationId,
+                                      @Arg("legs") @Nullable List<TransferLeg> legs,
+                                      @Arg("atomic") @Nullable Boolean atomic) {
+        if (correlationId == null || correlationId.isEmpty()) {
+            return Collections.singletonList("CorrelationId not specified");
+        }
+        if (legs == null || legs.isEmpty()) {
+            return Collections.singletonList("Transfers not specified");
+        }
+        if (legs.size() > MAX_BATCH_SIZE) {
+            return Collections.singletonList(String.format("Batch size exceeds %d", MAX_BATCH_SIZE));
+        }
+        boolean allOrNothing = atomic == null || atomic;
+        String[] result = new String[legs.size()];
+        List<Integer> valid = new ArrayList<>(legs.size());
+        for (int i = 0; i < legs.size(); i++) {
+            result[i] = validate(legs.get(i));
+            if (result[i] == null) {
+                valid.add(i);
+            }
+        }
+        if (valid.size() < legs.size() && allOrNothing) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = result[i] == null ? TransferStatus.REJECTED.getMessage() : result[i];
+            }
+            return Arrays.asList(result);
+        }
+
+        int[] indexes = new int[valid.size()];
+        long[] from = new long[valid.size()];
+        long[] to = new long[valid.size()];
+        long[] sums = new long[valid.size()];
+        for (int i = 0; i < valid.size(); i++) {
+            TransferLeg leg = legs.get(valid.get(i));
+            indexes[i] = valid.get(i);
+            from[i] = leg.getFromId();
+            to[i] = leg.getToId();
+            sums[i] = Money.toUnits(leg.getSum());
+        }
+        // transfers keep their indexes in the request, so correlationIds of the valid ones don't depend on the others
+        TransferStatus[] statuses = repo.transferBatch(
+                new TransferBatch(correlationId, allOrNothing, indexes, from, to, sums, System.currentTimeMillis()));
+        for (int i = 0; i < statuses.length; i++) {
+            result[valid.get(i)] = statuses[i].getMessage();
+        }
+        return Arrays.asList(result);
+    }
+
+    @RemoteMethod(warmUp = "{\"name\":\"warmUp\",\"sum\":100}")
+    public Account createAccount(@Arg("name") @Nullable String name, @Arg("sum") @Nullable BigDecimal sum) {
+        Objects.requireNonNull(name, "Name not specified");
+        String error = validate(sum);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+        return repo.createAccount(name, Money.toUnits(sum));
+    }
+
+    /**
+     * Bulk import of accounts, not a remote method: the stream is not a json envelope
+     */
+    @NotNull
+    public ImportResult importAccounts(@NotNull InputStream in, @NotNull AccountFormat format) throws IOException {
+        return new AccountImporter(repo).run(in, format);
+    }
+
+    /**
+     * Streaming export of all accounts, not a remote method: the result is not held in memory
+     *
+     * @return number of exported accounts
+     */
+    public long exportAccounts(@NotNull OutputStream out, @NotNull AccountFormat format) throws IOException {
+        return AccountExporter.write(repo, out, format);
+    }
+
+    /**
+     * Storage of accounts, not a remote method: its journal is replicated to other nodes
+     */
+    @NotNull
+    public AccountsDao getDao() {
+        return repo;
+    }
+
+    /**
+     * Feed of committed transfers, not a remote method: events are streamed to subscribers
+     */
+    @NotNull
+    public ChangeFeed getFeed() {
+        return repo.getFeed();
+    }
+
+    /**
+     * Check transfer of batch: its sum and accounts
+     *
+     * @return error message, null if transfer is valid
+     */
+    @Nullable
+    private String validate(@Nullable TransferLeg leg) {
+        if (leg == null) {
+            return "Transfer not specified";
+        }
+        if (leg.getFromId() == null) {
+            return "FromId not specified";
+        }
+        if (leg.getToId() == null) {
+            return "ToId not specified";
+        }
+        String error = validate(leg.getSum());
+        if (error != null) {
+            return error;
+        }
+        if (!repo.hasAccount(leg.getFromId())) {
+            return String.format("Account not found: %d", leg.getFromId());
+        }
+        if (!repo.hasAccount(leg.getToId())) {
+            return String.format("Account not found: %d", leg.getToId());
+        }
+        return null;
+    }
+
+    /**
+     * Check sum of transfer or opening balance
+     *
+     * @return error message, null if sum is valid
+     */
+    @Nullable
+    private static String validate(@Nullable BigDecimal sum) {
+        if (sum == null) {
+            return "Sum not specified";
+        }
+        if (sum.signum() == -1) {
+            return "Negative sum is not allowed";
+        }
+        try {
+            Money.toUnits(sum);
+        } catch (ArithmeticException e) {
+            return "Sum precision is not supported";
+        }
+        return null;
+    }
+
+    /**
+     * In-memory service on the engine and id allocator of {@link com.revolut.task.utils.Settings},
+     * with accounts 1 and 2 used by warm-up arguments of remote methods
+     */
+    @NotNull
+    @Override
+    public AccountService newWarmUpInstance() {
+        AccountsDao dao = AccountsDao.inMemoryFromSettings();
+        for (long id = 1; id <= 2; id++) {
+            // ids chosen here, random and snowflake allocators never give 1 and 2
+            dao.addAccount(new Account(id, "warmUp", Money.toUnits(new BigDecimal(1_000_000))));
+        }
+        return new AccountService(dao);
+    }
+
+    /**
+     * Close the storage of the service
+     */
+    @Override
+    public void close() throws IOException {
+        repo.close();
+    }
+
+    @Override
+    public String getName() {
+        return "AccountService";
+    }
+}
@@ -1,12 +1,27 @@
-package com.revolut.task.service;
-
-/**
- * Indicates REST API service
- */
-public interface RemoteService {
-
-    /**
-     * @return name of service
-     */
-    String getName();
-}
+package com.revolut.task.service;
+
+import com.revolut.task.caller.RemoteMethod;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Indicates REST API service
+ */
+public interface RemoteService {
+
+    /**
+     * @return name of service
+     */
+    String getName();
+
+    /**
+     * Instance of the service with its own in-memory state, its methods are called with {@link RemoteMethod#warmUp()}
+     * arguments on start, so the first requests don't pay for class loading, linkage and interpretation.
+     * The instance is closed after warm-up if it is {@link java.io.Closeable}.
+     *
+     * @return null if remote methods are not called on warm-up
+     */
+    @Nullable
+    default RemoteService newWarmUpInstance() {
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+package com.revolut.task.utils;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.Money;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Json representation of {@link Account}: balance is published as decimal amount, not as minor units.
+ */
+public class AccountTypeAdapter extends TypeAdapter<Account> {
+
+    @Override
+    public void write(JsonWriter out, Account account) throws IOException {
+        if (account == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(account.getId());
+        out.name("name").value(account.getName());
+        out.name("balance").value(account.getBalance());
+        out.endObject();
+    }
+
+    @Override
+    public Account read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Long id = null;
+        String name = null;
+        long balance = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    id = in.nextLong();
+                    break;
+                case "name":
+                    name = in.nextString();
+                    break;
+                case "balance":
+                    balance = Money.toUnits(new BigDecimal(in.nextString()));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == null || name == null) {
+            throw new IOException("Account id and name are required");
+        }
+        return new Account(id, name, balance);
+    }
+}
@@ -0,0 +1,72 @@
+package com.revolut.task.utils;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.Money;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Json representation of {@link AccountingTransaction}: sum is published as decimal amount, not as minor units.
+ */
+public class AccountingTransactionTypeAdapter extends TypeAdapter<AccountingTransaction> {
+
+    @Override
+    public void write(JsonWriter out, AccountingTransaction transaction) throws IOException {
+        if (transaction == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("correlationId").value(transaction.getCorrelationId());
+        out.name("fromId").value(transaction.getFrom());
+        out.name("toId").value(transaction.getTo());
+        out.name("sum").value(Money.toDecimal(transaction.getSum()));
+        out.name("timestamp").value(transaction.getTimestamp());
+        out.endObject();
+    }
+
+    @Override
+    public AccountingTransaction read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String correlationId = null;
+        long from = 0;
+        long to = 0;
+        long sum = 0;
+        long timestamp = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "correlationId":
+                    correlationId = in.nextString();
+                    break;
+                case "fromId":
+                    from = in.nextLong();
+                    break;
+                case "toId":
+                    to = in.nextLong();
+                    break;
+                case "sum":
+                    sum = Money.toUnits(new BigDecimal(in.nextString()));
+                    break;
+                case "timestamp":
+                    timestamp = in.nextLong();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (correlationId == null) {
+            throw new IOException("Transaction correlationId is required");
+        }
+        return new AccountingTransaction(correlationId, from, to, sum, timestamp);
+    }
+}
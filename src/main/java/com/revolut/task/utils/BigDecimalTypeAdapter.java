@@ -0,0 +1,35 @@
+package com.revolut.task.utils;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Json representation of decimal amounts: a number or a string with a number, e.g. {"sum":"100.1"},
+ * the text is parsed as is without going through double
+ */
+public class BigDecimalTypeAdapter extends TypeAdapter<BigDecimal> {
+
+    @Override
+    public void write(JsonWriter out, BigDecimal value) throws IOException {
+        out.value(value);
+    }
+
+    @Override
+    public BigDecimal read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        try {
+            return new BigDecimal(in.nextString());
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
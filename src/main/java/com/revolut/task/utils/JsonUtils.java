@@ -1,30 +1,48 @@
-package com.revolut.task.utils;
-
-import com.google.gson.*;
-
-import java.io.Reader;
-import java.lang.reflect.Type;
-
-public class JsonUtils {
-
-    private static Gson gson = new GsonBuilder().create();
-    private static JsonParser jsonParser = new JsonParser();
-
-    public static <T> T fromJson(Reader reader, Class<T> type) {
-        return gson.fromJson(reader, type);
-    }
-
-
-
-    public static String toJson(Object o) {
-        return gson.toJson(o);
-    }
-
-    public static JsonObject toJsonObject(String json) {
-        return jsonParser.parse(json).getAsJsonObject();
-    }
-
-    public static Object fromJson(JsonElement e, Type type) {
-        return gson.fromJson(e, type);
-    }
-}
+package com.revolut.task.utils;
+
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.protocol.Request;
+
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+
+/**
+ * Gson instance of the service. Request envelope, arguments of remote methods and data objects have hand-written
+ * adapters, so they are neither resolved nor read by reflection.
+ */
+public class JsonUtils {
+
+    private static final LongTypeAdapter LONG_ADAPTER = new LongTypeAdapter();
+    private static final BigDecimalTypeAdapter BIG_DECIMAL_ADAPTER = new BigDecimalTypeAdapter();
+
+    private static Gson gson = new GsonBuilder()
+            .registerTypeAdapter(Request.class, new RequestTypeAdapter())
+            .registerTypeAdapter(Long.class, LONG_ADAPTER)
+            .registerTypeAdapter(String.class, new StringTypeAdapter())
+            .registerTypeAdapter(BigDecimal.class, BIG_DECIMAL_ADAPTER)
+            .registerTypeAdapter(TransferLeg.class, new TransferLegTypeAdapter(LONG_ADAPTER, BIG_DECIMAL_ADAPTER))
+            .registerTypeAdapter(Account.class, new AccountTypeAdapter())
+            .registerTypeAdapter(AccountingTransaction.class, new AccountingTransactionTypeAdapter())
+            .create();
+
+    public static <T> T fromJson(Reader reader, Class<T> type) {
+        return gson.fromJson(reader, type);
+    }
+
+    public static String toJson(Object o) {
+        return gson.toJson(o);
+    }
+
+    public static void toJson(Object o, Appendable writer) {
+        gson.toJson(o, writer);
+    }
+
+    public static TypeAdapter<?> getAdapter(Type type) {
+        return gson.getAdapter(TypeToken.get(type));
+    }
+}
@@ -0,0 +1,37 @@
+package com.revolut.task.utils;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Json representation of {@link Long} ids: a number or a string with a number, e.g. {"accountId":"1"}
+ */
+public class LongTypeAdapter extends TypeAdapter<Long> {
+
+    @Override
+    public void write(JsonWriter out, Long value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else {
+            out.value(value.longValue());
+        }
+    }
+
+    @Override
+    public Long read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        try {
+            return in.nextLong();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.revolut.task.utils;
+
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.revolut.task.protocol.Request;
+
+import java.io.IOException;
+
+/**
+ * Json representation of request envelope: body is a string with json object of arguments,
+ * a body given as json object is kept as its json text
+ */
+public class RequestTypeAdapter extends TypeAdapter<Request> {
+
+    @Override
+    public void write(JsonWriter out, Request request) throws IOException {
+        if (request == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("body").value(request.getBody());
+        out.endObject();
+    }
+
+    @Override
+    public Request read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Request request = new Request();
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!"body".equals(in.nextName())) {
+                in.skipValue();
+            } else if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (in.peek() == JsonToken.STRING) {
+                request.setBody(in.nextString());
+            } else {
+                request.setBody(new JsonParser().parse(in).toString());
+            }
+        }
+        in.endObject();
+        return request;
+    }
+}
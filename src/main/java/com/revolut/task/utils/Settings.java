@@ -0,0 +1,178 @@
+package com.revolut.task.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Application settings, read from system properties
+ */
+public final class Settings {
+
+    /**
+     * Directory of transfers journal, storage is in memory only if not set
+     */
+    public static final String JOURNAL_DIR = "revolut.journal.dir";
+
+    /**
+     * Interval between snapshots of durable storage, seconds, 0 to disable
+     */
+    public static final String SNAPSHOT_INTERVAL = "revolut.snapshot.interval";
+
+    /**
+     * Port of http server started by {@code Main}
+     */
+    public static final String SERVER_PORT = "revolut.server.port";
+
+    /**
+     * Http server implementation, one of {@code pool}, {@code virtual}, {@code nio}
+     */
+    public static final String SERVER_MODE = "revolut.server.mode";
+
+    /**
+     * Size of request handling pool, or of worker stage in nio mode
+     */
+    public static final String SERVER_THREADS = "revolut.server.threads";
+
+    /**
+     * Capacity of queue of requests waiting for a handling thread in {@code pool} and {@code nio} modes,
+     * requests over it are rejected with 503
+     */
+    public static final String SERVER_QUEUE_SIZE = "revolut.server.queueSize";
+
+    /**
+     * Maximum number of pending connections of server socket
+     */
+    public static final String SERVER_BACKLOG = "revolut.server.backlog";
+
+    /**
+     * Number of event loop threads in nio mode
+     */
+    public static final String SERVER_EVENT_LOOPS = "revolut.server.eventLoops";
+
+    /**
+     * Maximum size of request in nio mode, bytes
+     */
+    public static final String SERVER_MAX_REQUEST_SIZE = "revolut.server.maxRequestSize";
+
+    /**
+     * Transfer engine, {@code locking} (default) or {@code sharded}
+     */
+    public static final String ENGINE = "revolut.engine";
+
+    /**
+     * Number of shards of sharded engine
+     */
+    public static final String ENGINE_SHARDS = "revolut.engine.shards";
+
+    /**
+     * Capacity of request ring buffer of every shard of sharded engine
+     */
+    public static final String ENGINE_INBOX_SIZE = "revolut.engine.inboxSize";
+
+    /**
+     * Allocator of account ids, {@code block} (default), {@code snowflake} or {@code random}
+     */
+    public static final String IDS = "revolut.ids";
+
+    /**
+     * Number of ids taken by a thread at once from block allocator
+     */
+    public static final String IDS_BLOCK_SIZE = "revolut.ids.blockSize";
+
+    /**
+     * Node number of snowflake allocator
+     */
+    public static final String IDS_NODE = "revolut.ids.node";
+
+    /**
+     * Number of transfers kept in the ledger for account history, 0 to disable
+     */
+    public static final String LEDGER_CAPACITY = "revolut.ledger.capacity";
+
+    /**
+     * Number of transfer events kept for subscribers, a subscriber falling behind by more is disconnected
+     */
+    public static final String FEED_CAPACITY = "revolut.feed.capacity";
+
+    /**
+     * Maximum number of concurrent subscribers of transfer events, every one holds a request handling thread
+     */
+    public static final String FEED_SUBSCRIBERS = "revolut.feed.subscribers";
+
+    /**
+     * Adaptive concurrency limit of every service method, {@code gradient} (default) or {@code none}
+     */
+    public static final String ADMISSION = "revolut.admission";
+
+    /**
+     * Concurrency limit of a service method before its latency is observed
+     */
+    public static final String ADMISSION_INITIAL_LIMIT = "revolut.admission.initialLimit";
+
+    /**
+     * The lowest concurrency limit of a service method
+     */
+    public static final String ADMISSION_MIN_LIMIT = "revolut.admission.minLimit";
+
+    /**
+     * The highest concurrency limit of a service method
+     */
+    public static final String ADMISSION_MAX_LIMIT = "revolut.admission.maxLimit";
+
+    /**
+     * Prefix of rate limits of service methods: {@code revolut.rateLimit.<method>} sets calls per second of one client,
+     * 0 to disable, {@code revolut.rateLimit.<method>.burst} sets calls one client may make at once.
+     * They override {@code RemoteMethod} defaults of methods with a client key.
+     */
+    public static final String RATE_LIMIT = "revolut.rateLimit.";
+
+    /**
+     * Number of clients tracked by rate limit of every method
+     */
+    public static final String RATE_LIMIT_CLIENTS = "revolut.rateLimit.clients";
+
+    /**
+     * Calls of every service method with its warm-up arguments on start, 0 to disable warm-up
+     */
+    public static final String WARM_UP_ITERATIONS = "revolut.warmUp.iterations";
+
+    /**
+     * Port of replication server streaming the journal to replicas, replication is off if neither it
+     * nor the leader is set
+     */
+    public static final String REPLICATION_PORT = "revolut.replication.port";
+
+    /**
+     * Replication server of the leader, {@code host:port}: the node starts as its read-only replica
+     */
+    public static final String REPLICATION_LEADER = "revolut.replication.leader";
+
+    /**
+     * Wait for a replica to acknowledge every change before it is acknowledged to the client, milliseconds,
+     * 0 (default) for asynchronous replication
+     */
+    public static final String REPLICATION_SYNC_TIMEOUT = "revolut.replication.syncTimeout";
+
+    private Settings() {
+    }
+
+    @Nullable
+    public static String getString(@NotNull String name) {
+        return System.getProperty(name);
+    }
+
+    public static int getInt(@NotNull String name, int defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static long getLong(@NotNull String name, long defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    public static double getDouble(@NotNull String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+}
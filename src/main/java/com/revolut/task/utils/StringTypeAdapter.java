@@ -0,0 +1,32 @@
+package com.revolut.task.utils;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Json representation of {@link String}: numbers and booleans are read as their text
+ */
+public class StringTypeAdapter extends TypeAdapter<String> {
+
+    @Override
+    public void write(JsonWriter out, String value) throws IOException {
+        out.value(value);
+    }
+
+    @Override
+    public String read(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+}
@@ -0,0 +1,69 @@
+package com.revolut.task.utils;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.revolut.task.data.TransferLeg;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Json representation of {@link TransferLeg} of a batch: {"fromId":1,"toId":2,"sum":10.5}, missing fields are null
+ */
+public class TransferLegTypeAdapter extends TypeAdapter<TransferLeg> {
+
+    private final TypeAdapter<Long> ids;
+    private final TypeAdapter<BigDecimal> amounts;
+
+    public TransferLegTypeAdapter(TypeAdapter<Long> ids, TypeAdapter<BigDecimal> amounts) {
+        this.ids = ids;
+        this.amounts = amounts;
+    }
+
+    @Override
+    public void write(JsonWriter out, TransferLeg leg) throws IOException {
+        if (leg == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("fromId");
+        ids.write(out, leg.getFromId());
+        out.name("toId");
+        ids.write(out, leg.getToId());
+        out.name("sum");
+        amounts.write(out, leg.getSum());
+        out.endObject();
+    }
+
+    @Override
+    public TransferLeg read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Long from = null;
+        Long to = null;
+        BigDecimal sum = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "fromId":
+                    from = ids.read(in);
+                    break;
+                case "toId":
+                    to = ids.read(in);
+                    break;
+                case "sum":
+                    sum = amounts.read(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new TransferLeg(from, to, sum);
+    }
+}
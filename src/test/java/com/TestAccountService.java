@@ -1,177 +1,400 @@
-package com;
-
-import com.revolut.task.Application;
-import com.revolut.task.data.Account;
-import com.revolut.task.protocol.Request;
-import com.revolut.task.service.AccountService;
-import com.revolut.task.utils.JsonUtils;
-import junit.framework.TestCase;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.CoreConnectionPNames;
-import org.apache.http.params.CoreProtocolPNames;
-import org.apache.http.params.HttpParams;
-import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
-
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Test AccountService
- */
-public class TestAccountService extends TestCase {
-
-    private final HttpClient client = buildHttpClient();
-
-    public void testCreateAccount() {
-        AccountService service = new AccountService();
-        Account testCreateAccount_1 = service.createAccount("testCreateAccount_1", BigDecimal.TEN);
-        assertEquals("testCreateAccount_1", testCreateAccount_1.getName());
-
-        BigDecimal sum = service.getBalance(testCreateAccount_1.getId());
-        assertTrue(BigDecimal.TEN.compareTo(sum) == 0);
-    }
-
-    public void testTransfer() {
-        AccountService service = new AccountService();
-        Account account_1 = service.createAccount("account_1", BigDecimal.TEN);
-        Account account_2 = service.createAccount("account_2", BigDecimal.TEN);
-
-        String result = service.transfer("corrId_1", account_1.getId(), account_2.getId(), BigDecimal.TEN);
-        assertEquals("Success", result);
-
-        BigDecimal account_1_sum = service.getBalance(account_1.getId());
-        assertTrue(BigDecimal.ZERO.compareTo(account_1_sum) == 0);
-
-        BigDecimal account_2_sum = service.getBalance(account_2.getId());
-        assertTrue(BigDecimal.valueOf(20).compareTo(account_2_sum) == 0);
-    }
-
-    /**
-     * Test money transfer idempotency
-     */
-    public void testTransferDuplicate() {
-        AccountService service = new AccountService();
-        Account account_1 = service.createAccount("account_1", BigDecimal.TEN);
-        Account account_2 = service.createAccount("account_2", BigDecimal.TEN);
-
-        String result = service.transfer("corrId_1", account_1.getId(), account_2.getId(), BigDecimal.ONE);
-        assertEquals("Success", result);
-
-        String resultDuplicate = service.transfer("corrId_1", account_1.getId(), account_2.getId(), BigDecimal.ONE);
-        assertEquals("Duplicate operation was rejected", resultDuplicate);
-    }
-
-    /**
-     * Test money transfers in concurrent environment
-     *
-     * @throws InterruptedException
-     */
-    public void testMultipleTransfers() throws InterruptedException {
-        final AccountService service = new AccountService();
-        Account account_1 = service.createAccount("account_1", BigDecimal.valueOf(100));
-        Account account_2 = service.createAccount("account_2", BigDecimal.ZERO);
-        List<Thread> threadList = new ArrayList<>(100);
-        for (int i = 0; i < 100; i++) {
-            final int j = i;
-            threadList.add(new Thread(() -> {
-                String correlationId = String.format("corrId_%d", j);
-                service.transfer(correlationId, account_1.getId(), account_2.getId(), BigDecimal.ONE);
-            }));
-        }
-        for (Thread thread : threadList) {
-            thread.start();
-        }
-        for (Thread thread : threadList) {
-            thread.join();
-        }
-        BigDecimal account_1_sum = service.getBalance(account_1.getId());
-        BigDecimal account_2_sum = service.getBalance(account_2.getId());
-
-        assertTrue(account_1_sum.toString(), BigDecimal.ZERO.compareTo(account_1_sum) == 0);
-        assertTrue(account_2_sum.toString(), BigDecimal.valueOf(100).compareTo(account_2_sum) == 0);
-    }
-
-    /**
-     * Test money transfer through http request
-     *
-     * @throws IOException
-     */
-    public void testHttpServerTransfer() throws IOException {
-        Application a = new Application(8001);
-        try {
-            a.start();
-
-            Account account_1 = createAccount("account_1", "100.000001");
-
-            assertEquals("account_1", account_1.getName());
-            assertTrue("Expected: 100.000001", BigDecimal.valueOf(100.000001).compareTo(account_1.getBalance()) == 0);
-
-            Account account_2 = createAccount("account_2", "0");
-
-            String transferBody = String.format("{" +
-                    " \"correlationId\":\"corrId_1\"," +
-                    " \"fromId\":\"%s\"," +
-                    " \"toId\":\"%s\"," +
-                    " \"sum\":\"50\"" +
-                    "}"
-                    , account_1.getId(), account_2.getId());
-
-            String transferStatus = post("http://localhost:8001/api/transfer", transferBody, String.class);
-
-            assertEquals("Success", transferStatus);
-
-            BigDecimal balance_1 = getBalance(account_1);
-            assertTrue("Expected: 50.000001", BigDecimal.valueOf(50.000001).compareTo(balance_1) == 0);
-
-            BigDecimal balance_2 = getBalance(account_2);
-            assertTrue("Expected: 50", BigDecimal.valueOf(50).compareTo(balance_2) == 0);
-        } finally {
-            a.stop();
-        }
-    }
-
-    private static HttpClient buildHttpClient() {
-        HttpParams httpParams = new BasicHttpParams();
-        httpParams.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 5000);
-        httpParams.setParameter(CoreConnectionPNames.SO_TIMEOUT, 1000);
-        httpParams.setParameter(CoreProtocolPNames.HTTP_CONTENT_CHARSET, HTTP.UTF_8);
-        httpParams.setParameter(CoreProtocolPNames.HTTP_ELEMENT_CHARSET, HTTP.UTF_8);
-
-        return new DefaultHttpClient(httpParams);
-    }
-
-    private <T> T post(String url, String body, Class<T> resultType) throws IOException {
-        HttpPost post = new HttpPost(url);
-        Request request = new Request();
-        request.setBody(body);
-
-        String json = JsonUtils.toJson(request);
-        post.setEntity(new StringEntity(json, "application/json", HTTP.UTF_8));
-
-        HttpResponse response = client.execute(post);
-        InputStreamReader is = new InputStreamReader(response.getEntity().getContent(), HTTP.UTF_8);
-
-        T result = JsonUtils.fromJson(is, resultType);
-        EntityUtils.consume(response.getEntity());
-        return result;
-    }
-
-    private Account createAccount(String name, String sum) throws IOException {
-        String body = String.format("{\"name\":\"%s\", \"sum\":\"%s\"}", name, sum);
-        return post("http://localhost:8001/api/createAccount", body, Account.class);
-    }
-
-    private BigDecimal getBalance(Account account) throws IOException {
-        String body = String.format("{\"accountId\":\"%s\"}", account.getId());
-        return post("http://localhost:8001/api/getBalance", body, BigDecimal.class);
-    }
-}
+package com;
+
+import com.revolut.task.Application;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.protocol.Request;
+import com.revolut.task.protocol.ServerMode;
+import com.revolut.task.service.AccountService;
+import com.revolut.task.utils.JsonUtils;
+import junit.framework.TestCase;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test AccountService
+ */
+public class TestAccountService extends TestCase {
+
+    private final HttpClient client = buildHttpClient();
+
+    public void testCreateAccount() {
+        AccountService service = new AccountService();
+        Account testCreateAccount_1 = service.createAccount("testCreateAccount_1", BigDecimal.TEN);
+        assertEquals("testCreateAccount_1", testCreateAccount_1.getName());
+
+        BigDecimal sum = service.getBalance(testCreateAccount_1.getId());
+        assertTrue(BigDecimal.TEN.compareTo(sum) == 0);
+
+        // opening balance is checked as a transfer sum
+        for (String[] invalid : new String[][]{{"-1", "Negative sum is not allowed"},
+                {"0.0000001", "Sum precision is not supported"}}) {
+            try {
+                service.createAccount("invalid", new BigDecimal(invalid[0]));
+                fail("Invalid opening balance: " + invalid[0]);
+            } catch (IllegalArgumentException e) {
+                assertEquals(invalid[1], e.getMessage());
+            }
+        }
+    }
+
+    public void testTransfer() {
+        AccountService service = new AccountService();
+        Account account_1 = service.createAccount("account_1", BigDecimal.TEN);
+        Account account_2 = service.createAccount("account_2", BigDecimal.TEN);
+
+        String result = service.transfer("corrId_1", account_1.getId(), account_2.getId(), BigDecimal.TEN);
+        assertEquals("Success", result);
+
+        BigDecimal account_1_sum = service.getBalance(account_1.getId());
+        assertTrue(BigDecimal.ZERO.compareTo(account_1_sum) == 0);
+
+        BigDecimal account_2_sum = service.getBalance(account_2.getId());
+        assertTrue(BigDecimal.valueOf(20).compareTo(account_2_sum) == 0);
+    }
+
+    /**
+     * Test money transfer idempotency: retry gets the original result, reuse of correlationId for another transfer is rejected
+     */
+    public void testTransferDuplicate() {
+        AccountService service = new AccountService();
+        Account account_1 = service.createAccount("account_1", BigDecimal.TEN);
+        Account account_2 = service.createAccount("account_2", BigDecimal.TEN);
+
+        String result = service.transfer("corrId_1", account_1.getId(), account_2.getId(), BigDecimal.ONE);
+        assertEquals("Success", result);
+
+        String resultRetry = service.transfer("corrId_1", account_1.getId(), account_2.getId(), BigDecimal.ONE);
+        assertEquals("Success", resultRetry);
+        assertTrue(BigDecimal.valueOf(9).compareTo(service.getBalance(account_1.getId())) == 0);
+        assertTrue(BigDecimal.valueOf(11).compareTo(service.getBalance(account_2.getId())) == 0);
+
+        String resultDuplicate = service.transfer("corrId_1", account_1.getId(), account_2.getId(), BigDecimal.TEN);
+        assertEquals("Duplicate operation was rejected", resultDuplicate);
+        assertTrue(BigDecimal.valueOf(9).compareTo(service.getBalance(account_1.getId())) == 0);
+    }
+
+    /**
+     * Test batch of transfers: all-or-nothing and best-effort modes, retry of batch
+     */
+    public void testTransferBatch() {
+        AccountService service = new AccountService();
+        Account account_1 = service.createAccount("account_1", BigDecimal.TEN);
+        Account account_2 = service.createAccount("account_2", BigDecimal.ZERO);
+        Account account_3 = service.createAccount("account_3", BigDecimal.ZERO);
+
+        List<TransferLeg> legs = Arrays.asList(
+                new TransferLeg(account_1.getId(), account_2.getId(), BigDecimal.valueOf(6)),
+                new TransferLeg(account_2.getId(), account_3.getId(), BigDecimal.valueOf(5)),
+                new TransferLeg(account_1.getId(), account_3.getId(), BigDecimal.valueOf(6)));
+        assertEquals(Arrays.asList("Rejected, another transfer of the batch failed",
+                "Rejected, another transfer of the batch failed", "Insufficient funds"),
+                service.transferBatch("batch_1", legs, true));
+        assertTrue(BigDecimal.TEN.compareTo(service.getBalance(account_1.getId())) == 0);
+
+        // the second transfer uses money of the first one
+        assertEquals(Arrays.asList("Success", "Success", "Insufficient funds"),
+                service.transferBatch("batch_2", legs, false));
+        assertTrue(BigDecimal.valueOf(4).compareTo(service.getBalance(account_1.getId())) == 0);
+        assertTrue(BigDecimal.ONE.compareTo(service.getBalance(account_2.getId())) == 0);
+        assertTrue(BigDecimal.valueOf(5).compareTo(service.getBalance(account_3.getId())) == 0);
+
+        assertEquals(Arrays.asList("Success", "Success", "Insufficient funds"),
+                service.transferBatch("batch_2", legs, false));
+        assertEquals(Collections.nCopies(3, "Duplicate operation was rejected"),
+                service.transferBatch("batch_2", legs, true));
+        assertTrue(BigDecimal.valueOf(4).compareTo(service.getBalance(account_1.getId())) == 0);
+
+        assertEquals(Arrays.asList("Success", "Negative sum is not allowed"), service.transferBatch("batch_3",
+                Arrays.asList(new TransferLeg(account_1.getId(), account_2.getId(), BigDecimal.ONE),
+                        new TransferLeg(account_1.getId(), account_2.getId(), BigDecimal.ONE.negate())),
+                false));
+        assertTrue(BigDecimal.valueOf(3).compareTo(service.getBalance(account_1.getId())) == 0);
+
+        // invalid accounts are reported per transfer, valid transfers keep their indexes in the request
+        List<TransferLeg> invalid = Arrays.asList(
+                new TransferLeg(null, account_2.getId(), BigDecimal.ONE),
+                new TransferLeg(account_1.getId(), -1L, BigDecimal.ONE),
+                new TransferLeg(account_1.getId(), account_2.getId(), BigDecimal.ONE));
+        assertEquals(Arrays.asList("FromId not specified", "Account not found: -1",
+                "Rejected, another transfer of the batch failed"), service.transferBatch("batch_4", invalid, true));
+        assertEquals(Arrays.asList("FromId not specified", "Account not found: -1", "Success"),
+                service.transferBatch("batch_4", invalid, false));
+        assertEquals("batch_4#2", service.getHistory(account_1.getId(), null, 1).getTransactions().get(0)
+                .getCorrelationId());
+
+        // correlationIds of single transfers don't collide with transfers of batches
+        assertEquals("Success", service.transfer("batch_4#2", account_1.getId(), account_3.getId(), BigDecimal.ONE));
+        assertEquals(Arrays.asList("FromId not specified", "Account not found: -1", "Success"),
+                service.transferBatch("batch_4", invalid, false));
+        assertTrue(BigDecimal.ONE.compareTo(service.getBalance(account_1.getId())) == 0);
+    }
+
+    /**
+     * Test that balances of several accounts are read at one moment while transfers between them are in flight
+     */
+    public void testGetBalances() throws InterruptedException {
+        AccountService service = new AccountService();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ids.add(service.createAccount("account_" + i, BigDecimal.valueOf(100)).getId());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 20_000; i++) {
+            final int j = i;
+            executor.execute(() -> service.transfer("corrId_" + j, ids.get(j % 4), ids.get((j + 1 + j / 4) % 4),
+                    BigDecimal.valueOf(j % 3)));
+        }
+        executor.shutdown();
+        while (!executor.isTerminated()) {
+            BigDecimal total = BigDecimal.ZERO;
+            for (BigDecimal balance : service.getBalances(ids)) {
+                total = total.add(balance);
+            }
+            assertTrue(total.toString(), BigDecimal.valueOf(400).compareTo(total) == 0);
+        }
+        List<BigDecimal> balances = service.getBalances(Arrays.asList(ids.get(1), ids.get(1)));
+        assertEquals(balances.get(0), balances.get(1));
+        assertTrue(service.getBalance(ids.get(1)).compareTo(balances.get(0)) == 0);
+    }
+
+    /**
+     * Test that amounts finer than minor unit are rejected instead of being rounded
+     */
+    public void testTransferPrecision() {
+        AccountService service = new AccountService();
+        Account account_1 = service.createAccount("account_1", new BigDecimal("0.000003"));
+        Account account_2 = service.createAccount("account_2", BigDecimal.ZERO);
+
+        String result = service.transfer("corrId_1", account_1.getId(), account_2.getId(), new BigDecimal("0.0000015"));
+        assertEquals("Sum precision is not supported", result);
+
+        result = service.transfer("corrId_2", account_1.getId(), account_2.getId(), new BigDecimal("0.000001"));
+        assertEquals("Success", result);
+        assertTrue(new BigDecimal("0.000002").compareTo(service.getBalance(account_1.getId())) == 0);
+        assertTrue(new BigDecimal("0.000001").compareTo(service.getBalance(account_2.getId())) == 0);
+    }
+
+    /**
+     * Test money transfers in concurrent environment
+     *
+     * @throws InterruptedException
+     */
+    public void testMultipleTransfers() throws InterruptedException {
+        final AccountService service = new AccountService();
+        Account account_1 = service.createAccount("account_1", BigDecimal.valueOf(100));
+        Account account_2 = service.createAccount("account_2", BigDecimal.ZERO);
+        List<Thread> threadList = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            final int j = i;
+            threadList.add(new Thread(() -> {
+                String correlationId = String.format("corrId_%d", j);
+                service.transfer(correlationId, account_1.getId(), account_2.getId(), BigDecimal.ONE);
+            }));
+        }
+        for (Thread thread : threadList) {
+            thread.start();
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        BigDecimal account_1_sum = service.getBalance(account_1.getId());
+        BigDecimal account_2_sum = service.getBalance(account_2.getId());
+
+        assertTrue(account_1_sum.toString(), BigDecimal.ZERO.compareTo(account_1_sum) == 0);
+        assertTrue(account_2_sum.toString(), BigDecimal.valueOf(100).compareTo(account_2_sum) == 0);
+    }
+
+    /**
+     * Test concurrent transfers between a pool of accounts and a few hot ones in both directions.
+     * Lock ordering must prevent deadlocks and no money must be lost.
+     *
+     * @throws InterruptedException
+     */
+    public void testContendedTransfers() throws InterruptedException {
+        final AccountService service = new AccountService();
+        final int accountsCount = 50;
+        final int hotAccountsCount = 3;
+        final int transfersCount = 200_000;
+        List<Account> accounts = new ArrayList<>(accountsCount);
+        for (int i = 0; i < accountsCount; i++) {
+            accounts.add(service.createAccount("account_" + i, BigDecimal.valueOf(1000)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(200);
+        for (int i = 0; i < transfersCount; i++) {
+            final int j = i;
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                Account from = accounts.get(random.nextInt(accountsCount));
+                Account to = accounts.get(random.nextInt(hotAccountsCount));
+                if (random.nextBoolean()) {
+                    Account tmp = from;
+                    from = to;
+                    to = tmp;
+                }
+                service.transfer(String.format("corrId_%d", j), from.getId(), to.getId(), BigDecimal.ONE);
+            });
+        }
+        executor.shutdown();
+        assertTrue("Transfers deadlocked", executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            BigDecimal balance = service.getBalance(account.getId());
+            assertTrue(balance.toString(), balance.signum() >= 0);
+            total = total.add(balance);
+        }
+        assertTrue(total.toString(), BigDecimal.valueOf(1000L * accountsCount).compareTo(total) == 0);
+    }
+
+    /**
+     * Test money transfer through http request
+     *
+     * @throws IOException
+     */
+    public void testHttpServerTransfer() throws IOException {
+        checkHttpServerTransfer(new Application(8001, ServerMode.POOL), "corrId_1");
+    }
+
+    /**
+     * Test money transfer through http request to non-blocking server
+     *
+     * @throws IOException
+     */
+    public void testNioHttpServerTransfer() throws IOException {
+        checkHttpServerTransfer(new Application(8001, ServerMode.NIO), "corrId_nio_1");
+    }
+
+    private void checkHttpServerTransfer(Application a, String correlationId) throws IOException {
+        try {
+            a.start();
+
+            Account account_1 = createAccount("account_1", "100.000001");
+
+            assertEquals("account_1", account_1.getName());
+            assertTrue("Expected: 100.000001", BigDecimal.valueOf(100.000001).compareTo(account_1.getBalance()) == 0);
+
+            Account account_2 = createAccount("account_2", "0");
+
+            String transferBody = String.format("{" +
+                    " \"correlationId\":\"%s\"," +
+                    " \"fromId\":\"%s\"," +
+                    " \"toId\":\"%s\"," +
+                    " \"sum\":\"50\"" +
+                    "}"
+                    , correlationId, account_1.getId(), account_2.getId());
+
+            String transferStatus = post("http://localhost:8001/api/transfer", transferBody, String.class);
+
+            assertEquals("Success", transferStatus);
+
+            BigDecimal balance_1 = getBalance(account_1);
+            assertTrue("Expected: 50.000001", BigDecimal.valueOf(50.000001).compareTo(balance_1) == 0);
+
+            BigDecimal balance_2 = getBalance(account_2);
+            assertTrue("Expected: 50", BigDecimal.valueOf(50).compareTo(balance_2) == 0);
+        } finally {
+            a.stop();
+        }
+    }
+
+    /**
+     * Test arguments passed as json object in request body
+     *
+     * @throws IOException
+     */
+    public void testHttpServerObjectBody() throws IOException {
+        Application a = new Application(8001);
+        try {
+            a.start();
+
+            Account account_1 = postEnvelope("http://localhost:8001/api/createAccount",
+                    "{\"body\":{\"name\":\"account_1\", \"sum\":100.5, \"unknown\":[1, {}]}}", Account.class);
+            assertEquals("account_1", account_1.getName());
+            Account account_2 = createAccount("account_2", "0");
+
+            String transferBody = String.format("{\"body\":{" +
+                    " \"sum\":\"0.5\"," +
+                    " \"toId\":%s," +
+                    " \"fromId\":\"%s\"," +
+                    " \"correlationId\":\"corrId_object_1\"" +
+                    "}}"
+                    , account_2.getId(), account_1.getId());
+            assertEquals("Success", postEnvelope("http://localhost:8001/api/transfer", transferBody, String.class));
+
+            String balanceBody = String.format("{\"body\":{\"accountId\":%s}}", account_1.getId());
+            BigDecimal balance_1 = postEnvelope("http://localhost:8001/api/getBalance", balanceBody, BigDecimal.class);
+            assertTrue("Expected: 100", BigDecimal.valueOf(100).compareTo(balance_1) == 0);
+
+            assertTrue("Expected: 0.5", new BigDecimal("0.5").compareTo(getBalance(account_2)) == 0);
+
+            String batchBody = String.format("{\"body\":{\"correlationId\":\"batch_object_1\", \"atomic\":false, \"legs\":[" +
+                    "{\"fromId\":%1$s, \"toId\":%2$s, \"sum\":0.25}, {\"fromId\":%1$s, \"toId\":%2$s, \"sum\":\"1000\"}]}}",
+                    account_1.getId(), account_2.getId());
+            assertEquals("[\"Success\",\"Insufficient funds\"]",
+                    JsonUtils.toJson(postEnvelope("http://localhost:8001/api/transferBatch", batchBody, List.class)));
+        } finally {
+            a.stop();
+        }
+    }
+
+    private static HttpClient buildHttpClient() {
+        HttpParams httpParams = new BasicHttpParams();
+        httpParams.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 5000);
+        httpParams.setParameter(CoreConnectionPNames.SO_TIMEOUT, 1000);
+        httpParams.setParameter(CoreProtocolPNames.HTTP_CONTENT_CHARSET, HTTP.UTF_8);
+        httpParams.setParameter(CoreProtocolPNames.HTTP_ELEMENT_CHARSET, HTTP.UTF_8);
+
+        return new DefaultHttpClient(httpParams);
+    }
+
+    private <T> T post(String url, String body, Class<T> resultType) throws IOException {
+        Request request = new Request();
+        request.setBody(body);
+
+        return postEnvelope(url, JsonUtils.toJson(request), resultType);
+    }
+
+    private <T> T postEnvelope(String url, String json, Class<T> resultType) throws IOException {
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new StringEntity(json, "application/json", HTTP.UTF_8));
+
+        HttpResponse response = client.execute(post);
+        InputStreamReader is = new InputStreamReader(response.getEntity().getContent(), HTTP.UTF_8);
+
+        T result = JsonUtils.fromJson(is, resultType);
+        EntityUtils.consume(response.getEntity());
+        return result;
+    }
+
+    private Account createAccount(String name, String sum) throws IOException {
+        String body = String.format("{\"name\":\"%s\", \"sum\":\"%s\"}", name, sum);
+        return post("http://localhost:8001/api/createAccount", body, Account.class);
+    }
+
+    private BigDecimal getBalance(Account account) throws IOException {
+        String body = String.format("{\"accountId\":\"%s\"}", account.getId());
+        return post("http://localhost:8001/api/getBalance", body, BigDecimal.class);
+    }
+}
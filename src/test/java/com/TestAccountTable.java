@@ -0,0 +1,77 @@
+package com;
+
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountTable;
+import com.revolut.task.data.TransferStatus;
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test AccountTable
+ */
+public class TestAccountTable extends TestCase {
+
+    public void testPutAndGet() {
+        AccountTable table = new AccountTable();
+        // more accounts than one chunk and initial segments hold
+        for (long id = 1; id <= 100_000; id++) {
+            table.put(new Account(id, "account_" + id, id));
+        }
+        assertEquals(100_000, table.size());
+        for (long id = 1; id <= 100_000; id++) {
+            Account account = table.get(id);
+            assertNotNull(account);
+            assertEquals("account_" + id, account.getName());
+            assertEquals(id, account.getBalanceUnits());
+        }
+        assertNull(table.get(0));
+        assertNull(table.get(100_001));
+
+        // account with the same id replaces the previous one
+        table.put(new Account(5L, "replaced", 7));
+        assertEquals(100_000, table.size());
+        assertEquals("replaced", table.get(5).getName());
+        assertEquals(7, table.get(5).getBalanceUnits());
+
+        AtomicInteger count = new AtomicInteger();
+        table.forEach(account -> count.incrementAndGet());
+        assertEquals(100_000, count.get());
+    }
+
+    public void testViews() {
+        AccountTable table = new AccountTable();
+        Account first = new Account(1L, "first", 100);
+        Account second = new Account(2L, "second", 100);
+        table.put(first);
+        table.put(second);
+
+        assertEquals(TransferStatus.SUCCESS, first.transfer(second, 30, () -> {
+        }));
+        // stored accounts and views returned by the table share the slot
+        assertEquals(70, table.get(1).getBalanceUnits());
+        assertEquals(130, second.getBalanceUnits());
+        assertEquals(1, table.get(2).getVersion());
+        assertEquals(first, table.get(1));
+    }
+
+    public void testConcurrentPut() throws InterruptedException {
+        AccountTable table = new AccountTable();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            final long base = t * 10_000L;
+            executor.execute(() -> {
+                for (long id = base; id < base + 10_000; id++) {
+                    table.put(new Account(id, "account", id));
+                    assertEquals(id, table.get(id).getBalanceUnits());
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        assertEquals(80_000, table.size());
+    }
+}
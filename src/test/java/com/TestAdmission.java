@@ -0,0 +1,122 @@
+package com;
+
+import com.revolut.task.admission.GradientLimiter;
+import com.revolut.task.admission.RateLimiter;
+import com.revolut.task.protocol.BaseHandler;
+import com.revolut.task.protocol.ResponseBuffer;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test adaptive concurrency limit and rate limit of clients
+ */
+public class TestAdmission extends TestCase {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+    public void testLimitReached() {
+        GradientLimiter limiter = new GradientLimiter(3, 1, 10);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        assertEquals(3, limiter.getInFlight());
+        long now = System.nanoTime();
+        limiter.release(now, now);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    public void testAdaptation() {
+        GradientLimiter limiter = new GradientLimiter(20, 4, 200);
+        long time = System.nanoTime();
+        // latency stays the same while calls use the whole limit
+        for (int window = 0; window < 50; window++) {
+            time += WINDOW;
+            runWindow(limiter, time, 1000);
+        }
+        int grown = limiter.getLimit();
+        assertTrue(String.valueOf(grown), grown > 40);
+
+        // calls become 10 times slower, they queue
+        for (int window = 0; window < 20; window++) {
+            time += WINDOW;
+            runWindow(limiter, time, 10_000);
+        }
+        int shrunk = limiter.getLimit();
+        assertTrue(shrunk + " of " + grown, shrunk < grown / 2);
+        assertTrue(shrunk >= 4);
+
+        // a few calls say nothing about the limit
+        time += WINDOW;
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(time - 100_000, time);
+        }
+        assertEquals(shrunk, limiter.getLimit());
+    }
+
+    public void testRateLimit() {
+        RateLimiter limiter = new RateLimiter(10, 3, 1024);
+        long time = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(1L, time));
+        }
+        assertFalse(limiter.tryAcquire(1L, time));
+        // other clients have own buckets
+        assertTrue(limiter.tryAcquire(2L, time));
+        assertTrue(limiter.tryAcquire("key", time));
+        // a token per 100 ms
+        assertFalse(limiter.tryAcquire(1L, time + TimeUnit.MILLISECONDS.toNanos(99)));
+        assertTrue(limiter.tryAcquire(1L, time + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertFalse(limiter.tryAcquire(1L, time + TimeUnit.MILLISECONDS.toNanos(100)));
+        // the bucket is refilled up to the burst only
+        time += TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(1L, time));
+        }
+        assertFalse(limiter.tryAcquire(1L, time));
+    }
+
+    /**
+     * More clients than slots evict idle ones
+     */
+    public void testRateLimitEviction() {
+        RateLimiter limiter = new RateLimiter(1, 1, 16);
+        long time = System.nanoTime();
+        assertTrue(limiter.tryAcquire(0L, time));
+        for (long client = 1; client < 10_000; client++) {
+            time += TimeUnit.SECONDS.toNanos(1);
+            assertTrue(limiter.tryAcquire(client, time));
+            assertFalse(limiter.tryAcquire(client, time));
+        }
+    }
+
+    public void testThrottledCall() {
+        BaseHandler handler = new BaseHandler();
+        handler.init();
+        byte[] body = "{\"body\":{\"correlationId\":\"throttled\",\"fromId\":0,\"toId\":0,\"sum\":1}}"
+                .getBytes(StandardCharsets.UTF_8);
+        int status = 0;
+        // transfers from one account are limited to 1000 per second with burst of 1000
+        for (int i = 0; i < 10_000 && status != 429; i++) {
+            status = handler.call("transfer", new ByteArrayInputStream(body), ResponseBuffer.get());
+        }
+        assertEquals(429, status);
+    }
+
+    /**
+     * Run as many concurrent calls as the limit allows, all with the given latency
+     */
+    private static void runWindow(GradientLimiter limiter, long end, long latency) {
+        int count = 0;
+        while (limiter.tryAcquire()) {
+            count++;
+        }
+        for (int i = 0; i < count; i++) {
+            limiter.release(end - latency, end);
+        }
+    }
+}
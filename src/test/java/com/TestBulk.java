@@ -0,0 +1,110 @@
+package com;
+
+import com.revolut.task.bulk.AccountExporter;
+import com.revolut.task.bulk.AccountFormat;
+import com.revolut.task.bulk.AccountImporter;
+import com.revolut.task.bulk.ImportResult;
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.Money;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Test bulk import and export of accounts
+ */
+public class TestBulk extends TestCase {
+
+    public void testImportLines() throws IOException {
+        AccountsDao dao = new AccountsDao();
+        dao.addAccount(new Account(3L, "existing", 0));
+        String lines = "{\"id\":1,\"name\":\"first\",\"balance\":\"10.5\"}\n"
+                + "\n"
+                + "{\"name\":\"allocated\",\"balance\":1}\n"
+                + "{\"id\":2,\"balance\":\"1\"}\n"
+                + "{\"id\":3,\"name\":\"duplicate\",\"balance\":\"1\"}\n"
+                + "{\"id\":5,\"name\":\"precise\",\"balance\":\"0.0000001\"}\n"
+                + "not json\n";
+        ImportResult result = new AccountImporter(dao, 2, 2).run(
+                new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8)), AccountFormat.NDJSON);
+        assertEquals(2, result.getImported());
+        assertEquals(4, result.getRejected());
+        assertNotNull(result.getError());
+
+        assertEquals(Money.toUnits(new BigDecimal("10.5")), dao.getBalanceUnits(1L));
+        assertEquals(Money.toUnits(BigDecimal.ONE), dao.getAccountNotNull(4L).getBalanceUnits());
+        assertEquals("existing", dao.getAccountNotNull(3L).getName());
+        // allocated ids go after imported ones
+        assertTrue(dao.createAccount("created", 0).getId() > 4);
+    }
+
+    public void testExportAndImport() throws IOException {
+        AccountsDao source = new AccountsDao();
+        for (int i = 0; i < 10_000; i++) {
+            source.createAccount("account é " + i, i);
+        }
+        for (AccountFormat format : AccountFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(10_000, AccountExporter.write(source, out, format));
+
+            AccountsDao target = new AccountsDao();
+            ImportResult result = new AccountImporter(target, 4, 1000).run(
+                    new ByteArrayInputStream(out.toByteArray()), format);
+            assertEquals(format.name(), 10_000, result.getImported());
+            assertEquals(0, result.getRejected());
+            source.forEachAccount(account -> {
+                Account imported = target.getAccountNotNull(account.getId());
+                assertEquals(account.getName(), imported.getName());
+                assertEquals(account.getBalanceUnits(), imported.getBalanceUnits());
+            });
+        }
+    }
+
+    public void testCorruptedBinary() {
+        try {
+            new AccountImporter(new AccountsDao()).run(
+                    new ByteArrayInputStream("{\"name\":\"json\"}".getBytes(StandardCharsets.UTF_8)), AccountFormat.BINARY);
+            fail("Json is imported as binary");
+        } catch (IOException e) {
+            assertEquals("Not a binary accounts stream", e.getMessage());
+        }
+    }
+
+    /**
+     * Imported accounts are journaled
+     */
+    public void testDurableImport() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (int i = 1; i <= 5000; i++) {
+                lines.append("{\"id\":").append(i).append(",\"name\":\"account\",\"balance\":\"").append(i).append("\"}\n");
+            }
+            try (AccountsDao dao = new AccountsDao(directory, 0)) {
+                ImportResult result = new AccountImporter(dao, 2, 100).run(
+                        new ByteArrayInputStream(lines.toString().getBytes(StandardCharsets.UTF_8)), AccountFormat.NDJSON);
+                assertEquals(5000, result.getImported());
+            }
+            try (AccountsDao dao = new AccountsDao(directory, 0)) {
+                for (long id = 1; id <= 5000; id++) {
+                    assertEquals(Money.toUnits(BigDecimal.valueOf(id)), dao.getBalanceUnits(id));
+                }
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com;
+
+import com.revolut.task.codec.BinaryCodec;
+import com.revolut.task.codec.Codec;
+import com.revolut.task.codec.Codecs;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.HistoryPage;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.protocol.BaseHandler;
+import com.revolut.task.protocol.ResponseBuffer;
+import com.revolut.task.service.AccountService;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test selection of codecs and service calls in binary encoding
+ */
+public class TestCodec extends TestCase {
+
+    private BaseHandler handler;
+
+    @Override
+    protected void setUp() {
+        handler = new BaseHandler();
+        handler.init();
+    }
+
+    public void testSelection() {
+        assertSame(Codecs.JSON, Codecs.forContentType(null));
+        assertSame(Codecs.JSON, Codecs.forContentType("text/plain"));
+        assertSame(Codecs.JSON, Codecs.forContentType("application/json; charset=UTF-8"));
+        assertSame(Codecs.BINARY, Codecs.forContentType(" Application/X-Revolut-Binary "));
+
+        assertSame(Codecs.BINARY, Codecs.forAccept(null, Codecs.BINARY));
+        assertSame(Codecs.BINARY, Codecs.forAccept("*/*", Codecs.BINARY));
+        assertSame(Codecs.JSON, Codecs.forAccept("text/html, application/json;q=0.9, */*", Codecs.BINARY));
+        assertSame(Codecs.BINARY, Codecs.forAccept("application/x-revolut-binary", Codecs.JSON));
+    }
+
+    public void testBinaryCalls() throws IOException {
+        Account from = (Account) call("createAccount", "from", new BigDecimal("100.5"));
+        Account to = (Account) call("createAccount", "toé", BigDecimal.ZERO);
+        assertEquals("toé", to.getName());
+        assertEquals(0, new BigDecimal("100.5").compareTo(from.getBalance()));
+
+        assertEquals("Success", call("transfer", "codec_1", from.getId(), to.getId(), new BigDecimal("0.000001")));
+        assertEquals(Arrays.asList("Success", "Insufficient funds"), call("transferBatch", "codec_2",
+                Arrays.asList(new TransferLeg(from.getId(), to.getId(), BigDecimal.TEN),
+                        new TransferLeg(to.getId(), from.getId(), new BigDecimal(1000))), false));
+        // trailing arguments are omitted: atomic batch by default
+        assertEquals(Collections.singletonList("Success"), call("transferBatch", "codec_3",
+                Collections.singletonList(new TransferLeg(from.getId(), to.getId(), BigDecimal.ONE))));
+
+        assertEquals(0, new BigDecimal("11.000001").compareTo((BigDecimal) call("getBalance", to.getId())));
+        @SuppressWarnings("unchecked")
+        List<BigDecimal> balances = (List<BigDecimal>) call("getBalances", Arrays.asList(from.getId(), to.getId()));
+        assertEquals(0, new BigDecimal("89.499999").compareTo(balances.get(0)));
+
+        HistoryPage page = (HistoryPage) call("getHistory", to.getId(), null, 2);
+        assertEquals(2, page.getTransactions().size());
+        assertEquals("codec_3#0", page.getTransactions().get(0).getCorrelationId());
+        assertNotNull(page.getNextCursor());
+
+        // binary request answered in json
+        ResponseBuffer response = ResponseBuffer.get();
+        assertEquals(200, handler.call("getBalance", Codecs.BINARY, Codecs.JSON,
+                new ByteArrayInputStream(BinaryCodec.encode(from.getId())), response));
+        assertEquals("89.499999", new String(response.array(), 0, response.size(), StandardCharsets.UTF_8));
+
+        response = ResponseBuffer.get();
+        assertEquals(500, handler.call("getBalance", Codecs.BINARY, Codecs.BINARY,
+                new ByteArrayInputStream(new byte[]{2}), response));
+    }
+
+    /**
+     * Call service method in binary encoding and decode its result by the return type of the method
+     */
+    private Object call(String method, Object... arguments) throws IOException {
+        Codec codec = Codecs.BINARY;
+        ResponseBuffer response = ResponseBuffer.get();
+        int status = handler.call(method, codec, codec, new ByteArrayInputStream(BinaryCodec.encode(arguments)), response);
+        assertEquals(new String(response.array(), 0, response.size(), StandardCharsets.UTF_8), 200, status);
+        for (Method serviceMethod : AccountService.class.getMethods()) {
+            if (serviceMethod.getName().equals(method)) {
+                return BinaryCodec.decode(Arrays.copyOf(response.array(), response.size()), serviceMethod.getGenericReturnType());
+            }
+        }
+        throw new AssertionError(method);
+    }
+}
@@ -0,0 +1,137 @@
+package com;
+
+import com.revolut.task.Application;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.feed.ChangeFeed;
+import com.revolut.task.feed.TransferEvent;
+import com.revolut.task.protocol.ServerMode;
+import com.revolut.task.service.AccountService;
+import com.revolut.task.service.Services;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test feed of transfer events and its subscriptions
+ */
+public class TestFeed extends TestCase {
+
+    public void testOverwrite() {
+        ChangeFeed feed = new ChangeFeed(4);
+        for (int i = 0; i < 3; i++) {
+            feed.publish(new AccountingTransaction("t" + i, 1, 2, i, 0), 0);
+        }
+        List<TransferEvent> events = new ArrayList<>();
+        assertEquals(3, feed.read(0, 10, events));
+        assertEquals("t2", events.get(2).getTransaction().getCorrelationId());
+        assertEquals(2, events.get(2).getSequence());
+
+        // the publisher doesn't wait for a slow consumer
+        for (int i = 3; i < 6; i++) {
+            feed.publish(new AccountingTransaction("t" + i, 1, 2, i, 0), 0);
+        }
+        assertEquals(ChangeFeed.OVERWRITTEN, feed.read(0, 10, new ArrayList<>()));
+        assertEquals(2, feed.getOldest());
+        events.clear();
+        assertEquals(6, feed.read(2, 10, events));
+        assertEquals(4, events.size());
+    }
+
+    /**
+     * Events are delivered after their journal records are on disk
+     */
+    public void testDurability() throws InterruptedException {
+        AtomicLong durable = new AtomicLong();
+        ChangeFeed feed = new ChangeFeed(16, durable::get);
+        feed.publish(new AccountingTransaction("t", 1, 2, 1, 0), 5);
+        List<TransferEvent> events = new ArrayList<>();
+        assertEquals(0, feed.read(0, 10, events));
+        assertFalse(feed.await(0, 10, TimeUnit.MILLISECONDS));
+
+        Thread flusher = new Thread(() -> {
+            durable.set(5);
+            feed.wakeUp();
+        });
+        flusher.start();
+        assertTrue(feed.await(0, 10, TimeUnit.SECONDS));
+        assertEquals(1, feed.read(0, 10, events));
+        flusher.join();
+    }
+
+    public void testSubscriptions() throws IOException, InterruptedException {
+        Application application = new Application(8004, ServerMode.POOL);
+        application.start();
+        try {
+            AccountService service = (AccountService) Services.ACCOUNT_SERVICE.getServiceInstance();
+            Account from = service.createAccount("from", BigDecimal.TEN);
+            Account to = service.createAccount("to", BigDecimal.ZERO);
+            long head = service.getFeed().getHead();
+
+            // long poll waits for the next transfer
+            Thread transfer = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                service.transfer("feed_1", from.getId(), to.getId(), new BigDecimal("1.5"));
+            });
+            transfer.start();
+            String page = get("http://localhost:8004/events/poll?from=" + head + "&timeout=10");
+            transfer.join();
+            assertTrue(page, page.startsWith("{\"events\":[{\"sequence\":" + head + ",\"transaction\":"
+                    + "{\"correlationId\":\"feed_1\",\"fromId\":" + from.getId() + ",\"toId\":" + to.getId() + ",\"sum\":1.5,"));
+            assertTrue(page, page.endsWith("\"next\":" + (head + 1) + "}"));
+
+            service.transfer("feed_2", to.getId(), from.getId(), BigDecimal.ONE);
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+                    "http://localhost:8004/events/stream?from=" + head).openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/event-stream"));
+            List<String> ids = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String line; ids.size() < 2 && (line = reader.readLine()) != null; ) {
+                    if (line.startsWith("id: ")) {
+                        ids.add(line.substring(4));
+                    } else if (line.startsWith("data: ")) {
+                        assertTrue(line, line.contains("\"correlationId\":\"feed_" + ids.size() + "\""));
+                    }
+                }
+            }
+            connection.disconnect();
+            assertEquals(String.valueOf(head + 1), ids.get(1));
+
+            connection = (HttpURLConnection) new URL("http://localhost:8004/events/poll?limit=0").openConnection();
+            assertEquals(400, connection.getResponseCode());
+        } finally {
+            application.stop();
+        }
+    }
+
+    private static String get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try (InputStream in = connection.getInputStream()) {
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                result.write(buffer, 0, read);
+            }
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,110 @@
+package com;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.dao.BlockIdAllocator;
+import com.revolut.task.dao.IdAllocator;
+import com.revolut.task.dao.LockingEngine;
+import com.revolut.task.dao.SnowflakeIdAllocator;
+import com.revolut.task.data.Account;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test allocators of account ids
+ */
+public class TestIdAllocator extends TestCase {
+
+    public void testBlockIds() throws InterruptedException {
+        BlockIdAllocator allocator = new BlockIdAllocator(16);
+        assertEquals(1, allocator.next());
+        assertEquals(2, allocator.next());
+        assertUnique(allocator, 8, 10_000);
+    }
+
+    public void testSnowflakeIds() throws InterruptedException {
+        long[] now = {1700000000000L};
+        SnowflakeIdAllocator allocator = new SnowflakeIdAllocator(5, () -> now[0]);
+        long previous = 0;
+        // more ids than the sequence of one millisecond holds
+        for (int i = 0; i < 10_000; i++) {
+            long id = allocator.next();
+            assertTrue(id > previous);
+            previous = id;
+        }
+        assertTrue(SnowflakeIdAllocator.timestamp(previous) > now[0]);
+        // clock going back doesn't break monotony
+        now[0] -= 1000;
+        assertTrue(allocator.next() > previous);
+
+        SnowflakeIdAllocator other = new SnowflakeIdAllocator(6, () -> now[0]);
+        assertTrue(other.next() != allocator.next());
+        assertUnique(new SnowflakeIdAllocator(1), 8, 10_000);
+    }
+
+    public void testDuplicateAccount() {
+        AccountsDao dao = new AccountsDao();
+        dao.addAccount(new Account(1L, "first", 10));
+        try {
+            dao.addAccount(new Account(1L, "second", 20));
+            fail("Duplicate account is added");
+        } catch (RuntimeException e) {
+            assertEquals("Account already exists: 1", e.getMessage());
+        }
+        assertEquals("first", dao.getAccountNotNull(1L).getName());
+        // allocated id skips the taken one
+        assertEquals(2, dao.createAccount("created", 0).getId());
+    }
+
+    /**
+     * Ids allocated after restart don't repeat ids of recovered accounts
+     */
+    public void testRecoveredIds() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            long last;
+            try (AccountsDao dao = new AccountsDao(directory, 0, new LockingEngine(), new BlockIdAllocator(64))) {
+                dao.createAccount("first", 10);
+                last = dao.createAccount("second", 10).getId();
+            }
+            try (AccountsDao dao = new AccountsDao(directory, 0, new LockingEngine(), new BlockIdAllocator(64))) {
+                assertEquals(last + 1, dao.createAccount("third", 10).getId());
+                assertEquals("second", dao.getAccountNotNull(last).getName());
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void assertUnique(IdAllocator allocator, int threads, int idsPerThread) throws InterruptedException {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                long previous = 0;
+                for (int i = 0; i < idsPerThread; i++) {
+                    long id = allocator.next();
+                    assertTrue(id > previous);
+                    previous = id;
+                    ids.add(id);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        assertEquals(threads * idsPerThread, ids.size());
+    }
+}
@@ -0,0 +1,97 @@
+package com;
+
+import com.revolut.task.dao.IdempotencyStore;
+import com.revolut.task.data.TransferStatus;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test IdempotencyStore
+ */
+public class TestIdempotencyStore extends TestCase {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    public void testReserveAndComplete() {
+        IdempotencyStore store = new IdempotencyStore(1024, 1000, clock::get);
+
+        assertNull(store.reserve("corrId_1", 1));
+        assertEquals(TransferStatus.IN_PROGRESS, store.reserve("corrId_1", 1));
+
+        store.complete("corrId_1", TransferStatus.SUCCESS);
+        assertEquals(TransferStatus.SUCCESS, store.reserve("corrId_1", 1));
+        assertEquals(TransferStatus.DUPLICATE, store.reserve("corrId_1", 2));
+
+        assertNull(store.reserve("corrId_2", 1));
+        store.release("corrId_2");
+        assertNull(store.reserve("corrId_2", 1));
+    }
+
+    public void testTtlEviction() {
+        IdempotencyStore store = new IdempotencyStore(1024, 1000, clock::get);
+        store.reserve("corrId_1", 1);
+        store.complete("corrId_1", TransferStatus.SUCCESS);
+
+        clock.set(1000);
+        assertEquals(TransferStatus.SUCCESS, store.reserve("corrId_1", 1));
+        clock.set(1001);
+        assertNull(store.reserve("corrId_1", 1));
+        assertEquals(1, store.size());
+    }
+
+    /**
+     * Size of the store must stay bounded under steady flow of new operations
+     */
+    public void testSizeEviction() {
+        IdempotencyStore store = new IdempotencyStore(1024, Long.MAX_VALUE, clock::get);
+        for (int i = 0; i < 100_000; i++) {
+            String correlationId = String.format("corrId_%d", i);
+            assertNull(store.reserve(correlationId, i));
+            store.complete(correlationId, TransferStatus.SUCCESS);
+            assertTrue(store.size() <= 1024);
+        }
+        assertEquals(TransferStatus.SUCCESS, store.reserve("corrId_99999", 99999));
+        assertNull(store.reserve("corrId_0", 0));
+    }
+
+    /**
+     * Operation in progress is not evicted by new ones, so its retry is not started again
+     */
+    public void testPendingNotEvicted() {
+        IdempotencyStore store = new IdempotencyStore(16, Long.MAX_VALUE, clock::get);
+        assertNull(store.reserve("tx", 42));
+        String blocked = null;
+        for (int i = 0; i < 10_000; i++) {
+            String correlationId = String.format("corrId_%d", i);
+            TransferStatus status = store.reserve(correlationId, i);
+            if (status == null) {
+                store.complete(correlationId, TransferStatus.SUCCESS);
+            } else {
+                // one entry per segment, the segment of the pending one is full
+                assertEquals(TransferStatus.OVERLOADED, status);
+                blocked = correlationId;
+            }
+        }
+        assertNotNull(blocked);
+        assertEquals(TransferStatus.IN_PROGRESS, store.reserve("tx", 42));
+        assertEquals(TransferStatus.OVERLOADED, store.reserveBatch(blocked, 1, 2)[1]);
+
+        store.complete("tx", TransferStatus.SUCCESS);
+        assertEquals(TransferStatus.SUCCESS, store.reserve("tx", 42));
+        assertNull(store.reserve(blocked, 1));
+    }
+
+    /**
+     * Expired operation in progress is kept until it completes
+     */
+    public void testPendingNotExpired() {
+        IdempotencyStore store = new IdempotencyStore(1024, 1000, clock::get);
+        assertNull(store.reserve("tx", 42));
+        clock.set(5000);
+        assertEquals(TransferStatus.IN_PROGRESS, store.reserve("tx", 42));
+        store.complete("tx", TransferStatus.SUCCESS);
+        // completed entry expires as usual
+        assertNull(store.reserve("tx", 42));
+    }
+}
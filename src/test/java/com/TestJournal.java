@@ -0,0 +1,249 @@
+package com;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.data.TransferStatus;
+import com.revolut.task.service.AccountService;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test recovery of AccountsDao from the journal
+ */
+public class TestJournal extends TestCase {
+
+    private Path directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    public void testRecovery() throws IOException, InterruptedException {
+        List<Account> accounts = new ArrayList<>();
+        List<BigDecimal> balances = new ArrayList<>();
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            AccountService service = new AccountService(dao);
+            for (int i = 0; i < 10; i++) {
+                accounts.add(service.createAccount("account_" + i, BigDecimal.valueOf(1000)));
+            }
+            // concurrent transfers are committed in shared disk flushes
+            ExecutorService executor = Executors.newFixedThreadPool(50);
+            for (int i = 0; i < 1000; i++) {
+                final int j = i;
+                executor.execute(() -> service.transfer(String.format("corrId_%d", j),
+                        accounts.get(j % 10).getId(), accounts.get((j + 1) % 10).getId(), BigDecimal.valueOf(j % 7)));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+            assertEquals("Success", service.transfer("corrId_last",
+                    accounts.get(0).getId(), accounts.get(1).getId(), new BigDecimal("0.5")));
+            for (Account account : accounts) {
+                balances.add(service.getBalance(account.getId()));
+            }
+        }
+
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            AccountService service = new AccountService(dao);
+            BigDecimal total = BigDecimal.ZERO;
+            for (int i = 0; i < accounts.size(); i++) {
+                BigDecimal balance = service.getBalance(accounts.get(i).getId());
+                assertTrue(balance.toString(), balances.get(i).compareTo(balance) == 0);
+                total = total.add(balance);
+            }
+            assertTrue(total.toString(), BigDecimal.valueOf(10_000).compareTo(total) == 0);
+            BigDecimal before = service.getBalance(accounts.get(0).getId());
+
+            // idempotency state is recovered too
+            assertEquals("Success", service.transfer("corrId_last",
+                    accounts.get(0).getId(), accounts.get(1).getId(), new BigDecimal("0.5")));
+            assertTrue(before.compareTo(service.getBalance(accounts.get(0).getId())) == 0);
+        }
+    }
+
+    /**
+     * Batch of transfers is replayed with results of all its transfers
+     */
+    public void testBatchRecovery() throws IOException {
+        Account account_1;
+        Account account_2;
+        List<TransferLeg> legs;
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            AccountService service = new AccountService(dao);
+            account_1 = service.createAccount("account_1", BigDecimal.TEN);
+            account_2 = service.createAccount("account_2", BigDecimal.ZERO);
+            legs = Arrays.asList(
+                    new TransferLeg(account_1.getId(), account_2.getId(), BigDecimal.valueOf(3)),
+                    new TransferLeg(account_1.getId(), account_2.getId(), BigDecimal.valueOf(30)),
+                    new TransferLeg(account_2.getId(), account_1.getId(), new BigDecimal("0.5")));
+            assertEquals(Arrays.asList("Success", "Insufficient funds", "Success"), service.transferBatch("batch_1", legs, false));
+        }
+
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            AccountService service = new AccountService(dao);
+            assertTrue(new BigDecimal("7.5").compareTo(service.getBalance(account_1.getId())) == 0);
+            assertTrue(new BigDecimal("2.5").compareTo(service.getBalance(account_2.getId())) == 0);
+            assertEquals(Arrays.asList("Success", "Insufficient funds", "Success"), service.transferBatch("batch_1", legs, false));
+            assertTrue(new BigDecimal("7.5").compareTo(service.getBalance(account_1.getId())) == 0);
+            dao.snapshot();
+        }
+
+        // results of the batch are recovered from snapshot too
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            AccountService service = new AccountService(dao);
+            assertEquals(Arrays.asList("Success", "Insufficient funds", "Success"), service.transferBatch("batch_1", legs, false));
+            assertEquals("batch_1#2", service.getHistory(account_1.getId(), null, 1).getTransactions().get(0)
+                    .getCorrelationId());
+            assertTrue(new BigDecimal("7.5").compareTo(service.getBalance(account_1.getId())) == 0);
+        }
+    }
+
+    /**
+     * Snapshots taken while transfers are in flight must be consistent with the journal tail
+     */
+    public void testSnapshot() throws IOException, InterruptedException {
+        final int accountsCount = 2000;
+        List<Account> accounts = Collections.synchronizedList(new ArrayList<>());
+        List<BigDecimal> balances = new ArrayList<>();
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            AccountService service = new AccountService(dao);
+            ExecutorService executor = Executors.newFixedThreadPool(20);
+            for (int i = 0; i < accountsCount; i++) {
+                final int j = i;
+                executor.execute(() -> accounts.add(service.createAccount("account_" + j, BigDecimal.valueOf(1000))));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+            executor = Executors.newFixedThreadPool(20);
+            for (int i = 0; i < 20_000; i++) {
+                final int j = i;
+                executor.execute(() -> service.transfer(String.format("corrId_%d", j),
+                        accounts.get(j % accountsCount).getId(), accounts.get(j % 7).getId(), BigDecimal.valueOf(j % 5)));
+                if (i % 2000 == 0) {
+                    executor.execute(() -> {
+                        try {
+                            dao.snapshot();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+            assertEquals("Success", service.transfer("corrId_last",
+                    accounts.get(0).getId(), accounts.get(1).getId(), BigDecimal.ONE));
+            for (Account account : accounts) {
+                balances.add(service.getBalance(account.getId()));
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            int count = 0;
+            for (Path ignored : files) {
+                count++;
+            }
+            // the latest snapshot and segments after it
+            assertTrue(String.valueOf(count), count <= 3);
+        }
+
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            AccountService service = new AccountService(dao);
+            for (int i = 0; i < accounts.size(); i++) {
+                BigDecimal balance = service.getBalance(accounts.get(i).getId());
+                assertTrue(balance.toString(), balances.get(i).compareTo(balance) == 0);
+            }
+            assertEquals("Success", service.transfer("corrId_1",
+                    accounts.get(1).getId(), accounts.get(1).getId(), BigDecimal.ONE));
+            assertEquals("Duplicate operation was rejected", service.transfer("corrId_1",
+                    accounts.get(0).getId(), accounts.get(1).getId(), BigDecimal.ONE));
+        }
+    }
+
+    /**
+     * Partially written record at the end of the journal must be dropped
+     */
+    public void testTornTail() throws IOException {
+        Account account;
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            account = new AccountService(dao).createAccount("account_1", BigDecimal.TEN);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.write(file, new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+            }
+        }
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            AccountService service = new AccountService(dao);
+            assertTrue(BigDecimal.TEN.compareTo(service.getBalance(account.getId())) == 0);
+            service.createAccount("account_2", BigDecimal.ONE);
+        }
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            assertTrue(BigDecimal.TEN.compareTo(new AccountService(dao).getBalance(account.getId())) == 0);
+        }
+    }
+
+    /**
+     * Transfer applied in memory but not made durable is not released for a retry, the DAO goes out of service
+     */
+    public void testSyncFailure() throws IOException {
+        long from;
+        long to;
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            from = dao.createAccount("from", 10).getId();
+            to = dao.createAccount("to", 0).getId();
+            dao.setReplicationBarrier(lsn -> {
+                throw new UncheckedIOException(new IOException("Disk is full"));
+            });
+            try {
+                dao.transfer("transfer_1", from, to, 1);
+                fail("Transfer must fail");
+            } catch (UncheckedIOException e) {
+                assertEquals("Disk is full", e.getCause().getMessage());
+            }
+            dao.setReplicationBarrier(null);
+            try {
+                dao.transfer("transfer_1", from, to, 1);
+                fail("Retry must not run the transfer again");
+            } catch (RuntimeException e) {
+                assertEquals("Storage failed to journal changes, restart to recover", e.getMessage());
+            }
+            try {
+                dao.getBalanceUnits(to);
+                fail("State ahead of the journal must not be read");
+            } catch (RuntimeException e) {
+                assertEquals("Storage failed to journal changes, restart to recover", e.getMessage());
+            }
+        }
+        try (AccountsDao dao = new AccountsDao(directory, 0)) {
+            assertEquals(1, dao.getBalanceUnits(to));
+            assertEquals(TransferStatus.SUCCESS, dao.transfer("transfer_1", from, to, 1));
+            assertEquals(9, dao.getBalanceUnits(from));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com;
+
+import com.revolut.task.caller.RemoteMethod;
+import com.revolut.task.caller.ServiceMethodCaller;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.protocol.Request;
+import com.revolut.task.service.AccountService;
+import com.revolut.task.utils.JsonUtils;
+import com.revolut.task.utils.Settings;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+
+/**
+ * Test hand-written json adapters and warm-up of service methods
+ */
+public class TestJsonUtils extends TestCase {
+
+    public void testAdapters() {
+        Request request = JsonUtils.fromJson(new StringReader("{\"body\":{\"accountId\":\"1\",\"sum\":[1.50]}}"), Request.class);
+        assertEquals("{\"accountId\":\"1\",\"sum\":[1.50]}", request.getBody());
+        request = JsonUtils.fromJson(new StringReader("{\"body\":\"{\\\"accountId\\\":1}\"}"), Request.class);
+        assertEquals("{\"accountId\":1}", request.getBody());
+        assertEquals("{\"body\":\"{\\\"accountId\\\":1}\"}", JsonUtils.toJson(request));
+
+        assertEquals(Long.valueOf(12), JsonUtils.fromJson(new StringReader("\"12\""), Long.class));
+        assertEquals("12", JsonUtils.fromJson(new StringReader("12"), String.class));
+        assertEquals("true", JsonUtils.fromJson(new StringReader("true"), String.class));
+        // amounts are not rounded through double
+        assertEquals(new BigDecimal("0.100000000000000001"),
+                JsonUtils.fromJson(new StringReader("0.100000000000000001"), BigDecimal.class));
+        assertNull(JsonUtils.fromJson(new StringReader("null"), BigDecimal.class));
+
+        TransferLeg leg = JsonUtils.fromJson(new StringReader("{\"fromId\":1,\"sum\":\"2.5\",\"other\":[]}"), TransferLeg.class);
+        assertEquals(Long.valueOf(1), leg.getFromId());
+        assertNull(leg.getToId());
+        assertEquals(new BigDecimal("2.5"), leg.getSum());
+        assertEquals("{\"fromId\":1,\"sum\":2.5}", JsonUtils.toJson(leg));
+    }
+
+    /**
+     * Warm-up arguments of every method are valid and the calls don't change the service
+     */
+    public void testWarmUp() {
+        AccountService service = new AccountService();
+        AccountService warmUpInstance = service.newWarmUpInstance();
+        for (Method method : AccountService.class.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(RemoteMethod.class)) {
+                ServiceMethodCaller caller = ServiceMethodCaller.create(service, method);
+                assertEquals(method.getName(), 10, caller.bindTo(warmUpInstance).warmUp(10));
+            }
+        }
+        // a transfer and a batch of two legs per call
+        assertEquals(30, warmUpInstance.getHistory(1L, null, 100).getTransactions().size());
+        try {
+            service.getBalance(1L);
+            fail("Warm-up must not create accounts of the service");
+        } catch (RuntimeException e) {
+            assertEquals("Account not found: 1", e.getMessage());
+        }
+    }
+
+    /**
+     * Warm-up instance runs on the configured engine and id allocator
+     */
+    public void testWarmUpSettings() throws IOException {
+        System.setProperty(Settings.ENGINE, "sharded");
+        System.setProperty(Settings.ENGINE_SHARDS, "2");
+        System.setProperty(Settings.IDS, "random");
+        AccountService service = new AccountService();
+        try (AccountService warmUpInstance = service.newWarmUpInstance()) {
+            for (Method method : AccountService.class.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(RemoteMethod.class)) {
+                    ServiceMethodCaller caller = ServiceMethodCaller.create(service, method);
+                    assertEquals(method.getName(), 10, caller.bindTo(warmUpInstance).warmUp(10));
+                }
+            }
+            // warm-up accounts keep ids 1 and 2, created ones get random ids
+            assertEquals(30, warmUpInstance.getHistory(1L, null, 100).getTransactions().size());
+        } finally {
+            System.clearProperty(Settings.ENGINE);
+            System.clearProperty(Settings.ENGINE_SHARDS);
+            System.clearProperty(Settings.IDS);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.dao.Ledger;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountTable;
+import com.revolut.task.data.AccountingTransaction;
+import com.revolut.task.data.HistoryPage;
+import com.revolut.task.data.Money;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.service.AccountService;
+import com.revolut.task.utils.JsonUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test transfer history of accounts
+ */
+public class TestLedger extends TestCase {
+
+    public void testPages() {
+        AccountService service = new AccountService();
+        Account account_1 = service.createAccount("account_1", BigDecimal.valueOf(1000));
+        Account account_2 = service.createAccount("account_2", BigDecimal.valueOf(1000));
+        Account account_3 = service.createAccount("account_3", BigDecimal.valueOf(1000));
+        for (int i = 0; i < 25; i++) {
+            service.transfer("history_" + i, account_1.getId(), account_2.getId(), BigDecimal.ONE);
+            service.transfer("other_" + i, account_2.getId(), account_3.getId(), BigDecimal.ONE);
+        }
+        // failed transfers are not in history
+        assertEquals("Insufficient funds",
+                service.transfer("failed", account_1.getId(), account_2.getId(), BigDecimal.valueOf(10_000)));
+        service.transferBatch("batch", Arrays.asList(new TransferLeg(account_3.getId(), account_1.getId(), BigDecimal.TEN)),
+                true);
+
+        List<String> correlationIds = new ArrayList<>();
+        Long cursor = null;
+        do {
+            HistoryPage page = service.getHistory(account_1.getId(), cursor, 10);
+            assertTrue(page.getTransactions().size() <= 10);
+            for (AccountingTransaction transaction : page.getTransactions()) {
+                correlationIds.add(transaction.getCorrelationId());
+            }
+            cursor = page.getNextCursor();
+            // transfers done meanwhile don't shift pages
+            service.transfer("late_" + correlationIds.size(), account_1.getId(), account_2.getId(), BigDecimal.ONE);
+        } while (cursor != null);
+
+        assertEquals(26, correlationIds.size());
+        assertEquals("batch#0", correlationIds.get(0));
+        for (int i = 1; i < 26; i++) {
+            assertEquals("history_" + (25 - i), correlationIds.get(i));
+        }
+
+        AccountingTransaction last = service.getHistory(account_3.getId(), null, 1).getTransactions().get(0);
+        assertEquals(account_1.getId(), last.getTo());
+        assertEquals(Money.toUnits(BigDecimal.TEN), last.getSum());
+        assertEquals("{\"correlationId\":\"batch#0\",\"fromId\":" + account_3.getId() + ",\"toId\":" + account_1.getId()
+                + ",\"sum\":10,\"timestamp\":" + last.getTimestamp() + "}", JsonUtils.toJson(last));
+    }
+
+    /**
+     * The oldest segments are dropped with their entries, history ends there
+     */
+    public void testRetention() {
+        AccountTable table = new AccountTable();
+        Account[] accounts = new Account[4];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new Account(i + 1, "account_" + i, 0);
+            table.put(accounts[i]);
+        }
+        Ledger ledger = new Ledger(1 << 16);
+        for (int i = 0; i < 200_000; i++) {
+            // the last account takes part only in the oldest transfers
+            Account from = i < 1000 ? accounts[3] : accounts[i % 2];
+            ledger.append(new AccountingTransaction("t" + i, from.getId(), 3, 1, i), from, accounts[2]);
+        }
+        assertTrue(ledger.size() <= 1 << 16);
+        int count = 0;
+        Long cursor = Long.MAX_VALUE;
+        while (cursor != null) {
+            HistoryPage page = ledger.history(accounts[2], cursor, 1000);
+            count += page.getTransactions().size();
+            cursor = page.getNextCursor();
+        }
+        assertEquals(ledger.size(), count);
+        assertEquals("t199999", ledger.history(accounts[1], Long.MAX_VALUE, 1).getTransactions().get(0).getCorrelationId());
+        assertTrue(ledger.history(accounts[3], Long.MAX_VALUE, 10).getTransactions().isEmpty());
+    }
+
+    /**
+     * History and its cursors survive restart from snapshot and journal
+     */
+    public void testRecovery() throws IOException {
+        Path directory = Files.createTempDirectory("ledger");
+        try {
+            long from;
+            long to;
+            HistoryPage before;
+            try (AccountsDao dao = new AccountsDao(directory, 0)) {
+                from = dao.createAccount("from", Money.toUnits(BigDecimal.TEN)).getId();
+                to = dao.createAccount("to", 0).getId();
+                for (int i = 0; i < 5; i++) {
+                    dao.transfer("snapshot_" + i, from, to, 1);
+                }
+                dao.snapshot();
+                for (int i = 0; i < 5; i++) {
+                    dao.transfer("journal_" + i, from, to, 1);
+                }
+                before = dao.getHistory(to, null, 3);
+            }
+            try (AccountsDao dao = new AccountsDao(directory, 0)) {
+                HistoryPage after = dao.getHistory(to, null, 3);
+                assertEquals(before.getTransactions(), after.getTransactions());
+                assertEquals(before.getNextCursor(), after.getNextCursor());
+                HistoryPage next = dao.getHistory(to, after.getNextCursor(), 10);
+                assertEquals(7, next.getTransactions().size());
+                assertEquals("snapshot_0", next.getTransactions().get(6).getCorrelationId());
+                assertNull(next.getNextCursor());
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+}
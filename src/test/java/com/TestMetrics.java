@@ -0,0 +1,95 @@
+package com;
+
+import com.revolut.task.Application;
+import com.revolut.task.metrics.Histogram;
+import com.revolut.task.protocol.ServerMode;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test metrics recording and Prometheus exposition
+ */
+public class TestMetrics extends TestCase {
+
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.percentile(0.5));
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(100_000, histogram.count());
+        assertEquals(1000L * 100_000 * 100_001 / 2, histogram.sum());
+        // values are kept with relative precision of 1/8
+        for (double quantile : new double[]{0.01, 0.5, 0.9, 0.99, 0.999, 1}) {
+            long exact = (long) (quantile * 100_000) * 1000;
+            long value = histogram.percentile(quantile);
+            assertTrue(quantile + ": " + value, value >= exact && value <= exact * 9 / 8);
+        }
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.percentile(1));
+        assertEquals(0, histogram.percentile(0));
+    }
+
+    public void testPoolServerMetrics() throws IOException {
+        checkMetrics(new Application(8003, ServerMode.POOL));
+    }
+
+    public void testNioServerMetrics() throws IOException {
+        checkMetrics(new Application(8003, ServerMode.NIO));
+    }
+
+    private static void checkMetrics(Application application) throws IOException {
+        application.start();
+        try {
+            assertEquals(500, post("http://localhost:8003/api/getBalance", "{\"body\":{\"accountId\":0}}"));
+            assertEquals(500, post("http://localhost:8003/api/noSuchMethod", "{}"));
+
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8003/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            String metrics = read(connection.getInputStream());
+            assertTrue(metrics, metrics.contains("# TYPE revolut_requests_total counter\n"));
+            assertTrue(metrics, metrics.matches("(?s).*\nrevolut_request_errors_total\\{method=\"getBalance\"} [1-9].*"));
+            assertTrue(metrics, metrics.matches("(?s).*\nrevolut_request_errors_total\\{method=\"unknown\"} [1-9].*"));
+            assertTrue(metrics, metrics.matches(
+                    "(?s).*\nrevolut_request_duration_seconds_bucket\\{method=\"getBalance\",le=\"\\+Inf\"} [1-9].*"));
+            assertTrue(metrics, metrics.contains("\nrevolut_lock_wait_seconds_count "));
+            assertTrue(metrics, metrics.contains("\nrevolut_optimistic_read_retries_total{read=\"balances\"} "));
+            assertTrue(metrics, metrics.contains("\nrevolut_executor_queue_depth 0\n"));
+            assertTrue(metrics, metrics.contains("\nrevolut_idempotency_store_size "));
+        } finally {
+            application.stop();
+        }
+    }
+
+    private static int post(String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        read(status == 200 ? connection.getInputStream() : connection.getErrorStream());
+        return status;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try (InputStream input = in) {
+            for (int read; (read = input.read(buffer)) > 0; ) {
+                result.write(buffer, 0, read);
+            }
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,210 @@
+package com;
+
+import com.revolut.task.Application;
+import com.revolut.task.codec.BinaryCodec;
+import com.revolut.task.data.Account;
+import com.revolut.task.protocol.ServerMode;
+import junit.framework.TestCase;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Test http protocol handling of non-blocking server over raw socket
+ */
+public class TestNioHttpServer extends TestCase {
+
+    private static final String CREATE_ACCOUNT = "{\"body\":{\"name\":\"account\", \"sum\":\"1.5\"}}";
+
+    private Application application;
+
+    @Override
+    protected void setUp() throws Exception {
+        application = new Application(8002, ServerMode.NIO);
+        application.start();
+    }
+
+    @Override
+    protected void tearDown() {
+        application.stop();
+    }
+
+    /**
+     * Requests sent in one packet are answered in order over the same connection
+     */
+    public void testPipelining() throws IOException {
+        try (Socket socket = new Socket("localhost", 8002)) {
+            OutputStream out = socket.getOutputStream();
+            out.write((request("/api/createAccount", CREATE_ACCOUNT) + request("/api/getBalance", "{\"body\":{\"accountId\":0}}")
+                    + request("/unknown", "")).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            String account = readResponse(in);
+            assertTrue(account, account.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(account, account.contains("\"balance\":1.5"));
+
+            String balance = readResponse(in);
+            assertTrue(balance, balance.startsWith("HTTP/1.1 500"));
+            assertTrue(balance, balance.contains("Account not found: 0"));
+
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 404"));
+        }
+    }
+
+    /**
+     * Request arriving byte by byte is handled when its body is complete
+     */
+    public void testFragmentedRequest() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", 8002)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            for (byte b : request("/api/createAccount", CREATE_ACCOUNT).getBytes(StandardCharsets.UTF_8)) {
+                out.write(b);
+                out.flush();
+                if (b == '\n') {
+                    Thread.sleep(1);
+                }
+            }
+            String account = readResponse(socket.getInputStream());
+            assertTrue(account, account.startsWith("HTTP/1.1 200 OK"));
+        }
+    }
+
+    public void testConnectionClose() throws IOException {
+        try (Socket socket = new Socket("localhost", 8002)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request("/api/createAccount", CREATE_ACCOUNT).replace("\r\n\r\n", "\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String account = readResponse(in);
+            assertTrue(account, account.contains("Connection: close"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    /**
+     * Frames sent after upgrade are answered with their ids
+     */
+    public void testMultiplex() throws IOException {
+        try (Socket socket = new Socket("localhost", 8002)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.write("GET /api/multiplex HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade\r\nUpgrade: multiplex\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, 1, "createAccount", CREATE_ACCOUNT);
+            writeFrame(out, 2, "unknown", "");
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            String upgrade = readHeaders(in);
+            assertTrue(upgrade, upgrade.startsWith("HTTP/1.1 101"));
+            Map<Integer, String> responses = new HashMap<>();
+            for (int i = 0; i < 2; i++) {
+                readFrame(in, responses);
+            }
+            assertTrue(responses.get(1), responses.get(1).startsWith("200 {"));
+            assertTrue(responses.get(2), responses.get(2).startsWith("500 "));
+
+            Matcher id = Pattern.compile("\"id\":(\\d+)").matcher(responses.get(1));
+            assertTrue(id.find());
+            writeFrame(out, 3, "getBalance", String.format("{\"body\":{\"accountId\":%s}}", id.group(1)));
+            out.flush();
+            readFrame(in, responses);
+            assertEquals("200 1.5", responses.get(3));
+        }
+    }
+
+    /**
+     * Frames of connection upgraded with binary content type are in binary encoding
+     */
+    public void testBinaryMultiplex() throws IOException {
+        try (Socket socket = new Socket("localhost", 8002)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.write(("GET /api/multiplex HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade\r\nUpgrade: multiplex\r\n" +
+                    "Content-Type: " + BinaryCodec.CONTENT_TYPE + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, 1, "createAccount", BinaryCodec.encode("account", new BigDecimal("2.5")));
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertTrue(readHeaders(in).startsWith("HTTP/1.1 101"));
+            assertEquals(10 + 1 + 8 + 4 + "account".length() + 8, in.readInt() + 4);
+            assertEquals(1, in.readInt());
+            assertEquals(200, in.readShort());
+            Account account = (Account) BinaryCodec.decode(in, Account.class);
+            assertEquals(0, new BigDecimal("2.5").compareTo(account.getBalance()));
+
+            writeFrame(out, 2, "getBalance", BinaryCodec.encode(account.getId()));
+            out.flush();
+            assertEquals(10 + 1 + 8, in.readInt() + 4);
+            assertEquals(2, in.readInt());
+            assertEquals(200, in.readShort());
+            assertEquals(0, new BigDecimal("2.5").compareTo((BigDecimal) BinaryCodec.decode(in, BigDecimal.class)));
+        }
+    }
+
+    private static void writeFrame(DataOutputStream out, int id, String method, String body) throws IOException {
+        writeFrame(out, id, method, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeFrame(DataOutputStream out, int id, String method, byte[] content) throws IOException {
+        byte[] name = method.getBytes(StandardCharsets.US_ASCII);
+        out.writeInt(5 + name.length + content.length);
+        out.writeInt(id);
+        out.writeByte(name.length);
+        out.write(name);
+        out.write(content);
+    }
+
+    /**
+     * Read response frame as "status body" by id
+     */
+    private static void readFrame(DataInputStream in, Map<Integer, String> responses) throws IOException {
+        byte[] body = new byte[in.readInt() - 6];
+        int id = in.readInt();
+        int status = in.readShort();
+        in.readFully(body);
+        responses.put(id, status + " " + new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static String request(String path, String body) {
+        return String.format("POST %s HTTP/1.1\r\nHost: localhost\r\nContent-Length: %d\r\n\r\n%s",
+                path, body.getBytes(StandardCharsets.UTF_8).length, body);
+    }
+
+    /**
+     * Read response headers and body
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        String result = readHeaders(in);
+        int lengthStart = result.indexOf("Content-Length: ") + "Content-Length: ".length();
+        int length = Integer.parseInt(result.substring(lengthStart, result.indexOf("\r\n", lengthStart)));
+        byte[] body = new byte[length];
+        for (int read = 0; read < length; ) {
+            read += in.read(body, read, length - read);
+        }
+        return result + new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static String readHeaders(InputStream in) throws IOException {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        while (!headers.toString("US-ASCII").endsWith("\r\n\r\n")) {
+            int b = in.read();
+            assertTrue("Unexpected end of stream", b >= 0);
+            headers.write(b);
+        }
+        return headers.toString("US-ASCII");
+    }
+}
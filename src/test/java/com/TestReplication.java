@@ -0,0 +1,165 @@
+package com;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.Money;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.replication.ReplicationClient;
+import com.revolut.task.replication.ReplicationServer;
+import com.revolut.task.service.AccountService;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Test replication of the journal of the leader to a replica over TCP on localhost
+ */
+public class TestReplication extends TestCase {
+
+    private Path leaderDirectory;
+    private Path replicaDirectory;
+
+    @Override
+    protected void setUp() throws IOException {
+        leaderDirectory = Files.createTempDirectory("leader");
+        replicaDirectory = Files.createTempDirectory("replica");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        for (Path directory : Arrays.asList(leaderDirectory, replicaDirectory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Semi-synchronous replication, restart of the replica and its promotion after the leader is stopped
+     */
+    public void testFailover() throws IOException, InterruptedException {
+        AccountsDao leader = new AccountsDao(leaderDirectory, 0);
+        ReplicationServer server = new ReplicationServer(leader, 0, 10_000);
+        AccountService leaderService = new AccountService(leader);
+        Account from = leaderService.createAccount("from", new BigDecimal(100));
+        Account to = leaderService.createAccount("to", BigDecimal.ZERO);
+        assertEquals("Success", leaderService.transfer("r_1", from.getId(), to.getId(), BigDecimal.ONE));
+
+        AccountsDao replica = new AccountsDao(replicaDirectory, 0);
+        replica.setReplica(true);
+        ReplicationClient client = follow(replica, server);
+        awaitReplica(leader, server);
+        AccountService replicaService = new AccountService(replica);
+        assertBalance("99", replicaService.getBalance(from.getId()));
+
+        // acknowledged changes are on the replica already
+        assertEquals("Success", leaderService.transfer("r_2", from.getId(), to.getId(), new BigDecimal("2.5")));
+        assertBalance("3.5", replicaService.getBalance(to.getId()));
+        leaderService.transferBatch("r_3", Arrays.asList(new TransferLeg(from.getId(), to.getId(), BigDecimal.ONE),
+                new TransferLeg(to.getId(), from.getId(), new BigDecimal(1000))), false);
+        assertBalance("4.5", replicaService.getBalance(to.getId()));
+        assertEquals(3, replicaService.getHistory(to.getId(), null, null).getTransactions().size());
+        try {
+            replica.transfer("r_4", from.getId(), to.getId(), 1);
+            fail("Replica must be read-only");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Read-only replica"));
+        }
+
+        // the restarted replica resumes after its last record
+        client.close();
+        replica.close();
+        assertEquals("Success", leaderService.transfer("r_5", from.getId(), to.getId(), BigDecimal.TEN));
+        replica = new AccountsDao(replicaDirectory, 0);
+        replica.setReplica(true);
+        client = follow(replica, server);
+        awaitReplica(leader, server);
+        replicaService = new AccountService(replica);
+        assertBalance("14.5", replicaService.getBalance(to.getId()));
+
+        client.close();
+        server.close();
+        leader.close();
+        replica.setReplica(false);
+        try {
+            // retry of a replicated transfer is not applied again
+            assertEquals("Success", replicaService.transfer("r_5", from.getId(), to.getId(), BigDecimal.TEN));
+            assertBalance("14.5", replicaService.getBalance(to.getId()));
+            assertEquals("Success", replicaService.transfer("r_6", from.getId(), to.getId(), BigDecimal.ONE));
+            assertBalance("84.5", replicaService.getBalance(from.getId()));
+        } finally {
+            replica.close();
+        }
+    }
+
+    /**
+     * An empty replica behind the oldest segment of the leader starts from its snapshot
+     */
+    public void testSnapshot() throws IOException, InterruptedException {
+        try (AccountsDao leader = new AccountsDao(leaderDirectory, 0);
+             ReplicationServer server = new ReplicationServer(leader, 0, 0)) {
+            AccountService leaderService = new AccountService(leader);
+            Account from = leaderService.createAccount("from", new BigDecimal(100));
+            Account to = leaderService.createAccount("to", BigDecimal.ZERO);
+            for (int i = 0; i < 10; i++) {
+                leaderService.transfer("s_" + i, from.getId(), to.getId(), BigDecimal.ONE);
+            }
+            leader.snapshot();
+            leaderService.transfer("s_10", from.getId(), to.getId(), BigDecimal.ONE);
+
+            try (AccountsDao replica = new AccountsDao(replicaDirectory, 0)) {
+                replica.setReplica(true);
+                ReplicationClient client = follow(replica, server);
+                try {
+                    awaitReplica(leader, server);
+                    AccountService replicaService = new AccountService(replica);
+                    assertBalance("11", replicaService.getBalance(to.getId()));
+                    assertEquals(11, replicaService.getHistory(to.getId(), null, null).getTransactions().size());
+
+                    // the replica takes its own snapshots while it follows the leader
+                    replica.snapshot();
+                    leaderService.transfer("s_11", from.getId(), to.getId(), BigDecimal.ONE);
+                    awaitReplica(leader, server);
+                    assertBalance("12", replicaService.getBalance(to.getId()));
+                } finally {
+                    client.close();
+                }
+            }
+            try (AccountsDao replica = new AccountsDao(replicaDirectory, 0)) {
+                assertEquals(leader.getJournal().getDurableLsn(), replica.getJournal().getDurableLsn());
+                assertEquals(Money.toUnits(new BigDecimal(88)), replica.getBalanceUnits(from.getId()));
+            }
+        }
+    }
+
+    private static void assertBalance(String expected, BigDecimal balance) {
+        assertTrue(balance.toString(), new BigDecimal(expected).compareTo(balance) == 0);
+    }
+
+    private static ReplicationClient follow(AccountsDao replica, ReplicationServer server) {
+        ReplicationClient client = new ReplicationClient(replica, new InetSocketAddress("localhost", server.getPort()));
+        client.start();
+        return client;
+    }
+
+    /**
+     * Wait until the replica acknowledges all records of the leader, they are applied then
+     */
+    private static void awaitReplica(AccountsDao leader, ReplicationServer server) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (server.getReplicas().stream().noneMatch(
+                replica -> replica.getAcknowledged() >= leader.getJournal().getDurableLsn())) {
+            assertTrue("Replica is behind", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com;
+
+import com.revolut.task.data.Account;
+import com.revolut.task.data.Money;
+import com.revolut.task.data.TransferStatus;
+import com.revolut.task.protocol.ResponseBuffer;
+import com.revolut.task.utils.JsonUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Test ResponseBuffer writes the same json as Gson
+ */
+public class TestResponseBuffer extends TestCase {
+
+    public void testStrings() throws IOException {
+        for (TransferStatus status : TransferStatus.values()) {
+            assertJson(status.getMessage());
+        }
+        assertJson("Sum not specified");
+        assertJson("quote \" backslash \\ html <a href='x'>&amp;=</a> control \n\r\t\b\f\u0001 separators \u2028 \u2029");
+        assertJson("кириллица € 😀");
+        assertJson("");
+        assertJson(null);
+    }
+
+    public void testDecimals() throws IOException {
+        long[] units = {0, 1, -1, 100_000_000, 100_000_001, -50_500_000, 999_999, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long unit : units) {
+            assertJson(Money.toDecimal(unit));
+        }
+        assertJson(new BigDecimal("0.000"));
+        assertJson(new BigDecimal("-0.5"));
+        assertJson(new BigDecimal("1E+3"));
+        assertJson(new BigDecimal("1E-10"));
+        assertJson(new BigDecimal("123456789012345678901234567890.123"));
+    }
+
+    public void testObjects() throws IOException {
+        assertJson(new Account(1L, "account €", 100_500_000));
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            name.append((char) ('a' + i % 26)).append('я');
+        }
+        assertJson(new Account(2L, name.toString(), 1));
+        assertJson(Money.toDecimal(1));
+        assertJson(Arrays.asList(TransferStatus.SUCCESS.getMessage(), "Sum not specified", null));
+        assertJson(Collections.singletonList(new Account(3L, "account", 1)));
+    }
+
+    private static void assertJson(Object value) throws IOException {
+        ResponseBuffer buffer = ResponseBuffer.get().writeJson(value);
+        assertEquals(JsonUtils.toJson(value), new String(buffer.array(), 0, buffer.size(), StandardCharsets.UTF_8));
+    }
+}
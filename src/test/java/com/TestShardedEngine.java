@@ -0,0 +1,217 @@
+package com;
+
+import com.revolut.task.dao.AccountsDao;
+import com.revolut.task.dao.ShardedEngine;
+import com.revolut.task.data.Account;
+import com.revolut.task.data.AccountTable;
+import com.revolut.task.data.TransferLeg;
+import com.revolut.task.service.AccountService;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test AccountService on single writer shards
+ */
+public class TestShardedEngine extends TestCase {
+
+    private static final int ACCOUNTS = 16;
+
+    public void testTransfers() throws IOException, InterruptedException {
+        try (AccountsDao dao = new AccountsDao(new ShardedEngine(4, 8))) {
+            AccountService service = new AccountService(dao);
+            List<Account> accounts = createAccounts(dao);
+
+            assertEquals("Success", service.transfer("corrId_1", 1L, 2L, BigDecimal.ONE));
+            assertEquals("Success", service.transfer("corrId_2", 1L, 5L, BigDecimal.ONE));
+            assertEquals("Insufficient funds", service.transfer("corrId_3", 1L, 2L, BigDecimal.valueOf(1000)));
+            assertEquals("Success", service.transfer("corrId_1", 1L, 2L, BigDecimal.ONE));
+            assertTrue(BigDecimal.valueOf(98).compareTo(service.getBalance(1L)) == 0);
+            assertTrue(BigDecimal.valueOf(101).compareTo(service.getBalance(5L)) == 0);
+
+            // transfers within and between shards in both directions
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            for (int i = 0; i < 10_000; i++) {
+                final int j = i;
+                executor.execute(() -> service.transfer("corrId_concurrent_" + j,
+                        (long) j % ACCOUNTS + 1, (long) (j * 7 + 3) % ACCOUNTS + 1, BigDecimal.valueOf(j % 13)));
+            }
+            executor.shutdown();
+            List<Long> ids = new ArrayList<>();
+            for (Account account : accounts) {
+                ids.add(account.getId());
+            }
+            while (!executor.isTerminated()) {
+                // balances of all shards at one moment
+                BigDecimal total = BigDecimal.ZERO;
+                for (BigDecimal balance : service.getBalances(ids)) {
+                    total = total.add(balance);
+                }
+                assertEquals(BigDecimal.valueOf(100 * ACCOUNTS), total.stripTrailingZeros().setScale(0));
+            }
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+            assertEquals(BigDecimal.valueOf(100 * ACCOUNTS), total(service, accounts));
+        }
+    }
+
+    /**
+     * Money held for a transfer to another shard is not spent twice and is not taken out of the balance
+     * until the transfer is committed
+     */
+    public void testReservation() {
+        AccountTable table = new AccountTable();
+        Account account = new Account(1, "account", 100);
+        table.put(account);
+        assertTrue(account.reserve(60));
+        assertEquals(100, account.getBalanceUnits());
+        assertFalse(account.reserve(50));
+        // aborted transfer
+        account.release(60);
+        assertTrue(account.reserve(100));
+        assertEquals(100, account.getBalanceUnits());
+        // committed transfer
+        account.settle(100);
+        assertEquals(0, account.getBalanceUnits());
+        assertFalse(account.reserve(1));
+    }
+
+    public void testBatchOfShards() throws IOException {
+        try (AccountsDao dao = new AccountsDao(new ShardedEngine(4, 8))) {
+            AccountService service = new AccountService(dao);
+            createAccounts(dao);
+            // accounts 1 and 5 are in one shard
+            assertEquals(Arrays.asList("Success", "Success"), service.transferBatch("batch_1", Arrays.asList(
+                    new TransferLeg(1L, 5L, BigDecimal.valueOf(50)), new TransferLeg(5L, 1L, BigDecimal.valueOf(150))), true));
+            assertEquals(Arrays.asList("Success", "Insufficient funds"), service.transferBatch("batch_2", Arrays.asList(
+                    new TransferLeg(1L, 2L, BigDecimal.valueOf(150)), new TransferLeg(1L, 3L, BigDecimal.valueOf(100))), false));
+            assertEquals(Arrays.asList("Rejected, another transfer of the batch failed", "Insufficient funds"),
+                    service.transferBatch("batch_3", Arrays.asList(new TransferLeg(2L, 3L, BigDecimal.TEN),
+                            new TransferLeg(4L, 3L, BigDecimal.valueOf(101))), true));
+            assertTrue(BigDecimal.valueOf(50).compareTo(service.getBalance(1L)) == 0);
+            assertTrue(BigDecimal.ZERO.compareTo(service.getBalance(5L)) == 0);
+            assertTrue(BigDecimal.valueOf(250).compareTo(service.getBalance(2L)) == 0);
+            assertTrue(BigDecimal.valueOf(100).compareTo(service.getBalance(3L)) == 0);
+        }
+    }
+
+    /**
+     * Requests in flight when the engine is closed complete or fail, none waits forever and no money is lost
+     */
+    public void testClose() throws IOException, InterruptedException {
+        ShardedEngine engine = new ShardedEngine(4, 8);
+        try (AccountsDao dao = new AccountsDao(engine)) {
+            AccountService service = new AccountService(dao);
+            List<Account> accounts = createAccounts(dao);
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            for (int i = 0; i < 16; i++) {
+                final int j = i;
+                executor.execute(() -> {
+                    try {
+                        for (int k = 0; ; k++) {
+                            service.transfer("corrId_" + j + "_" + k, (long) (j + k) % ACCOUNTS + 1,
+                                    (long) (j * 7 + k + 3) % ACCOUNTS + 1, BigDecimal.ONE);
+                        }
+                    } catch (IllegalStateException e) {
+                        assertEquals("Transfer engine is closed", e.getMessage());
+                    }
+                });
+            }
+            executor.shutdown();
+            Thread.sleep(100);
+            engine.close();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            try {
+                service.transfer("corrId_closed", 1L, 2L, BigDecimal.ONE);
+                fail("Closed engine must reject transfers");
+            } catch (IllegalStateException e) {
+                assertEquals("Transfer engine is closed", e.getMessage());
+            }
+            long total = 0;
+            for (Account account : accounts) {
+                total += dao.getBalanceUnits(account.getId());
+            }
+            assertEquals(100_000_000L * ACCOUNTS, total);
+        }
+    }
+
+    /**
+     * Snapshots cut while transfers between shards are in flight must be consistent with the journal tail
+     */
+    public void testSnapshot() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            List<Account> accounts;
+            List<BigDecimal> balances = new ArrayList<>();
+            try (AccountsDao dao = new AccountsDao(directory, 0, new ShardedEngine(4, 8))) {
+                AccountService service = new AccountService(dao);
+                accounts = createAccounts(dao);
+                ExecutorService executor = Executors.newFixedThreadPool(16);
+                for (int i = 0; i < 5000; i++) {
+                    final int j = i;
+                    executor.execute(() -> service.transfer("corrId_" + j,
+                            (long) j % ACCOUNTS + 1, (long) (j * 3 + 1) % ACCOUNTS + 1, BigDecimal.valueOf(j % 5)));
+                    if (i % 1000 == 0) {
+                        executor.execute(() -> {
+                            try {
+                                dao.snapshot();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    }
+                }
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+                for (Account account : accounts) {
+                    balances.add(service.getBalance(account.getId()));
+                }
+            }
+            try (AccountsDao dao = new AccountsDao(directory, 0)) {
+                AccountService service = new AccountService(dao);
+                for (int i = 0; i < accounts.size(); i++) {
+                    BigDecimal balance = service.getBalance(accounts.get(i).getId());
+                    assertTrue(balance.toString(), balances.get(i).compareTo(balance) == 0);
+                }
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Accounts with ids 1..16 and balance 100, shard of account is its id modulo number of shards
+     */
+    private static List<Account> createAccounts(AccountsDao dao) {
+        List<Account> result = new ArrayList<>();
+        for (long id = 1; id <= ACCOUNTS; id++) {
+            Account account = new Account(id, "account_" + id, 100_000_000);
+            dao.addAccount(account);
+            result.add(account);
+        }
+        return result;
+    }
+
+    private static BigDecimal total(AccountService service, List<Account> accounts) {
+        BigDecimal result = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            result = result.add(service.getBalance(account.getId()));
+        }
+        return result.stripTrailingZeros().setScale(0);
+    }
+}